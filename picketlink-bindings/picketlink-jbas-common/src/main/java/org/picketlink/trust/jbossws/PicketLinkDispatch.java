@@ -21,6 +21,7 @@
  */
 package org.picketlink.trust.jbossws;
 
+import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Collection;
 import java.util.HashMap;
@@ -28,17 +29,22 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
-import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLSocketFactory;
 import javax.security.jacc.PolicyContext;
 import javax.security.jacc.PolicyContextException;
 import javax.servlet.http.HttpServletRequest;
 import javax.xml.bind.JAXBContext;
 import javax.xml.namespace.QName;
-import javax.xml.soap.SOAPConnection;
-import javax.xml.soap.SOAPConnectionFactory;
 import javax.xml.soap.SOAPElement;
 import javax.xml.soap.SOAPException;
 import javax.xml.soap.SOAPFactory;
@@ -61,6 +67,7 @@ import org.picketlink.identity.federation.core.saml.v2.common.IDGenerator;
 import org.picketlink.identity.federation.core.util.Base64;
 import org.picketlink.identity.federation.core.util.SOAPUtil;
 import org.picketlink.identity.federation.core.util.StringUtil;
+import org.picketlink.identity.federation.core.util.SystemPropertiesUtil;
 
 /**
  * <p>
@@ -80,6 +87,21 @@ public class PicketLinkDispatch implements Dispatch<Source> {
 
     private boolean useWSSE = false;
     private SSLSocketFactory sslSocketFactory;
+    private volatile SOAPHttpTransport transport;
+
+    /**
+     * System property holding the number of threads serving asynchronous invocations, defaults to twice the number of
+     * processors
+     */
+    public static final String ASYNC_THREADS = "picketlink.dispatch.async.threads";
+
+    /**
+     * System property holding the number of asynchronous invocations that may wait for a thread, defaults to 1024. Once
+     * it is reached, further invocations run on the calling thread.
+     */
+    public static final String ASYNC_QUEUE_SIZE = "picketlink.dispatch.async.queue";
+
+    private static volatile ThreadPoolExecutor asyncExecutor;
 
     @SuppressWarnings("rawtypes")
     public PicketLinkDispatch(Dispatch parent, String endpoint) {
@@ -93,6 +115,7 @@ public class PicketLinkDispatch implements Dispatch<Source> {
 
     public void setSSLSocketFactory(SSLSocketFactory ssl) {
         this.sslSocketFactory = ssl;
+        this.transport = null;
     }
 
     public Map<String, Object> getRequestContext() {
@@ -115,8 +138,32 @@ public class PicketLinkDispatch implements Dispatch<Source> {
         return parent.getEndpointReference(clazz);
     }
 
-    @SuppressWarnings({ "unchecked", "rawtypes" })
     public Source invoke(Source requestMessage) {
+        return send(createMessage(requestMessage));
+    }
+
+    /**
+     * <p>
+     * Sends the message on a separate thread. The SOAP message, its WSSE header included, is built and run through the
+     * handler chain on the calling thread, where the JACC context of the current request is available.
+     * </p>
+     *
+     * @see javax.xml.ws.Dispatch#invokeAsync(java.lang.Object)
+     */
+    public Response<Source> invokeAsync(Source msg) {
+        return submit(createMessage(msg), null);
+    }
+
+    /**
+     * @see #invokeAsync(Source)
+     * @see javax.xml.ws.Dispatch#invokeAsync(java.lang.Object, javax.xml.ws.AsyncHandler)
+     */
+    public Future<?> invokeAsync(Source msg, AsyncHandler<Source> handler) {
+        return submit(createMessage(msg), handler);
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private SOAPMessage createMessage(Source requestMessage) {
         PLMessageContext msgContext = new PLMessageContext();
         msgContext.put(MessageContext.MESSAGE_OUTBOUND_PROPERTY, Boolean.TRUE);
 
@@ -168,18 +215,14 @@ public class PicketLinkDispatch implements Dispatch<Source> {
                         + " returned false");
         }
 
-        if (sslSocketFactory != null) {
-            HttpsURLConnection.setDefaultSSLSocketFactory(sslSocketFactory);
-        }
+        return soapMessage;
+    }
 
+    private Source send(SOAPMessage soapMessage) {
         SOAPMessage response = null;
         try {
-            SOAPConnectionFactory connectFactory = SOAPConnectionFactory.newInstance();
-            SOAPConnection connection = connectFactory.createConnection();
             // Send it across the wire
-            URL url = new URL(endpoint);
-
-            response = connection.call(soapMessage, url);
+            response = getTransport().call(soapMessage);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
@@ -191,14 +234,104 @@ public class PicketLinkDispatch implements Dispatch<Source> {
         }
     }
 
-    @SuppressWarnings("unchecked")
-    public Response<Source> invokeAsync(Source msg) {
-        return parent.invokeAsync(msg);
+    private SOAPHttpTransport getTransport() throws MalformedURLException {
+        SOAPHttpTransport current = this.transport;
+
+        if (current == null) {
+            // racing threads may both create a transport, they share the JDK connection cache anyway
+            current = new SOAPHttpTransport(new URL(endpoint), sslSocketFactory);
+            this.transport = current;
+        }
+
+        return current;
     }
 
-    @SuppressWarnings("unchecked")
-    public Future<?> invokeAsync(Source msg, AsyncHandler<Source> handler) {
-        return parent.invokeAsync(msg, handler);
+    private AsyncResponse submit(SOAPMessage soapMessage, AsyncHandler<Source> handler) {
+        AsyncResponse response = new AsyncResponse(soapMessage, handler);
+        getAsyncExecutor().execute(response);
+        return response;
+    }
+
+    private static ExecutorService getAsyncExecutor() {
+        if (asyncExecutor == null) {
+            synchronized (PicketLinkDispatch.class) {
+                if (asyncExecutor == null) {
+                    int threads = Math.max(1, Integer.parseInt(SystemPropertiesUtil.getSystemProperty(ASYNC_THREADS,
+                            String.valueOf(Runtime.getRuntime().availableProcessors() * 2))));
+                    int queueSize = Math.max(1, Integer.parseInt(SystemPropertiesUtil.getSystemProperty(ASYNC_QUEUE_SIZE,
+                            "1024")));
+                    ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                            new LinkedBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+                                public Thread newThread(Runnable runnable) {
+                                    Thread thread = new Thread(runnable, "PicketLink dispatch");
+                                    thread.setDaemon(true);
+                                    return thread;
+                                }
+                            }, new RejectedExecutionHandler() {
+                                public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+                                    // a full queue slows the callers down, a shut down executor still answers them
+                                    task.run();
+                                }
+                            });
+                    executor.allowCoreThreadTimeOut(true);
+                    asyncExecutor = executor;
+                }
+            }
+        }
+        return asyncExecutor;
+    }
+
+    /**
+     * <p>
+     * Stop the threads serving asynchronous invocations once the pending ones are done. Call it when the application
+     * that uses the dispatch is undeployed, {@link PicketLinkDispatchContextListener} does so for web applications.
+     * </p>
+     * <p>
+     * Invocations made afterwards start a new set of threads.
+     * </p>
+     *
+     * @param timeout how long to wait for the pending invocations, in milliseconds
+     * @return false if some invocations were still running when the timeout expired
+     */
+    public static boolean shutdownAsyncExecutor(long timeout) throws InterruptedException {
+        ThreadPoolExecutor executor;
+
+        synchronized (PicketLinkDispatch.class) {
+            executor = asyncExecutor;
+            asyncExecutor = null;
+        }
+
+        if (executor == null)
+            return true;
+
+        executor.shutdown();
+        return executor.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * The {@code Response} of an asynchronous invocation, which notifies the {@code AsyncHandler}, if any, once done
+     */
+    private class AsyncResponse extends FutureTask<Source> implements Response<Source> {
+        private final AsyncHandler<Source> handler;
+
+        AsyncResponse(final SOAPMessage soapMessage, AsyncHandler<Source> handler) {
+            super(new Callable<Source>() {
+                public Source call() throws Exception {
+                    return send(soapMessage);
+                }
+            });
+            this.handler = handler;
+        }
+
+        public Map<String, Object> getContext() {
+            return getResponseContext();
+        }
+
+        @Override
+        protected void done() {
+            if (this.handler != null && !isCancelled())
+                this.handler.handleResponse(this);
+        }
     }
 
     @SuppressWarnings("unchecked")
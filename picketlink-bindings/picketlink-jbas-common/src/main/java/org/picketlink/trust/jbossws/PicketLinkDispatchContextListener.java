@@ -0,0 +1,55 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.trust.jbossws;
+
+import javax.servlet.ServletContextEvent;
+
+import org.picketlink.identity.federation.web.listeners.PicketLinkContextListener;
+
+/**
+ * <p>
+ * A {@link PicketLinkContextListener} that also stops the threads serving the asynchronous invocations of
+ * {@link PicketLinkDispatch} when the web application is undeployed.
+ * </p>
+ * <p>
+ * Register it in the web.xml instead of {@link PicketLinkContextListener} in applications that call the STS through
+ * {@link PicketLinkDispatch}.
+ * </p>
+ */
+public class PicketLinkDispatchContextListener extends PicketLinkContextListener {
+
+    /**
+     * How long the pending asynchronous invocations are given to complete, in milliseconds
+     */
+    private static final long SHUTDOWN_TIMEOUT = 10000;
+
+    @Override
+    public void contextDestroyed(ServletContextEvent sce) {
+        try {
+            PicketLinkDispatch.shutdownAsyncExecutor(SHUTDOWN_TIMEOUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            super.contextDestroyed(sce);
+        }
+    }
+}
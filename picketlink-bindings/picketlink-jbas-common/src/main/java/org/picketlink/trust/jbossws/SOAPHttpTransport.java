@@ -0,0 +1,175 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.trust.jbossws;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+import javax.xml.soap.MessageFactory;
+import javax.xml.soap.MimeHeader;
+import javax.xml.soap.MimeHeaders;
+import javax.xml.soap.SOAPException;
+import javax.xml.soap.SOAPMessage;
+
+import org.picketlink.identity.federation.core.ErrorCodes;
+
+/**
+ * <p>
+ * Sends SOAP messages over HTTP(S) to a single endpoint, as an alternative to a {@code SOAPConnection} per call.
+ * </p>
+ * <p>
+ * Responses are read to the end and their streams closed, which hands the connection back to the JDK keep-alive cache.
+ * Later calls to the same endpoint reuse it instead of paying for a new TCP and TLS handshake. The
+ * {@code SSLSocketFactory}, when set, is applied to each connection rather than installed as the JVM-wide default. The
+ * keep-alive cache only reuses connections opened with the same factory, and TLS sessions are resumed through that
+ * factory's session cache.
+ * </p>
+ */
+public class SOAPHttpTransport {
+
+    /**
+     * Shared by all the transports, creating a factory looks the SAAJ implementation up each time
+     */
+    private static volatile MessageFactory messageFactory;
+
+    private final URL endpoint;
+
+    private final SSLSocketFactory sslSocketFactory;
+
+    /**
+     * @param endpoint the endpoint messages are sent to
+     * @param sslSocketFactory the factory of the TLS connections, null to use the default one
+     */
+    public SOAPHttpTransport(URL endpoint, SSLSocketFactory sslSocketFactory) {
+        this.endpoint = endpoint;
+        this.sslSocketFactory = sslSocketFactory;
+    }
+
+    public URL getEndpoint() {
+        return this.endpoint;
+    }
+
+    /**
+     * Send a SOAP message and wait for the response
+     *
+     * @param request
+     * @return the response, which may be a SOAP fault
+     * @throws IOException when the endpoint cannot be reached or does not answer with a SOAP message
+     * @throws SOAPException
+     */
+    public SOAPMessage call(SOAPMessage request) throws IOException, SOAPException {
+        if (request.saveRequired())
+            request.saveChanges();
+
+        HttpURLConnection connection = (HttpURLConnection) this.endpoint.openConnection();
+
+        if (this.sslSocketFactory != null && connection instanceof HttpsURLConnection)
+            ((HttpsURLConnection) connection).setSSLSocketFactory(this.sslSocketFactory);
+
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setUseCaches(false);
+
+        for (Iterator<?> iterator = request.getMimeHeaders().getAllHeaders(); iterator.hasNext();) {
+            MimeHeader header = (MimeHeader) iterator.next();
+
+            // the length is computed by the connection
+            if (!"Content-Length".equalsIgnoreCase(header.getName()))
+                connection.addRequestProperty(header.getName(), header.getValue());
+        }
+
+        OutputStream out = connection.getOutputStream();
+        try {
+            request.writeTo(out);
+        } finally {
+            out.close();
+        }
+
+        int status = connection.getResponseCode();
+        String contentType = connection.getContentType();
+
+        // SOAP faults come back with an error status, anything else that does not carry XML is a transport failure
+        InputStream in = status < HttpURLConnection.HTTP_BAD_REQUEST ? connection.getInputStream() : connection
+                .getErrorStream();
+        byte[] body = in != null ? readFully(in) : new byte[0];
+
+        if (status >= HttpURLConnection.HTTP_BAD_REQUEST
+                && (body.length == 0 || contentType == null || contentType.toLowerCase().indexOf("xml") < 0))
+            throw new IOException(ErrorCodes.PROCESSING_EXCEPTION + "HTTP " + status + " "
+                    + connection.getResponseMessage() + " from " + this.endpoint);
+
+        MimeHeaders headers = new MimeHeaders();
+
+        for (Map.Entry<String, List<String>> field : connection.getHeaderFields().entrySet()) {
+            // the status line has no name
+            if (field.getKey() == null)
+                continue;
+
+            for (String value : field.getValue()) {
+                headers.addHeader(field.getKey(), value);
+            }
+        }
+
+        return getMessageFactory().createMessage(headers, new ByteArrayInputStream(body));
+    }
+
+    private static MessageFactory getMessageFactory() throws SOAPException {
+        MessageFactory current = messageFactory;
+
+        if (current == null) {
+            // racing threads may both look the factory up, either one can be kept
+            current = MessageFactory.newInstance();
+            messageFactory = current;
+        }
+
+        return current;
+    }
+
+    /**
+     * Read the stream to the end and close it, so the connection can be reused
+     */
+    private byte[] readFully(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -51,8 +51,6 @@ import org.picketlink.identity.federation.core.util.StringUtil;
 import org.picketlink.identity.federation.core.wstrust.STSClient;
 import org.picketlink.identity.federation.core.wstrust.STSClientConfig;
 import org.picketlink.identity.federation.core.wstrust.STSClientConfig.Builder;
-import org.picketlink.identity.federation.core.wstrust.STSClientCreationCallBack;
-import org.picketlink.identity.federation.core.wstrust.STSClientFactory;
 import org.picketlink.identity.federation.core.wstrust.SamlCredential;
 import org.picketlink.identity.federation.core.wstrust.WSTrustConstants;
 import org.picketlink.identity.federation.core.wstrust.WSTrustException;
@@ -94,33 +92,24 @@ public class JBWSTokenIssuingLoginModule extends STSIssuingLoginModule {
         return builder;
     }
 
+    /**
+     * The client carries the binary token and the credentials of the current login, so it is never pooled.
+     */
     @Override
     protected STSClient createWSTrustClient(final STSClientConfig config) {
-        
-        return STSClientFactory.getInstance(maxClientsInPool).create(initialNumberOfClients, new STSClientCreationCallBack() {
-    		@Override
-    		public STSClient createClient() {
-    			
-    	        String binaryTokenKey = (String) options.get(MapBasedTokenHandler.SYS_PROP_TOKEN_KEY);
-    	        if (binaryTokenKey == null) {
-    	            binaryTokenKey = SecurityActions.getSystemProperty(MapBasedTokenHandler.SYS_PROP_TOKEN_KEY, 
-    	                    MapBasedTokenHandler.DEFAULT_TOKEN_KEY);
-    	        }
-    	        Object binaryToken = sharedState.get(binaryTokenKey);
-
-    	        Map<String, ? super Object> STSClientOptions = new HashMap<String, Object> (options);
-    	        if (binaryToken != null) {
-    	            STSClientOptions.put(binaryTokenKey, binaryToken);
-    	        }
-    			
-    			return new JBWSTokenClient(config, STSClientOptions);
-    		}
-
-    		@Override
-    		public String getKey() {
-    			return config.getServiceName() + "|" + config.getPortName() + "|" + config.getEndPointAddress();
-    		}
-        });
+        String binaryTokenKey = (String) options.get(MapBasedTokenHandler.SYS_PROP_TOKEN_KEY);
+        if (binaryTokenKey == null) {
+            binaryTokenKey = SecurityActions.getSystemProperty(MapBasedTokenHandler.SYS_PROP_TOKEN_KEY,
+                    MapBasedTokenHandler.DEFAULT_TOKEN_KEY);
+        }
+        Object binaryToken = sharedState.get(binaryTokenKey);
+
+        Map<String, ? super Object> STSClientOptions = new HashMap<String, Object>(options);
+        if (binaryToken != null) {
+            STSClientOptions.put(binaryTokenKey, binaryToken);
+        }
+
+        return new JBWSTokenClient(config, STSClientOptions);
     }
 
     @SuppressWarnings("unchecked")
@@ -0,0 +1,245 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.test.trust.jbossws;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.security.jacc.PolicyContext;
+import javax.security.jacc.PolicyContextException;
+import javax.security.jacc.PolicyContextHandler;
+import javax.xml.transform.Source;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.ws.AsyncHandler;
+import javax.xml.ws.Binding;
+import javax.xml.ws.Dispatch;
+import javax.xml.ws.Response;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.picketlink.identity.federation.core.saml.v2.util.DocumentUtil;
+import org.picketlink.trust.jbossws.PicketLinkDispatch;
+import org.w3c.dom.Node;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Unit test the asynchronous invocations of {@link PicketLinkDispatch}
+ */
+public class PicketLinkDispatchUnitTestCase {
+
+    private HttpServer server;
+
+    private ExecutorService serverThreads;
+
+    private String endpoint;
+
+    private final BlockingReply reply = new BlockingReply();
+
+    @BeforeClass
+    public static void registerRequestHandler() throws Exception {
+        // outside of a web request the container answers null
+        PolicyContext.registerHandler("javax.servlet.http.HttpServletRequest", new PolicyContextHandler() {
+            public boolean supports(String key) throws PolicyContextException {
+                return true;
+            }
+
+            public String[] getKeys() throws PolicyContextException {
+                return new String[] { "javax.servlet.http.HttpServletRequest" };
+            }
+
+            public Object getContext(String key, Object data) throws PolicyContextException {
+                return null;
+            }
+        }, true);
+    }
+
+    @Before
+    public void startServer() throws Exception {
+        PicketLinkDispatch.shutdownAsyncExecutor(5000);
+
+        serverThreads = Executors.newCachedThreadPool();
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(serverThreads);
+        server.createContext("/sts", reply);
+        server.start();
+        endpoint = "http://localhost:" + server.getAddress().getPort() + "/sts";
+    }
+
+    @After
+    public void stopServer() throws Exception {
+        reply.release.countDown();
+        PicketLinkDispatch.shutdownAsyncExecutor(5000);
+        System.clearProperty(PicketLinkDispatch.ASYNC_THREADS);
+        System.clearProperty(PicketLinkDispatch.ASYNC_QUEUE_SIZE);
+        server.stop(0);
+        serverThreads.shutdownNow();
+    }
+
+    @Test
+    public void testInvokeAsyncNotifiesHandler() throws Exception {
+        reply.release.countDown();
+        RecordingHandler handler = new RecordingHandler();
+
+        dispatch().invokeAsync(question(), handler).get(5, TimeUnit.SECONDS);
+
+        assertTrue(handler.done.await(5, TimeUnit.SECONDS));
+        assertEquals("Answer", answer(handler.response.get()));
+        assertEquals("PicketLink dispatch", handler.thread.get().getName());
+    }
+
+    @Test
+    public void testInvokeAsyncAfterShutdown() throws Exception {
+        reply.release.countDown();
+        PicketLinkDispatch dispatch = dispatch();
+
+        assertEquals("Answer", answer(dispatch.invokeAsync(question()).get(5, TimeUnit.SECONDS)));
+        assertTrue(PicketLinkDispatch.shutdownAsyncExecutor(5000));
+        assertEquals("Answer", answer(dispatch.invokeAsync(question()).get(5, TimeUnit.SECONDS)));
+    }
+
+    @Test
+    public void testFullQueueRunsOnCallingThread() throws Exception {
+        System.setProperty(PicketLinkDispatch.ASYNC_THREADS, "1");
+        System.setProperty(PicketLinkDispatch.ASYNC_QUEUE_SIZE, "1");
+
+        final PicketLinkDispatch dispatch = dispatch();
+        final RecordingHandler handler = new RecordingHandler();
+        final AtomicReference<Response<Source>> queued = new AtomicReference<Response<Source>>();
+
+        Thread caller = new Thread() {
+            public void run() {
+                try {
+                    // the first one holds the only thread and the second one fills the queue
+                    dispatch.invokeAsync(question());
+                    queued.set(dispatch.invokeAsync(question()));
+                    dispatch.invokeAsync(question(), handler);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        caller.start();
+
+        // the first and the third invocations reach the endpoint while the second one waits
+        assertTrue(reply.arrived.await(5, TimeUnit.SECONDS));
+        caller.join(200);
+        assertTrue("The caller runs the invocation the queue has no room for", caller.isAlive());
+        assertEquals(1, handler.done.getCount());
+
+        reply.release.countDown();
+        caller.join(5000);
+
+        assertSame(caller, handler.thread.get());
+        assertEquals("Answer", answer(handler.response.get()));
+        assertEquals("Answer", answer(queued.get().get(5, TimeUnit.SECONDS)));
+    }
+
+    @SuppressWarnings("rawtypes")
+    private PicketLinkDispatch dispatch() {
+        final Map<String, Object> requestContext = new HashMap<String, Object>();
+        final Binding binding = (Binding) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class[] { Binding.class }, new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if (method.getName().equals("getHandlerChain"))
+                            return new ArrayList();
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+        Dispatch parent = (Dispatch) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] { Dispatch.class },
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if (method.getName().equals("getBinding"))
+                            return binding;
+                        if (method.getName().endsWith("Context"))
+                            return requestContext;
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+        return new PicketLinkDispatch(parent, endpoint);
+    }
+
+    private Source question() throws Exception {
+        return new DOMSource(DocumentUtil.getDocument("<ns:Question xmlns:ns=\"urn:test\"/>"));
+    }
+
+    private String answer(Source source) {
+        Node node = ((DOMSource) source).getNode();
+        return node.getFirstChild().getLocalName();
+    }
+
+    /**
+     * Answers once released, counting the requests that arrive in the meantime
+     */
+    static class BlockingReply extends SOAPHttpTransportUnitTestCase.Reply {
+        final CountDownLatch release = new CountDownLatch(1);
+
+        final CountDownLatch arrived = new CountDownLatch(2);
+
+        public void handle(HttpExchange exchange) throws IOException {
+            arrived.countDown();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            super.handle(exchange);
+        }
+    }
+
+    static class RecordingHandler implements AsyncHandler<Source> {
+        final CountDownLatch done = new CountDownLatch(1);
+
+        final AtomicReference<Source> response = new AtomicReference<Source>();
+
+        final AtomicReference<Thread> thread = new AtomicReference<Thread>();
+
+        public void handleResponse(Response<Source> res) {
+            try {
+                thread.set(Thread.currentThread());
+                response.set(res.get());
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            } finally {
+                done.countDown();
+            }
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.test.trust.jbossws;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.soap.SOAPMessage;
+import javax.xml.transform.dom.DOMSource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.picketlink.identity.federation.core.saml.v2.util.DocumentUtil;
+import org.picketlink.identity.federation.core.util.SOAPUtil;
+import org.picketlink.trust.jbossws.SOAPHttpTransport;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Unit test the {@link SOAPHttpTransport} against a local HTTP server
+ */
+public class SOAPHttpTransportUnitTestCase {
+
+    static final String ANSWER = "<soap:Envelope xmlns:soap=\"http://schemas.xmlsoap.org/soap/envelope/\"><soap:Body>"
+            + "<ns:Answer xmlns:ns=\"urn:test\">42</ns:Answer></soap:Body></soap:Envelope>";
+
+    static final String FAULT = "<soap:Envelope xmlns:soap=\"http://schemas.xmlsoap.org/soap/envelope/\"><soap:Body>"
+            + "<soap:Fault><faultcode>soap:Server</faultcode><faultstring>Refused</faultstring></soap:Fault>"
+            + "</soap:Body></soap:Envelope>";
+
+    private HttpServer server;
+
+    private URL endpoint;
+
+    private final Reply reply = new Reply();
+
+    @Before
+    public void startServer() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/sts", reply);
+        server.start();
+        endpoint = new URL("http://localhost:" + server.getAddress().getPort() + "/sts");
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testCall() throws Exception {
+        SOAPMessage response = new SOAPHttpTransport(endpoint, null).call(request());
+
+        assertEquals("Answer", SOAPUtil.getSOAPData(response).getDocumentElement().getLocalName());
+        assertEquals("POST", reply.methods.get(0));
+        assertTrue(reply.bodies.get(0).indexOf("Question") > 0);
+    }
+
+    @Test
+    public void testFaultIsReturned() throws Exception {
+        reply.status = 500;
+        reply.body = FAULT;
+
+        SOAPMessage response = new SOAPHttpTransport(endpoint, null).call(request());
+
+        assertTrue(response.getSOAPBody().hasFault());
+        assertEquals("Refused", response.getSOAPBody().getFault().getFaultString());
+    }
+
+    @Test
+    public void testErrorWithoutSOAPMessageIsRejected() throws Exception {
+        reply.status = 503;
+        reply.contentType = "text/plain";
+        reply.body = "Unavailable";
+
+        try {
+            new SOAPHttpTransport(endpoint, null).call(request());
+            fail("A response without a SOAP message is a transport failure");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().indexOf("503") > 0);
+        }
+    }
+
+    @Test
+    public void testConnectionIsReused() throws Exception {
+        SOAPHttpTransport transport = new SOAPHttpTransport(endpoint, null);
+
+        transport.call(request());
+        transport.call(request());
+
+        assertEquals(2, reply.clients.size());
+        assertEquals(reply.clients.get(0), reply.clients.get(1));
+    }
+
+    static SOAPMessage request() throws Exception {
+        SOAPMessage message = SOAPUtil.create();
+        SOAPUtil.addData(new DOMSource(DocumentUtil.getDocument("<ns:Question xmlns:ns=\"urn:test\"/>")), message);
+        return message;
+    }
+
+    static byte[] read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+
+        return out.toByteArray();
+    }
+
+    /**
+     * Records the requests and answers them with a configurable response
+     */
+    static class Reply implements HttpHandler {
+        volatile int status = 200;
+
+        volatile String contentType = "text/xml; charset=utf-8";
+
+        volatile String body = ANSWER;
+
+        final List<String> methods = Collections.synchronizedList(new ArrayList<String>());
+
+        final List<String> bodies = Collections.synchronizedList(new ArrayList<String>());
+
+        final List<InetSocketAddress> clients = Collections.synchronizedList(new ArrayList<InetSocketAddress>());
+
+        public void handle(HttpExchange exchange) throws IOException {
+            methods.add(exchange.getRequestMethod());
+            bodies.add(new String(read(exchange.getRequestBody()), "UTF-8"));
+            clients.add(exchange.getRemoteAddress());
+
+            byte[] content = body.getBytes("UTF-8");
+            exchange.getResponseHeaders().add("Content-Type", contentType);
+            exchange.sendResponseHeaders(status, content.length);
+
+            OutputStream out = exchange.getResponseBody();
+            out.write(content);
+            out.close();
+        }
+    }
+}
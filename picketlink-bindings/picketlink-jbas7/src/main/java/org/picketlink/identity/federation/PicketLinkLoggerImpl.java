@@ -43,8 +43,11 @@ import org.picketlink.identity.federation.core.saml.v2.exceptions.AssertionExpir
 import org.picketlink.identity.federation.core.saml.v2.exceptions.IssueInstantMissingException;
 import org.picketlink.identity.federation.core.saml.v2.exceptions.IssuerNotTrustedException;
 import org.picketlink.identity.federation.core.saml.v2.exceptions.SignatureValidationException;
+import org.picketlink.identity.federation.core.saml.v2.util.DocumentUtil;
+import org.picketlink.identity.federation.core.util.MessageDumpSampler;
 import org.picketlink.identity.federation.core.wstrust.WSTrustException;
 import org.w3c.dom.Element;
+import org.w3c.dom.Node;
 
 /**
  * @author <a href="mailto:psilva@redhat.com">Pedro Silva</a>
@@ -1354,6 +1357,26 @@ public final class PicketLinkLoggerImpl implements PicketLinkLogger {
         PicketLinkLoggerMessages.ROOT_LOGGER.trace(message, t);
     }
 
+    /* (non-Javadoc)
+     * @see org.picketlink.identity.federation.PicketLinkLogger#trace(java.lang.String, org.w3c.dom.Node)
+     */
+    public void trace(String message, Node node) {
+        if (isTraceEnabled()) {
+            PicketLinkLoggerMessages.ROOT_LOGGER.trace(message + DocumentUtil.asString(node));
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.picketlink.identity.federation.PicketLinkLogger#samlMessageDump(java.lang.String, org.w3c.dom.Node)
+     */
+    public void samlMessageDump(String message, Node samlMessage) {
+        if (isTraceEnabled()) {
+            PicketLinkLoggerMessages.ROOT_LOGGER.trace(message + DocumentUtil.asString(samlMessage));
+        } else if (isInfoEnabled() && MessageDumpSampler.getSharedSampler().sample()) {
+            PicketLinkLoggerMessages.ROOT_LOGGER.info(message + DocumentUtil.asString(samlMessage));
+        }
+    }
+
     /* (non-Javadoc)
      * @see org.picketlink.identity.federation.PicketLinkLogger#samlIDPHandlingSAML11Error(java.lang.Throwable)
      */
@@ -2,8 +2,7 @@ package org.picketlink.identity.federation.bindings.jboss.auth;
 
 import java.security.Principal;
 import java.util.Date;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.List;
 
 import javax.naming.InitialContext;
 
@@ -12,6 +11,7 @@ import org.jboss.security.SecurityConstants;
 import org.picketlink.identity.federation.PicketLinkLogger;
 import org.picketlink.identity.federation.PicketLinkLoggerFactory;
 import org.picketlink.identity.federation.core.factories.JBossAuthCacheInvalidationFactory.TimeCacheExpiry;
+import org.picketlink.identity.federation.core.factories.PrincipalExpiryScheduler;
 
 public class AS7AuthCacheInvalidationFactory {
 
@@ -23,14 +23,18 @@ public class AS7AuthCacheInvalidationFactory {
 
         private static final PicketLinkLogger logger = PicketLinkLoggerFactory.getLogger();
 
-        protected static Timer timer = new Timer();
-
         protected static AS7ExpiringPrincipalCacheInvalidation _instance = null;
 
+        protected final PrincipalExpiryScheduler scheduler = new PrincipalExpiryScheduler(new PrincipalExpiryScheduler.Flusher() {
+            public void flush(String securityDomain, List<Principal> principals) throws Exception {
+                flushCache(securityDomain, principals);
+            }
+        });
+
         protected AS7ExpiringPrincipalCacheInvalidation() {
         }
 
-        protected static AS7ExpiringPrincipalCacheInvalidation get() {
+        protected static synchronized AS7ExpiringPrincipalCacheInvalidation get() {
             if (_instance == null)
                 _instance = new AS7ExpiringPrincipalCacheInvalidation();
             return _instance;
@@ -38,32 +42,35 @@ public class AS7AuthCacheInvalidationFactory {
 
         public void register(final String securityDomain, final Date expiry, final Principal principal) {
             try {
-                timer.purge();
+                scheduler.register(securityDomain, expiry, principal);
             } catch (Exception e) {
-                logger.trace("Exception in purging timer tasks:", e);
+                logger.trace("Exception in scheduling timer:", e);
             }
-            try {
-                timer.schedule(new TimerTask() {
-                    @Override
-                    public void run() {
-                        try {
-                            String lookupDomain = securityDomain;
-                            if (lookupDomain.startsWith(SecurityConstants.JAAS_CONTEXT_ROOT) == false)
-                                lookupDomain = SecurityConstants.JAAS_CONTEXT_ROOT + "/" + lookupDomain;
+        }
 
-                            // lookup the JBossCachedAuthManager.
-                            InitialContext context = new InitialContext();
-                            CacheableManager manager = (CacheableManager) context.lookup(lookupDomain);
+        /**
+         * Flush the principals, whose expiry fell in the same tick, from the cache of the security domain
+         *
+         * @param securityDomain
+         * @param principals
+         * @throws Exception
+         */
+        protected void flushCache(String securityDomain, List<Principal> principals) throws Exception {
+            String lookupDomain = securityDomain;
+            if (lookupDomain.startsWith(SecurityConstants.JAAS_CONTEXT_ROOT) == false)
+                lookupDomain = SecurityConstants.JAAS_CONTEXT_ROOT + "/" + lookupDomain;
 
-                            // Flush the Authentication Cache
-                            manager.flushCache(principal);
-                        } catch (Exception e) {
-                            logger.trace("Exception in scheduling timer:", e);
-                        }
-                    }
-                }, expiry);
-            } catch (Exception e) {
-                logger.trace("Exception in scheduling timer:", e);
+            // lookup the JBossCachedAuthManager.
+            InitialContext context = new InitialContext();
+            CacheableManager manager = (CacheableManager) context.lookup(lookupDomain);
+
+            for (Principal principal : principals) {
+                try {
+                    // Flush the Authentication Cache
+                    manager.flushCache(principal);
+                } catch (Exception e) {
+                    logger.trace("Exception in flushing the authentication cache:", e);
+                }
             }
         }
     }
@@ -105,6 +105,8 @@ import java.security.Principal;
 import java.security.PublicKey;
 import java.security.cert.X509Certificate;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -139,14 +141,14 @@ public abstract class AbstractIDPValve extends ValveBase {
     private transient SAML2HandlerChain chain = null;
 
     /**
-     * The user can inject a fully qualified name of a {@link SAMLConfigurationProvider}
+     * Serialize the invocations of each handler that is not thread-safe, see {@link HandlerUtil#isThreadSafe(SAML2Handler)}
      */
-    protected SAMLConfigurationProvider configProvider = null;
+    private transient ConcurrentMap<SAML2Handler, Lock> handlerLocks = new ConcurrentHashMap<SAML2Handler, Lock>();
 
     /**
-     * A Lock for Handler operations in the chain
+     * The user can inject a fully qualified name of a {@link SAMLConfigurationProvider}
      */
-    private final Lock chainLock = new ReentrantLock();
+    protected SAMLConfigurationProvider configProvider = null;
 
     private Map<String, SPSSODescriptorType> spSSOMetadataMap = new HashMap<String, SPSSODescriptorType>();
     private SSLAuthenticator sslAuthenticator;
@@ -756,14 +758,21 @@ public abstract class AbstractIDPValve extends ValveBase {
             // webRequestUtil.isTrusted(issuer);
 
             if (handlers != null) {
-                try {
-                    chainLock.lock();
-                    for (SAML2Handler handler : handlers) {
+                for (SAML2Handler handler : handlers) {
+                    Lock handlerLock = getHandlerLock(handler);
+
+                    if (handlerLock != null) {
+                        handlerLock.lock();
+                    }
+
+                    try {
                         handler.handleRequestType(saml2HandlerRequest, saml2HandlerResponse);
                         willSendRequest = saml2HandlerResponse.getSendRequest();
+                    } finally {
+                        if (handlerLock != null) {
+                            handlerLock.unlock();
+                        }
                     }
-                } finally {
-                    chainLock.unlock();
                 }
             }
 
@@ -951,15 +960,22 @@ public abstract class AbstractIDPValve extends ValveBase {
             // webRequestUtil.isTrusted(issuer);
 
             if (handlers != null) {
-                try {
-                    chainLock.lock();
-                    for (SAML2Handler handler : handlers) {
+                for (SAML2Handler handler : handlers) {
+                    Lock handlerLock = getHandlerLock(handler);
+
+                    if (handlerLock != null) {
+                        handlerLock.lock();
+                    }
+
+                    try {
                         handler.reset();
                         handler.handleStatusResponseType(saml2HandlerRequest, saml2HandlerResponse);
                         willSendRequest = saml2HandlerResponse.getSendRequest();
+                    } finally {
+                        if (handlerLock != null) {
+                            handlerLock.unlock();
+                        }
                     }
-                } finally {
-                    chainLock.unlock();
                 }
             }
 
@@ -1136,6 +1152,9 @@ public abstract class AbstractIDPValve extends ValveBase {
     protected void initHandlersChain() throws LifecycleException {
         Handlers handlers = null;
 
+        // the locks belong to the handlers of the previous chain
+        handlerLocks.clear();
+
         try {
             if (picketLinkConfiguration != null) {
                 handlers = picketLinkConfiguration.getHandlers();
@@ -1184,6 +1203,29 @@ public abstract class AbstractIDPValve extends ValveBase {
         }
     }
 
+    /**
+     * Get the lock serializing the invocations of a handler
+     *
+     * @param handler
+     * @return the lock, or null if the handler can be invoked concurrently
+     */
+    private Lock getHandlerLock(SAML2Handler handler) {
+        if (HandlerUtil.isThreadSafe(handler))
+            return null;
+
+        Lock lock = handlerLocks.get(handler);
+
+        if (lock == null) {
+            Lock created = new ReentrantLock();
+            lock = handlerLocks.putIfAbsent(handler, created);
+
+            if (lock == null)
+                lock = created;
+        }
+
+        return lock;
+    }
+
     protected void initKeyManager() throws LifecycleException {
         if (this.idpConfiguration.isSupportsSignature() || this.idpConfiguration.isEncrypt()) {
             KeyProviderType keyProvider = this.idpConfiguration.getKeyProvider();
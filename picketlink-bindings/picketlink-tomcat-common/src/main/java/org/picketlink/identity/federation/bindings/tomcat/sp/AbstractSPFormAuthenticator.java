@@ -42,7 +42,6 @@ import org.picketlink.identity.federation.core.exceptions.ProcessingException;
 import org.picketlink.identity.federation.core.interfaces.TrustKeyManager;
 import org.picketlink.identity.federation.core.interfaces.TrustKeyProcessingException;
 import org.picketlink.identity.federation.core.saml.v2.exceptions.AssertionExpiredException;
-import org.picketlink.identity.federation.core.saml.v2.holders.DestinationInfoHolder;
 import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2Handler;
 import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2HandlerResponse;
 import org.picketlink.identity.federation.core.saml.v2.util.DocumentUtil;
@@ -181,11 +180,7 @@ public abstract class AbstractSPFormAuthenticator extends BaseFormAuthenticator
     protected void sendHttpPostBindingRequest(String destination, Document samlDocument, String relayState, Response response,
             boolean willSendRequest) throws ProcessingException, IOException,
             ConfigurationException {
-        String samlMessage = PostBindingUtil.base64Encode(DocumentUtil.getDocumentAsString(samlDocument));
-
-        DestinationInfoHolder destinationHolder = new DestinationInfoHolder(destination, samlMessage, relayState);
-
-        PostBindingUtil.sendPost(destinationHolder, response, willSendRequest);
+        PostBindingUtil.sendPost(destination, samlDocument, relayState, response, willSendRequest);
     }
 
     /**
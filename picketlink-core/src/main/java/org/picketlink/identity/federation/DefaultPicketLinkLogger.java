@@ -46,10 +46,13 @@ import org.picketlink.identity.federation.core.saml.v2.exceptions.AssertionExpir
 import org.picketlink.identity.federation.core.saml.v2.exceptions.IssueInstantMissingException;
 import org.picketlink.identity.federation.core.saml.v2.exceptions.IssuerNotTrustedException;
 import org.picketlink.identity.federation.core.saml.v2.exceptions.SignatureValidationException;
+import org.picketlink.identity.federation.core.saml.v2.util.DocumentUtil;
+import org.picketlink.identity.federation.core.util.MessageDumpSampler;
 import org.picketlink.identity.federation.core.wstrust.WSTrustConstants;
 import org.picketlink.identity.federation.core.wstrust.WSTrustException;
 import org.picketlink.identity.federation.web.constants.GeneralConstants;
 import org.w3c.dom.Element;
+import org.w3c.dom.Node;
 
 /**
  * @author <a href="mailto:psilva@redhat.com">Pedro Silva</a>
@@ -123,6 +126,32 @@ public class DefaultPicketLinkLogger implements PicketLinkLogger {
         }
     }
 
+    /*
+     * (non-Javadoc)
+     * 
+     * @see org.picketlink.identity.federation.PicketLinkLogger#trace(java.lang.String, org.w3c.dom.Node)
+     */
+    @Override
+    public void trace(String message, Node node) {
+        if (logger.isTraceEnabled()) {
+            logger.trace(message + DocumentUtil.asString(node));
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see org.picketlink.identity.federation.PicketLinkLogger#samlMessageDump(java.lang.String, org.w3c.dom.Node)
+     */
+    @Override
+    public void samlMessageDump(String message, Node samlMessage) {
+        if (logger.isTraceEnabled()) {
+            logger.trace(message + DocumentUtil.asString(samlMessage));
+        } else if (logger.isInfoEnabled() && MessageDumpSampler.getSharedSampler().sample()) {
+            logger.info(message + DocumentUtil.asString(samlMessage));
+        }
+    }
+
     /*
      * (non-Javadoc)
      * 
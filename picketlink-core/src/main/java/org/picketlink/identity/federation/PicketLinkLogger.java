@@ -40,8 +40,10 @@ import org.picketlink.identity.federation.core.saml.v2.exceptions.AssertionExpir
 import org.picketlink.identity.federation.core.saml.v2.exceptions.IssueInstantMissingException;
 import org.picketlink.identity.federation.core.saml.v2.exceptions.IssuerNotTrustedException;
 import org.picketlink.identity.federation.core.saml.v2.exceptions.SignatureValidationException;
+import org.picketlink.identity.federation.core.util.MessageDumpSampler;
 import org.picketlink.identity.federation.core.wstrust.WSTrustException;
 import org.w3c.dom.Element;
+import org.w3c.dom.Node;
 
 /**
  * <p>This interface acts as a Logger Facade for PicketLink, from which exceptions and messages should be created or logged.</p>
@@ -441,6 +443,24 @@ public interface PicketLinkLogger {
      */
     void trace(String message, Throwable t);
 
+    /**
+     * <p>Logs a message followed by a node at trace level. The node is only serialized when trace is enabled.</p>
+     *
+     * @param message
+     * @param node
+     */
+    void trace(String message, Node node);
+
+    /**
+     * <p>Logs a SAML message received or sent by a binding at trace level. When trace is disabled, the messages picked by
+     * the {@link MessageDumpSampler#getSharedSampler()} are logged at info level. It is called once per message, where the
+     * bindings parse or send it.</p>
+     *
+     * @param message
+     * @param samlMessage
+     */
+    void samlMessageDump(String message, Node samlMessage);
+
     /**
      * @param algo
      * @return
@@ -162,9 +162,11 @@ public class SAML2Request {
 
         Document samlDocument = DocumentUtil.getDocument(is);
 
+        logger.samlMessageDump("SAML Request Document: ", samlDocument);
+
         SAMLParser samlParser = new SAMLParser();
         JAXPValidationUtil.checkSchemaValidation(samlDocument);
-        SAML2Object requestType = (SAML2Object) samlParser.parse(DocumentUtil.getNodeAsStream(samlDocument));
+        SAML2Object requestType = (SAML2Object) samlParser.parse(samlDocument);
 
         samlDocumentHolder = new SAMLDocumentHolder(requestType, samlDocument);
         return requestType;
@@ -187,9 +189,11 @@ public class SAML2Request {
 
         Document samlDocument = DocumentUtil.getDocument(is);
 
+        logger.samlMessageDump("SAML Request Document: ", samlDocument);
+
         SAMLParser samlParser = new SAMLParser();
         JAXPValidationUtil.checkSchemaValidation(samlDocument);
-        RequestAbstractType requestType = (RequestAbstractType) samlParser.parse(DocumentUtil.getNodeAsStream(samlDocument));
+        RequestAbstractType requestType = (RequestAbstractType) samlParser.parse(samlDocument);
 
         samlDocumentHolder = new SAMLDocumentHolder(requestType, samlDocument);
         return requestType;
@@ -212,10 +216,12 @@ public class SAML2Request {
 
         Document samlDocument = DocumentUtil.getDocument(is);
 
+        logger.samlMessageDump("SAML Request Document: ", samlDocument);
+
         SAMLParser samlParser = new SAMLParser();
         JAXPValidationUtil.checkSchemaValidation(samlDocument);
 
-        AuthnRequestType requestType = (AuthnRequestType) samlParser.parse(DocumentUtil.getNodeAsStream(samlDocument));
+        AuthnRequestType requestType = (AuthnRequestType) samlParser.parse(samlDocument);
         samlDocumentHolder = new SAMLDocumentHolder(requestType, samlDocument);
         return requestType;
     }
@@ -25,18 +25,37 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.Deflater;
 import java.util.zip.DeflaterOutputStream;
 import java.util.zip.Inflater;
 import java.util.zip.InflaterInputStream;
 
 /**
- * Encoder of saml messages based on DEFLATE compression
+ * Encoder of saml messages based on DEFLATE compression.
+ * <p>
+ * The native {@link Deflater} and {@link Inflater} instances are pooled and reset between messages, instead of being
+ * left for finalization to release their native memory.
+ * </p>
  *
  * @author Anil.Saldhana@redhat.com
  * @since Dec 11, 2008
  */
 public class DeflateUtil {
+
+    private static final int MAX_POOLED = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+
+    private static final Queue<Deflater> deflaters = new ConcurrentLinkedQueue<Deflater>();
+
+    private static final AtomicInteger pooledDeflaters = new AtomicInteger();
+
+    private static final Queue<Inflater> inflaters = new ConcurrentLinkedQueue<Inflater>();
+
+    private static final AtomicInteger pooledInflaters = new AtomicInteger();
+
     /**
      * Apply DEFLATE encoding
      *
@@ -45,11 +64,10 @@ public class DeflateUtil {
      * @throws IOException
      */
     public static byte[] encode(byte[] message) throws IOException {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        Deflater deflater = new Deflater(Deflater.DEFLATED, true);
-        DeflaterOutputStream deflaterStream = new DeflaterOutputStream(baos, deflater);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(Math.max(32, message.length / 2));
+        OutputStream deflaterStream = getEncodingStream(baos);
         deflaterStream.write(message);
-        deflaterStream.finish();
+        deflaterStream.close();
 
         return baos.toByteArray();
     }
@@ -65,6 +83,35 @@ public class DeflateUtil {
         return encode(message.getBytes());
     }
 
+    /**
+     * Get a stream that applies DEFLATE encoding to whatever is written to it, and writes the result to the given
+     * stream. Closing the returned stream finishes the encoding and closes the given stream.
+     *
+     * @param out
+     * @return
+     */
+    public static OutputStream getEncodingStream(OutputStream out) {
+        final Deflater deflater = acquireDeflater();
+
+        return new DeflaterOutputStream(out, deflater, 512) {
+            private boolean closed;
+
+            @Override
+            public void close() throws IOException {
+                if (this.closed)
+                    return;
+
+                this.closed = true;
+
+                try {
+                    super.close();
+                } finally {
+                    releaseDeflater(deflater);
+                }
+            }
+        };
+    }
+
     /**
      * DEFLATE decoding
      *
@@ -72,7 +119,102 @@ public class DeflateUtil {
      * @return
      */
     public static InputStream decode(byte[] msgToDecode) {
-        ByteArrayInputStream bais = new ByteArrayInputStream(msgToDecode);
-        return new InflaterInputStream(bais, new Inflater(true));
+        return decode(new ByteArrayInputStream(msgToDecode));
+    }
+
+    /**
+     * DEFLATE decoding of a stream. The inflater is given back as soon as the end of the message is reached or the
+     * returned stream is closed.
+     *
+     * @param in the stream that needs decoding
+     * @return
+     */
+    public static InputStream decode(InputStream in) {
+        final Inflater inflater = acquireInflater();
+
+        return new InflaterInputStream(in, inflater, 512) {
+            private boolean released;
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (this.released)
+                    return -1;
+
+                int read = super.read(b, off, len);
+
+                if (read < 0)
+                    release();
+
+                return read;
+            }
+
+            @Override
+            public int available() throws IOException {
+                return this.released ? 0 : super.available();
+            }
+
+            @Override
+            public long skip(long n) throws IOException {
+                return this.released ? 0 : super.skip(n);
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    release();
+                }
+            }
+
+            private void release() {
+                if (!this.released) {
+                    this.released = true;
+                    releaseInflater(inflater);
+                }
+            }
+        };
+    }
+
+    private static Deflater acquireDeflater() {
+        Deflater deflater = deflaters.poll();
+
+        if (deflater == null)
+            return new Deflater(Deflater.DEFLATED, true);
+
+        pooledDeflaters.decrementAndGet();
+        return deflater;
+    }
+
+    private static void releaseDeflater(Deflater deflater) {
+        deflater.reset();
+
+        if (pooledDeflaters.incrementAndGet() <= MAX_POOLED) {
+            deflaters.offer(deflater);
+        } else {
+            pooledDeflaters.decrementAndGet();
+            deflater.end();
+        }
+    }
+
+    private static Inflater acquireInflater() {
+        Inflater inflater = inflaters.poll();
+
+        if (inflater == null)
+            return new Inflater(true);
+
+        pooledInflaters.decrementAndGet();
+        return inflater;
+    }
+
+    private static void releaseInflater(Inflater inflater) {
+        inflater.reset();
+
+        if (pooledInflaters.incrementAndGet() <= MAX_POOLED) {
+            inflaters.offer(inflater);
+        } else {
+            pooledInflaters.decrementAndGet();
+            inflater.end();
+        }
     }
-}
\ No newline at end of file
+}
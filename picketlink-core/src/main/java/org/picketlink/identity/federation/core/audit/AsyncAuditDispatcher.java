@@ -0,0 +1,422 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.identity.federation.core.audit;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.jboss.security.audit.AuditEvent;
+import org.jboss.security.audit.AuditManager;
+import org.picketlink.identity.federation.PicketLinkLogger;
+import org.picketlink.identity.federation.PicketLinkLoggerFactory;
+import org.picketlink.identity.federation.web.constants.GeneralConstants;
+
+/**
+ * <p>
+ * Hands audit events over to their {@link AuditManager} on a background thread, so that the audit providers, and the log
+ * I/O they usually do, stay off the request path.
+ * </p>
+ * <p>
+ * Events wait in a bounded queue and are drained in batches. When the queue is full, the {@link OverflowPolicy} decides
+ * whether the request thread waits for room or the event is dropped and counted. Events must not be modified once they
+ * were dispatched.
+ * </p>
+ * <p>
+ * Once closed, the dispatcher delivers the queued events and stops its thread. Events dispatched afterwards are delivered
+ * on the calling thread. The shared dispatcher is closed when the JVM exits, or earlier by
+ * {@link #closeSharedDispatcher(long)}, which {@code PicketLinkContextListener} calls when the web application is
+ * undeployed.
+ * </p>
+ */
+public class AsyncAuditDispatcher {
+
+    private static final PicketLinkLogger logger = PicketLinkLoggerFactory.getLogger();
+
+    /**
+     * What to do with an event when the queue is full
+     */
+    public enum OverflowPolicy {
+        /**
+         * Wait for the background thread to make room, no event is lost
+         */
+        BLOCK,
+
+        /**
+         * Drop the event and count it
+         */
+        DISCARD
+    }
+
+    public static final int DEFAULT_QUEUE_SIZE = 8192;
+
+    public static final int BATCH_SIZE = 128;
+
+    /**
+     * How long {@link #close()} waits for the queued events to be delivered, in milliseconds
+     */
+    public static final long CLOSE_TIMEOUT = 10000;
+
+    /**
+     * Queued by {@link #close(long)} to wake the background thread up, it is not delivered
+     */
+    private static final PendingEvent WAKE_UP = new PendingEvent(null, null, null);
+
+    private static volatile AsyncAuditDispatcher sharedDispatcher;
+
+    private static Thread sharedShutdownHook;
+
+    private final BlockingQueue<PendingEvent> queue;
+
+    private final OverflowPolicy overflowPolicy;
+
+    private final Thread drainer;
+
+    private final Object deliveryLock = new Object();
+
+    private volatile boolean closed;
+
+    /**
+     * Held for reading while an event is queued, and for writing while the dispatcher is closed, so that no event is
+     * queued after the background thread took the last ones
+     */
+    private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+
+    private final AtomicLong dispatchedCount = new AtomicLong();
+
+    private final AtomicLong deliveredCount = new AtomicLong();
+
+    private final AtomicLong failedCount = new AtomicLong();
+
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    private final AtomicLong batchCount = new AtomicLong();
+
+    /**
+     * @param queueSize maximum number of events waiting to be delivered
+     * @param overflowPolicy
+     */
+    public AsyncAuditDispatcher(int queueSize, OverflowPolicy overflowPolicy) {
+        if (queueSize <= 0)
+            throw logger.invalidArgumentError("queueSize");
+        if (overflowPolicy == null)
+            throw logger.nullArgumentError("overflowPolicy");
+
+        this.queue = new ArrayBlockingQueue<PendingEvent>(queueSize);
+        this.overflowPolicy = overflowPolicy;
+
+        this.drainer = new Thread(new Runnable() {
+            public void run() {
+                drain();
+            }
+        }, "PicketLink audit dispatcher");
+        this.drainer.setDaemon(true);
+        // do not pin the class loader of whichever application happened to create the dispatcher
+        this.drainer.setContextClassLoader(AsyncAuditDispatcher.class.getClassLoader());
+        this.drainer.start();
+    }
+
+    /**
+     * <p>
+     * Get the dispatcher shared by all the {@link PicketLinkAuditHelper}s, configured by the
+     * {@link GeneralConstants#AUDIT_QUEUE_SIZE} and {@link GeneralConstants#AUDIT_OVERFLOW_POLICY} system properties.
+     * </p>
+     *
+     * @return
+     */
+    public static AsyncAuditDispatcher getSharedDispatcher() {
+        if (sharedDispatcher == null) {
+            synchronized (AsyncAuditDispatcher.class) {
+                if (sharedDispatcher == null) {
+                    int queueSize = DEFAULT_QUEUE_SIZE;
+                    OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+
+                    try {
+                        queueSize = Integer.parseInt(SecurityActions.getSystemProperty(GeneralConstants.AUDIT_QUEUE_SIZE,
+                                String.valueOf(DEFAULT_QUEUE_SIZE)));
+                        overflowPolicy = OverflowPolicy.valueOf(SecurityActions.getSystemProperty(
+                                GeneralConstants.AUDIT_OVERFLOW_POLICY, OverflowPolicy.BLOCK.name()).toUpperCase());
+                    } catch (IllegalArgumentException e) {
+                        logger.error(e);
+                    }
+
+                    final AsyncAuditDispatcher dispatcher = new AsyncAuditDispatcher(queueSize > 0 ? queueSize
+                            : DEFAULT_QUEUE_SIZE, overflowPolicy);
+
+                    sharedShutdownHook = new Thread(new Runnable() {
+                        public void run() {
+                            dispatcher.close();
+                        }
+                    }, "PicketLink audit dispatcher shutdown");
+                    sharedShutdownHook.setContextClassLoader(AsyncAuditDispatcher.class.getClassLoader());
+                    SecurityActions.addShutdownHook(sharedShutdownHook);
+
+                    sharedDispatcher = dispatcher;
+                }
+            }
+        }
+
+        return sharedDispatcher;
+    }
+
+    /**
+     * <p>
+     * Close the shared dispatcher, delivering the events it queued. The {@link PicketLinkAuditHelper}s holding it deliver
+     * their events on the calling thread from then on, those created afterwards get a new shared dispatcher.
+     * </p>
+     *
+     * @param timeout how long to wait for the queued events to be delivered, in milliseconds
+     * @return false if some events were still queued when the timeout elapsed
+     * @throws InterruptedException
+     */
+    public static boolean closeSharedDispatcher(long timeout) throws InterruptedException {
+        AsyncAuditDispatcher dispatcher;
+        Thread shutdownHook;
+
+        synchronized (AsyncAuditDispatcher.class) {
+            dispatcher = sharedDispatcher;
+            shutdownHook = sharedShutdownHook;
+            sharedDispatcher = null;
+            sharedShutdownHook = null;
+        }
+
+        if (dispatcher == null)
+            return true;
+
+        try {
+            // the hook references the dispatcher, and through it the class loader of PicketLink
+            SecurityActions.removeShutdownHook(shutdownHook);
+        } catch (IllegalStateException e) {
+            // the JVM is exiting and runs the hook anyway
+        }
+
+        return dispatcher.close(timeout);
+    }
+
+    /**
+     * Queue an event for its audit manager
+     *
+     * @param auditManager
+     * @param auditEvent
+     * @return false if the event was dropped
+     */
+    public boolean dispatch(AuditManager auditManager, AuditEvent auditEvent) {
+        PendingEvent pendingEvent = new PendingEvent(auditManager, auditEvent, SecurityActions.getTCCL());
+        Lock lock = this.closeLock.readLock();
+
+        lock.lock();
+        try {
+            if (!this.closed)
+                return enqueue(pendingEvent);
+        } finally {
+            lock.unlock();
+        }
+
+        // the background thread is gone
+        this.dispatchedCount.incrementAndGet();
+        deliver(pendingEvent);
+        return true;
+    }
+
+    private boolean enqueue(PendingEvent pendingEvent) {
+        if (this.overflowPolicy == OverflowPolicy.BLOCK) {
+            try {
+                this.queue.put(pendingEvent);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                this.droppedCount.incrementAndGet();
+                return false;
+            }
+        } else if (!this.queue.offer(pendingEvent)) {
+            this.droppedCount.incrementAndGet();
+            return false;
+        }
+
+        this.dispatchedCount.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Wait until the events dispatched so far were handed to their audit manager
+     *
+     * @param timeout in milliseconds
+     * @return false if the timeout elapsed first
+     * @throws InterruptedException
+     */
+    public boolean flush(long timeout) throws InterruptedException {
+        long target = this.dispatchedCount.get();
+        long deadline = System.currentTimeMillis() + timeout;
+
+        synchronized (this.deliveryLock) {
+            while (this.deliveredCount.get() + this.failedCount.get() < target) {
+                long remaining = deadline - System.currentTimeMillis();
+
+                if (remaining <= 0)
+                    return false;
+
+                this.deliveryLock.wait(remaining);
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Stop queuing events, deliver the queued ones and stop the background thread, waiting at most
+     * {@link #CLOSE_TIMEOUT}
+     */
+    public void close() {
+        try {
+            close(CLOSE_TIMEOUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Stop queuing events, deliver the queued ones and stop the background thread
+     *
+     * @param timeout how long to wait for the queued events to be delivered, in milliseconds
+     * @return false if some events were still queued when the timeout elapsed
+     * @throws InterruptedException
+     */
+    public boolean close(long timeout) throws InterruptedException {
+        Lock lock = this.closeLock.writeLock();
+
+        lock.lock();
+        try {
+            this.closed = true;
+        } finally {
+            lock.unlock();
+        }
+
+        // a full queue means the background thread is not waiting for an event
+        this.queue.offer(WAKE_UP);
+
+        if (Thread.currentThread() != this.drainer)
+            this.drainer.join(timeout);
+
+        return !this.drainer.isAlive();
+    }
+
+    public long getDispatchedCount() {
+        return this.dispatchedCount.get();
+    }
+
+    public long getDeliveredCount() {
+        return this.deliveredCount.get();
+    }
+
+    public long getFailedCount() {
+        return this.failedCount.get();
+    }
+
+    /**
+     * Number of events lost because the queue was full, or the dispatching thread was interrupted
+     *
+     * @return
+     */
+    public long getDroppedCount() {
+        return this.droppedCount.get();
+    }
+
+    public long getBatchCount() {
+        return this.batchCount.get();
+    }
+
+    /**
+     * Number of events waiting to be delivered
+     *
+     * @return
+     */
+    public int getQueueSize() {
+        return this.queue.size();
+    }
+
+    private void drain() {
+        List<PendingEvent> batch = new ArrayList<PendingEvent>(BATCH_SIZE);
+
+        while (!this.closed) {
+            try {
+                batch.add(this.queue.take());
+            } catch (InterruptedException e) {
+                // only close() stops the background thread
+                continue;
+            }
+
+            this.queue.drainTo(batch, BATCH_SIZE - 1);
+            deliver(batch);
+        }
+
+        // deliver what was queued before the dispatcher was closed
+        this.queue.drainTo(batch);
+        deliver(batch);
+    }
+
+    private void deliver(List<PendingEvent> batch) {
+        if (batch.isEmpty())
+            return;
+
+        for (PendingEvent pendingEvent : batch) {
+            if (pendingEvent == WAKE_UP)
+                continue;
+
+            SecurityActions.setTCCL(pendingEvent.classLoader);
+            deliver(pendingEvent);
+        }
+
+        SecurityActions.setTCCL(AsyncAuditDispatcher.class.getClassLoader());
+        batch.clear();
+        this.batchCount.incrementAndGet();
+
+        synchronized (this.deliveryLock) {
+            this.deliveryLock.notifyAll();
+        }
+    }
+
+    private void deliver(PendingEvent pendingEvent) {
+        try {
+            pendingEvent.auditManager.audit(pendingEvent.auditEvent);
+            this.deliveredCount.incrementAndGet();
+        } catch (Throwable t) {
+            this.failedCount.incrementAndGet();
+            logger.error(t);
+        }
+    }
+
+    private static final class PendingEvent {
+        private final AuditManager auditManager;
+        private final AuditEvent auditEvent;
+        private final ClassLoader classLoader;
+
+        PendingEvent(AuditManager auditManager, AuditEvent auditEvent, ClassLoader classLoader) {
+            this.auditManager = auditManager;
+            this.auditEvent = auditEvent;
+            this.classLoader = classLoader;
+        }
+    }
+}
@@ -54,8 +54,11 @@ public class PicketLinkAuditHelper {
     
     private AuditManager auditManager = null;
 
+    private AsyncAuditDispatcher dispatcher = null;
+
     /**
-     * Create a {@link PicketLinkAuditHelper}
+     * Create a {@link PicketLinkAuditHelper}. Events are handed to the audit manager on the shared
+     * {@link AsyncAuditDispatcher}, unless the {@link GeneralConstants#AUDIT_ASYNC} system property is false.
      * @param securityDomainName the security domain name
      * @throws ConfigurationException
      */
@@ -67,10 +70,24 @@ public class PicketLinkAuditHelper {
         } catch (NamingException e) {
             throw logger.auditAuditManagerNotFound(SecurityConstants.JAAS_CONTEXT_ROOT + securityDomainName + "/auditMgr", e);
         }
+
+        if (Boolean.parseBoolean(SecurityActions.getSystemProperty(GeneralConstants.AUDIT_ASYNC, "true"))) {
+            dispatcher = AsyncAuditDispatcher.getSharedDispatcher();
+        }
+    }
+
+    /**
+     * Create a {@link PicketLinkAuditHelper} for an audit manager
+     * @param auditManager
+     * @param dispatcher the dispatcher delivering the events, null to deliver them on the calling thread
+     */
+    public PicketLinkAuditHelper(AuditManager auditManager, AsyncAuditDispatcher dispatcher) {
+        this.auditManager = auditManager;
+        this.dispatcher = dispatcher;
     }
 
     /**
-     * Audit the event
+     * Audit the event. The event must not be modified afterwards, as it may be delivered later.
      *
      * @param ae
      */
@@ -78,7 +95,19 @@ public class PicketLinkAuditHelper {
         if (auditManager == null) {
             throw logger.auditNullAuditManager();
         }
-        auditManager.audit(ae);
+        if (dispatcher != null) {
+            dispatcher.dispatch(auditManager, ae);
+        } else {
+            auditManager.audit(ae);
+        }
+    }
+
+    /**
+     * Get the dispatcher delivering the events, and its metrics
+     * @return the dispatcher, or null if the events are delivered on the calling thread
+     */
+    public AsyncAuditDispatcher getDispatcher() {
+        return dispatcher;
     }
 
     /**
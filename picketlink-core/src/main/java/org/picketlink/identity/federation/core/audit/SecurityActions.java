@@ -120,4 +120,71 @@ class SecurityActions {
             return System.getProperty(key, defaultValue);
         }
     }
+
+    /**
+     * Get the Thread Context ClassLoader
+     * @return
+     */
+    static ClassLoader getTCCL() {
+        if (System.getSecurityManager() != null) {
+            return AccessController.doPrivileged(new PrivilegedAction<ClassLoader>() {
+                public ClassLoader run() {
+                    return Thread.currentThread().getContextClassLoader();
+                }
+            });
+        } else {
+            return Thread.currentThread().getContextClassLoader();
+        }
+    }
+
+    /**
+     * Set the Thread Context ClassLoader
+     * @param paramCl
+     */
+    static void setTCCL(final ClassLoader paramCl) {
+        if (System.getSecurityManager() != null) {
+            AccessController.doPrivileged(new PrivilegedAction<Void>() {
+                public Void run() {
+                    Thread.currentThread().setContextClassLoader(paramCl);
+                    return null;
+                }
+            });
+        } else {
+            Thread.currentThread().setContextClassLoader(paramCl);
+        }
+    }
+
+    /**
+     * Register a JVM shutdown hook
+     * @param hook
+     */
+    static void addShutdownHook(final Thread hook) {
+        if (System.getSecurityManager() != null) {
+            AccessController.doPrivileged(new PrivilegedAction<Void>() {
+                public Void run() {
+                    Runtime.getRuntime().addShutdownHook(hook);
+                    return null;
+                }
+            });
+        } else {
+            Runtime.getRuntime().addShutdownHook(hook);
+        }
+    }
+
+    /**
+     * Unregister a JVM shutdown hook
+     * @param hook
+     */
+    static void removeShutdownHook(final Thread hook) {
+        if (System.getSecurityManager() != null) {
+            AccessController.doPrivileged(new PrivilegedAction<Void>() {
+                public Void run() {
+                    Runtime.getRuntime().removeShutdownHook(hook);
+                    return null;
+                }
+            });
+        } else {
+            Runtime.getRuntime().removeShutdownHook(hook);
+        }
+    }
 }
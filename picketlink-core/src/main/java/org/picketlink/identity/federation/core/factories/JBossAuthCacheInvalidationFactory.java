@@ -23,8 +23,7 @@ package org.picketlink.identity.federation.core.factories;
 
 import java.security.Principal;
 import java.util.Date;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.List;
 
 import javax.management.MBeanServer;
 import javax.management.ObjectName;
@@ -72,12 +71,16 @@ public class JBossAuthCacheInvalidationFactory {
 
         protected static String objectName = "jboss.security:service=JaasSecurityManager";
 
-        protected static Timer timer = new Timer();
+        protected final PrincipalExpiryScheduler scheduler = new PrincipalExpiryScheduler(new PrincipalExpiryScheduler.Flusher() {
+            public void flush(String securityDomain, List<Principal> principals) throws Exception {
+                flushAuthenticationCache(securityDomain, principals);
+            }
+        });
 
         protected ExpiringPrincipalCacheInvalidation() {
         }
 
-        protected static ExpiringPrincipalCacheInvalidation get() {
+        protected static synchronized ExpiringPrincipalCacheInvalidation get() {
             if (_instance == null)
                 _instance = new ExpiringPrincipalCacheInvalidation();
             return _instance;
@@ -89,36 +92,36 @@ public class JBossAuthCacheInvalidationFactory {
 
         public void register(final String securityDomain, final Date expiry, final Principal principal) {
             try {
-                timer.purge();
+                scheduler.register(securityDomain, expiry, principal);
             } catch (Exception e) {
                 if (trace) {
-                    log.trace("Exception in purging timer tasks:", e);
+                    log.trace("Exception in scheduling timer:", e);
                 }
             }
-            try {
-                timer.schedule(new TimerTask() {
-                    @Override
-                    public void run() {
-                        try {
-                            ObjectName on = new ObjectName(objectName);
-                            MBeanServer server = SecurityActions.getJBossMBeanServer();
-                            Object[] obj = new Object[] { securityDomain, principal };
-                            String[] sig = new String[] { "java.lang.String", "java.security.Principal" };
-
-                            // Flush the Authentication Cache
-                            server.invoke(on, "flushAuthenticationCache", obj, sig);
-                        } catch (Exception e) {
-                            if (trace) {
-                                log.trace("Exception in scheduling timer:", e);
-                            }
-                        }
+        }
+
+        /**
+         * Flush the principals, whose expiry fell in the same tick, from the authentication cache of the security domain
+         *
+         * @param securityDomain
+         * @param principals
+         * @throws Exception
+         */
+        protected void flushAuthenticationCache(String securityDomain, List<Principal> principals) throws Exception {
+            ObjectName on = new ObjectName(objectName);
+            MBeanServer server = SecurityActions.getJBossMBeanServer();
+            String[] sig = new String[] { "java.lang.String", "java.security.Principal" };
+
+            for (Principal principal : principals) {
+                try {
+                    // Flush the Authentication Cache
+                    server.invoke(on, "flushAuthenticationCache", new Object[] { securityDomain, principal }, sig);
+                } catch (Exception e) {
+                    if (trace) {
+                        log.trace("Exception in flushing the authentication cache:", e);
                     }
-                }, expiry);
-            } catch (Exception e) {
-                if (trace) {
-                    log.trace("Exception in scheduling timer:", e);
                 }
             }
         }
     }
-}
\ No newline at end of file
+}
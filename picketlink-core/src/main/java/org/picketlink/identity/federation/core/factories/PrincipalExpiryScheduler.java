@@ -0,0 +1,223 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.identity.federation.core.factories;
+
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.picketlink.identity.federation.PicketLinkLogger;
+import org.picketlink.identity.federation.PicketLinkLoggerFactory;
+import org.picketlink.identity.federation.core.factories.JBossAuthCacheInvalidationFactory.TimeCacheExpiry;
+
+/**
+ * <p>
+ * A {@link TimeCacheExpiry} that flushes expired principals from the authentication caches in batches.
+ * </p>
+ * <p>
+ * Expiry times are rounded up to a tick. All the principals that fall due in the same tick are handed to the
+ * {@link Flusher} together, grouped by security domain, from a single scheduled task per tick instead of one timer
+ * task per principal. A principal registered again for the same security domain only keeps its latest expiry, as the
+ * subject cached for it was replaced by the new authentication.
+ * </p>
+ */
+public class PrincipalExpiryScheduler implements TimeCacheExpiry {
+
+    private static final PicketLinkLogger logger = PicketLinkLoggerFactory.getLogger();
+
+    public static final long DEFAULT_TICK = 1000;
+
+    /**
+     * Flushes the principals of a security domain from its authentication cache
+     */
+    public interface Flusher {
+        /**
+         * @param securityDomain
+         * @param principals the principals whose cached subject expired
+         * @throws Exception
+         */
+        void flush(String securityDomain, List<Principal> principals) throws Exception;
+    }
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "PicketLink principal expiry");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final Flusher flusher;
+
+    private final long tick;
+
+    // the tick at which each registered principal is due, the latest registration wins
+    private final ConcurrentMap<Registration, Long> dueTicks = new ConcurrentHashMap<Registration, Long>();
+
+    private final ConcurrentMap<Long, Queue<Registration>> buckets = new ConcurrentHashMap<Long, Queue<Registration>>();
+
+    public PrincipalExpiryScheduler(Flusher flusher) {
+        this(flusher, DEFAULT_TICK);
+    }
+
+    /**
+     * @param flusher
+     * @param tick the number of milliseconds expiry times are rounded up to
+     */
+    public PrincipalExpiryScheduler(Flusher flusher, long tick) {
+        if (flusher == null)
+            throw logger.nullArgumentError("flusher");
+        if (tick <= 0)
+            throw logger.invalidArgumentError("tick");
+
+        this.flusher = flusher;
+        this.tick = tick;
+    }
+
+    public void register(String securityDomain, Date expiry, Principal principal) {
+        Registration registration = new Registration(securityDomain, principal);
+        Long dueTick = Long.valueOf((expiry.getTime() + this.tick - 1) / this.tick);
+
+        this.dueTicks.put(registration, dueTick);
+
+        while (true) {
+            Queue<Registration> bucket = this.buckets.get(dueTick);
+
+            if (bucket == null) {
+                bucket = new ConcurrentLinkedQueue<Registration>();
+                bucket.add(registration);
+
+                if (this.buckets.putIfAbsent(dueTick, bucket) == null) {
+                    schedule(dueTick);
+                    return;
+                }
+
+                continue;
+            }
+
+            bucket.add(registration);
+
+            // the bucket may have been flushed before the registration made it in, use a new one then
+            if (this.buckets.get(dueTick) == bucket)
+                return;
+        }
+    }
+
+    /**
+     * Number of principals waiting for their expiry
+     *
+     * @return
+     */
+    public int getQueueDepth() {
+        return this.dueTicks.size();
+    }
+
+    /**
+     * Number of ticks that have a flush scheduled
+     *
+     * @return
+     */
+    public int getScheduledTickCount() {
+        return this.buckets.size();
+    }
+
+    private void schedule(final Long dueTick) {
+        long delay = Math.max(0, dueTick.longValue() * this.tick - System.currentTimeMillis());
+
+        this.executor.schedule(new Runnable() {
+            public void run() {
+                flush(dueTick);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void flush(Long dueTick) {
+        Queue<Registration> bucket = this.buckets.remove(dueTick);
+
+        if (bucket == null)
+            return;
+
+        Map<String, List<Principal>> principalsByDomain = new HashMap<String, List<Principal>>();
+
+        for (Registration registration : bucket) {
+            // skip the principals registered again with another expiry since
+            if (!this.dueTicks.remove(registration, dueTick))
+                continue;
+
+            List<Principal> principals = principalsByDomain.get(registration.securityDomain);
+
+            if (principals == null) {
+                principals = new ArrayList<Principal>();
+                principalsByDomain.put(registration.securityDomain, principals);
+            }
+
+            principals.add(registration.principal);
+        }
+
+        for (Map.Entry<String, List<Principal>> entry : principalsByDomain.entrySet()) {
+            try {
+                this.flusher.flush(entry.getKey(), entry.getValue());
+            } catch (Exception e) {
+                logger.trace("Exception in flushing the authentication cache:", e);
+            }
+        }
+    }
+
+    private static final class Registration {
+        private final String securityDomain;
+        private final Principal principal;
+
+        Registration(String securityDomain, Principal principal) {
+            this.securityDomain = securityDomain;
+            this.principal = principal;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof Registration))
+                return false;
+
+            Registration other = (Registration) obj;
+            return this.principal.equals(other.principal)
+                    && (this.securityDomain == null ? other.securityDomain == null : this.securityDomain
+                            .equals(other.securityDomain));
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (this.securityDomain == null ? 0 : this.securityDomain.hashCode()) + this.principal.hashCode();
+        }
+    }
+}
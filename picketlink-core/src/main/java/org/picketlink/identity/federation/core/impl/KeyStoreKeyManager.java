@@ -31,14 +31,16 @@ import java.security.GeneralSecurityException;
 import java.security.KeyPair;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
-import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
 import java.security.PublicKey;
 import java.security.UnrecoverableKeyException;
 import java.security.cert.Certificate;
+import java.util.Collections;
+import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.crypto.SecretKey;
 
@@ -71,11 +73,17 @@ public class KeyStoreKeyManager implements TrustKeyManager {
 
     private final Map<String, Object> options = new HashMap<String, Object>();
 
-    private final HashMap<String, String> domainAliasMap = new HashMap<String, String>();
+    private volatile Map<String, String> domainAliasMap = Collections.emptyMap();
 
     private final HashMap<String, String> authPropsMap = new HashMap<String, String>();
 
-    private KeyStore ks = null;
+    private final Object snapshotLock = new Object();
+
+    private volatile KeySnapshot snapshot;
+
+    private final AtomicLong nextReloadCheck = new AtomicLong();
+
+    private long reloadCheckInterval = DEFAULT_RELOAD_CHECK_INTERVAL;
 
     private String keyStoreURL;
 
@@ -93,24 +101,23 @@ public class KeyStoreKeyManager implements TrustKeyManager {
 
     public static final String SIGNING_KEY_ALIAS = "SigningKeyAlias";
 
+    /**
+     * How often, in milliseconds, a keystore loaded from a file is checked for modifications. Zero disables the check.
+     */
+    public static final String KEYSTORE_RELOAD_CHECK_INTERVAL = "KeyStoreReloadCheckInterval";
+
+    public static final long DEFAULT_RELOAD_CHECK_INTERVAL = 5000;
+
     /**
      * @see TrustKeyManager#getSigningKey()
      */
     public PrivateKey getSigningKey() throws TrustKeyConfigurationException, TrustKeyProcessingException {
-        try {
-            initKeyStore();
-            return (PrivateKey) ks.getKey(this.signingAlias, this.signingKeyPass);
-        } catch (KeyStoreException e) {
-            throw logger.keyStoreConfigurationError(e);
-        } catch (NoSuchAlgorithmException e) {
-            throw logger.keyStoreProcessingError(e);
-        } catch (UnrecoverableKeyException e) {
-            throw logger.keyStoreProcessingError(e);
-        } catch (GeneralSecurityException e) {
-            throw logger.keyStoreProcessingError(e);
-        } catch (IOException e) {
-            throw logger.keyStoreProcessingError(e);
-        }
+        KeySnapshot snapshot = getSnapshot();
+
+        if (snapshot.signingKeyError != null)
+            throwKeyStoreError(snapshot.signingKeyError);
+
+        return snapshot.signingKey;
     }
 
     /*
@@ -119,38 +126,24 @@ public class KeyStoreKeyManager implements TrustKeyManager {
      * @see org.picketlink.identity.federation.bindings.interfaces.TrustKeyManager#getSigningKeyPair()
      */
     public KeyPair getSigningKeyPair() throws TrustKeyConfigurationException, TrustKeyProcessingException {
-        try {
-            initKeyStore();
-            PrivateKey privateKey = this.getSigningKey();
-            PublicKey publicKey = KeyStoreUtil.getPublicKey(this.ks, this.signingAlias, this.signingKeyPass);
-            return new KeyPair(publicKey, privateKey);
-        } catch (KeyStoreException e) {
-            throw logger.keyStoreConfigurationError(e);
-        } catch (GeneralSecurityException e) {
-            throw logger.keyStoreProcessingError(e);
-        } catch (IOException e) {
-            throw logger.keyStoreProcessingError(e);
-        }
+        KeySnapshot snapshot = getSnapshot();
+
+        if (snapshot.signingKeyError != null)
+            throwKeyStoreError(snapshot.signingKeyError);
+
+        return snapshot.signingKeyPair;
     }
 
     /**
      * @see TrustKeyManager#getCertificate(String)
      */
     public Certificate getCertificate(String alias) throws TrustKeyConfigurationException, TrustKeyProcessingException {
-        try {
-            initKeyStore();
-            
-            if (alias == null || alias.length() == 0)
-                throw logger.keyStoreNullAlias();
+        KeySnapshot snapshot = getSnapshot();
 
-            return ks.getCertificate(alias);
-        } catch (KeyStoreException e) {
-            throw logger.keyStoreConfigurationError(e);
-        } catch (GeneralSecurityException e) {
-            throw logger.keyStoreProcessingError(e);
-        } catch (IOException e) {
-            throw logger.keyStoreProcessingError(e);
-        }
+        if (alias == null || alias.length() == 0)
+            throw logger.keyStoreNullAlias();
+
+        return snapshot.certificates.get(alias);
     }
 
     /**
@@ -159,23 +152,13 @@ public class KeyStoreKeyManager implements TrustKeyManager {
     public PublicKey getPublicKey(String alias) throws TrustKeyConfigurationException, TrustKeyProcessingException {
         PublicKey publicKey = null;
 
-        try {
-            initKeyStore();
-            
-            Certificate cert = ks.getCertificate(alias);
-            if (cert != null)
-                publicKey = cert.getPublicKey();
-            else
-                logger.keyStoreNullPublicKeyForAlias(alias);
-
-            return publicKey;
-        } catch (KeyStoreException e) {
-            throw logger.keyStoreConfigurationError(e);
-        } catch (GeneralSecurityException e) {
-            throw logger.keyStoreProcessingError(e);
-        } catch (IOException e) {
-            throw logger.keyStoreProcessingError(e);
-        }
+        Certificate cert = alias != null ? getSnapshot().certificates.get(alias) : null;
+        if (cert != null)
+            publicKey = cert.getPublicKey();
+        else
+            logger.keyStoreNullPublicKeyForAlias(alias);
+
+        return publicKey;
     }
 
     /**
@@ -186,43 +169,149 @@ public class KeyStoreKeyManager implements TrustKeyManager {
      * @see TrustKeyManager#getPublicKey(String)
      */
     public PublicKey getValidatingKey(String domain) throws TrustKeyConfigurationException, TrustKeyProcessingException {
-        PublicKey publicKey = null;
-        try {
-            initKeyStore();
-            
-            String domainAlias = this.domainAliasMap.get(domain);
-            
+        KeySnapshot snapshot = getSnapshot();
+
+        PublicKey publicKey = snapshot.validatingKeys.get(domain);
+
+        if (publicKey == null) {
+            String domainAlias = snapshot.domainAliases.get(domain);
+
             if (domainAlias == null)
                 throw logger.keyStoreMissingDomainAlias(domain);
 
+            // not resolved when the snapshot was built, look it up again to report the actual error
             try {
-                publicKey = KeyStoreUtil.getPublicKey(ks, domainAlias, this.keyStorePass.toCharArray());
-            } catch (UnrecoverableKeyException urke) {
-                // Try with the signing key pass
-                publicKey = KeyStoreUtil.getPublicKey(ks, domainAlias, this.signingKeyPass);
+                publicKey = getValidatingKey(snapshot.keyStore, domainAlias);
+            } catch (GeneralSecurityException e) {
+                throwKeyStoreError(e);
             }
-        } catch (KeyStoreException e) {
-            throw logger.keyStoreConfigurationError(e);
-        } catch (NoSuchAlgorithmException e) {
-            throw logger.keyStoreProcessingError(e);
-        } catch (GeneralSecurityException e) {
-            throw logger.keyStoreProcessingError(e);
-        } catch (IOException e) {
-            throw logger.keyStoreProcessingError(e);
         }
+
         return publicKey;
     }
 
-    private void initKeyStore() throws GeneralSecurityException, IOException {
-        if (ks == null) {
-            logger.keyStoreSetup();
-            this.setUpKeyStore();
+    /**
+     * <p>
+     * Discards the current key snapshot and builds a new one from the keystore. Requests being served keep using the
+     * previous snapshot until the new one is in place.
+     * </p>
+     *
+     * @throws TrustKeyConfigurationException
+     * @throws TrustKeyProcessingException
+     */
+    public void reload() throws TrustKeyConfigurationException, TrustKeyProcessingException {
+        synchronized (this.snapshotLock) {
+            try {
+                this.snapshot = buildSnapshot();
+            } catch (GeneralSecurityException e) {
+                throwKeyStoreError(e);
+            } catch (IOException e) {
+                throw logger.keyStoreProcessingError(e);
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Returns the current key snapshot, building it on first use. When the keystore was loaded from a file, the file is
+     * checked for modifications at most once every {@link #KEYSTORE_RELOAD_CHECK_INTERVAL} milliseconds and the snapshot
+     * is swapped when it changed. Only the thread that wins the check pays for the reload, all the others keep using the
+     * current snapshot.
+     * </p>
+     */
+    private KeySnapshot getSnapshot() throws TrustKeyConfigurationException, TrustKeyProcessingException {
+        KeySnapshot current = this.snapshot;
+
+        if (current == null) {
+            synchronized (this.snapshotLock) {
+                current = this.snapshot;
+
+                if (current == null) {
+                    logger.keyStoreSetup();
+                    reload();
+                    current = this.snapshot;
+                }
+            }
+        } else if (current.file != null && this.reloadCheckInterval > 0) {
+            long now = System.currentTimeMillis();
+            long nextCheck = this.nextReloadCheck.get();
+
+            if (now >= nextCheck && this.nextReloadCheck.compareAndSet(nextCheck, now + this.reloadCheckInterval)
+                    && current.isModified()) {
+                try {
+                    reload();
+                    current = this.snapshot;
+                } catch (RuntimeException e) {
+                    // keep serving the keys we have, the file may still be being written
+                    logger.error(e);
+                } catch (GeneralSecurityException e) {
+                    logger.error(e);
+                }
+            }
+        }
+
+        if (current == null)
+            throw logger.keyStoreNullStore();
+
+        return current;
+    }
+
+    private KeySnapshot buildSnapshot() throws GeneralSecurityException, IOException {
+        // Keystore URL/Pass can be either by configuration or on the HTTPS connector
+        if (this.keyStoreURL == null) {
+            this.keyStoreURL = SecurityActions.getProperty("javax.net.ssl.keyStore", null);
+        }
+        if (this.keyStorePass == null) {
+            this.keyStorePass = SecurityActions.getProperty("javax.net.ssl.keyStorePassword", null);
+        }
+
+        // stat the file before reading it, so a write racing with the load is picked up by the next check
+        File file = this.keyStoreURL != null ? new File(this.keyStoreURL) : null;
+        long lastModified = 0;
+        long length = 0;
+
+        if (file != null && file.isFile()) {
+            lastModified = file.lastModified();
+            length = file.length();
+        } else {
+            file = null;
+        }
+
+        InputStream is = this.getKeyStoreInputStream(this.keyStoreURL);
+        KeyStore ks;
+
+        try {
+            ks = KeyStoreUtil.getKeyStore(is, keyStorePass.toCharArray());
+        } finally {
+            try {
+                is.close();
+            } catch (IOException ignore) {
+            }
         }
 
         if (ks == null)
             throw logger.keyStoreNullStore();
+
+        return new KeySnapshot(ks, file, lastModified, length);
     }
-    
+
+    private PublicKey getValidatingKey(KeyStore ks, String domainAlias) throws GeneralSecurityException {
+        try {
+            return KeyStoreUtil.getPublicKey(ks, domainAlias, this.keyStorePass.toCharArray());
+        } catch (UnrecoverableKeyException urke) {
+            // Try with the signing key pass
+            return KeyStoreUtil.getPublicKey(ks, domainAlias, this.signingKeyPass);
+        }
+    }
+
+    private static void throwKeyStoreError(GeneralSecurityException e) throws TrustKeyConfigurationException,
+            TrustKeyProcessingException {
+        if (e instanceof KeyStoreException)
+            throw logger.keyStoreConfigurationError(e);
+
+        throw logger.keyStoreProcessingError(e);
+    }
+
     /**
      * @see TrustKeyManager#setAuthProperties(List)
      */
@@ -241,6 +330,12 @@ public class KeyStoreKeyManager implements TrustKeyManager {
         if (keypass == null || keypass.length() == 0)
             throw logger.keyStoreNullSigningKeyPass();
         this.signingKeyPass = keypass.toCharArray();
+
+        String reloadCheckInterval = this.authPropsMap.get(KEYSTORE_RELOAD_CHECK_INTERVAL);
+        if (reloadCheckInterval != null && reloadCheckInterval.length() > 0)
+            this.reloadCheckInterval = Long.parseLong(reloadCheckInterval.trim());
+
+        this.snapshot = null;
     }
 
     /**
@@ -248,9 +343,51 @@ public class KeyStoreKeyManager implements TrustKeyManager {
      */
     public void setValidatingAlias(List<KeyValueType> aliases) throws TrustKeyConfigurationException,
             TrustKeyProcessingException {
+        Map<String, String> domainAliases = new HashMap<String, String>(this.domainAliasMap);
+
         for (KeyValueType alias : aliases) {
-            domainAliasMap.put(alias.getKey(), alias.getValue());
+            domainAliases.put(alias.getKey(), alias.getValue());
         }
+
+        this.domainAliasMap = Collections.unmodifiableMap(domainAliases);
+        this.snapshot = null;
+    }
+
+    /**
+     * <p>
+     * Replaces the domain to alias mapping. The current snapshot keeps the mapping it was built with until the next
+     * {@link #reload()}.
+     * </p>
+     *
+     * @param domainAliases
+     */
+    protected void setDomainAliases(Map<String, String> domainAliases) {
+        this.domainAliasMap = Collections.unmodifiableMap(new HashMap<String, String>(domainAliases));
+    }
+
+    /**
+     * <p>
+     * Sets how often, in milliseconds, the keystore file is checked for modifications when keys are asked for. Zero
+     * disables the check.
+     * </p>
+     *
+     * @param reloadCheckInterval
+     */
+    protected void setReloadCheckInterval(long reloadCheckInterval) {
+        this.reloadCheckInterval = reloadCheckInterval;
+    }
+
+    /**
+     * <p>
+     * Indicates whether the keystore file the current snapshot was loaded from changed since. Always false when the
+     * keystore was not loaded from a file or was not loaded yet.
+     * </p>
+     *
+     * @return
+     */
+    protected boolean isKeyStoreModified() {
+        KeySnapshot current = this.snapshot;
+        return current != null && current.file != null && current.isModified();
     }
 
     /**
@@ -287,19 +424,6 @@ public class KeyStoreKeyManager implements TrustKeyManager {
         return this.options.get(key);
     }
 
-    private void setUpKeyStore() throws GeneralSecurityException, IOException {
-        // Keystore URL/Pass can be either by configuration or on the HTTPS connector
-        if (this.keyStoreURL == null) {
-            this.keyStoreURL = SecurityActions.getProperty("javax.net.ssl.keyStore", null);
-        }
-        if (this.keyStorePass == null) {
-            this.keyStorePass = SecurityActions.getProperty("javax.net.ssl.keyStorePassword", null);
-        }
-
-        InputStream is = this.getKeyStoreInputStream(this.keyStoreURL);
-        ks = KeyStoreUtil.getKeyStore(is, keyStorePass.toCharArray());
-    }
-
     /**
      * Seek the input stream to the KeyStore
      *
@@ -345,4 +469,90 @@ public class KeyStoreKeyManager implements TrustKeyManager {
             throw logger.keyStoreNotLocated(keyStore);
         return is;
     }
-}
\ No newline at end of file
+
+    /**
+     * An immutable view of the keys held by the keystore. Private keys are unwrapped once, when the snapshot is built.
+     */
+    private class KeySnapshot {
+
+        private final KeyStore keyStore;
+
+        private final File file;
+
+        private final long lastModified;
+
+        private final long length;
+
+        private final PrivateKey signingKey;
+
+        private final KeyPair signingKeyPair;
+
+        private final GeneralSecurityException signingKeyError;
+
+        private final Map<String, String> domainAliases;
+
+        private final Map<String, PublicKey> validatingKeys;
+
+        private final Map<String, Certificate> certificates;
+
+        private KeySnapshot(KeyStore keyStore, File file, long lastModified, long length) throws KeyStoreException {
+            this.keyStore = keyStore;
+            this.file = file;
+            this.lastModified = lastModified;
+            this.length = length;
+
+            PrivateKey privateKey = null;
+            KeyPair keyPair = null;
+            GeneralSecurityException error = null;
+
+            if (signingAlias != null) {
+                try {
+                    privateKey = (PrivateKey) keyStore.getKey(signingAlias, signingKeyPass);
+                    PublicKey publicKey = KeyStoreUtil.getPublicKey(keyStore, signingAlias, signingKeyPass);
+                    keyPair = new KeyPair(publicKey, privateKey);
+                } catch (GeneralSecurityException e) {
+                    // reported when the signing key is asked for, validation keys are still usable
+                    error = e;
+                }
+            }
+
+            this.signingKey = privateKey;
+            this.signingKeyPair = keyPair;
+            this.signingKeyError = error;
+
+            Map<String, Certificate> certificates = new HashMap<String, Certificate>();
+            Enumeration<String> aliases = keyStore.aliases();
+
+            while (aliases.hasMoreElements()) {
+                String alias = aliases.nextElement();
+                Certificate certificate = keyStore.getCertificate(alias);
+
+                if (certificate != null)
+                    certificates.put(alias, certificate);
+            }
+
+            this.certificates = Collections.unmodifiableMap(certificates);
+
+            this.domainAliases = domainAliasMap;
+
+            Map<String, PublicKey> validatingKeys = new HashMap<String, PublicKey>();
+
+            for (Map.Entry<String, String> entry : this.domainAliases.entrySet()) {
+                try {
+                    PublicKey publicKey = getValidatingKey(keyStore, entry.getValue());
+
+                    if (publicKey != null)
+                        validatingKeys.put(entry.getKey(), publicKey);
+                } catch (GeneralSecurityException e) {
+                    // resolved again, and reported, when the key is asked for
+                }
+            }
+
+            this.validatingKeys = Collections.unmodifiableMap(validatingKeys);
+        }
+
+        private boolean isModified() {
+            return this.file.lastModified() != this.lastModified || this.file.length() != this.length;
+        }
+    }
+}
@@ -0,0 +1,299 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.identity.federation.core.impl;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.ref.WeakReference;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.picketlink.identity.federation.PicketLinkLogger;
+import org.picketlink.identity.federation.PicketLinkLoggerFactory;
+import org.picketlink.identity.federation.core.config.AuthPropertyType;
+import org.picketlink.identity.federation.core.config.KeyValueType;
+import org.picketlink.identity.federation.core.interfaces.TrustKeyConfigurationException;
+import org.picketlink.identity.federation.core.interfaces.TrustKeyManager;
+import org.picketlink.identity.federation.core.interfaces.TrustKeyProcessingException;
+
+/**
+ * <p>
+ * A {@link KeyStoreKeyManager} that watches the keystore file, and optionally a file mapping domains to keystore aliases,
+ * and rebuilds its keys in the background when either changes. Requests keep being served from the previous keys while
+ * the new ones are loaded, so keys and certificates can be rolled over without a restart.
+ * </p>
+ * <p>
+ * The mapping file holds one {@code domain=alias} entry per line; blank lines and lines starting with {@code #} are
+ * ignored. Its entries take precedence over the configured validating aliases. Like the keystore, it is located as a
+ * file, a URL or a class path resource. Only a mapping in the local file system is watched for modifications.
+ * </p>
+ */
+public class ReloadingKeyStoreKeyManager extends KeyStoreKeyManager {
+
+    private static final PicketLinkLogger logger = PicketLinkLoggerFactory.getLogger();
+
+    /**
+     * Location of the file mapping domains to keystore aliases
+     */
+    public static final String DOMAIN_ALIAS_MAPPING_URL = "DomainAliasMappingURL";
+
+    /**
+     * How often, in milliseconds, the watched files are checked for modifications
+     */
+    public static final String KEYSTORE_WATCH_INTERVAL = "KeyStoreWatchInterval";
+
+    public static final long DEFAULT_WATCH_INTERVAL = 5000;
+
+    private static final ScheduledExecutorService watcher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "PicketLink key store watcher");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private Map<String, String> configuredAliases = Collections.emptyMap();
+
+    private Map<String, String> fileAliases = Collections.emptyMap();
+
+    private URL domainAliasMapping;
+
+    // the mapping in the local file system, null if it cannot be watched
+    private File domainAliasMappingFile;
+
+    private long domainAliasMappingModified;
+
+    private long domainAliasMappingLength;
+
+    private ScheduledFuture<?> watch;
+
+    /**
+     * @see TrustKeyManager#setAuthProperties(List)
+     */
+    @Override
+    public void setAuthProperties(List<AuthPropertyType> authList) throws TrustKeyConfigurationException,
+            TrustKeyProcessingException {
+        super.setAuthProperties(authList);
+
+        // the keystore is watched in the background, requests should never pay for a reload
+        setReloadCheckInterval(0);
+
+        long watchInterval = DEFAULT_WATCH_INTERVAL;
+        String domainAliasMappingURL = null;
+
+        for (AuthPropertyType auth : authList) {
+            if (KEYSTORE_WATCH_INTERVAL.equals(auth.getKey()))
+                watchInterval = Long.parseLong(auth.getValue().trim());
+            else if (DOMAIN_ALIAS_MAPPING_URL.equals(auth.getKey()))
+                domainAliasMappingURL = auth.getValue();
+        }
+
+        synchronized (this) {
+            if (domainAliasMappingURL != null) {
+                this.domainAliasMapping = locateDomainAliasMapping(domainAliasMappingURL);
+                this.domainAliasMappingFile = toFile(this.domainAliasMapping);
+                loadDomainAliases();
+            }
+
+            stopWatching();
+
+            if (watchInterval > 0)
+                this.watch = scheduleWatch(this, watchInterval);
+        }
+    }
+
+    /**
+     * @see TrustKeyManager#setValidatingAlias(List)
+     */
+    @Override
+    public synchronized void setValidatingAlias(List<KeyValueType> aliases) throws TrustKeyConfigurationException,
+            TrustKeyProcessingException {
+        super.setValidatingAlias(aliases);
+
+        Map<String, String> configuredAliases = new HashMap<String, String>(this.configuredAliases);
+
+        for (KeyValueType alias : aliases) {
+            configuredAliases.put(alias.getKey(), alias.getValue());
+        }
+
+        this.configuredAliases = configuredAliases;
+        applyDomainAliases();
+    }
+
+    /**
+     * <p>
+     * Checks the keystore and the domain alias mapping files, and rebuilds the keys when either of them changed. Called
+     * periodically by the watcher thread.
+     * </p>
+     *
+     * @throws TrustKeyConfigurationException
+     * @throws TrustKeyProcessingException
+     */
+    public synchronized void checkForModifications() throws TrustKeyConfigurationException, TrustKeyProcessingException {
+        boolean modified = false;
+
+        if (this.domainAliasMappingFile != null
+                && (this.domainAliasMappingFile.lastModified() != this.domainAliasMappingModified || this.domainAliasMappingFile
+                        .length() != this.domainAliasMappingLength)) {
+            loadDomainAliases();
+            modified = true;
+        }
+
+        if (modified || isKeyStoreModified())
+            reload();
+    }
+
+    /**
+     * <p>
+     * Stops watching the files for modifications.
+     * </p>
+     */
+    public synchronized void stopWatching() {
+        if (this.watch != null) {
+            this.watch.cancel(false);
+            this.watch = null;
+        }
+    }
+
+    private void loadDomainAliases() throws TrustKeyProcessingException {
+        if (this.domainAliasMappingFile != null) {
+            // stat the file before reading it, so a write racing with the load is picked up by the next check
+            this.domainAliasMappingModified = this.domainAliasMappingFile.lastModified();
+            this.domainAliasMappingLength = this.domainAliasMappingFile.length();
+        }
+
+        Map<String, String> fileAliases = new HashMap<String, String>();
+        BufferedReader reader = null;
+
+        try {
+            reader = new BufferedReader(new InputStreamReader(this.domainAliasMapping.openStream(), "UTF-8"));
+
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+
+                if (line.length() == 0 || line.startsWith("#"))
+                    continue;
+
+                // domains are URLs and may contain '=', aliases do not
+                int separator = line.lastIndexOf('=');
+
+                if (separator <= 0)
+                    throw logger.keyStoreProcessingError(new IOException("Invalid domain alias mapping: " + line));
+
+                fileAliases.put(line.substring(0, separator).trim(), line.substring(separator + 1).trim());
+            }
+        } catch (IOException e) {
+            // a missing mapping must not silently drop the domains it maps
+            throw logger.keyStoreProcessingError(e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException ignore) {
+                }
+            }
+        }
+
+        this.fileAliases = fileAliases;
+        applyDomainAliases();
+    }
+
+    /**
+     * Locate the mapping the same way as the keystore: as a file, a URL or a class path resource
+     */
+    private URL locateDomainAliasMapping(String location) throws TrustKeyConfigurationException {
+        location = location.trim();
+
+        try {
+            File file = new File(location);
+            if (file.isFile())
+                return file.toURI().toURL();
+
+            return new URL(location);
+        } catch (MalformedURLException e) {
+            URL url = SecurityActions.loadResource(getClass(), location);
+
+            if (url == null)
+                throw logger.keyStoreConfigurationError(new FileNotFoundException("Domain alias mapping not found: "
+                        + location));
+
+            return url;
+        }
+    }
+
+    private static File toFile(URL url) {
+        if (!"file".equals(url.getProtocol()))
+            return null;
+
+        try {
+            return new File(url.toURI());
+        } catch (URISyntaxException e) {
+            return new File(url.getPath());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private void applyDomainAliases() {
+        Map<String, String> domainAliases = new HashMap<String, String>(this.configuredAliases);
+        domainAliases.putAll(this.fileAliases);
+        setDomainAliases(domainAliases);
+    }
+
+    /**
+     * Watch the files without keeping the key manager reachable; the task stops once the key manager is collected.
+     */
+    private static ScheduledFuture<?> scheduleWatch(ReloadingKeyStoreKeyManager keyManager, long watchInterval) {
+        final WeakReference<ReloadingKeyStoreKeyManager> reference = new WeakReference<ReloadingKeyStoreKeyManager>(
+                keyManager);
+
+        return watcher.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                ReloadingKeyStoreKeyManager keyManager = reference.get();
+                if (keyManager == null)
+                    throw new IllegalStateException("Key manager has been collected");
+
+                try {
+                    keyManager.checkForModifications();
+                } catch (Exception e) {
+                    // keep serving the keys we have, the files may still be being written
+                    logger.error(e);
+                }
+            }
+        }, watchInterval, watchInterval, TimeUnit.MILLISECONDS);
+    }
+}
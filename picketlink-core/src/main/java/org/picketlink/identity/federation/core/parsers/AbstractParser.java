@@ -22,8 +22,6 @@
 package org.picketlink.identity.federation.core.parsers;
 
 import java.io.InputStream;
-import java.security.AccessController;
-import java.security.PrivilegedAction;
 
 import javax.xml.stream.EventFilter;
 import javax.xml.stream.XMLEventReader;
@@ -36,8 +34,8 @@ import org.picketlink.identity.federation.PicketLinkLogger;
 import org.picketlink.identity.federation.PicketLinkLoggerFactory;
 import org.picketlink.identity.federation.core.exceptions.ParsingException;
 import org.picketlink.identity.federation.core.parsers.util.StaxParserUtil;
-import org.picketlink.identity.federation.core.util.SystemPropertiesUtil;
-import org.picketlink.identity.federation.web.constants.GeneralConstants;
+import org.picketlink.identity.federation.core.util.XMLProcessingPool;
+import org.w3c.dom.Node;
 
 /**
  * Base class for parsers
@@ -54,20 +52,7 @@ public abstract class AbstractParser implements ParserNamespaceSupport {
      * @return
      */
     protected XMLInputFactory getXMLInputFactory() {
-        boolean tccl_jaxp = SystemPropertiesUtil.getSystemProperty(GeneralConstants.TCCL_JAXP, "false")
-                .equalsIgnoreCase("true");
-        ClassLoader prevTCCL = getTCCL();
-        try {
-            if (tccl_jaxp) {
-                setTCCL(getClass().getClassLoader());
-            }
-            return XMLInputFactory.newInstance();
-        } finally {
-            if (tccl_jaxp) {
-                setTCCL(prevTCCL);
-            }
-        }
-
+        return XMLProcessingPool.getXMLInputFactory();
     }
     
     /**
@@ -82,12 +67,28 @@ public abstract class AbstractParser implements ParserNamespaceSupport {
         if (configStream == null)
             throw logger.nullArgumentError("InputStream");
 
-        XMLInputFactory xmlInputFactory = getXMLInputFactory();
+        return parse(filterWhitespaces(StaxParserUtil.getXMLEventReader(configStream)));
+    }
+
+    /**
+     * Parse a DOM {@link Node} for payload, without serializing it first
+     *
+     * @param node a {@code Document} or an {@code Element}
+     * @return
+     * @throws {@link IllegalArgumentException} when the node is null
+     */
+    public Object parse(Node node) throws ParsingException {
+        if (node == null)
+            throw logger.nullArgumentError("Node");
+
+        return parse(filterWhitespaces(StaxParserUtil.getXMLEventReader(node)));
+    }
 
-        XMLEventReader xmlEventReader = StaxParserUtil.getXMLEventReader(configStream);
+    private XMLEventReader filterWhitespaces(XMLEventReader xmlEventReader) throws ParsingException {
+        XMLInputFactory xmlInputFactory = getXMLInputFactory();
 
         try {
-            xmlEventReader = xmlInputFactory.createFilteredReader(xmlEventReader, new EventFilter() {
+            return xmlInputFactory.createFilteredReader(xmlEventReader, new EventFilter() {
                 public boolean accept(XMLEvent xmlEvent) {
                     // We are going to disregard characters that are new line and whitespace
                     if (xmlEvent.isCharacters()) {
@@ -107,32 +108,5 @@ public abstract class AbstractParser implements ParserNamespaceSupport {
         } catch (XMLStreamException e) {
             throw logger.parserException(e);
         }
-
-        return parse(xmlEventReader);
-    }
-
-    private ClassLoader getTCCL(){
-        if(System.getSecurityManager() != null){
-            return AccessController.doPrivileged(new PrivilegedAction<ClassLoader>() {
-                public ClassLoader run() {
-                    return Thread.currentThread().getContextClassLoader();
-                }
-            });
-        } else {
-            return Thread.currentThread().getContextClassLoader();
-        }
-    }
-
-    private void setTCCL(final ClassLoader paramCl){
-        if(System.getSecurityManager() != null){
-            AccessController.doPrivileged(new PrivilegedAction<Void>() {
-                public Void run() {
-                    Thread.currentThread().setContextClassLoader(paramCl);
-                    return null;
-                }
-            });
-        } else {
-            Thread.currentThread().setContextClassLoader(paramCl);
-        }
     }
 }
\ No newline at end of file
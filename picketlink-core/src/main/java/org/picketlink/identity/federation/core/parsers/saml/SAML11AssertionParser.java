@@ -40,7 +40,6 @@ import org.picketlink.identity.federation.core.parsers.util.StaxParserUtil;
 import org.picketlink.identity.federation.core.saml.v1.SAML11Constants;
 import org.picketlink.identity.federation.core.saml.v2.constants.JBossSAMLConstants;
 import org.picketlink.identity.federation.core.saml.v2.constants.JBossSAMLURIConstants;
-import org.picketlink.identity.federation.core.saml.v2.util.DocumentUtil;
 import org.picketlink.identity.federation.core.saml.v2.util.XMLTimeUtil;
 import org.picketlink.identity.federation.core.util.StringUtil;
 import org.picketlink.identity.federation.saml.v1.assertion.SAML11AssertionType;
@@ -66,7 +65,7 @@ public class SAML11AssertionParser implements ParserNamespaceSupport {
 
     public SAML11AssertionType fromElement(Element element) throws ConfigurationException, ProcessingException,
             ParsingException {
-        XMLEventReader xmlEventReader = StaxParserUtil.getXMLEventReader(DocumentUtil.getNodeAsStream(element));
+        XMLEventReader xmlEventReader = StaxParserUtil.getXMLEventReader(element);
         return (SAML11AssertionType) parse(xmlEventReader);
     }
 
@@ -21,9 +21,6 @@
  */
 package org.picketlink.identity.federation.core.parsers.saml;
 
-import javax.xml.bind.JAXBContext;
-import javax.xml.bind.JAXBElement;
-import javax.xml.bind.Unmarshaller;
 import javax.xml.datatype.XMLGregorianCalendar;
 import javax.xml.namespace.QName;
 import javax.xml.stream.XMLEventReader;
@@ -43,7 +40,7 @@ import org.picketlink.identity.federation.core.parsers.util.SAMLParserUtil;
 import org.picketlink.identity.federation.core.parsers.util.StaxParserUtil;
 import org.picketlink.identity.federation.core.saml.v2.constants.JBossSAMLConstants;
 import org.picketlink.identity.federation.core.saml.v2.constants.JBossSAMLURIConstants;
-import org.picketlink.identity.federation.core.saml.v2.util.DocumentUtil;
+import org.picketlink.identity.federation.core.saml.v2.util.SAMLXACMLUtil;
 import org.picketlink.identity.federation.core.saml.v2.util.XMLTimeUtil;
 import org.picketlink.identity.federation.core.util.StringUtil;
 import org.picketlink.identity.federation.saml.v2.assertion.AssertionType;
@@ -66,7 +63,7 @@ public class SAMLAssertionParser implements ParserNamespaceSupport {
     private final String ASSERTION = JBossSAMLConstants.ASSERTION.get();
 
     public AssertionType fromElement(Element element) throws ConfigurationException, ProcessingException, ParsingException {
-        XMLEventReader xmlEventReader = StaxParserUtil.getXMLEventReader(DocumentUtil.getNodeAsStream(element));
+        XMLEventReader xmlEventReader = StaxParserUtil.getXMLEventReader(element);
         return (AssertionType) parse(xmlEventReader);
     }
 
@@ -200,37 +197,13 @@ public class SAMLAssertionParser implements ParserNamespaceSupport {
         return new AssertionType(id, issueInstant);
     }
 
-    @SuppressWarnings("unchecked")
     private ResponseType getXACMLResponse(XMLEventReader xmlEventReader) throws ParsingException {
         Element xacmlResponse = StaxParserUtil.getDOMElement(xmlEventReader);
-        // xacml request
-        String xacmlPath = "org.jboss.security.xacml.core.model.context";
-        try {
-            JAXBContext jaxb = JAXBContext.newInstance(xacmlPath);
-            Unmarshaller un = jaxb.createUnmarshaller();
-            un.setEventHandler(new javax.xml.bind.helpers.DefaultValidationEventHandler());
-            JAXBElement<ResponseType> jaxbResponseType = (JAXBElement<ResponseType>) un.unmarshal(DocumentUtil
-                    .getNodeAsStream(xacmlResponse));
-            return jaxbResponseType.getValue();
-        } catch (Exception e) {
-            throw new ParsingException(e);
-        }
+        return (ResponseType) SAMLXACMLUtil.unmarshall(xacmlResponse);
     }
 
-    @SuppressWarnings("unchecked")
     private RequestType getXACMLRequest(XMLEventReader xmlEventReader) throws ParsingException {
         Element xacmlRequest = StaxParserUtil.getDOMElement(xmlEventReader);
-        // xacml request
-        String xacmlPath = "org.jboss.security.xacml.core.model.context";
-        try {
-            JAXBContext jaxb = JAXBContext.newInstance(xacmlPath);
-            Unmarshaller un = jaxb.createUnmarshaller();
-            un.setEventHandler(new javax.xml.bind.helpers.DefaultValidationEventHandler());
-            JAXBElement<RequestType> jaxbRequestType = (JAXBElement<RequestType>) un.unmarshal(DocumentUtil
-                    .getNodeAsStream(xacmlRequest));
-            return jaxbRequestType.getValue();
-        } catch (Exception e) {
-            throw new ParsingException(e);
-        }
+        return (RequestType) SAMLXACMLUtil.unmarshall(xacmlRequest);
     }
-}
\ No newline at end of file
+}
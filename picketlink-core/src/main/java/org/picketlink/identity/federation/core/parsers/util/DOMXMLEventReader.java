@@ -0,0 +1,346 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.identity.federation.core.parsers.util;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.stream.Location;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.Namespace;
+import javax.xml.stream.events.XMLEvent;
+
+import org.picketlink.identity.federation.core.util.XMLProcessingPool;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+/**
+ * <p>
+ * An {@code XMLEventReader} that walks a DOM tree and reports it as StAX events. It allows the StAX parsers to consume an
+ * already parsed {@code Element} or {@code Document} without serializing it to bytes first.
+ * </p>
+ * <p>
+ * Adjacent text, CDATA and entity reference nodes are coalesced into a single characters event. Namespaces declared on
+ * the ancestors of the root element are reported on the root start element. Instances are not thread-safe.
+ * </p>
+ */
+public class DOMXMLEventReader implements XMLEventReader {
+
+    private static final Location NO_LOCATION = new Location() {
+        public int getLineNumber() {
+            return -1;
+        }
+
+        public int getColumnNumber() {
+            return -1;
+        }
+
+        public int getCharacterOffset() {
+            return -1;
+        }
+
+        public String getPublicId() {
+            return null;
+        }
+
+        public String getSystemId() {
+            return null;
+        }
+    };
+
+    private final XMLEventFactory eventFactory;
+
+    private final Element root;
+
+    private Node node;
+
+    private boolean leaving = false;
+
+    private boolean startDocumentReported = false;
+
+    private boolean endDocumentReported = false;
+
+    private XMLEvent peeked;
+
+    /**
+     * Create a reader over the given {@code Document} or {@code Element}
+     *
+     * @param node
+     */
+    public DOMXMLEventReader(Node node) {
+        if (node == null)
+            throw new IllegalArgumentException("node");
+
+        if (node.getNodeType() == Node.DOCUMENT_NODE) {
+            this.root = ((Document) node).getDocumentElement();
+        } else if (node.getNodeType() == Node.ELEMENT_NODE) {
+            this.root = (Element) node;
+        } else {
+            throw new IllegalArgumentException("Unsupported node type: " + node.getNodeType());
+        }
+
+        this.node = this.root;
+        this.eventFactory = XMLProcessingPool.getXMLEventFactory();
+        this.eventFactory.setLocation(NO_LOCATION);
+    }
+
+    public XMLEvent nextEvent() throws XMLStreamException {
+        XMLEvent event = peek();
+
+        if (event == null)
+            throw new NoSuchElementException();
+
+        peeked = null;
+
+        return event;
+    }
+
+    public boolean hasNext() {
+        try {
+            return peek() != null;
+        } catch (XMLStreamException e) {
+            return false;
+        }
+    }
+
+    public XMLEvent peek() throws XMLStreamException {
+        if (peeked == null)
+            peeked = computeNext();
+
+        return peeked;
+    }
+
+    public Object next() {
+        try {
+            return nextEvent();
+        } catch (XMLStreamException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    public String getElementText() throws XMLStreamException {
+        StringBuilder builder = new StringBuilder();
+
+        while (true) {
+            XMLEvent event = nextEvent();
+
+            if (event.isEndElement())
+                break;
+            if (event.isStartElement())
+                throw new XMLStreamException("Expected text only element, but a start element was found", event.getLocation());
+            if (event.isCharacters())
+                builder.append(event.asCharacters().getData());
+        }
+
+        return builder.toString();
+    }
+
+    public XMLEvent nextTag() throws XMLStreamException {
+        while (true) {
+            XMLEvent event = nextEvent();
+
+            if (event.isStartElement() || event.isEndElement())
+                return event;
+            if (event.isCharacters() && !event.asCharacters().isWhiteSpace())
+                throw new XMLStreamException("Expected start or end element, but characters were found",
+                        event.getLocation());
+        }
+    }
+
+    public Object getProperty(String name) throws IllegalArgumentException {
+        throw new IllegalArgumentException("Property " + name + " is not supported");
+    }
+
+    public void close() throws XMLStreamException {
+    }
+
+    private XMLEvent computeNext() {
+        if (!startDocumentReported) {
+            startDocumentReported = true;
+            return eventFactory.createStartDocument();
+        }
+
+        while (node != null) {
+            Node current = node;
+
+            if (leaving) {
+                advance(current);
+                return createEndElement((Element) current);
+            }
+
+            switch (current.getNodeType()) {
+                case Node.ELEMENT_NODE:
+                    if (current.getFirstChild() != null) {
+                        node = current.getFirstChild();
+                    } else {
+                        leaving = true;
+                    }
+                    return createStartElement((Element) current);
+                case Node.TEXT_NODE:
+                case Node.CDATA_SECTION_NODE:
+                case Node.ENTITY_REFERENCE_NODE:
+                    StringBuilder text = new StringBuilder();
+                    Node last = current;
+
+                    for (Node sibling = current; sibling != null && isText(sibling); sibling = sibling.getNextSibling()) {
+                        text.append(sibling.getTextContent());
+                        last = sibling;
+                    }
+
+                    advance(last);
+                    return eventFactory.createCharacters(text.toString());
+                case Node.COMMENT_NODE:
+                    advance(current);
+                    return eventFactory.createComment(current.getNodeValue());
+                case Node.PROCESSING_INSTRUCTION_NODE:
+                    advance(current);
+                    return eventFactory.createProcessingInstruction(current.getNodeName(), current.getNodeValue());
+                default:
+                    advance(current);
+            }
+        }
+
+        if (!endDocumentReported) {
+            endDocumentReported = true;
+            return eventFactory.createEndDocument();
+        }
+
+        return null;
+    }
+
+    /**
+     * Move past the given node, which has been completely reported
+     *
+     * @param current
+     */
+    private void advance(Node current) {
+        if (current == root) {
+            node = null;
+        } else if (current.getNextSibling() != null) {
+            node = current.getNextSibling();
+            leaving = false;
+        } else {
+            node = current.getParentNode();
+            leaving = true;
+        }
+    }
+
+    private boolean isText(Node node) {
+        short type = node.getNodeType();
+        return type == Node.TEXT_NODE || type == Node.CDATA_SECTION_NODE || type == Node.ENTITY_REFERENCE_NODE;
+    }
+
+    private XMLEvent createStartElement(final Element element) {
+        List<Attribute> attributes = new ArrayList<Attribute>();
+        List<Namespace> namespaces = new ArrayList<Namespace>();
+        Set<String> declaredPrefixes = new HashSet<String>();
+
+        addAttributes(element, attributes, namespaces, declaredPrefixes);
+
+        if (element == root) {
+            // namespaces declared on the ancestors are in scope of the root element
+            for (Node parent = element.getParentNode(); parent != null && parent.getNodeType() == Node.ELEMENT_NODE; parent = parent
+                    .getParentNode()) {
+                addAttributes((Element) parent, null, namespaces, declaredPrefixes);
+            }
+        }
+
+        NamespaceContext namespaceContext = new NamespaceContext() {
+            public String getNamespaceURI(String prefix) {
+                String uri = element.lookupNamespaceURI(prefix == null || prefix.length() == 0 ? null : prefix);
+                return uri != null ? uri : XMLConstants.NULL_NS_URI;
+            }
+
+            public String getPrefix(String namespaceURI) {
+                return element.lookupPrefix(namespaceURI);
+            }
+
+            @SuppressWarnings("rawtypes")
+            public Iterator getPrefixes(String namespaceURI) {
+                List<String> prefixes = new ArrayList<String>();
+                String prefix = getPrefix(namespaceURI);
+                if (prefix != null)
+                    prefixes.add(prefix);
+                return prefixes.iterator();
+            }
+        };
+
+        return eventFactory.createStartElement(nullToEmpty(element.getPrefix()), nullToEmpty(element.getNamespaceURI()),
+                getLocalName(element), attributes.iterator(), namespaces.iterator(), namespaceContext);
+    }
+
+    private XMLEvent createEndElement(Element element) {
+        return eventFactory.createEndElement(nullToEmpty(element.getPrefix()), nullToEmpty(element.getNamespaceURI()),
+                getLocalName(element));
+    }
+
+    private void addAttributes(Element element, List<Attribute> attributes, List<Namespace> namespaces,
+            Set<String> declaredPrefixes) {
+        NamedNodeMap attrs = element.getAttributes();
+
+        for (int i = 0; i < attrs.getLength(); i++) {
+            Attr attr = (Attr) attrs.item(i);
+            String name = attr.getNodeName();
+
+            if (XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(attr.getNamespaceURI())
+                    || XMLConstants.XMLNS_ATTRIBUTE.equals(name) || name.startsWith(XMLConstants.XMLNS_ATTRIBUTE + ":")) {
+                String prefix = XMLConstants.XMLNS_ATTRIBUTE.equals(name) ? XMLConstants.DEFAULT_NS_PREFIX : name
+                        .substring(XMLConstants.XMLNS_ATTRIBUTE.length() + 1);
+
+                if (declaredPrefixes.add(prefix)) {
+                    if (prefix.length() == 0) {
+                        namespaces.add(eventFactory.createNamespace(attr.getValue()));
+                    } else {
+                        namespaces.add(eventFactory.createNamespace(prefix, attr.getValue()));
+                    }
+                }
+            } else if (attributes != null) {
+                attributes.add(eventFactory.createAttribute(nullToEmpty(attr.getPrefix()),
+                        nullToEmpty(attr.getNamespaceURI()), getLocalName(attr), attr.getValue()));
+            }
+        }
+    }
+
+    private static String getLocalName(Node node) {
+        return node.getLocalName() != null ? node.getLocalName() : node.getNodeName();
+    }
+
+    private static String nullToEmpty(String str) {
+        return str == null ? "" : str;
+    }
+}
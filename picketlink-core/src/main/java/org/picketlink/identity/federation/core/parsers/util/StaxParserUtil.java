@@ -25,11 +25,11 @@ import static org.picketlink.identity.federation.core.ErrorCodes.EXPECTED_XSI;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Reader;
 
 import javax.xml.namespace.QName;
 import javax.xml.stream.Location;
 import javax.xml.stream.XMLEventReader;
-import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.events.Attribute;
 import javax.xml.stream.events.EndElement;
@@ -50,11 +50,11 @@ import org.picketlink.identity.federation.core.saml.v2.constants.JBossSAMLURICon
 import org.picketlink.identity.federation.core.saml.v2.util.DocumentUtil;
 import org.picketlink.identity.federation.core.util.JAXPValidationUtil;
 import org.picketlink.identity.federation.core.util.StringUtil;
-import org.picketlink.identity.federation.core.util.SystemPropertiesUtil;
 import org.picketlink.identity.federation.core.util.TransformerUtil;
-import org.picketlink.identity.federation.web.constants.GeneralConstants;
+import org.picketlink.identity.federation.core.util.XMLProcessingPool;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
+import org.w3c.dom.Node;
 import org.xml.sax.SAXException;
 
 /**
@@ -176,22 +176,41 @@ public class StaxParserUtil {
      * @return
      */
     public static XMLEventReader getXMLEventReader(InputStream is) {
-        XMLInputFactory xmlInputFactory = null;
         XMLEventReader xmlEventReader = null;
         try {
-            xmlInputFactory = getXMLInputFactory();
-            xmlInputFactory.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES, Boolean.TRUE);
-            xmlInputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
-            xmlInputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
-            xmlInputFactory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+            xmlEventReader = XMLProcessingPool.getXMLInputFactory().createXMLEventReader(is);
+        } catch (Exception ex) {
+            throw new RuntimeException(ex);
+        }
+        return xmlEventReader;
+    }
 
-            xmlEventReader = xmlInputFactory.createXMLEventReader(is);
+    /**
+     * Get the XML event reader of characters, the encoding declared by the document is ignored
+     *
+     * @param reader
+     * @return
+     */
+    public static XMLEventReader getXMLEventReader(Reader reader) {
+        XMLEventReader xmlEventReader = null;
+        try {
+            xmlEventReader = XMLProcessingPool.getXMLInputFactory().createXMLEventReader(reader);
         } catch (Exception ex) {
             throw new RuntimeException(ex);
         }
         return xmlEventReader;
     }
 
+    /**
+     * Get a XML event reader that walks the given DOM {@code Node}
+     *
+     * @param node a {@code Document} or an {@code Element}
+     * @return
+     */
+    public static XMLEventReader getXMLEventReader(Node node) {
+        return new DOMXMLEventReader(node);
+    }
+
     /**
      * Given a {@code Location}, return a formatted string [lineNum,colNum]
      *
@@ -440,20 +459,4 @@ public class StaxParserUtil {
     public static Validator getSchemaValidator() throws SAXException, IOException {
         return JAXPValidationUtil.validator();
     }
-
-    private static XMLInputFactory getXMLInputFactory() {
-        boolean tccl_jaxp = SystemPropertiesUtil.getSystemProperty(GeneralConstants.TCCL_JAXP, "false")
-                .equalsIgnoreCase("true");
-        ClassLoader prevTCCL = SecurityActions.getTCCL();
-        try {
-            if (tccl_jaxp) {
-                SecurityActions.setTCCL(StaxParserUtil.class.getClassLoader());
-            }
-            return XMLInputFactory.newInstance();
-        } finally {
-            if (tccl_jaxp) {
-                SecurityActions.setTCCL(prevTCCL);
-            }
-        }
-    }
-}
\ No newline at end of file
+}
@@ -21,15 +21,12 @@
  */
 package org.picketlink.identity.federation.core.pdp;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
 import java.security.PrivilegedActionException;
 
 import javax.annotation.Resource;
-import javax.xml.stream.XMLStreamWriter;
 import javax.xml.transform.Source;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.ws.Provider;
@@ -42,8 +39,6 @@ import org.picketlink.identity.federation.PicketLinkLogger;
 import org.picketlink.identity.federation.PicketLinkLoggerFactory;
 import org.picketlink.identity.federation.core.saml.v2.util.DocumentUtil;
 import org.picketlink.identity.federation.core.saml.v2.util.SOAPSAMLXACMLUtil;
-import org.picketlink.identity.federation.core.saml.v2.writers.SAMLResponseWriter;
-import org.picketlink.identity.federation.core.util.StaxUtil;
 import org.picketlink.identity.federation.core.util.SystemPropertiesUtil;
 import org.picketlink.identity.federation.saml.v2.protocol.ResponseType;
 import org.picketlink.identity.federation.saml.v2.protocol.XACMLAuthzDecisionQueryType;
@@ -81,18 +76,11 @@ public class SOAPSAMLXACMLPDP implements Provider<Source> {
         try {
             Document doc = (Document) DocumentUtil.getNodeFromSource(request);
             
-            if (logger.isTraceEnabled()) {
-                logger.trace("XACML Received Message: " + DocumentUtil.asString(doc));
-            }
+            logger.trace("XACML Received Message: ", doc);
             
             XACMLAuthzDecisionQueryType xacmlQuery = SOAPSAMLXACMLUtil.getXACMLQueryType(doc);
             ResponseType samlResponseType = SOAPSAMLXACMLUtil.handleXACMLQuery(pdp, issuer, xacmlQuery);
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            XMLStreamWriter xmlStreamWriter = StaxUtil.getXMLStreamWriter(baos);
-
-            SAMLResponseWriter samlResponseWriter = new SAMLResponseWriter(xmlStreamWriter);
-            samlResponseWriter.write(samlResponseType);
-            Document responseDocument = DocumentUtil.getDocument(new ByteArrayInputStream(baos.toByteArray()));
+            Document responseDocument = SOAPSAMLXACMLUtil.getResponseDocument(samlResponseType);
 
             return new DOMSource(responseDocument.getDocumentElement());
         } catch (Exception e) {
@@ -0,0 +1,271 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.identity.federation.core.pdp;
+
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.bind.Marshaller;
+
+import org.jboss.security.xacml.core.model.context.ObjectFactory;
+import org.jboss.security.xacml.core.model.context.RequestType;
+import org.jboss.security.xacml.core.model.context.ResultType;
+import org.picketlink.identity.federation.PicketLinkLogger;
+import org.picketlink.identity.federation.PicketLinkLoggerFactory;
+import org.picketlink.identity.federation.core.exceptions.ProcessingException;
+import org.picketlink.identity.federation.core.saml.v2.util.SAMLXACMLUtil;
+import org.picketlink.identity.federation.core.util.Base64;
+
+/**
+ * <p>
+ * Caches the decisions of a {@code PolicyDecisionPoint}, keyed by a digest of the canonical form of the XACML request
+ * context. Decisions expire after a time to live, the oldest ones are evicted when the cache is full and
+ * {@link #invalidate()} drops all of them, for instance when the policies change.
+ * </p>
+ * <p>
+ * Only enable it for policies whose decisions depend on the request context alone: a policy that looks at the current
+ * time, for instance, would get stale answers for as long as the time to live.
+ * </p>
+ */
+public class XACMLDecisionCache {
+
+    private static final PicketLinkLogger logger = PicketLinkLoggerFactory.getLogger();
+
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+
+    public static final long DEFAULT_TIME_TO_LIVE = 60000;
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    // insertion order, used to evict the oldest decisions first
+    private final Queue<Entry> insertionOrder = new ConcurrentLinkedQueue<Entry>();
+
+    // ConcurrentLinkedQueue.size() walks the whole queue
+    private final AtomicInteger queued = new AtomicInteger();
+
+    private final AtomicBoolean purging = new AtomicBoolean();
+
+    private final int maxEntries;
+
+    private final long timeToLive;
+
+    private final AtomicLong version = new AtomicLong();
+
+    private final AtomicLong hitCount = new AtomicLong();
+
+    private final AtomicLong missCount = new AtomicLong();
+
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    private final AtomicLong invalidationCount = new AtomicLong();
+
+    public XACMLDecisionCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_TIME_TO_LIVE);
+    }
+
+    /**
+     * @param maxEntries maximum number of decisions held
+     * @param timeToLive number of milliseconds a decision is served from the cache
+     */
+    public XACMLDecisionCache(int maxEntries, long timeToLive) {
+        if (maxEntries <= 0)
+            throw logger.invalidArgumentError("maxEntries");
+        if (timeToLive <= 0)
+            throw logger.invalidArgumentError("timeToLive");
+
+        this.maxEntries = maxEntries;
+        this.timeToLive = timeToLive;
+    }
+
+    /**
+     * <p>
+     * Compute the cache key of a request context. The request is marshalled with the shared XACML JAXB context, which
+     * always writes the same request the same way, and the key is the digest of that form.
+     * </p>
+     *
+     * @param requestType
+     * @return
+     * @throws ProcessingException
+     */
+    public String getKey(RequestType requestType) throws ProcessingException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            DigestOutputStream out = new DigestOutputStream(new NullOutputStream(), digest);
+
+            Marshaller marshaller = SAMLXACMLUtil.getJAXBContext().createMarshaller();
+            marshaller.setProperty(Marshaller.JAXB_ENCODING, "UTF-8");
+            marshaller.marshal((new ObjectFactory()).createRequest(requestType), out);
+
+            return Base64.encodeBytes(digest.digest());
+        } catch (Exception e) {
+            throw logger.processingError(e);
+        }
+    }
+
+    /**
+     * Get the cached decision for a key
+     *
+     * @param key
+     * @return the decision, or null if it is not cached or has expired
+     */
+    public ResultType get(String key) {
+        Entry entry = this.entries.get(key);
+
+        if (entry != null && entry.expiration <= System.currentTimeMillis()) {
+            this.entries.remove(key, entry);
+            entry = null;
+        }
+
+        if (entry == null) {
+            this.missCount.incrementAndGet();
+            return null;
+        }
+
+        this.hitCount.incrementAndGet();
+        return entry.result;
+    }
+
+    /**
+     * <p>
+     * Cache a decision. The decision is dropped if the cache was invalidated since {@code version} was read, so a decision
+     * taken against the old policies is never served after they changed.
+     * </p>
+     *
+     * @param key
+     * @param version the value of {@link #getVersion()} read before the decision was evaluated
+     * @param result
+     */
+    public void put(String key, long version, ResultType result) {
+        if (this.version.get() != version)
+            return;
+
+        Entry entry = new Entry(key, result, System.currentTimeMillis() + this.timeToLive);
+        this.entries.put(key, entry);
+        this.insertionOrder.add(entry);
+        this.queued.incrementAndGet();
+
+        // the cache may have been invalidated while we were adding the decision
+        if (this.version.get() != version) {
+            this.entries.remove(key, entry);
+            return;
+        }
+
+        while (this.entries.size() > this.maxEntries) {
+            Entry eldest = this.insertionOrder.poll();
+
+            if (eldest == null)
+                break;
+
+            this.queued.decrementAndGet();
+
+            if (this.entries.remove(eldest.key, eldest))
+                this.evictionCount.incrementAndGet();
+        }
+
+        // entries that were replaced or expired linger in the queue, drop them once they outnumber the live ones
+        if (this.queued.get() > 2 * this.maxEntries && this.purging.compareAndSet(false, true)) {
+            try {
+                for (Iterator<Entry> iterator = this.insertionOrder.iterator(); iterator.hasNext();) {
+                    Entry queued = iterator.next();
+
+                    if (this.entries.get(queued.key) != queued) {
+                        iterator.remove();
+                        this.queued.decrementAndGet();
+                    }
+                }
+            } finally {
+                this.purging.set(false);
+            }
+        }
+    }
+
+    /**
+     * Drop all the cached decisions
+     */
+    public void invalidate() {
+        this.version.incrementAndGet();
+        this.entries.clear();
+        this.insertionOrder.clear();
+        this.queued.set(0);
+        this.invalidationCount.incrementAndGet();
+    }
+
+    /**
+     * Get the current version of the cache, which changes every time the cache is invalidated
+     *
+     * @return
+     */
+    public long getVersion() {
+        return this.version.get();
+    }
+
+    public int size() {
+        return this.entries.size();
+    }
+
+    public long getHitCount() {
+        return this.hitCount.get();
+    }
+
+    public long getMissCount() {
+        return this.missCount.get();
+    }
+
+    public long getEvictionCount() {
+        return this.evictionCount.get();
+    }
+
+    public long getInvalidationCount() {
+        return this.invalidationCount.get();
+    }
+
+    private static final class Entry {
+        private final String key;
+        private final ResultType result;
+        private final long expiration;
+
+        Entry(String key, ResultType result, long expiration) {
+            this.key = key;
+            this.result = result;
+            this.expiration = expiration;
+        }
+    }
+
+    private static final class NullOutputStream extends OutputStream {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+}
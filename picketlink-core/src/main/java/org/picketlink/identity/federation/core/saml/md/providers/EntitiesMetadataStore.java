@@ -0,0 +1,483 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.identity.federation.core.saml.md.providers;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.SequenceInputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.picketlink.identity.federation.PicketLinkLogger;
+import org.picketlink.identity.federation.PicketLinkLoggerFactory;
+import org.picketlink.identity.federation.core.exceptions.ParsingException;
+import org.picketlink.identity.federation.core.parsers.saml.metadata.SAMLEntitiesDescriptorParser;
+import org.picketlink.identity.federation.core.parsers.saml.metadata.SAMLEntityDescriptorParser;
+import org.picketlink.identity.federation.core.parsers.util.StaxParserUtil;
+import org.picketlink.identity.federation.core.saml.v2.constants.JBossSAMLConstants;
+import org.picketlink.identity.federation.core.util.XMLProcessingPool;
+import org.picketlink.identity.federation.saml.v2.metadata.EntitiesDescriptorType;
+import org.picketlink.identity.federation.saml.v2.metadata.EntityDescriptorType;
+
+/**
+ * <p>
+ * Metadata aggregate indexed by entity ID. The document is scanned once with StAX to find where each
+ * {@code EntityDescriptor} starts and ends, and an entity is only parsed into an {@link EntityDescriptorType} when it is
+ * looked up. The most recently used entities are kept parsed, the others are parsed again from the document.
+ * </p>
+ * <p>
+ * The document is kept as UTF-8 bytes. The locations reported by StAX parsers differ from one implementation to the
+ * other, so the offsets of the elements are found by a {@link TagScanner} that walks the tags of the bytes in step with
+ * the events of the parser.
+ * </p>
+ */
+public class EntitiesMetadataStore {
+
+    private static final PicketLinkLogger logger = PicketLinkLoggerFactory.getLogger();
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String WRAPPER = "EntityDescriptorWrapper";
+
+    private final String ENTITIES_DESCRIPTOR = JBossSAMLConstants.ENTITIES_DESCRIPTOR.get();
+
+    private final String ENTITY_DESCRIPTOR = JBossSAMLConstants.ENTITY_DESCRIPTOR.get();
+
+    private final byte[] document;
+
+    // entries in document order, an entity ID seen twice keeps its first entry
+    private final Map<String, Entry> index = new LinkedHashMap<String, Entry>();
+
+    private final Map<String, EntityDescriptorType> parsed;
+
+    /**
+     * @param is the metadata document, read and closed
+     * @param maxParsedEntities the number of parsed entities kept
+     * @throws ParsingException
+     */
+    public EntitiesMetadataStore(InputStream is, final int maxParsedEntities) throws ParsingException {
+        if (is == null)
+            throw logger.nullArgumentError("InputStream");
+
+        this.parsed = new LinkedHashMap<String, EntityDescriptorType>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, EntityDescriptorType> eldest) {
+                return size() > maxParsedEntities;
+            }
+        };
+
+        try {
+            this.document = toUTF8(readFully(is));
+            scan();
+        } catch (IOException e) {
+            throw logger.parserException(e);
+        } catch (XMLStreamException e) {
+            throw logger.parserException(e);
+        }
+    }
+
+    /**
+     * Get the IDs of the entities, in document order
+     *
+     * @return
+     */
+    public List<String> getEntityIDs() {
+        return Collections.unmodifiableList(new ArrayList<String>(this.index.keySet()));
+    }
+
+    /**
+     * Get an entity, parsing it if it is not kept parsed
+     *
+     * @param entityID
+     * @return the entity or null if there is no entity with that ID
+     * @throws ParsingException
+     */
+    public EntityDescriptorType getEntityDescriptor(String entityID) throws ParsingException {
+        Entry entry = this.index.get(entityID);
+
+        if (entry == null)
+            return null;
+
+        EntityDescriptorType entity;
+
+        synchronized (this.parsed) {
+            entity = this.parsed.get(entityID);
+        }
+
+        if (entity == null) {
+            entity = parse(entry);
+
+            synchronized (this.parsed) {
+                this.parsed.put(entityID, entity);
+            }
+        }
+
+        return entity;
+    }
+
+    /**
+     * Parse the whole document, none of the entities are kept parsed
+     *
+     * @return
+     * @throws ParsingException
+     */
+    public EntitiesDescriptorType getEntitiesDescriptor() throws ParsingException {
+        Reader reader = getReader(new ByteArrayInputStream(this.document), UTF_8);
+        SAMLEntitiesDescriptorParser parser = new SAMLEntitiesDescriptorParser();
+        return (EntitiesDescriptorType) parser.parse(StaxParserUtil.getXMLEventReader(reader));
+    }
+
+    private EntityDescriptorType parse(Entry entry) throws ParsingException {
+        // the namespaces declared by the enclosing descriptors are declared again by a wrapper element
+        StringBuilder start = new StringBuilder("<").append(WRAPPER);
+
+        for (Map.Entry<String, String> namespace : entry.namespaces.entrySet()) {
+            start.append(" xmlns");
+            if (namespace.getKey().length() > 0)
+                start.append(':').append(namespace.getKey());
+            start.append("=\"").append(escape(namespace.getValue())).append('"');
+        }
+
+        start.append('>');
+
+        InputStream is = new SequenceInputStream(new ByteArrayInputStream(start.toString().getBytes(UTF_8)),
+                new SequenceInputStream(new ByteArrayInputStream(this.document, entry.start, entry.end - entry.start),
+                        new ByteArrayInputStream(("</" + WRAPPER + ">").getBytes(UTF_8))));
+
+        XMLEventReader xmlEventReader = StaxParserUtil.getXMLEventReader(getReader(is, UTF_8));
+
+        // the parser starts at the next start element, the entity
+        StaxParserUtil.getNextStartElement(xmlEventReader);
+
+        return (EntityDescriptorType) new SAMLEntityDescriptorParser().parse(xmlEventReader);
+    }
+
+    private void scan() throws XMLStreamException {
+        XMLStreamReader reader = XMLProcessingPool.getXMLInputFactory().createXMLStreamReader(
+                getReader(new ByteArrayInputStream(this.document), UTF_8));
+        TagScanner tags = new TagScanner(this.document);
+
+        // the namespaces in scope of each enclosing EntitiesDescriptor, an entity shares those of its parent
+        LinkedList<Map<String, String>> scopes = new LinkedList<Map<String, String>>();
+        scopes.add(Collections.<String, String> emptyMap());
+
+        int depth = 0;
+        // depth of the entity being skipped, -1 when outside of an entity
+        int entityDepth = -1;
+        int entityStart = -1;
+        String entityID = null;
+
+        try {
+            while (reader.hasNext()) {
+                int event = reader.next();
+
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    int tagStart = tags.nextStartTag();
+                    depth++;
+
+                    if (entityDepth >= 0 || depth != scopes.size())
+                        continue;
+
+                    String localPart = reader.getLocalName();
+
+                    if (ENTITIES_DESCRIPTOR.equals(localPart)) {
+                        scopes.addLast(getNamespaces(reader, scopes.getLast()));
+                    } else if (ENTITY_DESCRIPTOR.equals(localPart)) {
+                        entityDepth = depth;
+                        entityStart = tagStart;
+                        entityID = reader.getAttributeValue(null, JBossSAMLConstants.ENTITY_ID.get());
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    int tagEnd = tags.nextEndTag();
+
+                    if (depth == entityDepth) {
+                        if (entityID != null && !this.index.containsKey(entityID))
+                            this.index.put(entityID, new Entry(entityStart, tagEnd, scopes.getLast()));
+
+                        entityDepth = -1;
+                    } else if (entityDepth < 0 && depth == scopes.size() - 1) {
+                        scopes.removeLast();
+                    }
+
+                    depth--;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    private Map<String, String> getNamespaces(XMLStreamReader reader, Map<String, String> parent) {
+        int count = reader.getNamespaceCount();
+
+        if (count == 0)
+            return parent;
+
+        Map<String, String> namespaces = new HashMap<String, String>(parent);
+
+        for (int i = 0; i < count; i++) {
+            String prefix = reader.getNamespacePrefix(i);
+            String uri = reader.getNamespaceURI(i);
+            namespaces.put(prefix != null ? prefix : "", uri != null ? uri : "");
+        }
+
+        return namespaces;
+    }
+
+    private static Reader getReader(InputStream is, Charset charset) {
+        return new InputStreamReader(is, charset);
+    }
+
+    private static byte[] readFully(InputStream is) throws IOException {
+        try {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(64 * 1024);
+            byte[] buffer = new byte[8192];
+            int read;
+
+            while ((read = is.read(buffer)) != -1) {
+                baos.write(buffer, 0, read);
+            }
+
+            return baos.toByteArray();
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * Re-encode a document in UTF-8, without byte order mark
+     */
+    private static byte[] toUTF8(byte[] bytes) throws IOException, XMLStreamException {
+        if (bytes.length >= 3 && bytes[0] == (byte) 0xEF && bytes[1] == (byte) 0xBB && bytes[2] == (byte) 0xBF) {
+            byte[] withoutBOM = new byte[bytes.length - 3];
+            System.arraycopy(bytes, 3, withoutBOM, 0, withoutBOM.length);
+            return withoutBOM;
+        }
+
+        XMLStreamReader reader = XMLProcessingPool.getXMLInputFactory().createXMLStreamReader(
+                new ByteArrayInputStream(bytes));
+        String encoding;
+
+        try {
+            encoding = reader.getEncoding();
+        } finally {
+            reader.close();
+        }
+
+        if (encoding == null || UTF_8.name().equalsIgnoreCase(encoding) || "US-ASCII".equalsIgnoreCase(encoding))
+            return bytes;
+
+        String text = new String(bytes, Charset.forName(encoding));
+
+        if (text.length() > 0 && text.charAt(0) == '\uFEFF')
+            text = text.substring(1);
+
+        return text.getBytes(UTF_8);
+    }
+
+    private static String escape(String value) {
+        return value.replace("&", "&amp;").replace("<", "&lt;").replace("\"", "&quot;");
+    }
+
+    /**
+     * Walks the start and end tags of a well formed document, skipping comments, CDATA sections, processing instructions
+     * and the document type declaration. An empty element tag counts as a start tag followed by its end tag.
+     */
+    private static class TagScanner {
+        private final byte[] document;
+
+        private int position;
+
+        // end of the last start tag when it was an empty element tag, -1 otherwise
+        private int emptyElementEnd = -1;
+
+        private TagScanner(byte[] document) {
+            this.document = document;
+        }
+
+        /**
+         * @return the offset of the next start tag
+         */
+        private int nextStartTag() {
+            int start = nextTag();
+
+            if (start < 0 || this.document[start + 1] == '/')
+                throw logger.parserFailed(JBossSAMLConstants.ENTITY_DESCRIPTOR.get());
+
+            int end = skipQuoted(start);
+            this.position = end;
+            this.emptyElementEnd = this.document[end - 2] == '/' ? end : -1;
+
+            return start;
+        }
+
+        /**
+         * @return the offset following the next end tag
+         */
+        private int nextEndTag() {
+            if (this.emptyElementEnd >= 0) {
+                int end = this.emptyElementEnd;
+                this.emptyElementEnd = -1;
+                return end;
+            }
+
+            int start = nextTag();
+
+            if (start < 0 || this.document[start + 1] != '/')
+                throw logger.parserFailed(JBossSAMLConstants.ENTITY_DESCRIPTOR.get());
+
+            this.position = skipQuoted(start);
+            return this.position;
+        }
+
+        private int nextTag() {
+            while (true) {
+                int start = indexOf("<", this.position);
+
+                if (start < 0 || start + 1 >= this.document.length)
+                    return -1;
+
+                if (startsWith("<!--", start)) {
+                    this.position = skip("-->", start);
+                } else if (startsWith("<![CDATA[", start)) {
+                    this.position = skip("]]>", start);
+                } else if (startsWith("<?", start)) {
+                    this.position = skip("?>", start);
+                } else if (startsWith("<!", start)) {
+                    this.position = skipDeclaration(start);
+                } else {
+                    return start;
+                }
+            }
+        }
+
+        /**
+         * @return the offset following the '>' that closes the markup, ignoring the quoted ones
+         */
+        private int skipQuoted(int start) {
+            byte quote = 0;
+
+            for (int i = start; i < this.document.length; i++) {
+                byte b = this.document[i];
+
+                if (quote != 0) {
+                    if (b == quote)
+                        quote = 0;
+                } else if (b == '"' || b == '\'') {
+                    quote = b;
+                } else if (b == '>') {
+                    return i + 1;
+                }
+            }
+
+            throw logger.parserFailed(JBossSAMLConstants.ENTITY_DESCRIPTOR.get());
+        }
+
+        /**
+         * @return the offset following a declaration such as the document type, with its internal subset
+         */
+        private int skipDeclaration(int start) {
+            int subset = 0;
+            byte quote = 0;
+
+            for (int i = start + 2; i < this.document.length; i++) {
+                byte b = this.document[i];
+
+                if (quote != 0) {
+                    if (b == quote)
+                        quote = 0;
+                } else if (b == '"' || b == '\'') {
+                    quote = b;
+                } else if (b == '[') {
+                    subset++;
+                } else if (b == ']') {
+                    subset--;
+                } else if (b == '>' && subset == 0) {
+                    return i + 1;
+                }
+            }
+
+            throw logger.parserFailed(JBossSAMLConstants.ENTITY_DESCRIPTOR.get());
+        }
+
+        private int skip(String end, int start) {
+            int i = indexOf(end, start);
+
+            if (i < 0)
+                throw logger.parserFailed(JBossSAMLConstants.ENTITY_DESCRIPTOR.get());
+
+            return i + end.length();
+        }
+
+        private int indexOf(String s, int from) {
+            for (int i = from; i <= this.document.length - s.length(); i++) {
+                if (startsWith(s, i))
+                    return i;
+            }
+
+            return -1;
+        }
+
+        private boolean startsWith(String s, int offset) {
+            if (offset + s.length() > this.document.length)
+                return false;
+
+            for (int i = 0; i < s.length(); i++) {
+                if (this.document[offset + i] != s.charAt(i))
+                    return false;
+            }
+
+            return true;
+        }
+    }
+
+    private static class Entry {
+        private final int start;
+
+        private final int end;
+
+        private final Map<String, String> namespaces;
+
+        private Entry(int start, int end, Map<String, String> namespaces) {
+            this.start = start;
+            this.end = end;
+            this.namespaces = namespaces;
+        }
+    }
+}
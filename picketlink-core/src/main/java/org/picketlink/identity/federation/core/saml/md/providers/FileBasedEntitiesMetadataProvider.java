@@ -21,30 +21,81 @@
  */
 package org.picketlink.identity.federation.core.saml.md.providers;
 
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+
+import org.picketlink.identity.federation.core.exceptions.ParsingException;
 import org.picketlink.identity.federation.core.interfaces.IMetadataProvider;
-import org.picketlink.identity.federation.core.parsers.saml.metadata.SAMLEntitiesDescriptorParser;
-import org.picketlink.identity.federation.core.parsers.util.StaxParserUtil;
 import org.picketlink.identity.federation.saml.v2.metadata.EntitiesDescriptorType;
+import org.picketlink.identity.federation.saml.v2.metadata.EntityDescriptorType;
 
 /**
- * File based provider that handles multiple entities
+ * File based provider that handles multiple entities. The file is read once into an {@link EntitiesMetadataStore}, so
+ * that single entities can be looked up without parsing the whole file.
  *
  * @author Anil.Saldhana@redhat.com
  * @since Apr 21, 2009
  */
 public class FileBasedEntitiesMetadataProvider extends AbstractFileBasedMetadataProvider<EntitiesDescriptorType> {
 
+    public static final String MAX_PARSED_ENTITIES_KEY = "MaxParsedEntities";
+
+    private static final int DEFAULT_MAX_PARSED_ENTITIES = 1000;
+
+    private int maxParsedEntities = DEFAULT_MAX_PARSED_ENTITIES;
+
+    private EntitiesMetadataStore store;
+
+    @Override
+    public void init(Map<String, String> options) {
+        super.init(options);
+
+        String maxParsedEntities = options.get(MAX_PARSED_ENTITIES_KEY);
+        if (maxParsedEntities != null)
+            this.maxParsedEntities = Integer.parseInt(maxParsedEntities);
+    }
+
+    @Override
+    public synchronized void injectFileStream(InputStream fileStream) {
+        super.injectFileStream(fileStream);
+        this.store = null;
+    }
+
     /**
      * @see IMetadataProvider#getMetaData()
      */
     public EntitiesDescriptorType getMetaData() {
-        if (this.metadataFileStream == null)
-            throw logger.injectedValueMissing("Metadata file");
+        try {
+            return getStore().getEntitiesDescriptor();
+        } catch (ParsingException e) {
+            throw new RuntimeException(e);
+        }
+    }
 
+    /**
+     * Get the IDs of the entities of the file
+     *
+     * @return
+     */
+    public List<String> getEntityIDs() {
+        try {
+            return getStore().getEntityIDs();
+        } catch (ParsingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Get an entity of the file, parsing only that entity
+     *
+     * @param entityID
+     * @return the entity or null if the file has no entity with that ID
+     */
+    public EntityDescriptorType getEntityDescriptor(String entityID) {
         try {
-            SAMLEntitiesDescriptorParser parser = new SAMLEntitiesDescriptorParser();
-            return (EntitiesDescriptorType) parser.parse(StaxParserUtil.getXMLEventReader(metadataFileStream));
-        } catch (Exception e) {
+            return getStore().getEntityDescriptor(entityID);
+        } catch (ParsingException e) {
             throw new RuntimeException(e);
         }
     }
@@ -52,4 +103,15 @@ public class FileBasedEntitiesMetadataProvider extends AbstractFileBasedMetadata
     public boolean isMultiple() {
         return true;
     }
-}
\ No newline at end of file
+
+    private synchronized EntitiesMetadataStore getStore() throws ParsingException {
+        if (this.store == null) {
+            if (this.metadataFileStream == null)
+                throw logger.injectedValueMissing("Metadata file");
+
+            this.store = new EntitiesMetadataStore(this.metadataFileStream, this.maxParsedEntities);
+        }
+
+        return this.store;
+    }
+}
@@ -23,20 +23,25 @@ package org.picketlink.identity.federation.core.saml.v2.impl;
 
 import java.util.Collection;
 import java.util.Collections;
-import java.util.LinkedHashSet;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
 
 import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2Handler;
 import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2HandlerChain;
 
 /**
- * Default implementation of the SAML2 handler chain
+ * <p>
+ * Default implementation of the SAML2 handler chain.
+ * </p>
+ * <p>
+ * The chain can be iterated concurrently, the callers decide which handlers need to be serialized.
+ * </p>
  *
  * @author Anil.Saldhana@redhat.com
  * @since Oct 1, 2009
  */
 public class DefaultSAML2HandlerChain implements SAML2HandlerChain {
-    private Set<SAML2Handler> handlers = new LinkedHashSet<SAML2Handler>();
+    private Set<SAML2Handler> handlers = new CopyOnWriteArraySet<SAML2Handler>();
 
     /**
      * @see SAML2HandlerChain#add(SAML2Handler)
@@ -49,7 +54,15 @@ public class DefaultSAML2HandlerChain implements SAML2HandlerChain {
      * @see SAML2HandlerChain#add(SAML2Handler)
      */
     public boolean addAll(Collection<SAML2Handler> handlers) {
-        return this.handlers.addAll(handlers);
+        boolean modified = false;
+
+        for (SAML2Handler handler : handlers) {
+            if (add(handler)) {
+                modified = true;
+            }
+        }
+
+        return modified;
     }
 
     /**
@@ -77,6 +90,14 @@ public class DefaultSAML2HandlerChain implements SAML2HandlerChain {
      * @see SAML2HandlerChain#removeAll(Collection)
      */
     public boolean removeAll(Collection<SAML2Handler> handlers) {
-        return handlers.removeAll(handlers);
+        boolean modified = false;
+
+        for (SAML2Handler handler : handlers) {
+            if (remove(handler)) {
+                modified = true;
+            }
+        }
+
+        return modified;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,41 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.identity.federation.core.saml.v2.interfaces;
+
+/**
+ * <p>
+ * Marker interface for {@link SAML2Handler} implementations that do not keep any per-request state and can be invoked
+ * concurrently by multiple threads.
+ * </p>
+ * <p>
+ * The IDP runs the handlers of its {@link SAML2HandlerChain} without locking only when their class declares this
+ * interface itself, see {@link org.picketlink.identity.federation.core.saml.v2.util.HandlerUtil#isThreadSafe(SAML2Handler)}.
+ * Every other handler is serialized individually.
+ * </p>
+ * <p>
+ * The marker is opt-in per class: a subclass of a thread-safe handler is serialized again, as it may keep per-request
+ * state in its own fields, unless it declares the interface too after checking that it does not.
+ * </p>
+ */
+public interface SAML2ThreadSafeHandler extends SAML2Handler {
+
+}
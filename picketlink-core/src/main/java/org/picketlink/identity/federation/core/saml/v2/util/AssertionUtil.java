@@ -38,6 +38,7 @@ import org.picketlink.identity.federation.core.exceptions.ConfigurationException
 import org.picketlink.identity.federation.core.exceptions.ProcessingException;
 import org.picketlink.identity.federation.core.saml.v2.exceptions.IssueInstantMissingException;
 import org.picketlink.identity.federation.core.saml.v2.writers.SAMLAssertionWriter;
+import org.picketlink.identity.federation.core.util.SignatureValidationCache;
 import org.picketlink.identity.federation.core.util.StaxUtil;
 import org.picketlink.identity.federation.saml.v1.assertion.SAML11AssertionType;
 import org.picketlink.identity.federation.saml.v1.assertion.SAML11AttributeStatementType;
@@ -246,7 +247,8 @@ public class AssertionUtil {
     }
 
     /**
-     * Given an assertion element, validate the signature
+     * Given an assertion element, validate the signature. An assertion already verified with the same key is found in
+     * the shared {@link SignatureValidationCache} and not verified again.
      *
      * @param assertionElement
      * @param publicKey the {@link PublicKey}
@@ -254,11 +256,26 @@ public class AssertionUtil {
      */
     public static boolean isSignatureValid(Element assertionElement, PublicKey publicKey) {
         try {
+            SignatureValidationCache cache = SignatureValidationCache.getSharedCache();
+            String cacheKey = null;
+
+            if (cache != null) {
+                cacheKey = cache.getKey(assertionElement, publicKey);
+
+                if (cache.isVerified(cacheKey))
+                    return true;
+            }
+
             Document doc = DocumentUtil.createDocument();
             Node n = doc.importNode(assertionElement, true);
             doc.appendChild(n);
 
-            return new SAML2Signature().validate(doc, publicKey);
+            boolean valid = new SAML2Signature().validate(doc, publicKey);
+
+            if (valid && cache != null)
+                cache.verified(cacheKey, assertionElement);
+
+            return valid;
         } catch (Exception e) {
             logger.signatureAssertionValidationError(e);
         }
@@ -405,6 +422,22 @@ public class AssertionUtil {
         return expiry;
     }
 
+    /**
+     * Extract the expiration time from an {@link SAML11AssertionType}
+     *
+     * @param assertion
+     * @return
+     */
+    public static XMLGregorianCalendar getExpiration(SAML11AssertionType assertion) {
+        XMLGregorianCalendar expiry = null;
+
+        SAML11ConditionsType conditionsType = assertion.getConditions();
+        if (conditionsType != null) {
+            expiry = conditionsType.getNotOnOrAfter();
+        }
+        return expiry;
+    }
+
     /**
      * Given an assertion, return the list of roles it may have
      *
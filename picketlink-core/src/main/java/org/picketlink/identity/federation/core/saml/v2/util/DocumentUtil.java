@@ -32,8 +32,6 @@ import java.io.StringWriter;
 
 import javax.xml.namespace.QName;
 import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.Result;
 import javax.xml.transform.Source;
 import javax.xml.transform.Transformer;
@@ -49,9 +47,8 @@ import org.picketlink.identity.federation.PicketLinkLoggerFactory;
 import org.picketlink.identity.federation.core.exceptions.ConfigurationException;
 import org.picketlink.identity.federation.core.exceptions.ParsingException;
 import org.picketlink.identity.federation.core.exceptions.ProcessingException;
-import org.picketlink.identity.federation.core.util.SystemPropertiesUtil;
 import org.picketlink.identity.federation.core.util.TransformerUtil;
-import org.picketlink.identity.federation.web.constants.GeneralConstants;
+import org.picketlink.identity.federation.core.util.XMLProcessingPool;
 import org.w3c.dom.DOMConfiguration;
 import org.w3c.dom.DOMException;
 import org.w3c.dom.Document;
@@ -71,8 +68,6 @@ public class DocumentUtil {
     
     private static final PicketLinkLogger logger = PicketLinkLoggerFactory.getLogger();
     
-    private static DocumentBuilderFactory documentBuilderFactory;
-
     /**
      * Check whether a node belongs to a document
      *
@@ -96,17 +91,10 @@ public class DocumentUtil {
      * Create a new document
      *
      * @return
-     * @throws ParserConfigurationException
+     * @throws ConfigurationException
      */
     public static Document createDocument() throws ConfigurationException {
-        DocumentBuilderFactory factory = getDocumentBuilderFactory();
-        DocumentBuilder builder;
-        try {
-            builder = factory.newDocumentBuilder();
-        } catch (ParserConfigurationException e) {
-            throw new ConfigurationException(e);
-        }
-        return builder.newDocument();
+        return XMLProcessingPool.getDocumentBuilder().newDocument();
     }
 
     /**
@@ -118,12 +106,11 @@ public class DocumentUtil {
      */
     public static Document createDocumentWithBaseNamespace(String baseNamespace, String localPart) throws ProcessingException {
         try {
-            DocumentBuilderFactory factory = getDocumentBuilderFactory();
-            DocumentBuilder builder = factory.newDocumentBuilder();
+            DocumentBuilder builder = XMLProcessingPool.getDocumentBuilder();
             return builder.getDOMImplementation().createDocument(baseNamespace, localPart, null);
         } catch (DOMException e) {
             throw logger.processingError(e);
-        } catch (ParserConfigurationException e) {
+        } catch (ConfigurationException e) {
             throw logger.processingError(e);
         }
     }
@@ -153,11 +140,8 @@ public class DocumentUtil {
      */
     public static Document getDocument(Reader reader) throws ConfigurationException, ProcessingException, ParsingException {
         try {
-            DocumentBuilderFactory factory = getDocumentBuilderFactory();
-            DocumentBuilder builder = factory.newDocumentBuilder();
+            DocumentBuilder builder = XMLProcessingPool.getDocumentBuilder();
             return builder.parse(new InputSource(reader));
-        } catch (ParserConfigurationException e) {
-            throw logger.configurationError(e);
         } catch (SAXException e) {
             throw logger.parserError(e);
         } catch (IOException e) {
@@ -175,12 +159,9 @@ public class DocumentUtil {
      * @throws SAXException
      */
     public static Document getDocument(File file) throws ConfigurationException, ProcessingException, ParsingException {
-        DocumentBuilderFactory factory = getDocumentBuilderFactory();
+        DocumentBuilder builder = XMLProcessingPool.getDocumentBuilder();
         try {
-            DocumentBuilder builder = factory.newDocumentBuilder();
             return builder.parse(file);
-        } catch (ParserConfigurationException e) {
-            throw logger.configurationError(e);
         } catch (SAXException e) {
             throw logger.parserError(e);
         } catch (IOException e) {
@@ -198,12 +179,9 @@ public class DocumentUtil {
      * @throws SAXException
      */
     public static Document getDocument(InputStream is) throws ConfigurationException, ProcessingException, ParsingException {
-        DocumentBuilderFactory factory = getDocumentBuilderFactory();
+        DocumentBuilder builder = XMLProcessingPool.getDocumentBuilder();
         try {
-            DocumentBuilder builder = factory.newDocumentBuilder();
             return builder.parse(is);
-        } catch (ParserConfigurationException e) {
-            throw logger.configurationError(e);
         } catch (SAXException e) {
             throw logger.parserError(e);
         } catch (IOException e) {
@@ -225,7 +203,7 @@ public class DocumentUtil {
 
         Result streamResult = new StreamResult(sw);
         // Write the DOM document to the stream
-        Transformer xformer = TransformerUtil.getTransformer();
+        Transformer xformer = XMLProcessingPool.getTransformer();
         try {
             xformer.transform(source, streamResult);
         } catch (TransformerException e) {
@@ -249,7 +227,7 @@ public class DocumentUtil {
 
         Result streamResult = new StreamResult(sw);
         // Write the DOM document to the file
-        Transformer xformer = TransformerUtil.getTransformer();
+        Transformer xformer = XMLProcessingPool.getTransformer();
         try {
             xformer.transform(source, streamResult);
         } catch (TransformerException e) {
@@ -333,7 +311,7 @@ public class DocumentUtil {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         Result streamResult = new StreamResult(baos);
         // Write the DOM document to the stream
-        Transformer transformer = TransformerUtil.getTransformer();
+        Transformer transformer = XMLProcessingPool.getTransformer();
         try {
             transformer.transform(source, streamResult);
         } catch (TransformerException e) {
@@ -358,7 +336,7 @@ public class DocumentUtil {
 
         Result streamResult = new StreamResult(baos);
         // Write the DOM document to the stream
-        Transformer transformer = TransformerUtil.getTransformer();
+        Transformer transformer = XMLProcessingPool.getTransformer();
         try {
             transformer.transform(source, streamResult);
         } catch (TransformerException e) {
@@ -441,6 +419,22 @@ public class DocumentUtil {
         return str;
     }
 
+    /**
+     * Get the node as a string while ignoring any exceptions
+     *
+     * @param node
+     * @return
+     */
+    public static String asString(Node node) {
+        String str = null;
+
+        try {
+            str = getNodeAsString(node);
+        } catch (Exception ignore) {
+        }
+        return str;
+    }
+
     /**
      * Log the nodes in the document
      *
@@ -452,7 +446,7 @@ public class DocumentUtil {
 
     public static Node getNodeFromSource(Source source) throws ProcessingException, ConfigurationException {
         try {
-            Transformer transformer = TransformerUtil.getTransformer();
+            Transformer transformer = XMLProcessingPool.getTransformer();
             DOMResult result = new DOMResult();
             TransformerUtil.transform(transformer,source,result);
             return result.getNode();
@@ -463,7 +457,7 @@ public class DocumentUtil {
 
     public static Document getDocumentFromSource(Source source) throws ProcessingException, ConfigurationException {
         try {
-            Transformer transformer = TransformerUtil.getTransformer();
+            Transformer transformer = XMLProcessingPool.getTransformer();
             DOMResult result = new DOMResult();
             TransformerUtil.transform(transformer,source,result);
             return (Document) result.getNode();
@@ -485,34 +479,4 @@ public class DocumentUtil {
             visit(childNode, level + 1);
         }
     }
-
-    /**
-     * <p>
-     * Creates a namespace aware {@link DocumentBuilderFactory}. The returned instance is cached and shared between different
-     * threads.
-     * </p>
-     * 
-     * @return
-     */
-    private static DocumentBuilderFactory getDocumentBuilderFactory() {
-        boolean tccl_jaxp = SystemPropertiesUtil.getSystemProperty(GeneralConstants.TCCL_JAXP, "false")
-                .equalsIgnoreCase("true");
-        ClassLoader prevTCCL = SecurityActions.getTCCL();
-        if (documentBuilderFactory == null) {
-            try {
-                if (tccl_jaxp) {
-                    SecurityActions.setTCCL(DocumentUtil.class.getClassLoader());
-                }
-                documentBuilderFactory = DocumentBuilderFactory.newInstance();
-                documentBuilderFactory.setNamespaceAware(true);
-                documentBuilderFactory.setXIncludeAware(true);
-            } finally {
-                if (tccl_jaxp) {
-                    SecurityActions.setTCCL(prevTCCL);
-                }
-            }
-        }
-
-        return documentBuilderFactory;
-    }
 }
\ No newline at end of file
@@ -36,6 +36,7 @@ import org.picketlink.identity.federation.core.handler.config.Handlers;
 import org.picketlink.identity.federation.core.saml.v2.impl.DefaultSAML2HandlerConfig;
 import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2Handler;
 import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2HandlerConfig;
+import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2ThreadSafeHandler;
 
 /**
  * Deals with SAML2 Handlers
@@ -84,4 +85,20 @@ public class HandlerUtil {
         }
         return handlerSet;
     }
+
+    /**
+     * Check whether a handler can be invoked concurrently, which is the case when its class declares
+     * {@link SAML2ThreadSafeHandler} itself. Inheriting the marker is not enough, see {@link SAML2ThreadSafeHandler}.
+     *
+     * @param handler
+     * @return
+     */
+    public static boolean isThreadSafe(SAML2Handler handler) {
+        for (Class<?> declared : handler.getClass().getInterfaces()) {
+            if (declared == SAML2ThreadSafeHandler.class)
+                return true;
+        }
+
+        return false;
+    }
 }
\ No newline at end of file
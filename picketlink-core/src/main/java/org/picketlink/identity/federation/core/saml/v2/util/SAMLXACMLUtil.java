@@ -21,21 +21,21 @@
  */
 package org.picketlink.identity.federation.core.saml.v2.util;
 
-import java.io.ByteArrayOutputStream;
-
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBElement;
 import javax.xml.bind.JAXBException;
-import javax.xml.transform.stream.StreamResult;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.bind.helpers.DefaultValidationEventHandler;
 
 import org.jboss.security.xacml.core.model.context.ObjectFactory;
 import org.jboss.security.xacml.core.model.context.RequestType;
 import org.jboss.security.xacml.core.model.context.ResponseType;
 import org.picketlink.identity.federation.PicketLinkLogger;
 import org.picketlink.identity.federation.PicketLinkLoggerFactory;
+import org.picketlink.identity.federation.core.exceptions.ParsingException;
 import org.picketlink.identity.federation.core.exceptions.ProcessingException;
-import org.picketlink.identity.federation.core.util.TransformerUtil;
 import org.w3c.dom.Document;
+import org.w3c.dom.Node;
 
 /**
  * Utility for SAML and XACML
@@ -49,36 +49,61 @@ public class SAMLXACMLUtil {
     
     public final static String XACML_PKG_PATH = "org.jboss.security.xacml.core.model.context";
 
+    private static volatile JAXBContext jaxbContext;
+
+    /**
+     * Get the {@code JAXBContext} of the XACML context model. The context is thread safe and expensive to create, so it is
+     * created once and shared.
+     *
+     * @return
+     * @throws JAXBException
+     */
     public static JAXBContext getJAXBContext() throws JAXBException {
-        return JAXBContext.newInstance(XACML_PKG_PATH);
+        JAXBContext context = jaxbContext;
+
+        if (context == null) {
+            // racing threads may both create a context, either one is fine
+            context = JAXBContext.newInstance(XACML_PKG_PATH, ObjectFactory.class.getClassLoader());
+            jaxbContext = context;
+        }
+
+        return context;
     }
 
     public static Document getXACMLResponse(ResponseType responseType) throws ProcessingException {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        JAXBElement<?> jaxb = (new ObjectFactory()).createResponse(responseType);
+        return marshall((new ObjectFactory()).createResponse(responseType));
+    }
 
-        StreamResult result = new StreamResult(baos);
+    public static Document getXACMLRequest(RequestType requestType) throws ProcessingException {
+        return marshall((new ObjectFactory()).createRequest(requestType));
+    }
 
+    /**
+     * Unmarshall an XACML context element, such as a {@code Request} or a {@code Response}
+     *
+     * @param node
+     * @return
+     * @throws ParsingException
+     */
+    public static Object unmarshall(Node node) throws ParsingException {
         try {
-            TransformerUtil.transform(SAMLXACMLUtil.getJAXBContext(), jaxb, result);
-            return DocumentUtil.getDocument(new String(baos.toByteArray()));
+            Unmarshaller unmarshaller = getJAXBContext().createUnmarshaller();
+            unmarshaller.setEventHandler(new DefaultValidationEventHandler());
+            JAXBElement<?> jaxbElement = (JAXBElement<?>) unmarshaller.unmarshal(node);
+            return jaxbElement.getValue();
         } catch (Exception e) {
-            throw logger.processingError(e);
+            throw new ParsingException(e);
         }
     }
 
-    public static Document getXACMLRequest(RequestType requestType) throws ProcessingException {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        // Marshaller marshaller = getMarshaller();
-        JAXBElement<?> jaxb = (new ObjectFactory()).createRequest(requestType);
-
-        StreamResult result = new StreamResult(baos);
-
+    // marshall straight into a DOM tree, rather than into bytes that are parsed again
+    private static Document marshall(JAXBElement<?> jaxb) throws ProcessingException {
         try {
-            TransformerUtil.transform(getJAXBContext(), jaxb, result);
-            return DocumentUtil.getDocument(new String(baos.toByteArray()));
+            Document document = DocumentUtil.createDocument();
+            getJAXBContext().createMarshaller().marshal(jaxb, document);
+            return document;
         } catch (Exception e) {
             throw logger.processingError(e);
         }
     }
-}
\ No newline at end of file
+}
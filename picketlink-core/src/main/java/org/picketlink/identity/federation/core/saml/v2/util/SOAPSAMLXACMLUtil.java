@@ -27,6 +27,7 @@ import java.util.List;
 import java.util.Set;
 
 import javax.xml.stream.XMLEventReader;
+import javax.xml.transform.dom.DOMResult;
 
 import org.jboss.security.xacml.core.JBossRequestContext;
 import org.jboss.security.xacml.core.model.context.RequestType;
@@ -42,16 +43,20 @@ import org.picketlink.identity.federation.core.factories.XACMLContextFactory;
 import org.picketlink.identity.federation.core.parsers.saml.SAMLParser;
 import org.picketlink.identity.federation.core.parsers.saml.xacml.SAMLXACMLRequestParser;
 import org.picketlink.identity.federation.core.parsers.util.StaxParserUtil;
+import org.picketlink.identity.federation.core.pdp.XACMLDecisionCache;
 import org.picketlink.identity.federation.core.saml.v2.common.IDGenerator;
 import org.picketlink.identity.federation.core.saml.v2.factories.JBossSAMLAuthnResponseFactory;
 import org.picketlink.identity.federation.core.saml.v2.factories.SAMLAssertionFactory;
 import org.picketlink.identity.federation.core.saml.v2.holders.IssuerInfoHolder;
+import org.picketlink.identity.federation.core.saml.v2.writers.SAMLResponseWriter;
 import org.picketlink.identity.federation.core.util.JAXPValidationUtil;
+import org.picketlink.identity.federation.core.util.StaxUtil;
 import org.picketlink.identity.federation.saml.v2.assertion.AssertionType;
 import org.picketlink.identity.federation.saml.v2.assertion.StatementAbstractType;
 import org.picketlink.identity.federation.saml.v2.profiles.xacml.assertion.XACMLAuthzDecisionStatementType;
 import org.picketlink.identity.federation.saml.v2.protocol.ResponseType.RTChoiceType;
 import org.picketlink.identity.federation.saml.v2.protocol.XACMLAuthzDecisionQueryType;
+import org.w3c.dom.Document;
 import org.w3c.dom.Node;
 
 /**
@@ -105,23 +110,94 @@ public class SOAPSAMLXACMLUtil {
         throw new RuntimeException("Not found XACMLAuthzDecisionStatementType");
     }
 
-    public synchronized static org.picketlink.identity.federation.saml.v2.protocol.ResponseType handleXACMLQuery(
+    /**
+     * Evaluate the XACML query with the {@code PolicyDecisionPoint} and wrap the decision in a SAML response. No lock is
+     * held, concurrent queries are evaluated in parallel.
+     *
+     * @param pdp
+     * @param issuer
+     * @param xacmlRequest
+     * @return
+     * @throws ProcessingException
+     * @throws ConfigurationException
+     */
+    public static org.picketlink.identity.federation.saml.v2.protocol.ResponseType handleXACMLQuery(
             PolicyDecisionPoint pdp, String issuer, XACMLAuthzDecisionQueryType xacmlRequest) throws ProcessingException,
             ConfigurationException {
+        return handleXACMLQuery(pdp, issuer, xacmlRequest, null);
+    }
+
+    /**
+     * Evaluate the XACML query, serving the decision from the {@code XACMLDecisionCache} when it holds one for the same
+     * request context. The PDP must not be replaced while the cache is in use, see
+     * {@link #handleXACMLQuery(PolicyDecisionPoint, long, String, XACMLAuthzDecisionQueryType, XACMLDecisionCache)}
+     * otherwise.
+     *
+     * @param pdp
+     * @param issuer
+     * @param xacmlRequest
+     * @param decisionCache the cache of decisions, may be null
+     * @return
+     * @throws ProcessingException
+     * @throws ConfigurationException
+     */
+    public static org.picketlink.identity.federation.saml.v2.protocol.ResponseType handleXACMLQuery(
+            PolicyDecisionPoint pdp, String issuer, XACMLAuthzDecisionQueryType xacmlRequest,
+            XACMLDecisionCache decisionCache) throws ProcessingException, ConfigurationException {
+        long version = decisionCache != null ? decisionCache.getVersion() : 0;
+        return handleXACMLQuery(pdp, version, issuer, xacmlRequest, decisionCache);
+    }
+
+    /**
+     * <p>
+     * Evaluate the XACML query, serving the decision from the {@code XACMLDecisionCache} when it holds one for the same
+     * request context.
+     * </p>
+     * <p>
+     * {@code version} is the cache version the PDP was published with. The decision is only cached if the cache was not
+     * invalidated since, so a PDP that was replaced, and the cache invalidated, never caches its decisions under the
+     * version of its successor.
+     * </p>
+     *
+     * @param pdp
+     * @param version the value of {@link XACMLDecisionCache#getVersion()} when the PDP became current
+     * @param issuer
+     * @param xacmlRequest
+     * @param decisionCache the cache of decisions, may be null
+     * @return
+     * @throws ProcessingException
+     * @throws ConfigurationException
+     */
+    public static org.picketlink.identity.federation.saml.v2.protocol.ResponseType handleXACMLQuery(
+            PolicyDecisionPoint pdp, long version, String issuer, XACMLAuthzDecisionQueryType xacmlRequest,
+            XACMLDecisionCache decisionCache) throws ProcessingException, ConfigurationException {
         RequestType requestType = xacmlRequest.getRequest();
 
-        RequestContext requestContext = new JBossRequestContext();
-        try {
-            requestContext.setRequest(requestType);
-        } catch (IOException e) {
-            throw new ProcessingException(e);
+        String key = null;
+        ResultType resultType = null;
+
+        if (decisionCache != null) {
+            key = decisionCache.getKey(requestType);
+            resultType = decisionCache.get(key);
         }
 
-        // pdp evaluation is thread safe
-        ResponseContext responseContext = pdp.evaluate(requestContext);
+        if (resultType == null) {
+            RequestContext requestContext = new JBossRequestContext();
+            try {
+                requestContext.setRequest(requestType);
+            } catch (IOException e) {
+                throw new ProcessingException(e);
+            }
+
+            // pdp evaluation is thread safe
+            ResponseContext responseContext = pdp.evaluate(requestContext);
+            resultType = responseContext.getResult();
+
+            if (decisionCache != null)
+                decisionCache.put(key, version, resultType);
+        }
 
         ResponseType responseType = new ResponseType();
-        ResultType resultType = responseContext.getResult();
         responseType.getResult().add(resultType);
 
         XACMLAuthzDecisionStatementType xacmlStatement = XACMLContextFactory.createXACMLAuthzDecisionStatementType(requestType,
@@ -144,4 +220,22 @@ public class SOAPSAMLXACMLUtil {
 
         return samlResponseType;
     }
+
+    /**
+     * Write the SAML response straight into a DOM {@code Document}, ready to be placed in a SOAP body
+     *
+     * @param samlResponseType
+     * @return
+     * @throws ProcessingException
+     * @throws ConfigurationException
+     */
+    public static Document getResponseDocument(org.picketlink.identity.federation.saml.v2.protocol.ResponseType samlResponseType)
+            throws ProcessingException, ConfigurationException {
+        DOMResult result = new DOMResult(DocumentUtil.createDocument());
+
+        SAMLResponseWriter samlResponseWriter = new SAMLResponseWriter(StaxUtil.getXMLStreamWriter(result));
+        samlResponseWriter.write(samlResponseType);
+
+        return (Document) result.getNode();
+    }
 }
\ No newline at end of file
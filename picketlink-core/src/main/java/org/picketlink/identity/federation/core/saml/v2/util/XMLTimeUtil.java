@@ -35,6 +35,7 @@ import org.picketlink.identity.federation.PicketLinkLoggerFactory;
 import org.picketlink.identity.federation.core.exceptions.ConfigurationException;
 import org.picketlink.identity.federation.core.exceptions.ParsingException;
 import org.picketlink.identity.federation.core.util.SystemPropertiesUtil;
+import org.picketlink.identity.federation.core.util.XMLProcessingPool;
 import org.picketlink.identity.federation.web.constants.GeneralConstants;
 
 /**
@@ -60,7 +61,7 @@ public class XMLTimeUtil {
 
         Duration duration;
         try {
-            duration = newDatatypeFactory().newDuration(milis);
+            duration = XMLProcessingPool.getDatatypeFactory().newDuration(milis);
         } catch (DatatypeConfigurationException e) {
             throw logger.configurationError(e);
         }
@@ -94,7 +95,7 @@ public class XMLTimeUtil {
         TimeZone tz = TimeZone.getTimeZone(timezone);
         DatatypeFactory dtf;
         try {
-            dtf = newDatatypeFactory();
+            dtf = XMLProcessingPool.getDatatypeFactory();
         } catch (DatatypeConfigurationException e) {
             throw logger.configurationError(e);
         }
@@ -180,7 +181,7 @@ public class XMLTimeUtil {
         DatatypeFactory factory = null;
 
         try {
-            factory = newDatatypeFactory();
+            factory = XMLProcessingPool.getDatatypeFactory();
         } catch (DatatypeConfigurationException e) {
             throw logger.parserError(e);
         }
@@ -207,7 +208,7 @@ public class XMLTimeUtil {
     public static XMLGregorianCalendar parse(String timeString) throws ParsingException {
         DatatypeFactory factory = null;
         try {
-            factory = newDatatypeFactory();
+            factory = XMLProcessingPool.getDatatypeFactory();
         } catch (DatatypeConfigurationException e) {
             throw logger.parserError(e);
         }
@@ -215,7 +216,8 @@ public class XMLTimeUtil {
     }
 
     /**
-     * Create a new {@link DatatypeFactory}
+     * Create a new {@link DatatypeFactory}. Prefer {@link XMLProcessingPool#getDatatypeFactory()} when the factory is not
+     * kept by the caller.
      * @return
      * @throws DatatypeConfigurationException
      */
@@ -21,6 +21,8 @@
  */
 package org.picketlink.identity.federation.core.sts;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.util.Map;
 
 import org.picketlink.identity.federation.PicketLinkLogger;
@@ -47,6 +49,10 @@ public abstract class AbstractSecurityTokenProvider implements SecurityTokenProv
 
     protected static final String TOKEN_REGISTRY_JDBC = "TokenRegistryJDBC";
 
+    protected static final String TOKEN_REGISTRY_JDBC_WRITE_BEHIND = "TokenRegistryJDBCWriteBehind";
+
+    protected static final String TOKEN_REGISTRY_MAX_ENTRIES = "TokenRegistryMaxEntries";
+
     protected static final String REVOCATION_REGISTRY = "RevocationRegistry";
 
     protected static final String REVOCATION_REGISTRY_FILE = "RevocationRegistryFile";
@@ -55,6 +61,8 @@ public abstract class AbstractSecurityTokenProvider implements SecurityTokenProv
 
     protected static final String REVOCATION_REGISTRY_JDBC_CONFIG = "RevocationRegistryJDBCConfig";
 
+    protected static final String REVOCATION_REGISTRY_REFRESH_INTERVAL = "RevocationRegistryRefreshInterval";
+
     protected static final String ATTRIBUTE_PROVIDER = "AttributeProvider";
 
     protected SecurityTokenRegistry tokenRegistry = new DefaultTokenRegistry();
@@ -86,7 +94,12 @@ public abstract class AbstractSecurityTokenProvider implements SecurityTokenProv
                     this.tokenRegistry = new JPABasedTokenRegistry();
             } else if ("JDBC".equalsIgnoreCase(tokenRegistryOption)) {
                 String tokenRegistryjdbc = this.properties.get(TOKEN_REGISTRY_JDBC);
-                if (tokenRegistryjdbc != null)
+                boolean writeBehind = "true".equalsIgnoreCase(this.properties.get(TOKEN_REGISTRY_JDBC_WRITE_BEHIND));
+                if (writeBehind)
+                    this.tokenRegistry = new JDBCTokenRegistry(tokenRegistryjdbc != null ? tokenRegistryjdbc
+                            : "jdbc/picketlink-sts", true, JDBCTokenRegistry.DEFAULT_BATCH_SIZE,
+                            JDBCTokenRegistry.DEFAULT_FLUSH_INTERVAL);
+                else if (tokenRegistryjdbc != null)
                     this.tokenRegistry = new JDBCTokenRegistry(tokenRegistryjdbc);
                 else
                     this.tokenRegistry = new JDBCTokenRegistry();
@@ -112,6 +125,11 @@ public abstract class AbstractSecurityTokenProvider implements SecurityTokenProv
         if (this.tokenRegistry == null)
             tokenRegistry = new DefaultTokenRegistry();
 
+        // bound the number of tokens kept by the in-memory registry
+        String maxEntries = this.properties.get(TOKEN_REGISTRY_MAX_ENTRIES);
+        if (maxEntries != null && this.tokenRegistry instanceof DefaultTokenRegistry)
+            ((DefaultTokenRegistry) this.tokenRegistry).setMaxEntries(Integer.parseInt(maxEntries));
+
         // check if a revocation registry option has been set.
         String registryOption = this.properties.get(REVOCATION_REGISTRY);
         if (registryOption == null) {
@@ -134,10 +152,20 @@ public abstract class AbstractSecurityTokenProvider implements SecurityTokenProv
                     this.revocationRegistry = new JPABasedRevocationRegistry();
             }else if ("JDBC".equalsIgnoreCase(registryOption)) {
                 String configuration = this.properties.get(REVOCATION_REGISTRY_JDBC_CONFIG);
+                JDBCRevocationRegistry jdbcRegistry;
                 if (configuration != null)
-                    this.revocationRegistry = new JDBCRevocationRegistry(configuration);
+                    jdbcRegistry = new JDBCRevocationRegistry(configuration);
+                else
+                    jdbcRegistry = new JDBCRevocationRegistry();
+
+                // front the database with a Bloom filter of the revoked ids, unless the refresh interval is zero
+                String refreshInterval = this.properties.get(REVOCATION_REGISTRY_REFRESH_INTERVAL);
+                long interval = refreshInterval != null ? Long.parseLong(refreshInterval)
+                        : BloomFilterRevocationRegistry.DEFAULT_REFRESH_INTERVAL;
+                if (interval > 0)
+                    this.revocationRegistry = new BloomFilterRevocationRegistry(jdbcRegistry, interval);
                 else
-                    this.revocationRegistry = new JDBCRevocationRegistry();
+                    this.revocationRegistry = jdbcRegistry;
             }
             // the user has specified its own registry implementation class.
             else {
@@ -161,4 +189,23 @@ public abstract class AbstractSecurityTokenProvider implements SecurityTokenProv
         if (this.revocationRegistry == null)
             this.revocationRegistry = new DefaultRevocationRegistry();
     }
+
+    /**
+     * Close the registries of this provider, so that queued writes are flushed and background threads stop. Called
+     * by the STS when it is undeployed.
+     */
+    public void destroy() {
+        close(this.tokenRegistry);
+        close(this.revocationRegistry);
+    }
+
+    private void close(Object registry) {
+        if (registry instanceof Closeable) {
+            try {
+                ((Closeable) registry).close();
+            } catch (IOException e) {
+                logger.error(e);
+            }
+        }
+    }
 }
\ No newline at end of file
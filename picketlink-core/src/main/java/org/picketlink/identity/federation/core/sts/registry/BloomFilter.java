@@ -0,0 +1,125 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.identity.federation.core.sts.registry;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A thread safe Bloom filter of strings. It answers whether a string may have been added, without false negatives.
+ */
+final class BloomFilter {
+
+    private final AtomicLongArray bits;
+
+    private final int numBits;
+
+    private final int numHashes;
+
+    private final int capacity;
+
+    private final AtomicInteger count = new AtomicInteger();
+
+    /**
+     * @param capacity number of strings the filter is sized for
+     * @param falsePositiveProbability expected false positive probability once {@code capacity} strings were added
+     */
+    BloomFilter(int capacity, double falsePositiveProbability) {
+        this.capacity = Math.max(1, capacity);
+        double ln2 = Math.log(2);
+        long m = (long) Math.ceil(-this.capacity * Math.log(falsePositiveProbability) / (ln2 * ln2));
+        this.numBits = (int) Math.max(64, Math.min(Integer.MAX_VALUE - 64, m));
+        this.numHashes = Math.max(1, (int) Math.round((double) numBits / this.capacity * ln2));
+        this.bits = new AtomicLongArray((numBits + 63) >>> 6);
+    }
+
+    /**
+     * Add a string. Strings that were already added are not counted again, so re-reading them does not saturate the
+     * filter.
+     */
+    void put(String value) {
+        long hash = hash(value);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        boolean changed = false;
+        for (int i = 1; i <= numHashes; i++) {
+            changed |= set(index(h1 + i * h2));
+        }
+        if (changed)
+            count.incrementAndGet();
+    }
+
+    boolean mightContain(String value) {
+        long hash = hash(value);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= numHashes; i++) {
+            int index = index(h1 + i * h2);
+            if ((bits.get(index >>> 6) & (1L << index)) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Whether more distinct strings were added than the filter was sized for
+     */
+    boolean isSaturated() {
+        return count.get() > capacity;
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    private int index(int combinedHash) {
+        return (combinedHash & Integer.MAX_VALUE) % numBits;
+    }
+
+    // whether the bit was clear before
+    private boolean set(int index) {
+        int word = index >>> 6;
+        long mask = 1L << index;
+        while (true) {
+            long current = bits.get(word);
+            if ((current & mask) != 0)
+                return false;
+            if (bits.compareAndSet(word, current, current | mask))
+                return true;
+        }
+    }
+
+    // 64 bit FNV-1a followed by the MurmurHash3 finalizer
+    private static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
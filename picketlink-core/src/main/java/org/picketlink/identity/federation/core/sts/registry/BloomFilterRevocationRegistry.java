@@ -0,0 +1,213 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.identity.federation.core.sts.registry;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.picketlink.identity.federation.PicketLinkLogger;
+import org.picketlink.identity.federation.PicketLinkLoggerFactory;
+
+/**
+ * <p>
+ * A {@link RevocationRegistry} that keeps a local Bloom filter of the revoked ids in front of another registry. Ids the
+ * filter has never seen are reported as not revoked without asking the backing registry; only probable hits are
+ * checked against it.
+ * </p>
+ * <p>
+ * The filter is loaded from the backing registry on creation and then refreshed incrementally, at most once per refresh
+ * interval, with the ids revoked since the latest revocation time already seen. Refreshes run in a background thread, so
+ * checks never wait for the backing registry to be read. Tokens revoked through this registry are added to the filter
+ * immediately; tokens revoked by other nodes sharing the backing store are seen shortly after one refresh interval.
+ * While the backing registry cannot be read, every check goes to the backing registry.
+ * </p>
+ * <p>
+ * {@link #close()} stops the background refreshes.
+ * </p>
+ */
+public class BloomFilterRevocationRegistry implements RevocationRegistry, Closeable {
+
+    private static final PicketLinkLogger logger = PicketLinkLoggerFactory.getLogger();
+
+    /**
+     * Default number of milliseconds between two refreshes of the filter
+     */
+    public static final long DEFAULT_REFRESH_INTERVAL = 1000;
+
+    private static final int DEFAULT_CAPACITY = 100000;
+
+    private static final double FALSE_POSITIVE_PROBABILITY = 0.01;
+
+    // revocations committed late, with a creation date older than the watermark, are still picked up
+    private static final long WATERMARK_OVERLAP = 60000;
+
+    private static final long REFRESHER_KEEP_ALIVE = 60000;
+
+    private final IncrementalRevocationRegistry delegate;
+
+    private final long refreshInterval;
+
+    private final Lock refreshLock = new ReentrantLock();
+
+    // whether a background refresh is queued or running
+    private final AtomicBoolean refreshPending = new AtomicBoolean();
+
+    private final ExecutorService refresher;
+
+    private volatile BloomFilter filter;
+
+    // whether the filter reflects the backing registry, as of the last refresh
+    private volatile boolean synced;
+
+    private volatile long lastRefresh;
+
+    private long watermark;
+
+    public BloomFilterRevocationRegistry(IncrementalRevocationRegistry delegate) {
+        this(delegate, DEFAULT_REFRESH_INTERVAL);
+    }
+
+    public BloomFilterRevocationRegistry(IncrementalRevocationRegistry delegate, long refreshInterval) {
+        if (delegate == null)
+            throw logger.nullArgumentError("delegate");
+
+        this.delegate = delegate;
+        this.refreshInterval = refreshInterval;
+        this.filter = new BloomFilter(DEFAULT_CAPACITY, FALSE_POSITIVE_PROBABILITY);
+        // the thread exits when idle, so that a registry that is never closed does not keep it
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, REFRESHER_KEEP_ALIVE, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "PicketLink revocation filter refresh");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        this.refresher = executor;
+        refresh();
+    }
+
+    /**
+     * @see RevocationRegistry#isRevoked(String, String)
+     */
+    public boolean isRevoked(String tokenType, String id) {
+        if (System.currentTimeMillis() - lastRefresh >= refreshInterval)
+            scheduleRefresh();
+
+        if (synced && !filter.mightContain(id))
+            return false;
+
+        return delegate.isRevoked(tokenType, id);
+    }
+
+    /**
+     * @see RevocationRegistry#revokeToken(String, String)
+     */
+    public void revokeToken(String tokenType, String id) {
+        delegate.revokeToken(tokenType, id);
+
+        BloomFilter current = filter;
+        current.put(id);
+        // the filter may have been replaced by a rebuild that did not see this revocation yet
+        if (filter != current)
+            filter.put(id);
+    }
+
+    /**
+     * Stop refreshing the filter in the background. Checks keep working against the filter as of the last refresh.
+     */
+    public void close() {
+        refresher.shutdown();
+    }
+
+    /**
+     * Add the ids revoked since the last refresh to the filter. Only one thread refreshes at a time; the others keep
+     * using the current filter.
+     */
+    public void refresh() {
+        if (!refreshLock.tryLock())
+            return;
+
+        try {
+            BloomFilter current = filter;
+            boolean rebuild = !synced || current.isSaturated();
+            long since = rebuild ? 0 : Math.max(0, watermark - WATERMARK_OVERLAP);
+
+            List<String> ids = new ArrayList<String>();
+            long latest = delegate.getRevokedIds(since, ids);
+
+            if (rebuild) {
+                // start over with a filter large enough for all the revoked ids
+                int capacity = current.getCapacity();
+                while (capacity < ids.size() * 2 && capacity < Integer.MAX_VALUE / 2)
+                    capacity *= 2;
+                BloomFilter rebuilt = new BloomFilter(capacity, FALSE_POSITIVE_PROBABILITY);
+                for (String id : ids)
+                    rebuilt.put(id);
+                filter = rebuilt;
+                watermark = latest;
+            } else {
+                for (String id : ids)
+                    current.put(id);
+                watermark = Math.max(watermark, latest);
+            }
+            synced = true;
+        } catch (RuntimeException e) {
+            synced = false;
+            logger.debug("Unable to refresh the revoked ids: " + e.getMessage());
+        } finally {
+            lastRefresh = System.currentTimeMillis();
+            refreshLock.unlock();
+        }
+    }
+
+    private void scheduleRefresh() {
+        if (!refreshPending.compareAndSet(false, true))
+            return;
+
+        try {
+            refresher.execute(new Runnable() {
+                public void run() {
+                    try {
+                        refresh();
+                    } finally {
+                        refreshPending.set(false);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // closed, keep the filter as it is
+            refreshPending.set(false);
+        }
+    }
+}
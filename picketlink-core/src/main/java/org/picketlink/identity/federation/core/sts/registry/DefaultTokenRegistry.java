@@ -22,20 +22,78 @@
 package org.picketlink.identity.federation.core.sts.registry;
 
 import java.io.IOException;
+import java.lang.ref.WeakReference;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.picketlink.identity.federation.core.sts.PicketLinkCoreSTS;
 
 /**
+ * <p>
  * Hashmap based token registry
+ * </p>
+ * <p>
+ * The registry learns the expiration of each token from its assertion conditions and keeps the tokens ordered by
+ * expiration. A background task drops expired tokens every {@link #DEFAULT_REAP_INTERVAL} milliseconds (configurable).
+ * When a maximum number of entries is configured, adding a token beyond that bound evicts the tokens that expire first;
+ * tokens without a known expiration are evicted last, oldest first.
+ * </p>
  *
  * @author Anil.Saldhana@redhat.com
  * @since Jan 4, 2011
  */
 public class DefaultTokenRegistry implements SecurityTokenRegistry {
+
+    /**
+     * Default number of milliseconds between two runs of the background reaper
+     */
+    public static final long DEFAULT_REAP_INTERVAL = 60000;
+
+    private static final ScheduledExecutorService reaper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "PicketLink token registry reaper");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
     protected Map<String, Object> tokens = new ConcurrentHashMap<String, Object>();
 
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    // entries ordered by expiration, then by insertion
+    private final ConcurrentSkipListSet<Entry> expirations = new ConcurrentSkipListSet<Entry>();
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final AtomicLong expiredCount = new AtomicLong();
+
+    private final AtomicLong evictedCount = new AtomicLong();
+
+    private volatile int maxEntries;
+
+    public DefaultTokenRegistry() {
+        this(0, DEFAULT_REAP_INTERVAL);
+    }
+
+    /**
+     * @param maxEntries maximum number of tokens kept in the registry, zero for no bound
+     * @param reapInterval milliseconds between two runs of the background reaper, zero to only reap when
+     *        {@link #reapExpiredTokens()} is called
+     */
+    public DefaultTokenRegistry(int maxEntries, long reapInterval) {
+        this.maxEntries = maxEntries;
+        if (reapInterval > 0)
+            scheduleReaper(this, reapInterval);
+    }
+
     /**
      * @see org.picketlink.identity.federation.core.sts.registry.SecurityTokenRegistry#addToken(java.lang.String,
      *      java.lang.Object)
@@ -45,7 +103,26 @@ public class DefaultTokenRegistry implements SecurityTokenRegistry {
         if (sm != null)
             sm.checkPermission(PicketLinkCoreSTS.rte);
 
+        Entry entry = new Entry(tokenID, token, TokenExpiration.getExpiration(token), sequence.incrementAndGet());
+
         tokens.put(tokenID, token);
+        Entry previous = entries.put(tokenID, entry);
+        expirations.add(entry);
+        if (previous != null)
+            expirations.remove(previous);
+
+        int max = maxEntries;
+        while (max > 0 && entries.size() > max) {
+            Entry first = expirations.pollFirst();
+            if (first == null)
+                break;
+            if (drop(first)) {
+                if (first.expiration <= System.currentTimeMillis())
+                    expiredCount.incrementAndGet();
+                else
+                    evictedCount.incrementAndGet();
+            }
+        }
     }
 
     /**
@@ -66,6 +143,113 @@ public class DefaultTokenRegistry implements SecurityTokenRegistry {
         SecurityManager sm = System.getSecurityManager();
         if (sm != null)
             sm.checkPermission(PicketLinkCoreSTS.rte);
+
+        Entry entry = entries.remove(tokenID);
+        if (entry != null)
+            expirations.remove(entry);
         tokens.remove(tokenID);
     }
-}
\ No newline at end of file
+
+    /**
+     * Drop all the tokens that have expired
+     *
+     * @return the number of tokens dropped
+     */
+    public int reapExpiredTokens() {
+        long now = System.currentTimeMillis();
+        int reaped = 0;
+
+        while (!expirations.isEmpty()) {
+            Entry first = expirations.first();
+            if (first.expiration > now)
+                break;
+            if (expirations.remove(first) && drop(first))
+                reaped++;
+        }
+
+        expiredCount.addAndGet(reaped);
+        return reaped;
+    }
+
+    /**
+     * Set the maximum number of tokens kept in the registry, zero for no bound. The bound is enforced when tokens are
+     * added.
+     *
+     * @param maxEntries
+     */
+    public void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * Number of tokens in the registry
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Number of tokens dropped because they expired
+     */
+    public long getExpiredCount() {
+        return expiredCount.get();
+    }
+
+    /**
+     * Number of unexpired tokens dropped to stay within the maximum number of entries
+     */
+    public long getEvictedCount() {
+        return evictedCount.get();
+    }
+
+    private boolean drop(Entry entry) {
+        if (entries.remove(entry.id, entry)) {
+            tokens.remove(entry.id, entry.token);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Reap the registry periodically without keeping it reachable; the task stops once the registry is collected.
+     */
+    private static void scheduleReaper(DefaultTokenRegistry registry, long reapInterval) {
+        final WeakReference<DefaultTokenRegistry> reference = new WeakReference<DefaultTokenRegistry>(registry);
+
+        reaper.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                DefaultTokenRegistry registry = reference.get();
+                if (registry == null)
+                    throw new IllegalStateException("Token registry has been collected");
+                registry.reapExpiredTokens();
+            }
+        }, reapInterval, reapInterval, TimeUnit.MILLISECONDS);
+    }
+
+    private static final class Entry implements Comparable<Entry> {
+        private final String id;
+        private final Object token;
+        private final long expiration;
+        private final long sequence;
+
+        Entry(String id, Object token, long expiration, long sequence) {
+            this.id = id;
+            this.token = token;
+            // tokens that never expire sort last
+            this.expiration = expiration > 0 ? expiration : Long.MAX_VALUE;
+            this.sequence = sequence;
+        }
+
+        public int compareTo(Entry other) {
+            if (expiration != other.expiration)
+                return expiration < other.expiration ? -1 : 1;
+            if (sequence != other.sequence)
+                return sequence < other.sequence ? -1 : 1;
+            return 0;
+        }
+    }
+}
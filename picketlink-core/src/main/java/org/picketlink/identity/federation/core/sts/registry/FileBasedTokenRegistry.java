@@ -21,31 +21,107 @@
  */
 package org.picketlink.identity.federation.core.sts.registry;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
 import java.io.Serializable;
-import java.util.HashMap;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
 
 import org.picketlink.identity.federation.core.sts.PicketLinkCoreSTS;
 
 /**
+ * <p>
  * A File based implementation of the {@code SecurityTokenRegistry}
+ * </p>
+ * <p>
+ * The registry file is an append-only log: adding or removing a token appends a single record instead of rewriting all
+ * the tokens. Every record carries its length and a checksum and is synced to disk before the call returns. Reads are
+ * served from an in-memory index which is rebuilt by replaying the log on startup. A damaged record is skipped and the
+ * following records are still replayed; a record that was only partially written at the end of the log (for instance
+ * after a crash) is truncated away.
+ * </p>
+ * <p>
+ * Once the log holds more removed or overwritten records than live tokens, or expired tokens pile up, it is compacted
+ * in the background. The live tokens are written to a new file without blocking additions and removals, the new file is
+ * synced and then renamed over the log.
+ * </p>
+ * <p>
+ * Files written by earlier versions, which hold a serialized map of tokens, are converted on first use.
+ * </p>
  *
  * @author Anil.Saldhana@redhat.com
  * @since Jan 4, 2011
  */
-public class FileBasedTokenRegistry extends FileBasedSTSOperations implements SecurityTokenRegistry {
+public class FileBasedTokenRegistry extends FileBasedSTSOperations implements SecurityTokenRegistry, Closeable {
     protected static final String FILE_NAME = "token.registry";
 
+    private static final int LOG_MAGIC = 0x504C5452;
+
+    private static final byte LOG_VERSION = 2;
+
+    private static final int LOG_HEADER_LENGTH = 5;
+
+    // starts every record, so that replay can find the next record after a damaged one
+    private static final int RECORD_MARKER = 0x7E544B52;
+
+    // marker, length of the record body and CRC-32 of the body
+    private static final int RECORD_HEADER_LENGTH = 12;
+
+    private static final byte ADD = 1;
+
+    private static final byte REMOVE = 2;
+
+    private static final String COMPACT_SUFFIX = ".compact";
+
+    private static final String BACKUP_SUFFIX = ".bak";
+
+    // number of dead records (or appends, while expired tokens are present) after which the log is compacted
+    private static final int COMPACTION_THRESHOLD = 1000;
+
     // the file that stores the tokens.
     protected File registryFile;
 
-    protected Map<String, TokenHolder> holders = new HashMap<String, TokenHolder>();
+    protected Map<String, TokenHolder> holders = new ConcurrentHashMap<String, TokenHolder>();
+
+    // guards the log and the bookkeeping below, and orders index updates with log appends
+    private final Object logLock = new Object();
+
+    // only one compaction at a time; taken before the log lock
+    private final Object compactionLock = new Object();
+
+    private RandomAccessFile log;
+
+    // length of the complete records of the log, the next record is written there
+    private long logLength;
+
+    private int deadRecords;
+
+    private int appendsSinceCompaction;
+
+    private long earliestExpiration;
+
+    private boolean compacting;
+
+    private boolean closed;
+
+    private ExecutorService compactor;
 
     public FileBasedTokenRegistry() {
         this(FILE_NAME);
@@ -56,6 +132,9 @@ public class FileBasedTokenRegistry extends FileBasedSTSOperations implements Se
         if (directory == null)
             throw logger.nullValueError("directory");
 
+        if (fileName != null)
+            recover(new File(fileName));
+
         // check if the default registry file exists.
         this.registryFile = create(fileName);
 
@@ -78,8 +157,20 @@ public class FileBasedTokenRegistry extends FileBasedSTSOperations implements Se
         if (!(token instanceof Serializable))
             throw logger.notSerializableError("Token");
 
-        holders.put(tokenID, new TokenHolder(tokenID, token));
-        flush();
+        TokenHolder holder = new TokenHolder(tokenID, token);
+        holder.expiration = getExpiration(token);
+        byte[] record = record(ADD, tokenID, holder.expiration, serialize(token));
+
+        synchronized (logLock) {
+            append(record);
+
+            if (holders.put(tokenID, holder) != null)
+                deadRecords++;
+            if (holder.expiration > 0 && (earliestExpiration == 0 || holder.expiration < earliestExpiration))
+                earliestExpiration = holder.expiration;
+            appendsSinceCompaction++;
+            scheduleCompactionIfNeeded();
+        }
     }
 
     /**
@@ -90,8 +181,20 @@ public class FileBasedTokenRegistry extends FileBasedSTSOperations implements Se
         if (sm != null)
             sm.checkPermission(PicketLinkCoreSTS.rte);
 
-        holders.remove(tokenID);
-        flush();
+        byte[] record = record(REMOVE, tokenID, 0, null);
+
+        synchronized (logLock) {
+            if (!holders.containsKey(tokenID))
+                return;
+
+            append(record);
+
+            holders.remove(tokenID);
+            // both the add and the remove record are dead now
+            deadRecords += 2;
+            appendsSinceCompaction++;
+            scheduleCompactionIfNeeded();
+        }
     }
 
     /**
@@ -109,23 +212,427 @@ public class FileBasedTokenRegistry extends FileBasedSTSOperations implements Se
         return null;
     }
 
-    protected synchronized void flush() throws IOException {
-        FileOutputStream fos = new FileOutputStream(registryFile);
-        ObjectOutputStream oos = new ObjectOutputStream(fos);
-        oos.writeObject(holders);
-        oos.close();
+    /**
+     * Rewrite the registry file so that it only holds the live, unexpired tokens.
+     *
+     * @throws IOException
+     */
+    protected void flush() throws IOException {
+        compact();
     }
 
+    /**
+     * <p>
+     * Rewrite the registry file so that it only holds the live, unexpired tokens. Expired tokens are also dropped from
+     * memory.
+     * </p>
+     * <p>
+     * The tokens are written from a snapshot, without holding up additions and removals. The records appended in the
+     * meantime are copied after them, then the new file is synced and renamed over the log.
+     * </p>
+     *
+     * @throws IOException
+     */
+    public void compact() throws IOException {
+        synchronized (compactionLock) {
+            List<TokenHolder> snapshot;
+            long snapshotLength;
+
+            synchronized (logLock) {
+                if (closed)
+                    return;
+                snapshot = new ArrayList<TokenHolder>(holders.values());
+                snapshotLength = logLength;
+            }
+
+            long now = System.currentTimeMillis();
+            long nextExpiration = 0;
+            List<TokenHolder> expired = new ArrayList<TokenHolder>();
+            File compacted = new File(registryFile.getPath() + COMPACT_SUFFIX);
+
+            FileOutputStream fos = new FileOutputStream(compacted);
+            try {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+                writeHeader(out);
+                for (TokenHolder holder : snapshot) {
+                    if (holder.expiration > 0 && holder.expiration <= now) {
+                        expired.add(holder);
+                        continue;
+                    }
+                    out.write(record(ADD, holder.id, holder.expiration, serialize(holder.token)));
+                    if (holder.expiration > 0 && (nextExpiration == 0 || holder.expiration < nextExpiration))
+                        nextExpiration = holder.expiration;
+                }
+                out.flush();
+
+                synchronized (logLock) {
+                    // records appended since the snapshot are replayed on top of it
+                    FileChannel channel = fos.getChannel();
+                    long position = snapshotLength;
+                    while (position < logLength) {
+                        position += log.getChannel().transferTo(position, logLength - position, channel);
+                    }
+                    fos.getFD().sync();
+                    fos.close();
+
+                    log.close();
+                    try {
+                        replace(compacted);
+                    } finally {
+                        openLog();
+                    }
+
+                    for (TokenHolder holder : expired) {
+                        // unless it was added again in the meantime
+                        if (holders.get(holder.id) == holder)
+                            holders.remove(holder.id);
+                    }
+
+                    deadRecords = 0;
+                    appendsSinceCompaction = 0;
+                    for (TokenHolder holder : holders.values()) {
+                        if (holder.expiration > 0 && (nextExpiration == 0 || holder.expiration < nextExpiration))
+                            nextExpiration = holder.expiration;
+                    }
+                    earliestExpiration = nextExpiration;
+                }
+            } finally {
+                fos.close();
+                compacted.delete();
+            }
+        }
+    }
+
+    /**
+     * Close the registry file. The registry must not be used afterwards.
+     *
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        synchronized (compactionLock) {
+            synchronized (logLock) {
+                closed = true;
+                if (compactor != null)
+                    compactor.shutdown();
+                if (log != null)
+                    log.close();
+            }
+        }
+    }
+
+    /**
+     * Rebuild the in-memory index by replaying the registry file
+     *
+     * @throws IOException
+     */
     @SuppressWarnings("unchecked")
-    protected synchronized void read() throws IOException {
+    protected void read() throws IOException {
         SecurityManager sm = System.getSecurityManager();
         if (sm != null)
             sm.checkPermission(PicketLinkCoreSTS.rte);
 
-        FileInputStream fis = new FileInputStream(registryFile);
-        ObjectInputStream ois = new ObjectInputStream(fis);
+        boolean rewrite;
+
+        synchronized (logLock) {
+            holders.clear();
+            int records = 0;
+
+            byte[] content = readFile(registryFile);
+            boolean legacy = content.length >= 2 && (content[0] & 0xFF) == 0xAC && (content[1] & 0xFF) == 0xED;
+            rewrite = legacy || content.length < LOG_HEADER_LENGTH;
+
+            if (legacy) {
+                // a serialized map written by earlier versions of this registry
+                ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(content));
+                try {
+                    holders.putAll((Map<String, TokenHolder>) ois.readObject());
+                } catch (ClassNotFoundException e) {
+                    throw new IOException(e);
+                } finally {
+                    ois.close();
+                }
+            } else if (!rewrite) {
+                records = replay(content);
+                // damaged records were skipped, rewrite the log without them
+                rewrite = records < 0;
+                records = Math.abs(records);
+            }
+
+            openLog();
+            deadRecords = records - holders.size();
+            for (TokenHolder holder : holders.values()) {
+                if (holder.expiration > 0 && (earliestExpiration == 0 || holder.expiration < earliestExpiration))
+                    earliestExpiration = holder.expiration;
+            }
+        }
+
+        if (rewrite)
+            compact();
+    }
+
+    /**
+     * Replay the records of the log into the index. Damaged records are skipped, a partially written last record is
+     * truncated.
+     *
+     * @return the number of records replayed, negated if damaged records were skipped
+     */
+    private int replay(byte[] content) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(content);
+        if (buffer.getInt() != LOG_MAGIC || buffer.get() != LOG_VERSION)
+            throw new IOException("Unsupported token registry format in " + registryFile);
+
+        int position = LOG_HEADER_LENGTH;
+        int records = 0;
+        boolean skipped = false;
+
+        while (position < content.length) {
+            int length = recordLength(content, position);
+            if (length > 0) {
+                apply(buffer, position);
+                position += length;
+                records++;
+                continue;
+            }
+
+            int next = position + 1;
+            while (next < content.length && recordLength(content, next) < 0) {
+                next++;
+            }
+
+            if (next < content.length) {
+                logger.warn("Skipping damaged records between " + position + " and " + next + " of token registry "
+                        + registryFile);
+                skipped = true;
+                position = next;
+            } else {
+                logger.warn("Truncating incomplete record at " + position + " of token registry " + registryFile);
+                RandomAccessFile file = new RandomAccessFile(registryFile, "rw");
+                try {
+                    file.setLength(position);
+                } finally {
+                    file.close();
+                }
+                break;
+            }
+        }
+
+        return skipped ? -records : records;
+    }
+
+    /**
+     * Length of the intact record starting at the given position, or -1 if there is none
+     */
+    private static int recordLength(byte[] content, int position) {
+        if (content.length - position < RECORD_HEADER_LENGTH)
+            return -1;
+
+        ByteBuffer buffer = ByteBuffer.wrap(content, position, RECORD_HEADER_LENGTH);
+        if (buffer.getInt() != RECORD_MARKER)
+            return -1;
+
+        int length = buffer.getInt();
+        int checksum = buffer.getInt();
+        if (length <= 0 || length > content.length - position - RECORD_HEADER_LENGTH)
+            return -1;
+
+        CRC32 crc = new CRC32();
+        crc.update(content, position + RECORD_HEADER_LENGTH, length);
+        if ((int) crc.getValue() != checksum)
+            return -1;
+
+        return RECORD_HEADER_LENGTH + length;
+    }
+
+    private void apply(ByteBuffer buffer, int position) throws IOException {
+        buffer.position(position + RECORD_HEADER_LENGTH);
+        byte op = buffer.get();
+
+        byte[] id = new byte[buffer.getInt()];
+        buffer.get(id);
+        String tokenID = new String(id, "UTF-8");
+
+        if (op == ADD) {
+            long expiration = buffer.getLong();
+            byte[] payload = new byte[buffer.getInt()];
+            buffer.get(payload);
+
+            TokenHolder holder = new TokenHolder(tokenID, deserialize(payload));
+            holder.expiration = expiration;
+            holders.put(tokenID, holder);
+        } else if (op == REMOVE) {
+            holders.remove(tokenID);
+        } else {
+            throw new IOException("Corrupt token registry record in " + registryFile + " at " + position);
+        }
+    }
+
+    /**
+     * Get the time (in milliseconds) after which the token may be dropped from the registry, or zero if it never
+     * expires.
+     *
+     * @param token
+     * @return
+     */
+    protected long getExpiration(Object token) {
+        return TokenExpiration.getExpiration(token);
+    }
+
+    // called with the log lock held
+    private void scheduleCompactionIfNeeded() {
+        if (compacting)
+            return;
+
+        boolean tooManyDead = deadRecords > COMPACTION_THRESHOLD && deadRecords > holders.size();
+        boolean expired = earliestExpiration > 0 && earliestExpiration <= System.currentTimeMillis()
+                && appendsSinceCompaction > COMPACTION_THRESHOLD;
+        if (!tooManyDead && !expired)
+            return;
+
+        if (compactor == null) {
+            compactor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "PicketLink token registry compaction");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        compacting = true;
+        compactor.execute(new Runnable() {
+            public void run() {
+                try {
+                    compact();
+                } catch (IOException e) {
+                    logger.error("Error compacting token registry " + registryFile);
+                    logger.error(e);
+                } finally {
+                    synchronized (logLock) {
+                        compacting = false;
+                    }
+                }
+            }
+        });
+    }
+
+    // called with the log lock held
+    private void append(byte[] record) throws IOException {
+        FileChannel channel = log.getChannel();
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(record);
+            long position = logLength;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            // drop the part of the record that made it to the file, the next record is written at the same position
+            try {
+                channel.truncate(logLength);
+            } catch (IOException ignore) {
+                logger.warn("Unable to truncate token registry " + registryFile + ": " + ignore.getMessage());
+            }
+            throw e;
+        }
+        logLength += record.length;
+    }
+
+    // called with the log lock held
+    private void openLog() throws IOException {
+        log = new RandomAccessFile(registryFile, "rw");
+        logLength = log.length();
+    }
+
+    /**
+     * Rename the compacted file over the log. Where a file cannot be renamed over an existing one, the log is moved
+     * aside first and only deleted once the compacted file took its place.
+     */
+    private void replace(File compacted) throws IOException {
+        if (compacted.renameTo(registryFile))
+            return;
+
+        File backup = new File(registryFile.getPath() + BACKUP_SUFFIX);
+        backup.delete();
+        if (!registryFile.renameTo(backup))
+            throw new IOException("Unable to replace " + registryFile + " with " + compacted);
+
+        if (!compacted.renameTo(registryFile)) {
+            backup.renameTo(registryFile);
+            throw new IOException("Unable to replace " + registryFile + " with " + compacted);
+        }
+        backup.delete();
+    }
+
+    /**
+     * Finish or roll back a compaction that was interrupted while the files were being replaced. The compacted file is
+     * synced before the log is moved aside, so it is complete whenever the log is missing.
+     */
+    private static void recover(File registryFile) {
+        File compacted = new File(registryFile.getPath() + COMPACT_SUFFIX);
+        File backup = new File(registryFile.getPath() + BACKUP_SUFFIX);
+
+        if (!registryFile.exists()) {
+            if (compacted.exists())
+                compacted.renameTo(registryFile);
+            else if (backup.exists())
+                backup.renameTo(registryFile);
+        }
+
+        compacted.delete();
+        backup.delete();
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
         try {
-            holders = (Map<String, TokenHolder>) ois.readObject();
+            byte[] content = new byte[(int) in.length()];
+            in.readFully(content);
+            return content;
+        } finally {
+            in.close();
+        }
+    }
+
+    private void writeHeader(DataOutputStream out) throws IOException {
+        out.writeInt(LOG_MAGIC);
+        out.writeByte(LOG_VERSION);
+    }
+
+    private static byte[] record(byte op, String tokenID, long expiration, byte[] payload) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream body = new DataOutputStream(bos);
+        body.writeByte(op);
+        byte[] id = tokenID.getBytes("UTF-8");
+        body.writeInt(id.length);
+        body.write(id);
+        if (op == ADD) {
+            body.writeLong(expiration);
+            body.writeInt(payload.length);
+            body.write(payload);
+        }
+        body.close();
+
+        byte[] bytes = bos.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_LENGTH + bytes.length);
+        record.putInt(RECORD_MARKER).putInt(bytes.length).putInt((int) crc.getValue()).put(bytes);
+        return record.array();
+    }
+
+    private byte[] serialize(Object token) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bos);
+        oos.writeObject(token);
+        oos.close();
+        return bos.toByteArray();
+    }
+
+    private Object deserialize(byte[] payload) throws IOException {
+        ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(payload));
+        try {
+            return ois.readObject();
         } catch (ClassNotFoundException e) {
             throw new IOException(e);
         } finally {
@@ -140,6 +647,9 @@ public class FileBasedTokenRegistry extends FileBasedSTSOperations implements Se
 
         Object token;
 
+        // time in milliseconds after which the token is dropped on compaction, zero if it never expires
+        long expiration;
+
         public TokenHolder(String id, Object token) {
             super();
             this.id = id;
@@ -154,4 +664,4 @@ public class FileBasedTokenRegistry extends FileBasedSTSOperations implements Se
             return token;
         }
     }
-}
\ No newline at end of file
+}
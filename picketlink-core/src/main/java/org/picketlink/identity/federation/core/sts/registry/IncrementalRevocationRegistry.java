@@ -0,0 +1,42 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.identity.federation.core.sts.registry;
+
+import java.util.Collection;
+
+/**
+ * A {@link RevocationRegistry} that can list the ids revoked since a point in time, so that a local view of the
+ * revoked ids can be kept up to date incrementally
+ *
+ * @see BloomFilterRevocationRegistry
+ */
+public interface IncrementalRevocationRegistry extends RevocationRegistry {
+
+    /**
+     * Add to {@code ids} the ids of the tokens revoked at or after the given time
+     *
+     * @param since time in milliseconds, zero for all the revoked tokens
+     * @param ids the collection the ids are added to
+     * @return the latest revocation time seen, or {@code since} if no token was found
+     */
+    long getRevokedIds(long since, Collection<String> ids);
+}
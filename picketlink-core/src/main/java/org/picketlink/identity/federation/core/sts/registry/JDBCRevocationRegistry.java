@@ -33,6 +33,7 @@ import java.io.IOException;
 import java.io.ObjectOutputStream;
 import java.sql.*;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.Date;
 
 /**
@@ -40,7 +41,7 @@ import java.util.Date;
  * @author Anil Saldhana
  * @since August 06, 2013
  */
-public class JDBCRevocationRegistry extends AbstractJDBCRegistry implements RevocationRegistry{
+public class JDBCRevocationRegistry extends AbstractJDBCRegistry implements IncrementalRevocationRegistry{
 
     public JDBCRevocationRegistry(){
         super("jdbc/picketlink-sts");
@@ -62,16 +63,15 @@ public class JDBCRevocationRegistry extends AbstractJDBCRegistry implements Revo
         ResultSet resultSet = null;
         try {
             conn = dataSource.getConnection();
-            Date tokenCreationDate = Calendar.getInstance().getTime();
 
             preparedStatement = conn.prepareStatement(existsTableSQL);
             preparedStatement.setString(1, tokenID);
             preparedStatement.setString(2, tokenType);
             resultSet = preparedStatement.executeQuery();
 
-            return resultSet.getInt(1) > 0;
+            return resultSet.next() && resultSet.getInt(1) > 0;
         } catch (SQLException e) {
-            throw logger.runtimeException("revokeToken",e);
+            throw logger.runtimeException("isRevoked",e);
         }finally {
             safeClose(resultSet);
             safeClose(preparedStatement);
@@ -105,4 +105,39 @@ public class JDBCRevocationRegistry extends AbstractJDBCRegistry implements Revo
             safeClose(conn);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * @see IncrementalRevocationRegistry#getRevokedIds(long, Collection)
+     */
+    public long getRevokedIds(long since, Collection<String> ids) {
+        if(dataSource == null){
+            throw logger.datasourceIsNull();
+        }
+        String selectTableSQL = "SELECT TOKEN_ID, CREATED_DATE FROM REVOCATION_REGISTRY WHERE CREATED_DATE >= ?";
+        Connection conn = null;
+        PreparedStatement preparedStatement = null;
+        ResultSet resultSet = null;
+        long latest = since;
+        try {
+            conn = dataSource.getConnection();
+
+            preparedStatement = conn.prepareStatement(selectTableSQL);
+            preparedStatement.setTimestamp(1, new Timestamp(since));
+            resultSet = preparedStatement.executeQuery();
+            while (resultSet.next()) {
+                ids.add(resultSet.getString(1));
+                Timestamp created = resultSet.getTimestamp(2);
+                if (created != null && created.getTime() > latest) {
+                    latest = created.getTime();
+                }
+            }
+            return latest;
+        } catch (SQLException e) {
+            throw logger.runtimeException("getRevokedIds",e);
+        }finally {
+            safeClose(resultSet);
+            safeClose(preparedStatement);
+            safeClose(conn);
+        }
+    }
+}
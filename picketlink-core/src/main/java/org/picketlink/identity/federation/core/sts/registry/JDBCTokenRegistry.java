@@ -23,30 +23,106 @@ package org.picketlink.identity.federation.core.sts.registry;
 
 import java.io.*;
 import java.sql.*;
-import java.util.Calendar;
-import java.util.Date;
-
-import javax.naming.Context;
-import javax.naming.InitialContext;
-import javax.naming.NamingException;
-import javax.sql.DataSource;
-
-import org.picketlink.identity.federation.PicketLinkLogger;
-import org.picketlink.identity.federation.PicketLinkLoggerFactory;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 /**
+ * <p>
  * Implementation of {@link SecurityTokenRegistry} using JDBC
+ * </p>
+ * <p>
+ * Tokens are stored as Java serialized, deflated bytes in a binary column:
+ * {@code TOKEN_REGISTRY(TOKEN_ID VARCHAR PRIMARY KEY, TOKEN BLOB, CREATED_DATE TIMESTAMP)}.
+ * </p>
+ * <p>
+ * Earlier versions stored the token as text, which mangled the serialized bytes, so those rows could never be read
+ * back. They are reported as absent, whether the column still is a character column or was converted to a binary one.
+ * Tables created for earlier versions must have their {@code TOKEN} column changed to a binary type before tokens can
+ * be added; the old rows can then be deleted.
+ * </p>
+ * <p>
+ * In write-behind mode, added and removed tokens are queued and written with JDBC batch updates once the batch size is
+ * reached or the flush interval elapses. Tokens still in the queue are served from memory, so the registry stays
+ * consistent for this node; other nodes sharing the table see them after the next flush.
+ * </p>
  * 
  * @author Anil Saldhana
  * @since August 06, 2013
  */
-public class JDBCTokenRegistry extends AbstractJDBCRegistry implements SecurityTokenRegistry {
+public class JDBCTokenRegistry extends AbstractJDBCRegistry implements SecurityTokenRegistry, Closeable {
+
+    /**
+     * Default number of queued writes that triggers a flush in write-behind mode
+     */
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    /**
+     * Default number of milliseconds between two flushes in write-behind mode
+     */
+    public static final long DEFAULT_FLUSH_INTERVAL = 1000;
+
+    private static final String INSERT_SQL = "INSERT INTO TOKEN_REGISTRY (TOKEN_ID, TOKEN, CREATED_DATE) VALUES (?,?,?)";
+
+    private static final String DELETE_SQL = "DELETE FROM TOKEN_REGISTRY WHERE TOKEN_ID = ?";
+
+    private static final String SELECT_SQL = "SELECT TOKEN FROM TOKEN_REGISTRY WHERE TOKEN_ID = ?";
+
+    private final boolean writeBehind;
+
+    private final int batchSize;
+
+    // latest queued write per token id
+    private final ConcurrentMap<String, PendingWrite> pending = new ConcurrentHashMap<String, PendingWrite>();
+
+    private final Lock flushLock = new ReentrantLock();
+
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+    private ScheduledExecutorService flusher;
+
     public JDBCTokenRegistry() {
-        super("jdbc/picketlink-sts");
+        this("jdbc/picketlink-sts");
     }
 
     public JDBCTokenRegistry(String jndiName) {
+        this(jndiName, false, DEFAULT_BATCH_SIZE, DEFAULT_FLUSH_INTERVAL);
+    }
+
+    /**
+     * @param jndiName JNDI name of the data source
+     * @param writeBehind whether writes are queued and flushed in batches
+     * @param batchSize number of queued writes that triggers a flush
+     * @param flushInterval milliseconds between two flushes
+     */
+    public JDBCTokenRegistry(String jndiName, boolean writeBehind, int batchSize, long flushInterval) {
         super(jndiName);
+        this.writeBehind = writeBehind;
+        this.batchSize = Math.max(1, batchSize);
+
+        if (writeBehind) {
+            flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "PicketLink JDBC token registry writer");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            flusher.scheduleWithFixedDelay(new FlushTask(), flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+        }
     }
 
     /**
@@ -56,27 +132,7 @@ public class JDBCTokenRegistry extends AbstractJDBCRegistry implements SecurityT
         if(dataSource == null){
             throw logger.datasourceIsNull();
         }
-        String insertTableSQL = "INSERT INTO TOKEN_REGISTRY" + "(TOKEN_ID, TOKEN, CREATED_DATE) VALUES" + "(?,?,?)";
-        Connection conn = null;
-        PreparedStatement preparedStatement = null;
-        try {
-            conn = dataSource.getConnection();
-            Date tokenCreationDate = Calendar.getInstance().getTime();
-            byte[] marshalledToken = marshallToken(token);
-
-            String theToken = new String(marshalledToken, "UTF-8");
-
-            preparedStatement = conn.prepareStatement(insertTableSQL);
-            preparedStatement.setString(1, tokenID);
-            preparedStatement.setString(2, theToken);
-            preparedStatement.setTimestamp(3, new Timestamp(tokenCreationDate.getTime()));
-            preparedStatement.executeUpdate();
-        } catch (SQLException e) {
-            throw new IOException(e);
-        }finally {
-            safeClose(preparedStatement);
-            safeClose(conn);
-        }
+        queue(tokenID, new PendingWrite(token, marshallToken(token), System.currentTimeMillis()));
     }
 
     /**
@@ -86,66 +142,194 @@ public class JDBCTokenRegistry extends AbstractJDBCRegistry implements SecurityT
         if(dataSource == null){
             throw logger.datasourceIsNull();
         }
-        String deleteSQL = "DELETE FROM TOKEN_REGISTRY WHERE TOKEN_ID = ?";
-        Connection conn = null;
-        PreparedStatement preparedStatement = null;
-        try {
-            conn = dataSource.getConnection();
-
-            preparedStatement = conn.prepareStatement(deleteSQL);
-            preparedStatement.setString(1, tokenID);
-            preparedStatement.executeUpdate();
-        } catch (SQLException e) {
-            throw new IOException(e);
-        } finally {
-            safeClose(preparedStatement);
-            safeClose(conn);
-        }
+        queue(tokenID, new PendingWrite(null, null, 0));
     }
 
     /**
      * @see SecurityTokenRegistry#getToken(String)
      */
     public Object getToken(String tokenID) {
+        PendingWrite write = pending.get(tokenID);
+        if (write != null) {
+            return write.token;
+        }
         try {
-            return unmarshalToken(getLOB(tokenID));
+            byte[] marshalledToken = getLOB(tokenID);
+            if (marshalledToken == null) {
+                return null;
+            }
+            if (!isDeflated(marshalledToken)) {
+                // text written by an earlier version, converted to binary along with the column
+                logger.debug("Ignoring token " + tokenID + " stored as text by an earlier version");
+                return null;
+            }
+            return unmarshalToken(marshalledToken);
         } catch (IOException e) {
             throw logger.runtimeException("getToken", e);
         }
     }
 
+    /**
+     * Write all the queued token additions and removals to the database
+     *
+     * @throws IOException
+     */
+    public void flush() throws IOException {
+        flushLock.lock();
+        try {
+            if (pending.isEmpty()) {
+                return;
+            }
+            Map<String, PendingWrite> batch = new HashMap<String, PendingWrite>(pending);
+            write(batch);
+            for (Map.Entry<String, PendingWrite> entry : batch.entrySet()) {
+                // a write queued for the same token during the flush stays queued
+                pending.remove(entry.getKey(), entry.getValue());
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Flush the queued writes and stop the background writer
+     *
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        if (flusher != null) {
+            flusher.shutdown();
+        }
+        flush();
+    }
+
+    private void queue(String tokenID, PendingWrite write) throws IOException {
+        if (!writeBehind) {
+            write(Collections.singletonMap(tokenID, write));
+            return;
+        }
+
+        pending.put(tokenID, write);
+
+        int size = pending.size();
+        if (size >= batchSize * 10) {
+            // the writer does not keep up, make the caller wait for the database
+            flush();
+        } else if (size >= batchSize && flushScheduled.compareAndSet(false, true)) {
+            flusher.execute(new FlushTask());
+        }
+    }
+
+    /**
+     * Apply the writes in one transaction: a removal deletes the row, an addition replaces it
+     */
+    private void write(Map<String, PendingWrite> writes) throws IOException {
+        Connection conn = null;
+        PreparedStatement deleteStatement = null;
+        PreparedStatement insertStatement = null;
+        boolean autoCommit = false;
+        try {
+            conn = dataSource.getConnection();
+            autoCommit = conn.getAutoCommit();
+            if (autoCommit) {
+                conn.setAutoCommit(false);
+            }
+
+            deleteStatement = conn.prepareStatement(DELETE_SQL);
+            for (String tokenID : writes.keySet()) {
+                deleteStatement.setString(1, tokenID);
+                deleteStatement.addBatch();
+            }
+            deleteStatement.executeBatch();
+
+            boolean inserts = false;
+            insertStatement = conn.prepareStatement(INSERT_SQL);
+            for (Map.Entry<String, PendingWrite> entry : writes.entrySet()) {
+                PendingWrite write = entry.getValue();
+                if (write.marshalledToken != null) {
+                    insertStatement.setString(1, entry.getKey());
+                    insertStatement.setBytes(2, write.marshalledToken);
+                    insertStatement.setTimestamp(3, new Timestamp(write.created));
+                    insertStatement.addBatch();
+                    inserts = true;
+                }
+            }
+            if (inserts) {
+                insertStatement.executeBatch();
+            }
+
+            if (autoCommit) {
+                conn.commit();
+            }
+        } catch (SQLException e) {
+            if (autoCommit) {
+                try {
+                    conn.rollback();
+                } catch (SQLException ignore) {
+                }
+            }
+            throw new IOException(e);
+        } finally {
+            safeClose(insertStatement);
+            safeClose(deleteStatement);
+            if (conn != null && autoCommit) {
+                try {
+                    conn.setAutoCommit(true);
+                } catch (SQLException ignore) {
+                }
+            }
+            safeClose(conn);
+        }
+    }
+
     private byte[] marshallToken(Object token) throws IOException {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        ObjectOutputStream oos = new ObjectOutputStream(baos);
-        oos.writeObject(token);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            ObjectOutputStream oos = new ObjectOutputStream(new DeflaterOutputStream(baos, deflater));
+            oos.writeObject(token);
+            oos.close();
+        } finally {
+            deflater.end();
+        }
         return baos.toByteArray();
     }
 
-    private Object unmarshalToken(String serializedText) {
+    private Object unmarshalToken(byte[] marshalledToken) {
+        Inflater inflater = new Inflater();
         try {
-            ByteArrayInputStream byteArray = new ByteArrayInputStream(serializedText.getBytes("UTF-8"));
-            return new ObjectInputStream(byteArray).readObject();
+            ObjectInputStream ois = new ObjectInputStream(new InflaterInputStream(new ByteArrayInputStream(marshalledToken),
+                    inflater));
+            return ois.readObject();
         } catch (Exception e) {
             throw logger.errorUnmarshallingToken(e);
+        } finally {
+            inflater.end();
         }
     }
 
-    private String getLOB(String tokenID) throws IOException {
+    private byte[] getLOB(String tokenID) throws IOException {
         if(dataSource == null){
             throw logger.datasourceIsNull();
         }
-        String selectSQL = "select TOKEN from TOKEN_REGISTRY where TOKEN_ID = ?";
         Connection conn = null;
         PreparedStatement preparedStatement = null;
         ResultSet resultSet = null;
         try {
             conn = dataSource.getConnection();
 
-            preparedStatement = conn.prepareStatement(selectSQL);
+            preparedStatement = conn.prepareStatement(SELECT_SQL);
             preparedStatement.setString(1, tokenID);
             resultSet = preparedStatement.executeQuery();
 
-            return resultSet.getString(1);
+            if (!resultSet.next()) {
+                return null;
+            }
+            if (isCharacterType(resultSet.getMetaData().getColumnType(1))) {
+                logger.debug("Ignoring token " + tokenID + " stored as text by an earlier version");
+                return null;
+            }
+            return resultSet.getBytes(1);
         } catch (SQLException e) {
             throw new IOException(e);
         } finally {
@@ -154,4 +338,56 @@ public class JDBCTokenRegistry extends AbstractJDBCRegistry implements SecurityT
             safeClose(conn);
         }
     }
-}
\ No newline at end of file
+
+    private static boolean isCharacterType(int sqlType) {
+        switch (sqlType) {
+            case Types.CHAR:
+            case Types.VARCHAR:
+            case Types.LONGVARCHAR:
+            case Types.CLOB:
+            case Types.NCHAR:
+            case Types.NVARCHAR:
+            case Types.LONGNVARCHAR:
+            case Types.NCLOB:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // whether the bytes start with the zlib header written by the Deflater
+    private static boolean isDeflated(byte[] bytes) {
+        if (bytes.length < 2) {
+            return false;
+        }
+        int header = (bytes[0] & 0xFF) << 8 | (bytes[1] & 0xFF);
+        return (bytes[0] & 0x0F) == Deflater.DEFLATED && header % 31 == 0;
+    }
+
+    private class FlushTask implements Runnable {
+        public void run() {
+            flushScheduled.set(false);
+            try {
+                flush();
+            } catch (IOException e) {
+                // the writes stay queued and are retried on the next flush
+                logger.error(e);
+            }
+        }
+    }
+
+    private static class PendingWrite {
+        // null for a removal
+        private final Object token;
+
+        private final byte[] marshalledToken;
+
+        private final long created;
+
+        PendingWrite(Object token, byte[] marshalledToken, long created) {
+            this.token = token;
+            this.marshalledToken = marshalledToken;
+            this.created = created;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.identity.federation.core.sts.registry;
+
+import javax.xml.datatype.XMLGregorianCalendar;
+
+import org.picketlink.identity.federation.core.saml.v2.util.AssertionUtil;
+import org.picketlink.identity.federation.core.wstrust.SecurityToken;
+import org.picketlink.identity.federation.saml.v1.assertion.SAML11AssertionType;
+import org.picketlink.identity.federation.saml.v2.assertion.AssertionType;
+
+/**
+ * Determines when a registered token expires, from the conditions of the assertion it holds
+ */
+final class TokenExpiration {
+
+    private TokenExpiration() {
+    }
+
+    /**
+     * Get the time (in milliseconds) after which the token is no longer valid, or zero if it is not known
+     *
+     * @param token
+     * @return
+     */
+    static long getExpiration(Object token) {
+        if (token instanceof SecurityToken)
+            token = ((SecurityToken) token).getTokenValue();
+
+        XMLGregorianCalendar expiry = null;
+        if (token instanceof AssertionType)
+            expiry = AssertionUtil.getExpiration((AssertionType) token);
+        else if (token instanceof SAML11AssertionType)
+            expiry = AssertionUtil.getExpiration((SAML11AssertionType) token);
+
+        return expiry != null ? expiry.toGregorianCalendar().getTimeInMillis() : 0;
+    }
+}
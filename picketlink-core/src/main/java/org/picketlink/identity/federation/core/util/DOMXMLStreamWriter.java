@@ -0,0 +1,328 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.identity.federation.core.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * <p>
+ * An {@code XMLStreamWriter} that builds a DOM tree directly, instead of writing characters to a stream. It allows the
+ * StAX writers to produce a {@code Document} without serializing to bytes and parsing them again.
+ * </p>
+ * <p>
+ * The writer is namespace aware and always creates DOM Level 2 nodes. Instances are not thread-safe.
+ * </p>
+ */
+public class DOMXMLStreamWriter implements XMLStreamWriter {
+
+    private final Document document;
+
+    private Node current;
+
+    /**
+     * The element that receives attributes and namespaces. Differs from {@code current} after an empty element is written.
+     */
+    private Element attributeTarget;
+
+    private final List<Map<String, String>> scopes = new ArrayList<Map<String, String>>();
+
+    private NamespaceContext rootContext;
+
+    /**
+     * Create a writer that appends the written nodes to the given parent, which is either a {@code Document} or an
+     * {@code Element}.
+     *
+     * @param parent
+     */
+    public DOMXMLStreamWriter(Node parent) {
+        if (parent == null)
+            throw new IllegalArgumentException("parent");
+
+        this.document = parent.getNodeType() == Node.DOCUMENT_NODE ? (Document) parent : parent.getOwnerDocument();
+        this.current = parent;
+        this.scopes.add(new HashMap<String, String>());
+    }
+
+    /**
+     * Get the {@code Document} the nodes are written to
+     *
+     * @return
+     */
+    public Document getDocument() {
+        return document;
+    }
+
+    public void writeStartElement(String localName) throws XMLStreamException {
+        writeStartElement(getNamespaceURI(XMLConstants.DEFAULT_NS_PREFIX), localName, false);
+    }
+
+    public void writeStartElement(String namespaceURI, String localName) throws XMLStreamException {
+        String prefix = getPrefix(namespaceURI);
+        if (prefix == null)
+            throw new XMLStreamException("Namespace URI " + namespaceURI + " is not bound to a prefix");
+
+        appendElement(prefix, localName, namespaceURI, false);
+    }
+
+    public void writeStartElement(String prefix, String localName, String namespaceURI) throws XMLStreamException {
+        appendElement(prefix, localName, namespaceURI, false);
+    }
+
+    public void writeEmptyElement(String namespaceURI, String localName) throws XMLStreamException {
+        String prefix = getPrefix(namespaceURI);
+        if (prefix == null)
+            throw new XMLStreamException("Namespace URI " + namespaceURI + " is not bound to a prefix");
+
+        appendElement(prefix, localName, namespaceURI, true);
+    }
+
+    public void writeEmptyElement(String prefix, String localName, String namespaceURI) throws XMLStreamException {
+        appendElement(prefix, localName, namespaceURI, true);
+    }
+
+    public void writeEmptyElement(String localName) throws XMLStreamException {
+        writeStartElement(getNamespaceURI(XMLConstants.DEFAULT_NS_PREFIX), localName, true);
+    }
+
+    public void writeEndElement() throws XMLStreamException {
+        if (current == null || current.getNodeType() != Node.ELEMENT_NODE)
+            throw new XMLStreamException("No element to end");
+
+        current = current.getParentNode();
+        attributeTarget = null;
+        scopes.remove(scopes.size() - 1);
+    }
+
+    public void writeEndDocument() throws XMLStreamException {
+        while (current != null && current.getNodeType() == Node.ELEMENT_NODE && scopes.size() > 1) {
+            writeEndElement();
+        }
+    }
+
+    public void close() throws XMLStreamException {
+    }
+
+    public void flush() throws XMLStreamException {
+    }
+
+    public void writeAttribute(String localName, String value) throws XMLStreamException {
+        getAttributeTarget().setAttributeNS(null, localName, value);
+    }
+
+    public void writeAttribute(String prefix, String namespaceURI, String localName, String value)
+            throws XMLStreamException {
+        getAttributeTarget().setAttributeNS(emptyToNull(namespaceURI), qualify(prefix, localName), value);
+    }
+
+    public void writeAttribute(String namespaceURI, String localName, String value) throws XMLStreamException {
+        String ns = emptyToNull(namespaceURI);
+        if (ns == null) {
+            writeAttribute(localName, value);
+            return;
+        }
+
+        String prefix = getPrefix(ns);
+        if (prefix == null)
+            throw new XMLStreamException("Namespace URI " + namespaceURI + " is not bound to a prefix");
+
+        getAttributeTarget().setAttributeNS(ns, qualify(prefix, localName), value);
+    }
+
+    public void writeNamespace(String prefix, String namespaceURI) throws XMLStreamException {
+        if (prefix == null || prefix.length() == 0 || XMLConstants.XMLNS_ATTRIBUTE.equals(prefix)) {
+            writeDefaultNamespace(namespaceURI);
+            return;
+        }
+
+        getAttributeTarget().setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, XMLConstants.XMLNS_ATTRIBUTE + ":" + prefix,
+                namespaceURI);
+        setPrefix(prefix, namespaceURI);
+    }
+
+    public void writeDefaultNamespace(String namespaceURI) throws XMLStreamException {
+        getAttributeTarget().setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, XMLConstants.XMLNS_ATTRIBUTE,
+                namespaceURI);
+        setDefaultNamespace(namespaceURI);
+    }
+
+    public void writeComment(String data) throws XMLStreamException {
+        appendChild(document.createComment(data));
+    }
+
+    public void writeProcessingInstruction(String target) throws XMLStreamException {
+        writeProcessingInstruction(target, "");
+    }
+
+    public void writeProcessingInstruction(String target, String data) throws XMLStreamException {
+        appendChild(document.createProcessingInstruction(target, data));
+    }
+
+    public void writeCData(String data) throws XMLStreamException {
+        appendChild(document.createCDATASection(data));
+    }
+
+    public void writeDTD(String dtd) throws XMLStreamException {
+        // DTDs are never written by the StAX writers
+    }
+
+    public void writeEntityRef(String name) throws XMLStreamException {
+        appendChild(document.createEntityReference(name));
+    }
+
+    public void writeStartDocument() throws XMLStreamException {
+    }
+
+    public void writeStartDocument(String version) throws XMLStreamException {
+    }
+
+    public void writeStartDocument(String encoding, String version) throws XMLStreamException {
+    }
+
+    public void writeCharacters(String text) throws XMLStreamException {
+        appendChild(document.createTextNode(text));
+    }
+
+    public void writeCharacters(char[] text, int start, int len) throws XMLStreamException {
+        writeCharacters(new String(text, start, len));
+    }
+
+    public String getPrefix(String uri) throws XMLStreamException {
+        for (int i = scopes.size() - 1; i >= 0; i--) {
+            for (Map.Entry<String, String> entry : scopes.get(i).entrySet()) {
+                if (entry.getValue().equals(uri) && uri.equals(getNamespaceURI(entry.getKey())))
+                    return entry.getKey();
+            }
+        }
+
+        return rootContext != null ? rootContext.getPrefix(uri) : null;
+    }
+
+    public void setPrefix(String prefix, String uri) throws XMLStreamException {
+        scopes.get(scopes.size() - 1).put(prefix, uri);
+    }
+
+    public void setDefaultNamespace(String uri) throws XMLStreamException {
+        setPrefix(XMLConstants.DEFAULT_NS_PREFIX, uri);
+    }
+
+    public void setNamespaceContext(NamespaceContext context) throws XMLStreamException {
+        this.rootContext = context;
+    }
+
+    public NamespaceContext getNamespaceContext() {
+        return new NamespaceContext() {
+            public String getNamespaceURI(String prefix) {
+                return DOMXMLStreamWriter.this.getNamespaceURI(prefix);
+            }
+
+            public String getPrefix(String namespaceURI) {
+                try {
+                    return DOMXMLStreamWriter.this.getPrefix(namespaceURI);
+                } catch (XMLStreamException e) {
+                    return null;
+                }
+            }
+
+            @SuppressWarnings("rawtypes")
+            public Iterator getPrefixes(String namespaceURI) {
+                List<String> prefixes = new ArrayList<String>();
+                String prefix = getPrefix(namespaceURI);
+                if (prefix != null)
+                    prefixes.add(prefix);
+                return prefixes.iterator();
+            }
+        };
+    }
+
+    public Object getProperty(String name) throws IllegalArgumentException {
+        throw new IllegalArgumentException("Property " + name + " is not supported");
+    }
+
+    private String getNamespaceURI(String prefix) {
+        for (int i = scopes.size() - 1; i >= 0; i--) {
+            String uri = scopes.get(i).get(prefix);
+            if (uri != null)
+                return uri;
+        }
+
+        if (rootContext != null)
+            return rootContext.getNamespaceURI(prefix);
+
+        return current != null ? current.lookupNamespaceURI(emptyToNull(prefix)) : null;
+    }
+
+    private void writeStartElement(String namespaceURI, String localName, boolean empty) {
+        appendElement(null, localName, namespaceURI, empty);
+    }
+
+    private void appendElement(String prefix, String localName, String namespaceURI, boolean empty) {
+        Element element = document.createElementNS(emptyToNull(namespaceURI), qualify(prefix, localName));
+
+        appendChild(element);
+
+        if (empty) {
+            attributeTarget = element;
+        } else {
+            current = element;
+            attributeTarget = element;
+            scopes.add(new HashMap<String, String>());
+        }
+    }
+
+    private void appendChild(Node node) {
+        if (node.getNodeType() != Node.ELEMENT_NODE)
+            attributeTarget = null;
+
+        current.appendChild(node);
+    }
+
+    private Element getAttributeTarget() throws XMLStreamException {
+        if (attributeTarget == null)
+            throw new XMLStreamException("Attributes and namespaces can only be written after a start element");
+
+        return attributeTarget;
+    }
+
+    private static String qualify(String prefix, String localName) {
+        if (prefix == null || prefix.length() == 0)
+            return localName;
+
+        return prefix + ":" + localName;
+    }
+
+    private static String emptyToNull(String str) {
+        return str == null || str.length() == 0 ? null : str;
+    }
+}
@@ -25,8 +25,13 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.xml.transform.Source;
+import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamSource;
 import javax.xml.validation.Schema;
 import javax.xml.validation.SchemaFactory;
@@ -35,8 +40,10 @@ import javax.xml.validation.Validator;
 import org.picketlink.identity.federation.PicketLinkLogger;
 import org.picketlink.identity.federation.PicketLinkLoggerFactory;
 import org.picketlink.identity.federation.core.exceptions.ProcessingException;
-import org.picketlink.identity.federation.core.saml.v2.util.DocumentUtil;
+import org.picketlink.identity.federation.core.saml.v2.constants.JBossSAMLConstants;
 import org.picketlink.identity.federation.web.constants.GeneralConstants;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.xml.sax.ErrorHandler;
 import org.xml.sax.SAXException;
@@ -51,11 +58,39 @@ import org.xml.sax.SAXParseException;
 public class JAXPValidationUtil {
     
     private static final PicketLinkLogger logger = PicketLinkLoggerFactory.getLogger();
-    
-    protected static Validator validator;
+
+    /**
+     * <p>
+     * System property that controls {@link #checkSchemaValidation(Node)}. Supported values are:
+     * </p>
+     * <ul>
+     * <li>{@code true} or {@code always}: validate every document</li>
+     * <li>{@code false} or {@code never}: never validate (default)</li>
+     * <li>{@code first:N}: validate the first N documents of every issuer</li>
+     * <li>{@code sample:P}: validate P percent of the documents</li>
+     * </ul>
+     */
+    public static final String SCHEMA_VALIDATION_MODE = "picketlink.schema.validate";
+
+    /**
+     * Maximum number of issuers tracked by the {@code first:N} mode. Documents from issuers beyond this number are always
+     * validated.
+     */
+    private static final int MAX_TRACKED_ISSUERS = 10000;
+
+    private static volatile Schema schema;
 
     protected static SchemaFactory schemaFactory;
 
+    private static final ThreadLocal<Validator> validators = new ThreadLocal<Validator>();
+
+    private static volatile ValidationMode validationMode = ValidationMode.parse("false");
+
+    private static final ConcurrentMap<String, AtomicInteger> validationsPerIssuer =
+            new ConcurrentHashMap<String, AtomicInteger>();
+
+    private static final AtomicLong sampleCounter = new AtomicLong();
+
     public static void validate(String str) throws SAXException, IOException {
         validator().validate(new StreamSource(str));
     }
@@ -65,35 +100,151 @@ public class JAXPValidationUtil {
     }
 
     /**
-     * Based on system property "picketlink.schema.validate" set to "true", do schema validation
+     * Validate a DOM {@link Node} directly, without serializing it
+     *
+     * @param node
+     * @throws SAXException
+     * @throws IOException
+     */
+    public static void validate(Node node) throws SAXException, IOException {
+        validator().validate(new DOMSource(node));
+    }
+
+    /**
+     * Validate any {@link Source} supported by the JAXP {@link Validator}, such as a {@link DOMSource} or a
+     * {@code StAXSource}
+     *
+     * @param source
+     * @throws SAXException
+     * @throws IOException
+     */
+    public static void validate(Source source) throws SAXException, IOException {
+        validator().validate(source);
+    }
+
+    /**
+     * Based on system property "picketlink.schema.validate", do schema validation
      *
      * @param samlDocument
      * @throws ProcessingException
+     * @see #SCHEMA_VALIDATION_MODE
      */
     public static void checkSchemaValidation(Node samlDocument) throws ProcessingException {
-        if (SecurityActions.getSystemProperty("picketlink.schema.validate", "false").equalsIgnoreCase("true")) {
+        if (shouldValidate(samlDocument)) {
             try {
-                JAXPValidationUtil.validate(DocumentUtil.getNodeAsStream(samlDocument));
+                JAXPValidationUtil.validate(samlDocument);
             } catch (Exception e) {
                 throw logger.processingError(e);
             }
         }
     }
 
+    /**
+     * Get the {@link Validator} of the current thread. The compiled {@link Schema} is shared, the validator is reset before
+     * it is returned and must not be kept by the caller.
+     *
+     * @return
+     * @throws SAXException
+     * @throws IOException
+     */
     public static Validator validator() throws SAXException, IOException {
         SystemPropertiesUtil.ensure();
 
-        if (validator == null) {
-            Schema schema = getSchema();
-            if (schema == null)
-                throw logger.nullValueError("schema");
+        Validator validator = validators.get();
 
-            validator = schema.newValidator();
-            validator.setErrorHandler(new CustomErrorHandler());
+        if (validator == null) {
+            validator = getCachedSchema().newValidator();
+            validators.set(validator);
+        } else {
+            validator.reset();
         }
+
+        validator.setErrorHandler(new CustomErrorHandler());
+
         return validator;
     }
 
+    private static Schema getCachedSchema() throws IOException {
+        if (schema == null) {
+            synchronized (JAXPValidationUtil.class) {
+                if (schema == null) {
+                    Schema compiled = getSchema();
+                    if (compiled == null)
+                        throw logger.nullValueError("schema");
+                    schema = compiled;
+                }
+            }
+        }
+
+        return schema;
+    }
+
+    private static boolean shouldValidate(Node samlDocument) {
+        ValidationMode mode = getValidationMode();
+
+        switch (mode.type) {
+            case ALWAYS:
+                return true;
+            case FIRST_PER_ISSUER:
+                String issuer = getIssuer(samlDocument);
+                AtomicInteger count = validationsPerIssuer.get(issuer);
+
+                if (count == null) {
+                    if (validationsPerIssuer.size() >= MAX_TRACKED_ISSUERS)
+                        return true;
+
+                    AtomicInteger newCount = new AtomicInteger();
+                    count = validationsPerIssuer.putIfAbsent(issuer, newCount);
+                    if (count == null)
+                        count = newCount;
+                }
+
+                return count.getAndIncrement() < mode.value;
+            case SAMPLED:
+                return (sampleCounter.getAndIncrement() % 100) < mode.value;
+            default:
+                return false;
+        }
+    }
+
+    private static ValidationMode getValidationMode() {
+        String value = SecurityActions.getSystemProperty(SCHEMA_VALIDATION_MODE, "false");
+        ValidationMode mode = validationMode;
+
+        if (!mode.rawValue.equals(value)) {
+            mode = ValidationMode.parse(value);
+            validationMode = mode;
+            validationsPerIssuer.clear();
+        }
+
+        return mode;
+    }
+
+    /**
+     * Get the issuer of a SAML document, either from its Issuer element (SAML v2) or attribute (SAML v1.1)
+     *
+     * @param node
+     * @return
+     */
+    private static String getIssuer(Node node) {
+        Element element = null;
+
+        if (node instanceof Document) {
+            element = ((Document) node).getDocumentElement();
+        } else if (node instanceof Element) {
+            element = (Element) node;
+        } else {
+            return "";
+        }
+
+        for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() == Node.ELEMENT_NODE && JBossSAMLConstants.ISSUER.get().equals(child.getLocalName()))
+                return child.getTextContent().trim();
+        }
+
+        return element.getAttribute(JBossSAMLConstants.ISSUER.get());
+    }
+
     private static Schema getSchema() throws IOException {
         boolean tccl_jaxp = SystemPropertiesUtil.getSystemProperty(GeneralConstants.TCCL_JAXP,"false").equalsIgnoreCase("true");
 
@@ -165,4 +316,44 @@ public class JAXPValidationUtil {
             }
         }
     };
+
+    private enum ModeType {
+        ALWAYS, NEVER, FIRST_PER_ISSUER, SAMPLED
+    }
+
+    /**
+     * Parsed value of the {@link JAXPValidationUtil#SCHEMA_VALIDATION_MODE} system property
+     */
+    private static class ValidationMode {
+        private final String rawValue;
+
+        private final ModeType type;
+
+        private final int value;
+
+        private ValidationMode(String rawValue, ModeType type, int value) {
+            this.rawValue = rawValue;
+            this.type = type;
+            this.value = value;
+        }
+
+        private static ValidationMode parse(String rawValue) {
+            String mode = rawValue.trim().toLowerCase();
+
+            try {
+                if (mode.equals("true") || mode.equals("always")) {
+                    return new ValidationMode(rawValue, ModeType.ALWAYS, 0);
+                } else if (mode.startsWith("first:")) {
+                    return new ValidationMode(rawValue, ModeType.FIRST_PER_ISSUER, Integer.parseInt(mode.substring(6).trim()));
+                } else if (mode.startsWith("sample:")) {
+                    int percentage = Integer.parseInt(mode.substring(7).trim());
+                    return new ValidationMode(rawValue, ModeType.SAMPLED, Math.max(0, Math.min(100, percentage)));
+                }
+            } catch (NumberFormatException e) {
+                logger.error(e);
+            }
+
+            return new ValidationMode(rawValue, ModeType.NEVER, 0);
+        }
+    }
 }
\ No newline at end of file
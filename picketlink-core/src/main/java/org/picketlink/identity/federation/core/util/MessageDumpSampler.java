@@ -0,0 +1,86 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.identity.federation.core.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.picketlink.identity.federation.PicketLinkLogger;
+import org.picketlink.identity.federation.PicketLinkLoggerFactory;
+import org.picketlink.identity.federation.web.constants.GeneralConstants;
+
+/**
+ * <p>
+ * Picks one message out of every N, so that the SAML messages can be dumped in production without tracing all of
+ * them. An interval of 0 or less never picks a message.
+ * </p>
+ */
+public class MessageDumpSampler {
+
+    private static final PicketLinkLogger logger = PicketLinkLoggerFactory.getLogger();
+
+    private static final MessageDumpSampler sharedSampler = createSharedSampler();
+
+    private final int interval;
+
+    private final AtomicLong count = new AtomicLong();
+
+    /**
+     * @param interval the number of messages out of which one is picked
+     */
+    public MessageDumpSampler(int interval) {
+        this.interval = interval;
+    }
+
+    /**
+     * <p>
+     * Get the sampler used by the loggers for the messages logged along with a node. Its interval is read from the
+     * {@link GeneralConstants#SAML_MESSAGE_DUMP_INTERVAL} system property, sampling is disabled by default.
+     * </p>
+     *
+     * @return
+     */
+    public static MessageDumpSampler getSharedSampler() {
+        return sharedSampler;
+    }
+
+    private static MessageDumpSampler createSharedSampler() {
+        try {
+            return new MessageDumpSampler(Integer.parseInt(SystemPropertiesUtil.getSystemProperty(
+                    GeneralConstants.SAML_MESSAGE_DUMP_INTERVAL, "0")));
+        } catch (NumberFormatException e) {
+            logger.error(e);
+            return new MessageDumpSampler(0);
+        }
+    }
+
+    /**
+     * Count a message and tell whether it is picked
+     *
+     * @return
+     */
+    public boolean sample() {
+        if (this.interval <= 0)
+            return false;
+
+        return this.count.incrementAndGet() % this.interval == 0;
+    }
+}
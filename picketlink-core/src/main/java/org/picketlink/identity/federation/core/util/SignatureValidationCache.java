@@ -0,0 +1,384 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.identity.federation.core.util;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.picketlink.identity.federation.PicketLinkLogger;
+import org.picketlink.identity.federation.PicketLinkLoggerFactory;
+import org.picketlink.identity.federation.core.saml.v2.util.XMLTimeUtil;
+import org.picketlink.identity.federation.web.constants.GeneralConstants;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+/**
+ * <p>
+ * Remembers the signed elements, usually assertions, whose signature was successfully verified with a given key, so
+ * that an assertion presented again and again is not canonicalized and verified every time.
+ * </p>
+ * <p>
+ * The key of an entry is a digest of the whole element, signature included, and of the verifying key: an element that
+ * differs in any way, or is checked against another key, is verified again. An entry lasts until the
+ * {@code NotOnOrAfter} of the element conditions, or the time to live if that comes first, and {@link #revoke(String)}
+ * drops the entries of a cancelled assertion. Failed verifications are never cached.
+ * </p>
+ */
+public class SignatureValidationCache {
+
+    private static final PicketLinkLogger logger = PicketLinkLoggerFactory.getLogger();
+
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+
+    public static final long DEFAULT_TIME_TO_LIVE = 5 * 60 * 1000;
+
+    private static final String[] ID_ATTRIBUTES = new String[] { "ID", "AssertionID" };
+
+    private static final SignatureValidationCache sharedCache = createSharedCache();
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    // insertion order, used to evict the oldest entries first
+    private final Queue<Entry> insertionOrder = new ConcurrentLinkedQueue<Entry>();
+
+    // ConcurrentLinkedQueue.size() walks the whole queue
+    private final AtomicInteger queued = new AtomicInteger();
+
+    private final AtomicBoolean purging = new AtomicBoolean();
+
+    private final int maxEntries;
+
+    private final long timeToLive;
+
+    private final AtomicLong hitCount = new AtomicLong();
+
+    private final AtomicLong missCount = new AtomicLong();
+
+    public SignatureValidationCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_TIME_TO_LIVE);
+    }
+
+    /**
+     * @param maxEntries maximum number of verified signatures held
+     * @param timeToLive maximum number of milliseconds a verified signature is remembered
+     */
+    public SignatureValidationCache(int maxEntries, long timeToLive) {
+        if (maxEntries <= 0)
+            throw logger.invalidArgumentError("maxEntries");
+        if (timeToLive <= 0)
+            throw logger.invalidArgumentError("timeToLive");
+
+        this.maxEntries = maxEntries;
+        this.timeToLive = timeToLive;
+    }
+
+    /**
+     * <p>
+     * Get the cache shared by the signature checks of the assertion utilities, the login modules and the STS. It is
+     * sized by the {@link GeneralConstants#SIGNATURE_CACHE_SIZE} and {@link GeneralConstants#SIGNATURE_CACHE_TTL}
+     * system properties.
+     * </p>
+     *
+     * @return the shared cache, or null if it was disabled
+     */
+    public static SignatureValidationCache getSharedCache() {
+        return sharedCache;
+    }
+
+    private static SignatureValidationCache createSharedCache() {
+        try {
+            int maxEntries = Integer.parseInt(SystemPropertiesUtil.getSystemProperty(GeneralConstants.SIGNATURE_CACHE_SIZE,
+                    String.valueOf(DEFAULT_MAX_ENTRIES)));
+            long timeToLive = Long.parseLong(SystemPropertiesUtil.getSystemProperty(GeneralConstants.SIGNATURE_CACHE_TTL,
+                    String.valueOf(DEFAULT_TIME_TO_LIVE)));
+
+            if (maxEntries <= 0 || timeToLive <= 0)
+                return null;
+
+            return new SignatureValidationCache(maxEntries, timeToLive);
+        } catch (NumberFormatException e) {
+            logger.error(e);
+            return null;
+        }
+    }
+
+    /**
+     * <p>
+     * Compute the cache key of a signed element and the key that verifies it. Every node of the element is digested, in
+     * document order, so the key changes with any change of the element.
+     * </p>
+     *
+     * @param signedElement
+     * @param publicKey
+     * @return
+     */
+    public String getKey(Element signedElement, PublicKey publicKey) {
+        MessageDigest digest;
+
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+
+        update(digest, publicKey.getAlgorithm());
+        update(digest, publicKey.getEncoded());
+
+        Node node = signedElement;
+
+        while (node != null) {
+            update(digest, node);
+
+            Node next = node.getFirstChild();
+
+            while (next == null && node != signedElement) {
+                next = node.getNextSibling();
+
+                if (next == null)
+                    node = node.getParentNode();
+            }
+
+            node = next;
+        }
+
+        return Base64.encodeBytes(digest.digest(), Base64.DONT_BREAK_LINES);
+    }
+
+    /**
+     * Check whether the signature of the element with the given key was already verified
+     *
+     * @param key the value of {@link #getKey(Element, PublicKey)}
+     * @return
+     */
+    public boolean isVerified(String key) {
+        Entry entry = this.entries.get(key);
+
+        if (entry != null && entry.expiration <= System.currentTimeMillis()) {
+            this.entries.remove(key, entry);
+            entry = null;
+        }
+
+        if (entry == null) {
+            this.missCount.incrementAndGet();
+            return false;
+        }
+
+        this.hitCount.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Remember that the signature of the element was successfully verified
+     *
+     * @param key the value of {@link #getKey(Element, PublicKey)}
+     * @param signedElement
+     */
+    public void verified(String key, Element signedElement) {
+        long now = System.currentTimeMillis();
+        long expiration = now + this.timeToLive;
+        Long notOnOrAfter = getNotOnOrAfter(signedElement);
+
+        if (notOnOrAfter != null)
+            expiration = Math.min(expiration, notOnOrAfter);
+
+        if (expiration <= now)
+            return;
+
+        Entry entry = new Entry(key, getID(signedElement), expiration);
+        this.entries.put(key, entry);
+        this.insertionOrder.add(entry);
+        this.queued.incrementAndGet();
+
+        while (this.entries.size() > this.maxEntries) {
+            Entry eldest = this.insertionOrder.poll();
+
+            if (eldest == null)
+                break;
+
+            this.queued.decrementAndGet();
+            this.entries.remove(eldest.key, eldest);
+        }
+
+        // entries that were replaced, expired or revoked linger in the queue, drop them once they outnumber the live ones
+        if (this.queued.get() > 2 * this.maxEntries && this.purging.compareAndSet(false, true)) {
+            try {
+                for (Iterator<Entry> iterator = this.insertionOrder.iterator(); iterator.hasNext();) {
+                    Entry queued = iterator.next();
+
+                    if (this.entries.get(queued.key) != queued) {
+                        iterator.remove();
+                        this.queued.decrementAndGet();
+                    }
+                }
+            } finally {
+                this.purging.set(false);
+            }
+        }
+    }
+
+    /**
+     * Forget the verified signatures of an assertion, for instance when it is cancelled
+     *
+     * @param id the {@code ID} or {@code AssertionID} of the assertion
+     */
+    public void revoke(String id) {
+        if (id == null)
+            return;
+
+        for (Iterator<Entry> iterator = this.entries.values().iterator(); iterator.hasNext();) {
+            if (id.equals(iterator.next().id))
+                iterator.remove();
+        }
+    }
+
+    /**
+     * Forget all the verified signatures
+     */
+    public void clear() {
+        this.entries.clear();
+        this.insertionOrder.clear();
+        this.queued.set(0);
+    }
+
+    public int size() {
+        return this.entries.size();
+    }
+
+    public long getHitCount() {
+        return this.hitCount.get();
+    }
+
+    public long getMissCount() {
+        return this.missCount.get();
+    }
+
+    private static String getID(Element signedElement) {
+        for (String attribute : ID_ATTRIBUTES) {
+            if (signedElement.hasAttribute(attribute))
+                return signedElement.getAttribute(attribute);
+        }
+
+        return null;
+    }
+
+    private static Long getNotOnOrAfter(Element signedElement) {
+        for (Node child = signedElement.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child instanceof Element && "Conditions".equals(child.getLocalName())) {
+                Element conditions = (Element) child;
+
+                if (!conditions.hasAttribute("NotOnOrAfter"))
+                    return null;
+
+                try {
+                    return XMLTimeUtil.parse(conditions.getAttribute("NotOnOrAfter")).toGregorianCalendar()
+                            .getTimeInMillis();
+                } catch (Exception e) {
+                    // unparseable, do not cache the element at all
+                    return Long.valueOf(0);
+                }
+            }
+        }
+
+        return null;
+    }
+
+    private static void update(MessageDigest digest, Node node) {
+        digest.update((byte) node.getNodeType());
+
+        switch (node.getNodeType()) {
+            case Node.ELEMENT_NODE:
+                update(digest, node.getNamespaceURI());
+                update(digest, node.getLocalName() != null ? node.getLocalName() : node.getNodeName());
+
+                NamedNodeMap attributes = node.getAttributes();
+                int length = attributes.getLength();
+                update(digest, length);
+
+                for (int i = 0; i < length; i++) {
+                    Node attribute = attributes.item(i);
+                    update(digest, attribute.getNamespaceURI());
+                    update(digest, attribute.getNodeName());
+                    update(digest, attribute.getNodeValue());
+                }
+
+                // the walk is in document order, the number of children tells where the content of each element ends
+                update(digest, node.getChildNodes().getLength());
+                break;
+            case Node.PROCESSING_INSTRUCTION_NODE:
+                update(digest, node.getNodeName());
+                update(digest, node.getNodeValue());
+                break;
+            default:
+                update(digest, node.getNodeValue());
+        }
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        if (value == null) {
+            update(digest, -1);
+            return;
+        }
+
+        int length = value.length();
+        update(digest, length);
+
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            digest.update((byte) (c >> 8));
+            digest.update((byte) c);
+        }
+    }
+
+    private static void update(MessageDigest digest, byte[] value) {
+        update(digest, value.length);
+        digest.update(value);
+    }
+
+    private static void update(MessageDigest digest, int value) {
+        digest.update((byte) (value >> 24));
+        digest.update((byte) (value >> 16));
+        digest.update((byte) (value >> 8));
+        digest.update((byte) value);
+    }
+
+    private static final class Entry {
+        private final String key;
+        private final String id;
+        private final long expiration;
+
+        Entry(String key, String id, long expiration) {
+            this.key = key;
+            this.id = id;
+            this.expiration = expiration;
+        }
+    }
+}
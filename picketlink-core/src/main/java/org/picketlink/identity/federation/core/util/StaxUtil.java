@@ -33,7 +33,6 @@ import org.picketlink.identity.federation.PicketLinkLoggerFactory;
 import org.picketlink.identity.federation.core.ErrorCodes;
 import org.picketlink.identity.federation.core.exceptions.ProcessingException;
 import org.picketlink.identity.federation.core.wstrust.WSTrustConstants;
-import org.picketlink.identity.federation.web.constants.GeneralConstants;
 import org.picketlink.identity.xmlsec.w3.xmldsig.DSAKeyValueType;
 import org.picketlink.identity.xmlsec.w3.xmldsig.KeyInfoType;
 import org.picketlink.identity.xmlsec.w3.xmldsig.KeyValueType;
@@ -536,18 +535,6 @@ public class StaxUtil {
     }
 
     private static XMLOutputFactory getXMLOutputFactory() {
-        boolean tccl_jaxp = SystemPropertiesUtil.getSystemProperty(GeneralConstants.TCCL_JAXP, "false")
-                .equalsIgnoreCase("true");
-        ClassLoader prevTCCL = SecurityActions.getTCCL();
-        try {
-            if (tccl_jaxp) {
-                SecurityActions.setTCCL(StaxUtil.class.getClassLoader());
-            }
-            return XMLOutputFactory.newInstance();
-        } finally {
-            if (tccl_jaxp) {
-                SecurityActions.setTCCL(prevTCCL);
-            }
-        }
+        return XMLProcessingPool.getXMLOutputFactory();
     }
-}
\ No newline at end of file
+}
@@ -73,54 +73,25 @@ public class TransformerUtil {
     
     private static final PicketLinkLogger logger = PicketLinkLoggerFactory.getLogger();
     
-    private static TransformerFactory transformerFactory;
-    
     /**
-     * Get the Default Transformer
+     * Get a new Default Transformer, owned by the caller
      *
      * @return
      * @throws ConfigurationException
      */
     public static Transformer getTransformer() throws ConfigurationException {
-        Transformer transformer;
-        try {
-            transformer = getTransformerFactory().newTransformer();
-        } catch (TransformerConfigurationException e) {
-            throw logger.configurationError(e);
-        } catch (TransformerFactoryConfigurationError e) {
-            throw logger.configurationError(e);
-        }
-        
-        transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
-        transformer.setOutputProperty(OutputKeys.INDENT, "no");
-        
-        return transformer;
+        return XMLProcessingPool.newTransformer();
     }
 
     /**
-     * <p>Creates a {@link TransformerFactory}. The returned instance is cached and shared between different threads.</p>
+     * <p>Get the {@link TransformerFactory}. The returned instance is cached and shared between different threads.</p>
      * 
      * @return
      * @throws TransformerFactoryConfigurationError
+     * @see XMLProcessingPool#getTransformerFactory()
      */
     public static TransformerFactory getTransformerFactory() throws TransformerFactoryConfigurationError {
-        if (transformerFactory == null) {
-            boolean tccl_jaxp = SystemPropertiesUtil.getSystemProperty(GeneralConstants.TCCL_JAXP, "false")
-                    .equalsIgnoreCase("true");
-            ClassLoader prevTCCL = SecurityActions.getTCCL();
-            try{
-                if(tccl_jaxp){
-                    SecurityActions.setTCCL(TransformerUtil.class.getClassLoader());
-                }
-                transformerFactory = TransformerFactory.newInstance();
-            } finally {
-                if(tccl_jaxp){
-                    SecurityActions.setTCCL(prevTCCL);
-                }
-            }
-        }
-
-        return transformerFactory;
+        return XMLProcessingPool.getTransformerFactory();
     }
 
     /**
@@ -0,0 +1,364 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.identity.federation.core.util;
+
+import java.lang.ref.Reference;
+import java.lang.ref.SoftReference;
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import javax.xml.datatype.DatatypeConfigurationException;
+import javax.xml.datatype.DatatypeFactory;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.TransformerFactoryConfigurationError;
+
+import org.picketlink.identity.federation.PicketLinkLogger;
+import org.picketlink.identity.federation.PicketLinkLoggerFactory;
+import org.picketlink.identity.federation.core.exceptions.ConfigurationException;
+import org.picketlink.identity.federation.web.constants.GeneralConstants;
+
+/**
+ * <p>
+ * Central place where the JAXP and StAX factories are created and the expensive, non thread-safe XML processing objects
+ * are reused.
+ * </p>
+ * <p>
+ * Factories are looked up once, honoring the {@link GeneralConstants#TCCL_JAXP} system property, and configured before
+ * they are published. The {@link XMLInputFactory} and {@link XMLOutputFactory} are shared between threads, as they are
+ * never reconfigured after creation. {@link DocumentBuilder}, {@link Transformer} and {@link DatatypeFactory} instances
+ * are kept per thread and reset every time they are handed out. {@link XMLEventFactory} instances are kept per thread
+ * as well, because their location is mutable.
+ * </p>
+ * <p>
+ * The per-thread instances must not be kept after use, nor be used re-entrantly by the same thread. They are only softly
+ * reachable from the thread, and {@link #clear()} releases them for every thread, so that container threads do not keep
+ * them, and through them the application class loader, once the application is undeployed.
+ * </p>
+ */
+public class XMLProcessingPool {
+
+    private static final PicketLinkLogger logger = PicketLinkLoggerFactory.getLogger();
+
+    private static volatile DocumentBuilderFactory documentBuilderFactory;
+
+    private static volatile TransformerFactory transformerFactory;
+
+    private static volatile XMLInputFactory xmlInputFactory;
+
+    private static volatile XMLOutputFactory xmlOutputFactory;
+
+    private static final ThreadLocal<SoftReference<DocumentBuilder>> documentBuilders = new ThreadLocal<SoftReference<DocumentBuilder>>();
+
+    private static final ThreadLocal<SoftReference<Transformer>> transformers = new ThreadLocal<SoftReference<Transformer>>();
+
+    private static final ThreadLocal<SoftReference<DatatypeFactory>> datatypeFactories = new ThreadLocal<SoftReference<DatatypeFactory>>();
+
+    private static final ThreadLocal<SoftReference<XMLEventFactory>> eventFactories = new ThreadLocal<SoftReference<XMLEventFactory>>();
+
+    // every reference handed to a thread, so that clear() can release the instances of all threads
+    private static final Set<Reference<?>> pooled = Collections.synchronizedSet(Collections
+            .newSetFromMap(new WeakHashMap<Reference<?>, Boolean>()));
+
+    /**
+     * <p>
+     * Get the namespace aware {@link DocumentBuilderFactory}. The returned instance is cached and shared between different
+     * threads, it must not be reconfigured.
+     * </p>
+     *
+     * @return
+     */
+    public static DocumentBuilderFactory getDocumentBuilderFactory() {
+        if (documentBuilderFactory == null) {
+            synchronized (XMLProcessingPool.class) {
+                if (documentBuilderFactory == null) {
+                    ClassLoader prevTCCL = switchTCCL();
+                    try {
+                        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+                        factory.setNamespaceAware(true);
+                        factory.setXIncludeAware(true);
+                        documentBuilderFactory = factory;
+                    } finally {
+                        restoreTCCL(prevTCCL);
+                    }
+                }
+            }
+        }
+
+        return documentBuilderFactory;
+    }
+
+    /**
+     * Get the {@link DocumentBuilder} of the current thread, reset to its initial state
+     *
+     * @return
+     * @throws ConfigurationException
+     */
+    public static DocumentBuilder getDocumentBuilder() throws ConfigurationException {
+        DocumentBuilder builder = get(documentBuilders);
+
+        if (builder == null) {
+            try {
+                builder = getDocumentBuilderFactory().newDocumentBuilder();
+            } catch (ParserConfigurationException e) {
+                throw logger.configurationError(e);
+            }
+            set(documentBuilders, builder);
+        } else {
+            builder.reset();
+        }
+
+        return builder;
+    }
+
+    /**
+     * <p>
+     * Get the {@link TransformerFactory}. The returned instance is cached and shared between different threads.
+     * </p>
+     *
+     * @return
+     * @throws TransformerFactoryConfigurationError
+     */
+    public static TransformerFactory getTransformerFactory() throws TransformerFactoryConfigurationError {
+        if (transformerFactory == null) {
+            synchronized (XMLProcessingPool.class) {
+                if (transformerFactory == null) {
+                    ClassLoader prevTCCL = switchTCCL();
+                    try {
+                        transformerFactory = TransformerFactory.newInstance();
+                    } finally {
+                        restoreTCCL(prevTCCL);
+                    }
+                }
+            }
+        }
+
+        return transformerFactory;
+    }
+
+    /**
+     * Get the identity {@link Transformer} of the current thread, reset to its initial state. The XML declaration is
+     * omitted and the output is not indented.
+     *
+     * @return
+     * @throws ConfigurationException
+     */
+    public static Transformer getTransformer() throws ConfigurationException {
+        Transformer transformer = get(transformers);
+
+        if (transformer == null) {
+            transformer = newTransformer();
+            set(transformers, transformer);
+        } else {
+            transformer.reset();
+            configure(transformer);
+        }
+
+        return transformer;
+    }
+
+    /**
+     * Create a new identity {@link Transformer}, which the caller owns. The XML declaration is omitted and the output is
+     * not indented.
+     *
+     * @return
+     * @throws ConfigurationException
+     */
+    public static Transformer newTransformer() throws ConfigurationException {
+        Transformer transformer;
+        try {
+            transformer = getTransformerFactory().newTransformer();
+        } catch (TransformerConfigurationException e) {
+            throw logger.configurationError(e);
+        } catch (TransformerFactoryConfigurationError e) {
+            throw logger.configurationError(e);
+        }
+
+        configure(transformer);
+
+        return transformer;
+    }
+
+    /**
+     * <p>
+     * Get the {@link XMLInputFactory}. The returned instance is namespace aware, coalescing, does not support external
+     * entities and is shared between different threads. It must not be reconfigured.
+     * </p>
+     *
+     * @return
+     */
+    public static XMLInputFactory getXMLInputFactory() {
+        if (xmlInputFactory == null) {
+            synchronized (XMLProcessingPool.class) {
+                if (xmlInputFactory == null) {
+                    ClassLoader prevTCCL = switchTCCL();
+                    try {
+                        XMLInputFactory factory = XMLInputFactory.newInstance();
+                        factory.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES, Boolean.TRUE);
+                        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+                        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+                        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+                        xmlInputFactory = factory;
+                    } finally {
+                        restoreTCCL(prevTCCL);
+                    }
+                }
+            }
+        }
+
+        return xmlInputFactory;
+    }
+
+    /**
+     * <p>
+     * Get the {@link XMLOutputFactory}. The returned instance is shared between different threads and must not be
+     * reconfigured.
+     * </p>
+     *
+     * @return
+     */
+    public static XMLOutputFactory getXMLOutputFactory() {
+        if (xmlOutputFactory == null) {
+            synchronized (XMLProcessingPool.class) {
+                if (xmlOutputFactory == null) {
+                    ClassLoader prevTCCL = switchTCCL();
+                    try {
+                        xmlOutputFactory = XMLOutputFactory.newInstance();
+                    } finally {
+                        restoreTCCL(prevTCCL);
+                    }
+                }
+            }
+        }
+
+        return xmlOutputFactory;
+    }
+
+    /**
+     * Get the {@link DatatypeFactory} of the current thread
+     *
+     * @return
+     * @throws DatatypeConfigurationException
+     */
+    public static DatatypeFactory getDatatypeFactory() throws DatatypeConfigurationException {
+        DatatypeFactory factory = get(datatypeFactories);
+
+        if (factory == null) {
+            ClassLoader prevTCCL = switchTCCL();
+            try {
+                factory = DatatypeFactory.newInstance();
+            } finally {
+                restoreTCCL(prevTCCL);
+            }
+            set(datatypeFactories, factory);
+        }
+
+        return factory;
+    }
+
+    /**
+     * Get the {@link XMLEventFactory} of the current thread. Callers may set the location of the events it creates, but
+     * must not rely on another caller leaving it unchanged.
+     *
+     * @return
+     */
+    public static XMLEventFactory getXMLEventFactory() {
+        XMLEventFactory factory = get(eventFactories);
+
+        if (factory == null) {
+            ClassLoader prevTCCL = switchTCCL();
+            try {
+                factory = XMLEventFactory.newInstance();
+            } finally {
+                restoreTCCL(prevTCCL);
+            }
+            set(eventFactories, factory);
+        }
+
+        return factory;
+    }
+
+    /**
+     * Release the instances kept for every thread. Called when the application is undeployed, see
+     * {@link org.picketlink.identity.federation.web.listeners.PicketLinkContextListener}. Threads that still use the pool
+     * afterwards get new instances.
+     */
+    public static void clear() {
+        synchronized (pooled) {
+            for (Reference<?> reference : pooled) {
+                reference.clear();
+            }
+            pooled.clear();
+        }
+
+        documentBuilders.remove();
+        transformers.remove();
+        datatypeFactories.remove();
+        eventFactories.remove();
+    }
+
+    private static <T> T get(ThreadLocal<SoftReference<T>> local) {
+        SoftReference<T> reference = local.get();
+
+        return reference != null ? reference.get() : null;
+    }
+
+    private static <T> void set(ThreadLocal<SoftReference<T>> local, T value) {
+        SoftReference<T> reference = new SoftReference<T>(value);
+        pooled.add(reference);
+        local.set(reference);
+    }
+
+    private static void configure(Transformer transformer) {
+        transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+        transformer.setOutputProperty(OutputKeys.INDENT, "no");
+    }
+
+    private static ClassLoader switchTCCL() {
+        ClassLoader prevTCCL = SecurityActions.getTCCL();
+
+        if (isTCCLJaxp()) {
+            SecurityActions.setTCCL(XMLProcessingPool.class.getClassLoader());
+        }
+
+        return prevTCCL;
+    }
+
+    private static void restoreTCCL(ClassLoader prevTCCL) {
+        if (isTCCLJaxp()) {
+            SecurityActions.setTCCL(prevTCCL);
+        }
+    }
+
+    private static boolean isTCCLJaxp() {
+        return SystemPropertiesUtil.getSystemProperty(GeneralConstants.TCCL_JAXP, "false").equalsIgnoreCase("true");
+    }
+}
@@ -196,9 +196,7 @@ public class XMLSignatureUtil {
         if (nodeToBeSigned == null)
             throw logger.nullArgumentError("Node to be signed");
         
-        if (logger.isTraceEnabled()) {
-            logger.trace("Document to be signed=" + DocumentUtil.asString(doc));
-        }
+        logger.trace("Document to be signed=", doc);
 
         Node parentNode = nodeToBeSigned.getParentNode();
 
@@ -260,9 +258,7 @@ public class XMLSignatureUtil {
         if (nodeToBeSigned == null)
             throw logger.nullArgumentError("Node to be signed");
 
-        if (logger.isTraceEnabled()) {
-            logger.trace("Document to be signed=" + DocumentUtil.asString(doc));
-        }
+        logger.trace("Document to be signed=", doc);
 
         Node parentNode = nodeToBeSigned.getParentNode();
 
@@ -402,7 +398,7 @@ public class XMLSignatureUtil {
     public static Document sign(Document doc, KeyPair keyPair, String digestMethod, String signatureMethod, String referenceURI,
                                 X509Certificate x509Certificate)
             throws GeneralSecurityException, MarshalException, XMLSignatureException {
-        logger.trace("Document to be signed=" + DocumentUtil.asString(doc));
+        logger.trace("Document to be signed=", doc);
         PrivateKey signingKey = keyPair.getPrivate();
         PublicKey publicKey = keyPair.getPublic();
 
@@ -436,7 +432,7 @@ public class XMLSignatureUtil {
         String referenceURI = dto.getReferenceURI();
         String signatureMethod = dto.getSignatureMethod();
 
-        logger.trace("Document to be signed=" + DocumentUtil.asString(doc));
+        logger.trace("Document to be signed=", doc);
 
         PrivateKey signingKey = keyPair.getPrivate();
         PublicKey publicKey = keyPair.getPublic();
@@ -22,9 +22,24 @@ import java.io.File;
 import java.io.InputStream;
 import java.net.URI;
 import java.net.URL;
+import java.security.AccessControlContext;
 import java.security.AccessController;
+import java.security.Principal;
 import java.security.PrivilegedAction;
-
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
 import javax.xml.soap.SOAPException;
 import javax.xml.soap.SOAPHeader;
@@ -44,10 +59,13 @@ import org.picketlink.identity.federation.PicketLinkLoggerFactory;
 import org.picketlink.identity.federation.core.ErrorCodes;
 import org.picketlink.identity.federation.core.config.STSType;
 import org.picketlink.identity.federation.core.exceptions.ConfigurationException;
+import org.picketlink.identity.federation.core.interfaces.SecurityTokenProvider;
 import org.picketlink.identity.federation.core.parsers.sts.STSConfigParser;
 import org.picketlink.identity.federation.core.parsers.wst.WSTrustParser;
 import org.picketlink.identity.federation.core.saml.v2.util.DocumentUtil;
+import org.picketlink.identity.federation.core.sts.AbstractSecurityTokenProvider;
 import org.picketlink.identity.federation.core.util.SOAPUtil;
+import org.picketlink.identity.federation.core.util.SystemPropertiesUtil;
 import org.picketlink.identity.federation.core.wstrust.WSTrustConstants.WSSE;
 import org.picketlink.identity.federation.core.wstrust.wrappers.BaseRequestSecurityToken;
 import org.picketlink.identity.federation.core.wstrust.wrappers.RequestSecurityToken;
@@ -84,6 +102,14 @@ public class PicketLinkSTS implements Provider<SOAPMessage>// SecurityTokenServi
 
     private static final String STS_CONFIG_DIR = "picketlink-store" + SEPARATOR + "sts" + SEPARATOR;
 
+    /**
+     * System property holding the maximum number of threads handling the requests of a collection
+     */
+    public static final String BATCH_THREADS = "picketlink.sts.batch.threads";
+
+    // handles the requests of a collection, created on first use and shut down with the endpoint
+    private ExecutorService batchExecutor;
+
     @Resource
     protected WebServiceContext context;
 
@@ -196,6 +222,82 @@ public class PicketLinkSTS implements Provider<SOAPMessage>// SecurityTokenServi
      * @throws WebServiceException Any exception encountered in handling token
      */
     protected Source handleTokenRequest(RequestSecurityToken request) {
+        WSTrustRequestHandler handler = this.getRequestHandler();
+        return new DOMSource(this.processTokenRequest(request, handler, this.context.getUserPrincipal()));
+    }
+
+    /**
+     * <p>
+     * Process a collection of security token requests. The requests are handled concurrently and their responses are
+     * returned, in the order of the requests, in a single {@code RequestSecurityTokenResponseCollection}.
+     * </p>
+     * 
+     * @param requestCollection a {@code RequestSecurityTokenCollection} containing the various requests information.
+     * @return a {@code Source} instance representing the marshalled response.
+     */
+    protected Source handleTokenRequestCollection(RequestSecurityTokenCollection requestCollection) {
+        List<RequestSecurityToken> requests = requestCollection.getRequestSecurityTokens();
+        if (requests.isEmpty())
+            throw logger.stsWSInvalidTokenRequestError();
+
+        final WSTrustRequestHandler handler = this.getRequestHandler();
+        // the web service context is bound to the calling thread
+        final Principal principal = this.context.getUserPrincipal();
+        // the forked requests run with the class loader, permissions and binary token of the caller
+        final ClassLoader callerTCCL = SecurityActions.getTCCL();
+        final AccessControlContext callerContext = AccessController.getContext();
+        final BinaryToken callerBinaryToken = binaryToken.get();
+
+        ExecutorService executor = getBatchExecutor();
+        List<Future<Document>> responses = new ArrayList<Future<Document>>(requests.size() - 1);
+        try {
+            // fork all but the first request, which is handled by the calling thread
+            for (int i = 1; i < requests.size(); i++) {
+                final RequestSecurityToken request = requests.get(i);
+                responses.add(executor.submit(new Callable<Document>() {
+                    public Document call() {
+                        ClassLoader previousTCCL = SecurityActions.getTCCL();
+                        BinaryToken previousBinaryToken = binaryToken.get();
+                        SecurityActions.setTCCL(callerTCCL);
+                        binaryToken.set(callerBinaryToken);
+                        try {
+                            return AccessController.doPrivileged(new PrivilegedAction<Document>() {
+                                public Document run() {
+                                    return processTokenRequest(request, handler, principal);
+                                }
+                            }, callerContext);
+                        } finally {
+                            binaryToken.set(previousBinaryToken);
+                            SecurityActions.setTCCL(previousTCCL);
+                        }
+                    }
+                }));
+            }
+
+            Document responseDocument = this.processTokenRequest(requests.get(0), handler, principal);
+            Node responseCollection = responseDocument.getDocumentElement();
+            for (Future<Document> response : responses) {
+                NodeList children = response.get().getDocumentElement().getChildNodes();
+                for (int i = 0; i < children.getLength(); i++) {
+                    responseCollection.appendChild(responseDocument.importNode(children.item(i), true));
+                }
+            }
+            return new DOMSource(responseDocument);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw logger.stsWSError(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw logger.stsWSError(e.getCause());
+        } finally {
+            for (Future<Document> response : responses) {
+                response.cancel(true);
+            }
+        }
+    }
+
+    private WSTrustRequestHandler getRequestHandler() {
         if (context == null)
             throw new IllegalStateException(ErrorCodes.NULL_VALUE + "WebServiceContext");
         if (this.config == null)
@@ -209,25 +311,38 @@ public class PicketLinkSTS implements Provider<SOAPMessage>// SecurityTokenServi
         WSTrustRequestHandler handler = this.config.getRequestHandler();
         if (handler == null)
             throw logger.nullValueError("WSTrustRequestHandler");
+        return handler;
+    }
 
+    /**
+     * Handle a single request and return the marshalled {@code RequestSecurityTokenResponseCollection} document
+     */
+    private Document processTokenRequest(RequestSecurityToken request, WSTrustRequestHandler handler, Principal principal) {
         String requestType = request.getRequestType().toString();
-        
+
+        // requests of a batch are handled one by one
+        if (requestType.equals(WSTrustConstants.BATCH_ISSUE_REQUEST)) {
+            requestType = WSTrustConstants.ISSUE_REQUEST;
+            request.setRequestType(URI.create(requestType));
+        } else if (requestType.equals(WSTrustConstants.BATCH_VALIDATE_REQUEST)) {
+            requestType = WSTrustConstants.VALIDATE_REQUEST;
+            request.setRequestType(URI.create(requestType));
+        }
+
         logger.trace("STS received request of type " + requestType);
 
         try {
             if (requestType.equals(WSTrustConstants.ISSUE_REQUEST)) {
-                Source source = this.marshallResponse(handler.issue(request, this.context.getUserPrincipal()));
-                Document doc = handler.postProcess((Document) ((DOMSource) source).getNode(), request);
-                return new DOMSource(doc);
+                Source source = this.marshallResponse(handler.issue(request, principal));
+                return handler.postProcess((Document) ((DOMSource) source).getNode(), request);
             } else if (requestType.equals(WSTrustConstants.RENEW_REQUEST)) {
-                Source source = this.marshallResponse(handler.renew(request, this.context.getUserPrincipal()));
+                Source source = this.marshallResponse(handler.renew(request, principal));
                 // we need to sign/encrypt renewed tokens.
-                Document document = handler.postProcess((Document) ((DOMSource) source).getNode(), request);
-                return new DOMSource(document);
+                return handler.postProcess((Document) ((DOMSource) source).getNode(), request);
             } else if (requestType.equals(WSTrustConstants.CANCEL_REQUEST))
-                return this.marshallResponse(handler.cancel(request, this.context.getUserPrincipal()));
+                return (Document) ((DOMSource) this.marshallResponse(handler.cancel(request, principal))).getNode();
             else if (requestType.equals(WSTrustConstants.VALIDATE_REQUEST))
-                return this.marshallResponse(handler.validate(request, this.context.getUserPrincipal()));
+                return (Document) ((DOMSource) this.marshallResponse(handler.validate(request, principal))).getNode();
             else
                 throw logger.stsWSInvalidRequestTypeError(requestType);
         } catch (WSTrustException we) {
@@ -236,15 +351,45 @@ public class PicketLinkSTS implements Provider<SOAPMessage>// SecurityTokenServi
     }
 
     /**
-     * <p>
-     * Process a collection of security token requests.
-     * </p>
-     * 
-     * @param requestCollection a {@code RequestSecurityTokenCollection} containing the various requests information.
-     * @return a {@code Source} instance representing the marshalled response.
+     * Executor of this endpoint for the requests of a collection. When all its threads are busy, or once the endpoint
+     * was destroyed, the submitting thread handles the request itself, so a batch never waits in a queue.
      */
-    protected Source handleTokenRequestCollection(RequestSecurityTokenCollection requestCollection) {
-        throw new UnsupportedOperationException();
+    private synchronized ExecutorService getBatchExecutor() {
+        if (batchExecutor == null) {
+            int threads = Integer.parseInt(SystemPropertiesUtil.getSystemProperty(BATCH_THREADS,
+                    String.valueOf(Runtime.getRuntime().availableProcessors() * 2)));
+            batchExecutor = new ThreadPoolExecutor(0, Math.max(1, threads), 60, TimeUnit.SECONDS,
+                    new SynchronousQueue<Runnable>(), new ThreadFactory() {
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(runnable, "PicketLink STS batch");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    }, new RejectedExecutionHandler() {
+                        public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+                            // unlike CallerRunsPolicy, also run the request when the executor was shut down
+                            runnable.run();
+                        }
+                    });
+        }
+        return batchExecutor;
+    }
+
+    /**
+     * Stop the threads handling the requests of a collection and close the registries of the token providers. Called
+     * by the container when the endpoint is undeployed.
+     */
+    @PreDestroy
+    public synchronized void destroy() {
+        if (batchExecutor != null)
+            batchExecutor.shutdown();
+        if (this.config != null) {
+            // a provider is registered under its token type and its token element, close it once
+            for (SecurityTokenProvider provider : new HashSet<SecurityTokenProvider>(this.config.getTokenProviders())) {
+                if (provider instanceof AbstractSecurityTokenProvider)
+                    ((AbstractSecurityTokenProvider) provider).destroy();
+            }
+        }
     }
 
     /**
@@ -22,6 +22,14 @@ import java.io.InputStream;
 import java.net.URI;
 import java.security.Principal;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.xml.namespace.QName;
 import javax.xml.soap.SOAPBody;
@@ -30,8 +38,10 @@ import javax.xml.soap.SOAPPart;
 import javax.xml.transform.Source;
 import javax.xml.transform.dom.DOMResult;
 import javax.xml.transform.dom.DOMSource;
+import javax.xml.ws.AsyncHandler;
 import javax.xml.ws.BindingProvider;
 import javax.xml.ws.Dispatch;
+import javax.xml.ws.Response;
 import javax.xml.ws.Service;
 import javax.xml.ws.Service.Mode;
 import javax.xml.ws.soap.SOAPBinding;
@@ -81,6 +91,14 @@ public class STSClient {
      */
     private boolean isBatch = false;
 
+    /**
+     * Default maximum number of asynchronous requests in flight per client
+     */
+    public static final int DEFAULT_MAX_IN_FLIGHT = 64;
+
+    // bounds the asynchronous requests waiting for a response
+    private volatile Semaphore inFlight = new Semaphore(DEFAULT_MAX_IN_FLIGHT);
+
     /**
      * Constructor
      *
@@ -255,64 +273,186 @@ public class STSClient {
      * @throws WSTrustException
      */
     public Element issueToken(RequestSecurityToken request) throws WSTrustException {
-        if (request.getRequestType() == null) {
-            if (isBatch)
-                request.setRequestType(URI.create(WSTrustConstants.BATCH_ISSUE_REQUEST));
-            else
-                request.setRequestType(URI.create(WSTrustConstants.ISSUE_REQUEST));
-        }
-
-        if (request.getContext() == null)
-            request.setContext("default-context");
+        validateDispatch();
+        DOMSource requestSource = this.createSourceFromRequest(prepareIssueRequest(request));
+        Source response = dispatchLocal.get().invoke(requestSource);
+        return parseRequestedSecurityToken(response, true);
+    }
 
+    /**
+     * Renew a token
+     *
+     * @param tokenType
+     * @param token
+     * @return
+     * @throws WSTrustException
+     */
+    public Element renewToken(String tokenType, Element token) throws WSTrustException {
         validateDispatch();
-        DOMSource requestSource = this.createSourceFromRequest(request);
+        // send the token request to JBoss STS and get the response.
+        DOMSource requestSource = this.createSourceFromRequest(createRenewRequest(token));
         Source response = dispatchLocal.get().invoke(requestSource);
+        return parseRequestedSecurityToken(response, false);
+    }
 
-        NodeList nodes;
-        try {
-            Node documentNode = DocumentUtil.getNodeFromSource(response);
+    /**
+     * Validate a token
+     *
+     * @param token
+     * @return
+     * @throws WSTrustException
+     */
+    public boolean validateToken(Element token) throws WSTrustException {
+        validateDispatch();
+        DOMSource requestSource = this.createSourceFromRequest(createValidateRequest(token));
 
-            Document responseDoc = documentNode instanceof Document ? (Document) documentNode : documentNode.getOwnerDocument();
+        Source response = dispatchLocal.get().invoke(requestSource);
+        return parseValidateResponse(response);
+    }
 
-            nodes = null;
-            if (responseDoc instanceof SOAPPart) {
-                SOAPPart soapPart = (SOAPPart) responseDoc;
-                SOAPEnvelope env = soapPart.getEnvelope();
-                SOAPBody body = env.getBody();
-                Node data = body.getFirstChild();
-                nodes = ((Element) data).getElementsByTagNameNS(WSTrustConstants.BASE_NAMESPACE, "RequestedSecurityToken");
-                if (nodes == null || nodes.getLength() == 0)
-                    nodes = ((Element) data).getElementsByTagName("RequestedSecurityToken");
-            } else {
-                nodes = responseDoc.getElementsByTagNameNS(WSTrustConstants.BASE_NAMESPACE, "RequestedSecurityToken");
-                if (nodes == null || nodes.getLength() == 0)
-                    nodes = responseDoc.getElementsByTagName("RequestedSecurityToken");
+    /**
+     * <p>
+     * Cancels the specified security token by sending a WS-Trust cancel message to the STS.
+     * </p>
+     *
+     * @param securityToken the security token to be canceled.
+     * @return {@code true} if the token has been canceled by the STS; {@code false} otherwise.
+     * @throws WSTrustException if an error occurs while processing the cancel request.
+     */
+    public boolean cancelToken(Element securityToken) throws WSTrustException {
+        validateDispatch();
+        DOMSource requestSource = this.createSourceFromRequest(createCancelRequest(securityToken));
+        Source response = dispatchLocal.get().invoke(requestSource);
+        return parseCancelResponse(response);
+    }
+
+    /**
+     * <p>
+     * Issue a token without blocking the calling thread. The request is sent with {@link Dispatch#invokeAsync}; the
+     * caller only blocks when the maximum number of requests in flight for this client has been reached.
+     * </p>
+     *
+     * @param request
+     * @param callback notified when the token has been issued or the request failed, may be null
+     * @return a {@link Future} holding the issued token
+     * @throws WSTrustException if the request cannot be sent
+     */
+    public Future<Element> issueTokenAsync(RequestSecurityToken request, STSClientCallback<Element> callback)
+            throws WSTrustException {
+        return invokeAsync(prepareIssueRequest(request), new AsyncCall<Element>(callback) {
+            protected Element parse(Source response) throws WSTrustException {
+                return parseRequestedSecurityToken(response, true);
             }
-        } catch (Exception e) {
-            throw new WSTrustException(logger.processingError(e));
+        });
+    }
+
+    /**
+     * Issue a token of the given type without blocking the calling thread
+     *
+     * @see #issueTokenAsync(RequestSecurityToken, STSClientCallback)
+     */
+    public Future<Element> issueTokenAsync(String tokenType, STSClientCallback<Element> callback) throws WSTrustException {
+        RequestSecurityToken request = new RequestSecurityToken();
+        setTokenType(tokenType, request);
+
+        if (wsaIssuerAddress != null) {
+            request.setIssuer(WSTrustUtil.createIssuer(wsaIssuerAddress));
         }
+        if (wspAppliesTo != null) {
+            request.setAppliesTo(WSTrustUtil.createAppliesTo(wspAppliesTo));
+        }
+        return issueTokenAsync(request, callback);
+    }
 
-        if (nodes == null)
-            throw new WSTrustException(logger.nullValueError("NodeList"));
+    /**
+     * Renew a token without blocking the calling thread
+     *
+     * @see #issueTokenAsync(RequestSecurityToken, STSClientCallback)
+     */
+    public Future<Element> renewTokenAsync(String tokenType, Element token, STSClientCallback<Element> callback)
+            throws WSTrustException {
+        return invokeAsync(createRenewRequest(token), new AsyncCall<Element>(callback) {
+            protected Element parse(Source response) throws WSTrustException {
+                return parseRequestedSecurityToken(response, false);
+            }
+        });
+    }
 
-        Node rstr = nodes.item(0);
-        if (rstr == null)
-            throw new WSTrustException(logger.nullValueError("RSTR in the payload"));
+    /**
+     * Validate a token without blocking the calling thread
+     *
+     * @see #issueTokenAsync(RequestSecurityToken, STSClientCallback)
+     */
+    public Future<Boolean> validateTokenAsync(Element token, STSClientCallback<Boolean> callback) throws WSTrustException {
+        return invokeAsync(createValidateRequest(token), new AsyncCall<Boolean>(callback) {
+            protected Boolean parse(Source response) throws WSTrustException {
+                return parseValidateResponse(response);
+            }
+        });
+    }
 
-        return (Element) rstr.getFirstChild();
+    /**
+     * Cancel a token without blocking the calling thread
+     *
+     * @see #issueTokenAsync(RequestSecurityToken, STSClientCallback)
+     */
+    public Future<Boolean> cancelTokenAsync(Element securityToken, STSClientCallback<Boolean> callback)
+            throws WSTrustException {
+        return invokeAsync(createCancelRequest(securityToken), new AsyncCall<Boolean>(callback) {
+            protected Boolean parse(Source response) throws WSTrustException {
+                return parseCancelResponse(response);
+            }
+        });
     }
 
     /**
-     * Renew a token
+     * Set the maximum number of asynchronous requests this client keeps in flight. Callers sending more requests block
+     * until a response arrives.
      *
-     * @param tokenType
-     * @param token
-     * @return
-     * @throws WSTrustException
+     * @param maxInFlight
      */
-    public Element renewToken(String tokenType, Element token) throws WSTrustException {
+    public void setMaxInFlight(int maxInFlight) {
+        if (maxInFlight < 1)
+            throw logger.invalidArgumentError("maxInFlight");
+        this.inFlight = new Semaphore(maxInFlight);
+    }
+
+    private <T> Future<T> invokeAsync(RequestSecurityToken request, AsyncCall<T> call) throws WSTrustException {
         validateDispatch();
+        DOMSource requestSource = this.createSourceFromRequest(request);
+        Dispatch<Source> dispatch = dispatchLocal.get();
+
+        Semaphore window = inFlight;
+        try {
+            window.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new WSTrustException(logger.processingError(e));
+        }
+        call.window = window;
+
+        try {
+            call.invocation = dispatch.invokeAsync(requestSource, call);
+        } catch (RuntimeException e) {
+            call.complete(null, new WSTrustException(logger.processingError(e)), false);
+        }
+        return call;
+    }
+
+    private RequestSecurityToken prepareIssueRequest(RequestSecurityToken request) {
+        if (request.getRequestType() == null) {
+            if (isBatch)
+                request.setRequestType(URI.create(WSTrustConstants.BATCH_ISSUE_REQUEST));
+            else
+                request.setRequestType(URI.create(WSTrustConstants.ISSUE_REQUEST));
+        }
+
+        if (request.getContext() == null)
+            request.setContext("default-context");
+        return request;
+    }
+
+    private RequestSecurityToken createRenewRequest(Element token) {
         RequestSecurityToken request = new RequestSecurityToken();
         request.setContext("context");
 
@@ -321,13 +461,40 @@ public class STSClient {
         RenewTargetType renewTarget = new RenewTargetType();
         renewTarget.add(token);
         request.setRenewTarget(renewTarget);
+        return request;
+    }
 
-        // send the token request to JBoss STS and get the response.
-        DOMSource requestSource = this.createSourceFromRequest(request);
-        Source response = dispatchLocal.get().invoke(requestSource);
+    private RequestSecurityToken createValidateRequest(Element token) {
+        RequestSecurityToken request = new RequestSecurityToken();
+        request.setContext("context");
+
+        request.setTokenType(URI.create(WSTrustConstants.STATUS_TYPE));
+        request.setRequestType(URI.create(WSTrustConstants.VALIDATE_REQUEST));
+        ValidateTargetType validateTarget = new ValidateTargetType();
+        validateTarget.add(token);
+        request.setValidateTarget(validateTarget);
+        return request;
+    }
+
+    private RequestSecurityToken createCancelRequest(Element securityToken) {
+        // create a WS-Trust cancel request containing the specified token.
+        RequestSecurityToken request = new RequestSecurityToken();
+        request.setRequestType(URI.create(WSTrustConstants.CANCEL_REQUEST));
+        CancelTargetType cancelTarget = new CancelTargetType();
+        cancelTarget.add(securityToken);
+        request.setCancelTarget(cancelTarget);
+        request.setContext("context");
+        return request;
+    }
+
+    /**
+     * Extract the token from the RequestedSecurityToken element of an issue or renew response
+     */
+    private Element parseRequestedSecurityToken(Source response, boolean required) throws WSTrustException {
         NodeList nodes;
         try {
             Node documentNode = DocumentUtil.getNodeFromSource(response);
+
             Document responseDoc = documentNode instanceof Document ? (Document) documentNode : documentNode.getOwnerDocument();
 
             nodes = null;
@@ -352,32 +519,16 @@ public class STSClient {
             throw new WSTrustException(logger.nullValueError("NodeList"));
 
         Node rstr = nodes.item(0);
+        if (rstr == null) {
+            if (required)
+                throw new WSTrustException(logger.nullValueError("RSTR in the payload"));
+            return null;
+        }
 
         return (Element) rstr.getFirstChild();
     }
 
-    /**
-     * Validate a token
-     *
-     * @param token
-     * @return
-     * @throws WSTrustException
-     */
-    public boolean validateToken(Element token) throws WSTrustException {
-        validateDispatch();
-        RequestSecurityToken request = new RequestSecurityToken();
-        request.setContext("context");
-
-        request.setTokenType(URI.create(WSTrustConstants.STATUS_TYPE));
-        request.setRequestType(URI.create(WSTrustConstants.VALIDATE_REQUEST));
-        ValidateTargetType validateTarget = new ValidateTargetType();
-        validateTarget.add(token);
-        request.setValidateTarget(validateTarget);
-
-        DOMSource requestSource = this.createSourceFromRequest(request);
-
-        Source response = dispatchLocal.get().invoke(requestSource);
-        
+    private boolean parseValidateResponse(Source response) throws WSTrustException {
         try {
             InputStream stream = DocumentUtil.getNodeAsStream(DocumentUtil.getNodeFromSource(response));
             RequestSecurityTokenResponseCollection responseCollection = (RequestSecurityTokenResponseCollection) new WSTrustParser()
@@ -395,27 +546,7 @@ public class STSClient {
         }
     }
 
-    /**
-     * <p>
-     * Cancels the specified security token by sending a WS-Trust cancel message to the STS.
-     * </p>
-     *
-     * @param securityToken the security token to be canceled.
-     * @return {@code true} if the token has been canceled by the STS; {@code false} otherwise.
-     * @throws WSTrustException if an error occurs while processing the cancel request.
-     */
-    public boolean cancelToken(Element securityToken) throws WSTrustException {
-        validateDispatch();
-        // create a WS-Trust cancel request containing the specified token.
-        RequestSecurityToken request = new RequestSecurityToken();
-        request.setRequestType(URI.create(WSTrustConstants.CANCEL_REQUEST));
-        CancelTargetType cancelTarget = new CancelTargetType();
-        cancelTarget.add(securityToken);
-        request.setCancelTarget(cancelTarget);
-        request.setContext("context");
-
-        DOMSource requestSource = this.createSourceFromRequest(request);
-        Source response = dispatchLocal.get().invoke(requestSource);
+    private boolean parseCancelResponse(Source response) throws WSTrustException {
         // get the WS-Trust response and check for presence of the RequestTokenCanceled element.
         try {
             InputStream stream = DocumentUtil.getNodeAsStream(DocumentUtil.getNodeFromSource(response));
@@ -465,4 +596,103 @@ public class STSClient {
     public void setSoapBinding(String soapBinding) {
         this.soapBinding = soapBinding;
     }
+
+    /**
+     * An asynchronous request: receives the response from JAX-WS, parses it and hands the result to the caller
+     */
+    private abstract class AsyncCall<T> implements Future<T>, AsyncHandler<Source> {
+
+        private final STSClientCallback<T> callback;
+
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        private final AtomicBoolean completed = new AtomicBoolean();
+
+        private volatile Semaphore window;
+
+        private volatile Future<?> invocation;
+
+        private volatile T result;
+
+        private volatile WSTrustException failure;
+
+        private volatile boolean cancelled;
+
+        AsyncCall(STSClientCallback<T> callback) {
+            this.callback = callback;
+        }
+
+        protected abstract T parse(Source response) throws WSTrustException;
+
+        public void handleResponse(Response<Source> response) {
+            try {
+                complete(parse(response.get()), null, false);
+            } catch (WSTrustException e) {
+                complete(null, e, false);
+            } catch (ExecutionException e) {
+                complete(null, new WSTrustException(logger.processingError(e.getCause())), false);
+            } catch (Exception e) {
+                complete(null, new WSTrustException(logger.processingError(e)), false);
+            }
+        }
+
+        void complete(T result, WSTrustException failure, boolean cancelled) {
+            if (!completed.compareAndSet(false, true))
+                return;
+
+            this.result = result;
+            this.failure = failure;
+            this.cancelled = cancelled;
+            window.release();
+            done.countDown();
+
+            if (callback != null && !cancelled) {
+                try {
+                    if (failure != null)
+                        callback.failed(failure);
+                    else
+                        callback.completed(result);
+                } catch (RuntimeException e) {
+                    logger.error(e);
+                }
+            }
+        }
+
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            if (completed.get())
+                return false;
+            Future<?> current = invocation;
+            if (current != null)
+                current.cancel(mayInterruptIfRunning);
+            complete(null, null, true);
+            return cancelled;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        public boolean isDone() {
+            return done.getCount() == 0;
+        }
+
+        public T get() throws InterruptedException, ExecutionException {
+            done.await();
+            return report();
+        }
+
+        public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            if (!done.await(timeout, unit))
+                throw new TimeoutException();
+            return report();
+        }
+
+        private T report() throws ExecutionException {
+            if (cancelled)
+                throw new CancellationException();
+            if (failure != null)
+                throw new ExecutionException(failure);
+            return result;
+        }
+    }
 }
@@ -29,8 +29,8 @@ package org.picketlink.identity.federation.core.wstrust;
 public final class STSClientFactory {
 
     private static final int INITIAL_NUMBER_OF_CLIENTS_IN_POOL = 10;
-    private static STSClientFactory INSTANCE = null;
-    private static STSClientPool POOL = null;
+    private static volatile STSClientFactory INSTANCE = null;
+    private static volatile STSClientPool POOL = null;
 
     private STSClientFactory() {
     }
@@ -45,8 +45,12 @@ public final class STSClientFactory {
 
     public static STSClientFactory getInstance(int maxClientsInPool) {
         if (INSTANCE == null) {
-            INSTANCE = new STSClientFactory();
-            POOL = STSClientPool.instance(maxClientsInPool);
+            synchronized (STSClientFactory.class) {
+                if (INSTANCE == null) {
+                    POOL = STSClientPool.instance(maxClientsInPool);
+                    INSTANCE = new STSClientFactory();
+                }
+            }
         }
         return INSTANCE;
     }
@@ -59,7 +63,19 @@ public final class STSClientFactory {
         if (POOL.isPoolingDisabled()) {
             return new STSClient(config);
         }
-        POOL.initialize(initialNumberOfClients, config);
+        initialize(initialNumberOfClients, 0, config);
+        return POOL.takeOut(config);
+    }
+
+    /**
+     * Create a client from a pool which holds at most {@code maxClientsInPool} clients for the given configuration.
+     * Zero disables pooling for this configuration.
+     */
+    public STSClient create(int initialNumberOfClients, int maxClientsInPool, final STSClientConfig config) {
+        if (POOL.isPoolingDisabled() || maxClientsInPool == 0) {
+            return new STSClient(config);
+        }
+        initialize(initialNumberOfClients, maxClientsInPool, config);
         return POOL.takeOut(config);
     }
 
@@ -67,8 +83,58 @@ public final class STSClientFactory {
         if (POOL.isPoolingDisabled()) {
             return callBack.createClient();
         }
-        POOL.initialize(initialNumberOfClients, callBack);
+        initialize(initialNumberOfClients, 0, callBack);
         return POOL.takeOut(callBack.getKey());
     }
 
+    public STSClient create(int initialNumberOfClients, int maxClientsInPool, final STSClientCreationCallBack callBack) {
+        if (POOL.isPoolingDisabled() || maxClientsInPool == 0) {
+            return callBack.createClient();
+        }
+        initialize(initialNumberOfClients, maxClientsInPool, callBack);
+        return POOL.takeOut(callBack.getKey());
+    }
+
+    /**
+     * Give a client obtained from this factory back to the pool. Clients which were not pooled are ignored.
+     *
+     * @param client
+     */
+    public void release(STSClient client) {
+        if (client != null && !POOL.isPoolingDisabled()) {
+            POOL.putIn(client);
+        }
+    }
+
+    /**
+     * Initialize the sub-pool of the configuration unless another caller already did. A maximum of zero uses the pool
+     * default.
+     */
+    private static void initialize(int initialNumberOfClients, int maxClientsInPool, STSClientConfig config) {
+        if (!POOL.isInitialized(config)) {
+            synchronized (POOL) {
+                if (!POOL.isInitialized(config)) {
+                    POOL.initialize(initialNumberOfClients, maxClientsInPool, config);
+                }
+            }
+        }
+    }
+
+    private static void initialize(int initialNumberOfClients, int maxClientsInPool, STSClientCreationCallBack callBack) {
+        if (!POOL.isInitialized(callBack.getKey())) {
+            synchronized (POOL) {
+                if (!POOL.isInitialized(callBack.getKey())) {
+                    POOL.initialize(initialNumberOfClients, maxClientsInPool, callBack);
+                }
+            }
+        }
+    }
+
+    /**
+     * The pool backing this factory, e.g. to read its metrics
+     */
+    public STSClientPool getPool() {
+        return POOL;
+    }
+
 }
\ No newline at end of file
@@ -17,30 +17,68 @@
  */
 package org.picketlink.identity.federation.core.wstrust;
 
-import java.util.ArrayList;
-import java.util.Hashtable;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.picketlink.identity.federation.PicketLinkLogger;
 import org.picketlink.identity.federation.PicketLinkLoggerFactory;
+import org.picketlink.identity.federation.core.util.Base64;
+import org.picketlink.identity.federation.core.util.SystemPropertiesUtil;
 
 
 /**
- * Simple pool of {@link STSClient} classes.
+ * <p>
+ * Pool of {@link STSClient} classes.
+ * </p>
+ * <p>
+ * Clients are kept in one sub-pool per key (service name, port name, endpoint address and credentials, or the key of a
+ * {@link STSClientCreationCallBack}). Each sub-pool has its own maximum size and idle deque, so borrowing from one
+ * STS never contends with borrowing from another one. When a sub-pool is exhausted the caller waits up to the borrow
+ * timeout for a client to be returned before the pool gives up.
+ * </p>
+ * <p>
+ * Idle clients that have not been used for longer than the maximum idle time are evicted when clients are returned,
+ * while keeping at least the initial number of clients of the sub-pool.
+ * </p>
+ * <p>
+ * Clients are shared by every caller of a key, so only clients configured with credentials that are not specific to a
+ * single user should be pooled.
+ * </p>
  *
  * @author Peter Skopek pskopek at (redhat.com)
  *
  */
 public class STSClientPool {
 
+    /**
+     * System property holding the default number of milliseconds a borrower waits for a free client
+     */
+    public static final String BORROW_TIMEOUT = "picketlink.sts.client.pool.borrowTimeout";
+
+    /**
+     * System property holding the default number of milliseconds a client may stay idle before it is evicted
+     */
+    public static final String MAX_IDLE_TIME = "picketlink.sts.client.pool.maxIdleTime";
+
     private static final PicketLinkLogger logger = PicketLinkLoggerFactory.getLogger();
-    private static STSClientPool instance = null;
+    private static volatile STSClientPool instance = null;
 
-    private int maxPoolSize = 100;
-    private int initialClients = 0;
+    private final int maxPoolSize;
+    private volatile int initialClients = 0;
+    private volatile long borrowTimeout = Long.parseLong(SystemPropertiesUtil.getSystemProperty(BORROW_TIMEOUT, "5000"));
+    private volatile long maxIdleTime = Long.parseLong(SystemPropertiesUtil.getSystemProperty(MAX_IDLE_TIME, "300000"));
 
-    private Hashtable<String, ArrayList<STSClient>> free = new Hashtable<String, ArrayList<STSClient>>();
-    private Hashtable<String, ArrayList<STSClient>> inUse = new Hashtable<String, ArrayList<STSClient>>();
-    private Hashtable<String, STSConfigData> configs = new Hashtable<String, STSConfigData>();
+    private final ConcurrentMap<String, KeyPool> pools = new ConcurrentHashMap<String, KeyPool>();
 
     protected STSClientPool(int maxPoolSize) {
         this.maxPoolSize = maxPoolSize;
@@ -48,26 +86,42 @@ public class STSClientPool {
 
     public static STSClientPool instance(int maxPoolSize) {
         if (instance == null) {
-            return new STSClientPool(maxPoolSize);
+            synchronized (STSClientPool.class) {
+                if (instance == null) {
+                    instance = new STSClientPool(maxPoolSize);
+                }
+            }
         }
 
         return instance;
     }
 
     public void initialize(int numberOfSTSClients, STSClientConfig stsClientConfig) {
-        internalInitialize(numberOfSTSClients, stsClientConfig, null);
+        internalInitialize(numberOfSTSClients, maxPoolSize, stsClientConfig, null);
     }
 
-    public void initialize(STSClientConfig stsClientConfig) {
-        internalInitialize(initialClients, stsClientConfig, null);
+    public void initialize(int numberOfSTSClients, int maxNumberOfSTSClients, STSClientConfig stsClientConfig) {
+        internalInitialize(numberOfSTSClients, maxNumberOfSTSClients, stsClientConfig, null);
     }
 
+    public void initialize(STSClientConfig stsClientConfig) {
+        internalInitialize(initialClients, maxPoolSize, stsClientConfig, null);
+    }
 
     public void initialize(int numberOfSTSClients, STSClientCreationCallBack clientCreationCallBack) {
-        internalInitialize(numberOfSTSClients, null, clientCreationCallBack);
+        internalInitialize(numberOfSTSClients, maxPoolSize, null, clientCreationCallBack);
     }
 
-    private void internalInitialize(int numberOfSTSClients, STSClientConfig stsClientConfig, STSClientCreationCallBack clientCreationCallBack) {
+    public void initialize(int numberOfSTSClients, int maxNumberOfSTSClients, STSClientCreationCallBack clientCreationCallBack) {
+        internalInitialize(numberOfSTSClients, maxNumberOfSTSClients, null, clientCreationCallBack);
+    }
+
+    /**
+     * Create the sub-pool for the given configuration and prewarm it with {@code numberOfSTSClients} clients. A key can
+     * only be initialized once.
+     */
+    private void internalInitialize(int numberOfSTSClients, int maxNumberOfSTSClients, STSClientConfig stsClientConfig,
+            STSClientCreationCallBack clientCreationCallBack) {
 
         if (initialClients < 1) {
             initialClients = numberOfSTSClients;
@@ -78,179 +132,140 @@ public class STSClientPool {
         } else {
             key = key(stsClientConfig);
         }
-        if (!free.containsKey(key)) {
-            ArrayList<STSClient> clients = new ArrayList<STSClient>(numberOfSTSClients);
-            if (clientCreationCallBack != null) {
-                for (int i = 0; i < numberOfSTSClients; i++) {
-                    clients.add(clientCreationCallBack.createClient());
-                }
-            } else {
-                for (int i = 0; i < numberOfSTSClients; i++) {
-                    clients.add(new STSClient(stsClientConfig));
-                }
-            }
-            synchronized (free) {
-                STSConfigData configData = new STSConfigData();
-                if (clientCreationCallBack != null) {
-                    configData.config = null;
-                    configData.callBack = clientCreationCallBack;
-                } else {
-                    configData.config = stsClientConfig;
-                    configData.callBack = null;
-                }
-                configs.put(key, configData);
-                free.put(key, clients);
-                inUse.put(key, new ArrayList<STSClient>(numberOfSTSClients));
-            }
-        } else {
+        if (pools.containsKey(key)) {
             // free pool already contains given key:
             throw logger.freePoolAlreadyContainsGivenKey(key);
         }
 
+        STSConfigData configData = new STSConfigData();
+        configData.config = stsClientConfig;
+        configData.callBack = clientCreationCallBack;
+
+        int maxSize = maxNumberOfSTSClients > 0 ? maxNumberOfSTSClients : maxPoolSize;
+        int minIdle = Math.min(Math.max(numberOfSTSClients, 0), maxSize);
+
+        KeyPool pool = new KeyPool(key, configData, maxSize, minIdle);
+        if (pools.putIfAbsent(key, pool) != null) {
+            throw logger.freePoolAlreadyContainsGivenKey(key);
+        }
+        pool.prewarm();
+    }
+
+    /**
+     * Whether a sub-pool was already initialized for the given configuration
+     */
+    public boolean isInitialized(STSClientConfig stsClientConfig) {
+        return pools.containsKey(key(stsClientConfig));
     }
 
+    /**
+     * Whether a sub-pool was already initialized for the given key
+     */
+    public boolean isInitialized(String key) {
+        return pools.containsKey(key);
+    }
 
     public STSClient takeOut(String serviceName, String portName, String endPointAddress) {
-        String key = key(serviceName, portName, endPointAddress);
-        STSClient client = takeOutInternal(key);
-        if (client == null) {
-            initialize(initialClients, configs.get(key).config);
-            client = takeOutInternal(key);
-        }
-        return client;
+        return takeOutInternal(key(serviceName, portName, endPointAddress));
     }
 
     public STSClient takeOut(STSClientConfig stsClientConfig) {
         String key = key(stsClientConfig);
-        STSClient client = takeOutInternal(key);
-        if (client == null) {
-            initialize(initialClients, stsClientConfig);
-            client = takeOutInternal(key);
+        if (!pools.containsKey(key)) {
+            synchronized (this) {
+                if (!pools.containsKey(key)) {
+                    initialize(initialClients, stsClientConfig);
+                }
+            }
         }
-        return client;
+        return takeOutInternal(key);
     }
 
     public STSClient takeOut(String key) {
-        STSClient client = takeOutInternal(key);
-        if (client == null) {
-            if (configs.get(key).callBack != null) {
-                internalInitialize(initialClients, null, configs.get(key).callBack);
-            }
-            client = takeOutInternal(key);
-        }
-        return client;
+        return takeOutInternal(key);
     }
 
     public void putIn(String serviceName, String portName, String endPointAddress, STSClient client) {
-        String key = key(serviceName, portName, endPointAddress);
-        putInInternal(key, client);
+        putInInternal(key(serviceName, portName, endPointAddress), client);
     }
 
     public void putIn(STSClientConfig stsClientConfig, STSClient client) {
-        String key = key(stsClientConfig);
-        putInInternal(key, client);
+        putInInternal(key(stsClientConfig), client);
     }
 
     public void putIn(String key, STSClient client) {
         putInInternal(key, client);
     }
 
-    private synchronized STSClient takeOutInternal(String key) {
-        ArrayList<STSClient> clients = free.get(key);
-        if (clients != null) {
-            int size = clients.size();
-            STSClient client;
-            if (size > 0) {
-                client = clients.remove(size - 1);
-            } else {
-                int allocateClients = numClientsToAllocate(key);
-                if (allocateClients > 0) {
-                    addClients(key);
-                } else {
-                    // Pool reached miximum number of clients within the pool
-                    throw logger.maximumNumberOfClientsReachedforPool(String.valueOf(this.maxPoolSize));
-                }
-                client = clients.remove(clients.size() -1);
+    /**
+     * Return a client to whichever sub-pool it was borrowed from.
+     *
+     * @param client
+     * @return {@code false} if the client was not borrowed from this pool
+     */
+    public boolean putIn(STSClient client) {
+        for (KeyPool pool : pools.values()) {
+            if (pool.release(client)) {
+                return true;
             }
-            markInUse(key, client);
-            return client;
         }
-        return null;
+        return false;
     }
 
-    private int numClientsToAllocate(String key) {
-        int allClients = 0;
-        ArrayList<STSClient> clients = inUse.get(key);
-        if (clients != null) {
-            allClients += clients.size();
-        }
-        clients = free.get(key);
-        if (clients != null) {
-            allClients += clients.size();
-        }
-
-        int c = maxPoolSize - allClients;
-
-        if (c > initialClients) {
-            return initialClients;
-        } else if (c <= 0) {
-            return 0;
-        } else {
-            return c;
+    private STSClient takeOutInternal(String key) {
+        KeyPool pool = pools.get(key);
+        if (pool == null) {
+            // cannot get STS config by key:
+            throw logger.cannotGetSTSConfigByKey(key);
         }
+        return pool.borrow(borrowTimeout);
     }
 
-    private void addClients(String key) {
-        STSConfigData configData = configs.get(key);
-        if (configData != null) {
-            ArrayList<STSClient> freeClientPool = free.get(key);
-            if (freeClientPool != null) {
-                ArrayList<STSClient> clients = new ArrayList<STSClient>(initialClients);
-                if (configData.config != null) {
-                    for (int i = 0; i < initialClients; i++) {
-                        clients.add(new STSClient(configData.config));
-                    }
-                } else {
-                    for (int i = 0; i < initialClients; i++) {
-                        clients.add(configData.callBack.createClient());
-                    }
-                }
-                freeClientPool.addAll(clients);
-            } else {
-                // cannot get free client pool key:
-                throw logger.cannotGetFreeClientPoolKey(key);
-            }
-        }  else {
-            // cannot get STS config by key:
-            throw logger.cannotGetSTSConfigByKey(key);
+    private void putInInternal(String key, STSClient client) {
+        KeyPool pool = pools.get(key);
+        if (pool == null || !pool.release(client)) {
+            // removing non existing client from used clients by key:
+            throw logger.removingNonExistingClientFromUsedClientsByKey(key);
         }
     }
 
-    private void markInUse(String key, STSClient client) {
-        ArrayList<STSClient> usedClients = inUse.get(key);
-        if (usedClients != null) {
-            usedClients.add(client);
-        } else {
-            // cannot get used clients by key:
-            logger.cannotGetUsedClientsByKey(key);
+    /**
+     * Evict clients which stayed idle longer than the maximum idle time from all sub-pools.
+     */
+    public void evictIdleClients() {
+        long now = System.currentTimeMillis();
+        for (KeyPool pool : pools.values()) {
+            pool.evict(now, maxIdleTime);
         }
     }
 
-    private synchronized void putInInternal(String key, STSClient client) {
-        ArrayList<STSClient> freeClients = free.get(key);
-        ArrayList<STSClient> usedClients = inUse.get(key);
+    /**
+     * Clients carry the credentials of their configuration, so the credentials are part of the key. The password only
+     * enters the key as a digest.
+     */
+    private String key(STSClientConfig stsClientConfig) {
+        String key = key(stsClientConfig.getServiceName(), stsClientConfig.getPortName(), stsClientConfig.getEndPointAddress());
 
-        if (!usedClients.remove(client)) {
-            // removing non existing client from used clients by key:
-            throw logger.removingNonExistingClientFromUsedClientsByKey(key);
+        if (stsClientConfig.getUsername() == null && stsClientConfig.getPassword() == null) {
+            return key;
         }
 
-        freeClients.add(client);
-
+        return key + "|" + stsClientConfig.getUsername() + "|" + digest(stsClientConfig.getPassword());
     }
 
-    private String key(STSClientConfig stsClientConfig) {
-        return key(stsClientConfig.getServiceName(), stsClientConfig.getPortName(), stsClientConfig.getEndPointAddress());
+    private static String digest(String password) {
+        if (password == null) {
+            return null;
+        }
+
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return Base64.encodeBytes(digest.digest(password.getBytes("UTF-8")));
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
     }
 
     private String key(String serviceName, String portName, String endPointAddress) {
@@ -261,6 +276,192 @@ public class STSClientPool {
         return maxPoolSize == 0;
     }
 
+    /**
+     * Set the number of milliseconds a borrower waits for a client when the sub-pool is exhausted. Zero fails
+     * immediately.
+     *
+     * @param borrowTimeout
+     */
+    public void setBorrowTimeout(long borrowTimeout) {
+        this.borrowTimeout = borrowTimeout;
+    }
+
+    public long getBorrowTimeout() {
+        return borrowTimeout;
+    }
+
+    /**
+     * Set the number of milliseconds a client may stay idle before it is evicted. Zero or less disables eviction.
+     *
+     * @param maxIdleTime
+     */
+    public void setMaxIdleTime(long maxIdleTime) {
+        this.maxIdleTime = maxIdleTime;
+    }
+
+    public long getMaxIdleTime() {
+        return maxIdleTime;
+    }
+
+    /**
+     * Number of clients currently borrowed from the sub-pool with the given key.
+     */
+    public int getBorrowedCount(String key) {
+        KeyPool pool = pools.get(key);
+        return pool != null ? pool.inUse.size() : 0;
+    }
+
+    /**
+     * Number of callers currently waiting for a client of the sub-pool with the given key.
+     */
+    public int getWaitingCount(String key) {
+        KeyPool pool = pools.get(key);
+        return pool != null ? pool.waiting.get() : 0;
+    }
+
+    /**
+     * Number of clients created so far by the sub-pool with the given key.
+     */
+    public long getCreatedCount(String key) {
+        KeyPool pool = pools.get(key);
+        return pool != null ? pool.created.get() : 0;
+    }
+
+    /**
+     * Number of idle clients evicted so far from the sub-pool with the given key.
+     */
+    public long getEvictedCount(String key) {
+        KeyPool pool = pools.get(key);
+        return pool != null ? pool.evicted.get() : 0;
+    }
+
+    /**
+     * Number of idle clients in the sub-pool with the given key.
+     */
+    public int getIdleCount(String key) {
+        KeyPool pool = pools.get(key);
+        return pool != null ? pool.idle.size() : 0;
+    }
+
+    /**
+     * Clients of a single key. Borrowing needs a permit of the semaphore, so at most {@code maxSize} clients are out at
+     * any time; idle clients are reused most recently returned first so the oldest ones age out.
+     */
+    private final class KeyPool {
+
+        private final String key;
+        private final STSConfigData configData;
+        private final int maxSize;
+        private final int minIdle;
+
+        private final Semaphore permits;
+        private final LinkedBlockingDeque<IdleClient> idle = new LinkedBlockingDeque<IdleClient>();
+        private final Set<STSClient> inUse = Collections.newSetFromMap(new ConcurrentHashMap<STSClient, Boolean>());
+
+        private final AtomicInteger waiting = new AtomicInteger();
+        private final AtomicLong created = new AtomicLong();
+        private final AtomicLong evicted = new AtomicLong();
+        private final AtomicLong lastEviction = new AtomicLong(System.currentTimeMillis());
+
+        KeyPool(String key, STSConfigData configData, int maxSize, int minIdle) {
+            this.key = key;
+            this.configData = configData;
+            this.maxSize = maxSize;
+            this.minIdle = minIdle;
+            this.permits = new Semaphore(maxSize);
+        }
+
+        void prewarm() {
+            long now = System.currentTimeMillis();
+            while (idle.size() + inUse.size() < minIdle) {
+                idle.offerLast(new IdleClient(create(), now));
+            }
+        }
+
+        STSClient borrow(long timeout) {
+            if (!permits.tryAcquire()) {
+                boolean acquired = false;
+                waiting.incrementAndGet();
+                try {
+                    acquired = timeout > 0 && permits.tryAcquire(timeout, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    waiting.decrementAndGet();
+                }
+                if (!acquired) {
+                    // Pool reached maximum number of clients within the pool
+                    throw logger.maximumNumberOfClientsReachedforPool(String.valueOf(maxSize));
+                }
+            }
+
+            STSClient client;
+            try {
+                IdleClient idleClient = idle.pollFirst();
+                client = idleClient != null ? idleClient.client : create();
+            } catch (RuntimeException e) {
+                permits.release();
+                throw e;
+            }
+            inUse.add(client);
+            return client;
+        }
+
+        boolean release(STSClient client) {
+            if (!inUse.remove(client)) {
+                return false;
+            }
+            long now = System.currentTimeMillis();
+            idle.offerFirst(new IdleClient(client, now));
+            permits.release();
+
+            long last = lastEviction.get();
+            if (maxIdleTime > 0 && now - last > maxIdleTime && lastEviction.compareAndSet(last, now)) {
+                evict(now, maxIdleTime);
+            }
+            return true;
+        }
+
+        void evict(long now, long idleTime) {
+            if (idleTime <= 0) {
+                return;
+            }
+            while (idle.size() > minIdle) {
+                IdleClient oldest = idle.peekLast();
+                if (oldest == null || now - oldest.returnedAt < idleTime) {
+                    break;
+                }
+                if (idle.removeLastOccurrence(oldest)) {
+                    evicted.incrementAndGet();
+                }
+            }
+        }
+
+        private STSClient create() {
+            STSClient client;
+            if (configData.callBack != null) {
+                client = configData.callBack.createClient();
+            } else if (configData.config != null) {
+                client = new STSClient(configData.config);
+            } else {
+                // cannot get STS config by key:
+                throw logger.cannotGetSTSConfigByKey(key);
+            }
+            created.incrementAndGet();
+            return client;
+        }
+    }
+
+    private static final class IdleClient {
+        private final STSClient client;
+        private final long returnedAt;
+
+        IdleClient(STSClient client, long returnedAt) {
+            this.client = client;
+            this.returnedAt = returnedAt;
+        }
+    }
+
 }
 
 class STSConfigData {
@@ -40,6 +40,7 @@ import org.picketlink.identity.federation.core.saml.v1.SAML11Constants;
 import org.picketlink.identity.federation.core.saml.v2.util.DocumentUtil;
 import org.picketlink.identity.federation.core.sts.PicketLinkCoreSTS;
 import org.picketlink.identity.federation.core.util.Base64;
+import org.picketlink.identity.federation.core.util.SignatureValidationCache;
 import org.picketlink.identity.federation.core.util.XMLEncryptionUtil;
 import org.picketlink.identity.federation.core.util.XMLSignatureUtil;
 import org.picketlink.identity.federation.core.wstrust.wrappers.RequestSecurityToken;
@@ -459,21 +460,25 @@ public class StandardRequestHandler implements WSTrustRequestHandler {
         if (this.configuration.signIssuedToken() && this.configuration.getSTSKeyPair() != null) {
             KeyPair keyPair = this.configuration.getSTSKeyPair();
             try {
-                if (logger.isTraceEnabled()) {
-                    try {
-                        logger.trace("Going to validate signature for: " + DocumentUtil.getNodeAsString(securityToken));
-                    } catch (Exception e) {
+                logger.trace("Going to validate signature for: ", securityToken);
+                // a token whose signature was already verified is only checked again by the token provider
+                SignatureValidationCache cache = securityToken instanceof Element ? SignatureValidationCache
+                        .getSharedCache() : null;
+                String cacheKey = cache != null ? cache.getKey((Element) securityToken, keyPair.getPublic()) : null;
+
+                if (cache == null || !cache.isVerified(cacheKey)) {
+                    Document tokenDocument = DocumentUtil.createDocument();
+                    Node importedNode = tokenDocument.importNode(securityToken, true);
+                    tokenDocument.appendChild(importedNode);
+                    XMLSignatureUtil.propagateIDAttributeSetup(securityToken, tokenDocument.getDocumentElement());
+                    if (!XMLSignatureUtil.validate(tokenDocument, keyPair.getPublic())) {
+                        status = new StatusType();
+                        status.setCode(WSTrustConstants.STATUS_CODE_INVALID);
+                        status.setReason("Validation failure: digital signature is invalid");
+                    } else if (cache != null) {
+                        cache.verified(cacheKey, (Element) securityToken);
                     }
                 }
-                Document tokenDocument = DocumentUtil.createDocument();
-                Node importedNode = tokenDocument.importNode(securityToken, true);
-                tokenDocument.appendChild(importedNode);
-                XMLSignatureUtil.propagateIDAttributeSetup(securityToken, tokenDocument.getDocumentElement());
-                if (!XMLSignatureUtil.validate(tokenDocument, keyPair.getPublic())) {
-                    status = new StatusType();
-                    status.setCode(WSTrustConstants.STATUS_CODE_INVALID);
-                    status.setReason("Validation failure: digital signature is invalid");
-                }
             } catch (Exception e) {
                 status = new StatusType();
                 status.setCode(WSTrustConstants.STATUS_CODE_INVALID);
@@ -550,6 +555,12 @@ public class StandardRequestHandler implements WSTrustRequestHandler {
             throw logger.stsError(e);
         }
 
+        // the cancelled token must not be accepted on the strength of an earlier signature verification
+        SignatureValidationCache cache = SignatureValidationCache.getSharedCache();
+        String tokenId = setupIDAttribute(securityToken);
+        if (cache != null && tokenId.length() > 0)
+            cache.revoke(tokenId.substring(1));
+
         // if no exception has been raised, the token has been successfully canceled.
         RequestSecurityTokenResponse response = new RequestSecurityTokenResponse();
         if (request.getContext() != null)
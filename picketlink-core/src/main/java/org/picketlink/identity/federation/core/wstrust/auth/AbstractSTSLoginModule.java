@@ -310,7 +310,7 @@ public abstract class AbstractSTSLoginModule implements LoginModule {
     protected boolean isBatch = false;
 
     /**
-     * Maximal number of clients in the STS Client Pool.
+     * Maximal number of clients in the STS Client Pool. Only used with 'useOptionsCredentials'.
      */
     protected int maxClientsInPool = 0;
 
@@ -410,16 +410,20 @@ public abstract class AbstractSTSLoginModule implements LoginModule {
 
             final STSClient stsClient = createWSTrustClient(builder.build());
 
-            final Element token = invokeSTS(stsClient);
+            try {
+                final Element token = invokeSTS(stsClient);
 
-            if (token == null) {
-                // Throw an exception as returing false only says that this login module should be ignored.
-                throw logger.authCouldNotIssueSAMLToken();
+                if (token == null) {
+                    // Throw an exception as returing false only says that this login module should be ignored.
+                    throw logger.authCouldNotIssueSAMLToken();
+                }
+                setSuccess(true);
+                setSamlToken(token);
+                setSharedToken(token);
+                return true;
+            } finally {
+                releaseWSTrustClient(stsClient);
             }
-            setSuccess(true);
-            setSamlToken(token);
-            setSharedToken(token);
-            return true;
         } catch (WSTrustException e) {
             throw logger.authLoginError(e);
         }
@@ -555,14 +559,33 @@ public abstract class AbstractSTSLoginModule implements LoginModule {
         return new STSClientConfig.Builder(configFile).build();
     }
 
+    /**
+     * Create the client used for a single login. Clients are only taken from the pool when the credentials come from the
+     * module options, a client built with the credentials of the user logging in must not be handed to other users.
+     *
+     * @param config
+     * @return
+     */
     protected STSClient createWSTrustClient(final STSClientConfig config) {
         try {
-            return STSClientFactory.getInstance(maxClientsInPool).create(initialNumberOfClients, config);
+            if (!useOptionsCredentials) {
+                return new STSClient(config);
+            }
+            return STSClientFactory.getInstance(maxClientsInPool).create(initialNumberOfClients, maxClientsInPool, config);
         } catch (final Exception e) {
             throw logger.authCouldNotCreateWSTrustClient(e);
         }
     }
 
+    /**
+     * Give the client of a login back to the pool, if it was taken from it
+     *
+     * @param client
+     */
+    protected void releaseWSTrustClient(final STSClient client) {
+        STSClientFactory.getInstance(maxClientsInPool).release(client);
+    }
+
     protected String getRequiredOption(final Map<String, ?> options, final String optionName) {
         final String option = (String) options.get(optionName);
         if (option == null)
@@ -21,8 +21,6 @@
  */
 package org.picketlink.identity.federation.core.wstrust.plugins.saml;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.security.GeneralSecurityException;
 
 import org.picketlink.identity.federation.PicketLinkLogger;
@@ -34,8 +32,8 @@ import org.picketlink.identity.federation.core.parsers.saml.SAMLParser;
 import org.picketlink.identity.federation.core.saml.v1.writers.SAML11AssertionWriter;
 import org.picketlink.identity.federation.core.saml.v2.util.DocumentUtil;
 import org.picketlink.identity.federation.core.saml.v2.writers.SAMLAssertionWriter;
+import org.picketlink.identity.federation.core.util.DOMXMLStreamWriter;
 import org.picketlink.identity.federation.core.util.JAXPValidationUtil;
-import org.picketlink.identity.federation.core.util.StaxUtil;
 import org.picketlink.identity.federation.saml.v1.assertion.SAML11AssertionType;
 import org.picketlink.identity.federation.saml.v2.assertion.AssertionType;
 import org.w3c.dom.Document;
@@ -82,14 +80,10 @@ public class SAMLUtil {
      * @throws Exception if an error occurs while marshaling the assertion.
      */
     public static Element toElement(AssertionType assertion) throws Exception {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        SAMLAssertionWriter writer = new SAMLAssertionWriter(StaxUtil.getXMLStreamWriter(baos));
+        Document document = DocumentUtil.createDocument();
+        SAMLAssertionWriter writer = new SAMLAssertionWriter(new DOMXMLStreamWriter(document));
         writer.write(assertion);
 
-        byte[] assertionBytes = baos.toByteArray();
-        ByteArrayInputStream bis = new ByteArrayInputStream(assertionBytes);
-        Document document = DocumentUtil.getDocument(bis);
-
         if (logger.isTraceEnabled()) {
             logger.samlAssertion(DocumentUtil.asString(document));
         }
@@ -107,13 +101,10 @@ public class SAMLUtil {
      * @throws Exception if an error occurs while marshaling the assertion.
      */
     public static Element toElement(SAML11AssertionType assertion) throws Exception {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        SAML11AssertionWriter writer = new SAML11AssertionWriter(StaxUtil.getXMLStreamWriter(baos));
+        Document document = DocumentUtil.createDocument();
+        SAML11AssertionWriter writer = new SAML11AssertionWriter(new DOMXMLStreamWriter(document));
         writer.write(assertion);
 
-        ByteArrayInputStream bis = new ByteArrayInputStream(baos.toByteArray());
-        Document document = DocumentUtil.getDocument(bis);
-
         return document.getDocumentElement();
     }
 
@@ -133,7 +124,7 @@ public class SAMLUtil {
         SAMLParser samlParser = new SAMLParser();
 
         JAXPValidationUtil.checkSchemaValidation(assertionElement);
-        AssertionType assertion = (AssertionType) samlParser.parse(DocumentUtil.getNodeAsStream(assertionElement));
+        AssertionType assertion = (AssertionType) samlParser.parse(assertionElement);
         return assertion;
     }
 
@@ -148,6 +139,6 @@ public class SAMLUtil {
         SAMLParser samlParser = new SAMLParser();
 
         JAXPValidationUtil.checkSchemaValidation(assertionElement);
-        return (SAML11AssertionType) samlParser.parse(DocumentUtil.getNodeAsStream(assertionElement));
+        return (SAML11AssertionType) samlParser.parse(assertionElement);
     }
 }
\ No newline at end of file
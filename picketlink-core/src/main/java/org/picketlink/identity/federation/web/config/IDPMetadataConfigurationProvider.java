@@ -30,9 +30,8 @@ import org.picketlink.identity.federation.core.config.SPType;
 import org.picketlink.identity.federation.core.config.TrustType;
 import org.picketlink.identity.federation.core.exceptions.ParsingException;
 import org.picketlink.identity.federation.core.exceptions.ProcessingException;
-import org.picketlink.identity.federation.core.parsers.saml.SAMLParser;
+import org.picketlink.identity.federation.core.saml.md.providers.EntitiesMetadataStore;
 import org.picketlink.identity.federation.core.util.CoreConfigUtil;
-import org.picketlink.identity.federation.saml.v2.metadata.EntitiesDescriptorType;
 import org.picketlink.identity.federation.saml.v2.metadata.EntityDescriptorType;
 import org.picketlink.identity.federation.saml.v2.metadata.IDPSSODescriptorType;
 import org.picketlink.identity.federation.saml.v2.metadata.IndexedEndpointType;
@@ -57,6 +56,8 @@ import org.picketlink.identity.federation.web.util.SAMLConfigurationProvider;
 public class IDPMetadataConfigurationProvider extends AbstractSAMLConfigurationProvider implements SAMLConfigurationProvider {
     public static final String IDP_MD_FILE = "idp-metadata.xml";
 
+    private static final int MAX_PARSED_ENTITIES = 100;
+
     /**
      * @see SAMLConfigurationProvider#getIDPConfiguration()
      */
@@ -64,9 +65,16 @@ public class IDPMetadataConfigurationProvider extends AbstractSAMLConfigurationP
         IDPType idpType = null;
         if (fileAvailable()) {
             try {
-                EntitiesDescriptorType entities = parseMDFile();
-                IDPSSODescriptorType idpSSO = CoreConfigUtil.getIDPDescriptor(entities);
-                
+                EntitiesMetadataStore entities = parseMDFile();
+                IDPSSODescriptorType idpSSO = null;
+
+                for (String entityID : entities.getEntityIDs()) {
+                    idpSSO = CoreConfigUtil.getIDPDescriptor(entities.getEntityDescriptor(entityID));
+
+                    if (idpSSO != null)
+                        break;
+                }
+
                 if (idpSSO != null) {
                     idpType = CoreConfigUtil.getIDPType(idpSSO);
                 }
@@ -95,14 +103,13 @@ public class IDPMetadataConfigurationProvider extends AbstractSAMLConfigurationP
         return is != null;
     }
 
-    private EntitiesDescriptorType parseMDFile() throws ParsingException {
+    private EntitiesMetadataStore parseMDFile() throws ParsingException {
         InputStream is = SecurityActions.loadStream(getClass(), IDP_MD_FILE);
 
         if (is == null)
             throw logger.nullValueError(IDP_MD_FILE);
 
-        SAMLParser parser = new SAMLParser();
-        return (EntitiesDescriptorType) parser.parse(is);
+        return new EntitiesMetadataStore(is, MAX_PARSED_ENTITIES);
     }
     
     /**
@@ -110,14 +117,15 @@ public class IDPMetadataConfigurationProvider extends AbstractSAMLConfigurationP
      * 
      * @param idpType
      * @param entities
+     * @throws ParsingException
      */
-    private void configureTrustedDomainsFromMetadata(IDPType idpType, EntitiesDescriptorType entities) {
+    private void configureTrustedDomainsFromMetadata(IDPType idpType, EntitiesMetadataStore entities) throws ParsingException {
         if (idpType.getTrust() == null) {
             idpType.setTrust(new TrustType());
         }
         
-        for (Object entityDescriptorObj : entities.getEntityDescriptor()) {
-            EntityDescriptorType entityDescriptorType = (EntityDescriptorType) entityDescriptorObj;
+        for (String entityID : entities.getEntityIDs()) {
+            EntityDescriptorType entityDescriptorType = entities.getEntityDescriptor(entityID);
             SPSSODescriptorType spDescriptor = CoreConfigUtil.getSPDescriptor(entityDescriptorType);
             
             if (spDescriptor != null) {
@@ -47,10 +47,16 @@ public interface GeneralConstants {
 
     String ATTIBUTE_MANAGER = "ATTRIBUTE_MANAGER";
     
+    String AUDIT_ASYNC = "picketlink.audit.async";
+
     String AUDIT_ENABLE = "picketlink.audit.enable";
 
     String AUDIT_HELPER = "AUDIT_HELPER";
     
+    String AUDIT_OVERFLOW_POLICY = "picketlink.audit.overflow";
+
+    String AUDIT_QUEUE_SIZE = "picketlink.audit.queue.size";
+
     String AUDIT_SECURITY_DOMAIN = "picketlink.audit.securitydomain";
 
     String CONFIGURATION = "CONFIGURATION";
@@ -148,4 +154,20 @@ public interface GeneralConstants {
     String REQUESTED_AUTHN_CONTEXT_COMPARISON = "REQUESTED_AUTHN_CONTEXT_COMPARISON";
 
     String BASE64_ENCODE_WSTRUST_SECRET_KEY = "picketlink.wstrust.base64_encode_wstrust_secret_key";
+
+    /**
+     * <p>Maximum number of verified signatures remembered by the shared signature validation cache, 0 disables it.</p>
+     */
+    String SIGNATURE_CACHE_SIZE = "picketlink.signature.cache.size";
+
+    /**
+     * <p>Number of milliseconds a verified signature is remembered, at most.</p>
+     */
+    String SIGNATURE_CACHE_TTL = "picketlink.signature.cache.ttl";
+
+    /**
+     * <p>Number of messages logged along with their document out of which one is dumped at info level even when trace is
+     * disabled, 0 disables the dump.</p>
+     */
+    String SAML_MESSAGE_DUMP_INTERVAL = "picketlink.saml.dump.interval";
 }
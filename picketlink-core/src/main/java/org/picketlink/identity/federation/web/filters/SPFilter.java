@@ -91,10 +91,10 @@ import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2HandlerRe
 import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2HandlerRequest.GENERATE_REQUEST_TYPE;
 import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2HandlerResponse;
 import org.picketlink.identity.federation.core.saml.v2.util.AssertionUtil;
-import org.picketlink.identity.federation.core.saml.v2.util.DocumentUtil;
 import org.picketlink.identity.federation.core.saml.v2.util.HandlerUtil;
 import org.picketlink.identity.federation.core.util.CoreConfigUtil;
 import org.picketlink.identity.federation.core.util.StringUtil;
+import org.picketlink.identity.federation.core.util.XMLProcessingPool;
 import org.picketlink.identity.federation.core.util.XMLSignatureUtil;
 import org.picketlink.identity.federation.saml.v2.SAML2Object;
 import org.picketlink.identity.federation.saml.v2.assertion.AssertionType;
@@ -114,6 +114,7 @@ import org.picketlink.identity.federation.web.interfaces.IRoleValidator;
 import org.picketlink.identity.federation.web.roles.DefaultRoleValidator;
 import org.picketlink.identity.federation.web.util.ConfigurationUtil;
 import org.picketlink.identity.federation.web.util.PostBindingUtil;
+import org.picketlink.identity.federation.web.util.TrustedDomainIndex;
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
 import org.xml.sax.SAXException;
@@ -154,6 +155,7 @@ public class SPFilter implements Filter {
     protected String canonicalizationMethod = CanonicalizationMethod.EXCLUSIVE_WITH_COMMENTS;
 
     public void destroy() {
+        XMLProcessingPool.clear();
     }
 
     public void doFilter(ServletRequest servletRequest, ServletResponse servletResponse, FilterChain filterChain)
@@ -561,8 +563,7 @@ public class SPFilter implements Filter {
             KeyPair keypair = keyManager.getSigningKeyPair();
             samlSignature.signSAMLDocument(samlDocument, keypair);
         }
-        String samlMessage = PostBindingUtil.base64Encode(DocumentUtil.getDocumentAsString(samlDocument));
-        PostBindingUtil.sendPost(new DestinationInfoHolder(destination, samlMessage, relayState), response, request);
+        PostBindingUtil.sendPost(destination, samlDocument, relayState, response, request);
     }
 
     protected boolean validate(HttpServletRequest request) throws IOException, GeneralSecurityException {
@@ -614,8 +615,7 @@ public class SPFilter implements Filter {
             String issuerDomain = url.getHost();
             TrustType idpTrust = spConfiguration.getTrust();
             if (idpTrust != null) {
-                String domainsTrusted = idpTrust.getDomains();
-                if (domainsTrusted.indexOf(issuerDomain) < 0)
+                if (!TrustedDomainIndex.getIndex(idpTrust).isTrusted(issuerDomain))
                     throw new IssuerNotTrustedException(issuer);
             }
         } catch (Exception e) {
@@ -57,6 +57,7 @@ import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2Handler;
 import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2HandlerRequest;
 import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2HandlerRequest.GENERATE_REQUEST_TYPE;
 import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2HandlerResponse;
+import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2ThreadSafeHandler;
 import org.picketlink.identity.federation.core.saml.v2.util.AssertionUtil;
 import org.picketlink.identity.federation.core.saml.v2.util.DocumentUtil;
 import org.picketlink.identity.federation.core.saml.v2.util.StatementUtil;
@@ -110,7 +111,7 @@ import org.w3c.dom.Node;
  * @author Anil.Saldhana@redhat.com
  * @since Oct 8, 2009
  */
-public class SAML2AuthenticationHandler extends BaseSAML2Handler {
+public class SAML2AuthenticationHandler extends BaseSAML2Handler implements SAML2ThreadSafeHandler {
 
     private final IDPAuthenticationHandler idp = new IDPAuthenticationHandler();
 
@@ -323,9 +324,7 @@ public class SAML2AuthenticationHandler extends BaseSAML2Handler {
             try {
                 samlResponseDocument = saml2Response.convert(responseType);
 
-                if (logger.isTraceEnabled()) {
-                    logger.trace("SAML Response Document: " + DocumentUtil.asString(samlResponseDocument));
-                }
+                logger.trace("SAML Response Document: ", samlResponseDocument);
             } catch (Exception e) {
                 throw logger.samlAssertionMarshallError(e);
             }
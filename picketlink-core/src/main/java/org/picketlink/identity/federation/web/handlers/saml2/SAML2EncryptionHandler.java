@@ -34,6 +34,7 @@ import org.picketlink.identity.federation.core.saml.v2.constants.JBossSAMLConsta
 import org.picketlink.identity.federation.core.saml.v2.constants.JBossSAMLURIConstants;
 import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2HandlerRequest;
 import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2HandlerResponse;
+import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2ThreadSafeHandler;
 import org.picketlink.identity.federation.core.util.XMLEncryptionUtil;
 import org.picketlink.identity.federation.core.wstrust.WSTrustUtil;
 import org.picketlink.identity.federation.saml.v2.protocol.AuthnRequestType;
@@ -48,7 +49,7 @@ import org.w3c.dom.Node;
  * 
  * @author <a href="mailto:psilva@redhat.com">Pedro Silva</a>
  */
-public class SAML2EncryptionHandler extends SAML2SignatureGenerationHandler {
+public class SAML2EncryptionHandler extends SAML2SignatureGenerationHandler implements SAML2ThreadSafeHandler {
 
     /*
      * (non-Javadoc)
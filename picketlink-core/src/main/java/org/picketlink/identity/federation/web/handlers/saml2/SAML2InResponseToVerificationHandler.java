@@ -28,6 +28,7 @@ import javax.servlet.http.HttpSession;
 import org.picketlink.identity.federation.core.exceptions.ProcessingException;
 import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2HandlerRequest;
 import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2HandlerResponse;
+import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2ThreadSafeHandler;
 import org.picketlink.identity.federation.saml.v2.protocol.ResponseType;
 import org.picketlink.identity.federation.web.constants.GeneralConstants;
 
@@ -37,7 +38,7 @@ import org.picketlink.identity.federation.web.constants.GeneralConstants;
  *
  * @author <a href="mailto:mposolda@redhat.com">Marek Posolda</a>
  */
-public class SAML2InResponseToVerificationHandler extends BaseSAML2Handler {
+public class SAML2InResponseToVerificationHandler extends BaseSAML2Handler implements SAML2ThreadSafeHandler {
 
     @Override
     public void generateSAMLRequest(SAML2HandlerRequest request, SAML2HandlerResponse response) throws ProcessingException {
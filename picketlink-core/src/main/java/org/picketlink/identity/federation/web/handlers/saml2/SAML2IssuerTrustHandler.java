@@ -25,7 +25,6 @@ import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Map;
-import java.util.StringTokenizer;
 
 import org.jboss.security.audit.AuditLevel;
 import org.picketlink.identity.federation.core.audit.PicketLinkAuditEvent;
@@ -37,8 +36,10 @@ import org.picketlink.identity.federation.core.config.TrustType;
 import org.picketlink.identity.federation.core.exceptions.ProcessingException;
 import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2HandlerRequest;
 import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2HandlerResponse;
+import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2ThreadSafeHandler;
 import org.picketlink.identity.federation.saml.v2.protocol.RequestAbstractType;
 import org.picketlink.identity.federation.web.constants.GeneralConstants;
+import org.picketlink.identity.federation.web.util.TrustedDomainIndex;
 
 /**
  * Handles Issuer trust
@@ -49,7 +50,7 @@ import org.picketlink.identity.federation.web.constants.GeneralConstants;
  * @author Anil.Saldhana@redhat.com
  * @since Oct 8, 2009
  */
-public class SAML2IssuerTrustHandler extends BaseSAML2Handler {
+public class SAML2IssuerTrustHandler extends BaseSAML2Handler implements SAML2ThreadSafeHandler {
 
     private final IDPTrustHandler idp = new IDPTrustHandler();
 
@@ -102,23 +103,10 @@ public class SAML2IssuerTrustHandler extends BaseSAML2Handler {
                 String issuerDomain = getDomain(issuer);
                 TrustType idpTrust = idpConfiguration.getTrust();
                 if (idpTrust != null) {
-                    String domainsTrusted = idpTrust.getDomains();
-
-                    logger.trace("Domains that IDP trusts = " + domainsTrusted + " and issuer domain = " + issuerDomain);
-                    
-                    if (domainsTrusted.indexOf(issuerDomain) < 0) {
-                        // Let us do string parts checking
-                        StringTokenizer st = new StringTokenizer(domainsTrusted, ",");
-                        while (st != null && st.hasMoreTokens()) {
-                            String uriBit = st.nextToken();
-
-                            logger.trace("Matching uri bit = " + uriBit);
-                            
-                            if (issuerDomain.indexOf(uriBit) > 0) {
-                                logger.trace("Matched " + uriBit + " trust for " + issuerDomain);
-                                return;
-                            }
-                        }
+                    if (logger.isTraceEnabled())
+                        logger.trace("Domains that IDP trusts = " + idpTrust.getDomains() + " and issuer domain = " + issuerDomain);
+
+                    if (!TrustedDomainIndex.getIndex(idpTrust).isTrusted(issuerDomain)) {
                         throw logger.samlIssuerNotTrustedError(issuer);
                     }
                 } else
@@ -152,23 +140,10 @@ public class SAML2IssuerTrustHandler extends BaseSAML2Handler {
                 String issuerDomain = getDomain(issuer);
                 TrustType spTrust = spConfiguration.getTrust();
                 if (spTrust != null) {
-                    String domainsTrusted = spTrust.getDomains();
-
-                    logger.trace("Domains that SP trusts = " + domainsTrusted +" and issuer domain = " + issuerDomain);
-                    
-                    if (domainsTrusted.indexOf(issuerDomain) < 0) {
-                        // Let us do string parts checking
-                        StringTokenizer st = new StringTokenizer(domainsTrusted, ",");
-                        while (st != null && st.hasMoreTokens()) {
-                            String uriBit = st.nextToken();
-
-                            logger.trace("Matching uri bit = " + uriBit);
-                            
-                            if (issuerDomain.indexOf(uriBit) > 0) {
-                                logger.trace("Matched " + uriBit + " trust for " + issuerDomain);
-                                return;
-                            }
-                        }
+                    if (logger.isTraceEnabled())
+                        logger.trace("Domains that SP trusts = " + spTrust.getDomains() + " and issuer domain = " + issuerDomain);
+
+                    if (!TrustedDomainIndex.getIndex(spTrust).isTrusted(issuerDomain)) {
                         if (auditHelper != null) {
                             PicketLinkAuditEvent auditEvent = new PicketLinkAuditEvent(AuditLevel.INFO);
                             auditEvent.setWhoIsAuditing(contextPath);
@@ -38,6 +38,7 @@ import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2Handler;
 import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2HandlerRequest;
 import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2HandlerRequest.GENERATE_REQUEST_TYPE;
 import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2HandlerResponse;
+import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2ThreadSafeHandler;
 import org.picketlink.identity.federation.core.saml.v2.util.XMLTimeUtil;
 import org.picketlink.identity.federation.core.sts.PicketLinkCoreSTS;
 import org.picketlink.identity.federation.core.wstrust.plugins.saml.SAMLUtil;
@@ -69,7 +70,7 @@ import java.util.Set;
  * @author Anil.Saldhana@redhat.com
  * @since Sep 17, 2009
  */
-public class SAML2LogOutHandler extends BaseSAML2Handler {
+public class SAML2LogOutHandler extends BaseSAML2Handler implements SAML2ThreadSafeHandler {
 
     private final IDPLogOutHandler idp = new IDPLogOutHandler();
 
@@ -35,6 +35,7 @@ import org.picketlink.identity.federation.core.exceptions.ConfigurationException
 import org.picketlink.identity.federation.core.exceptions.ProcessingException;
 import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2HandlerRequest;
 import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2HandlerResponse;
+import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2ThreadSafeHandler;
 import org.picketlink.identity.federation.core.saml.v2.util.DocumentUtil;
 import org.picketlink.identity.federation.web.constants.GeneralConstants;
 import org.picketlink.identity.federation.core.saml.v2.constants.JBossSAMLConstants;
@@ -55,7 +56,7 @@ import org.w3c.dom.Node;
  * @author Anil.Saldhana@redhat.com
  * @since Oct 12, 2009
  */
-public class SAML2SignatureGenerationHandler extends AbstractSignatureHandler {
+public class SAML2SignatureGenerationHandler extends AbstractSignatureHandler implements SAML2ThreadSafeHandler {
 
     public static final String SIGN_ASSERTION_ONLY = "SIGN_ASSERTION_ONLY";
     public static final String SIGN_RESPONSE_AND_ASSERTION = "SIGN_RESPONSE_AND_ASSERTION";
@@ -176,8 +177,7 @@ public class SAML2SignatureGenerationHandler extends AbstractSignatureHandler {
                                 boolean willSendRequest)
             throws ProcessingException {
         try {
-            String samlMessage = DocumentUtil.getDocumentAsString(samlDocument);
-            String base64Request = RedirectBindingUtil.deflateBase64URLEncode(samlMessage.getBytes("UTF-8"));
+            String base64Request = RedirectBindingUtil.deflateBase64URLEncode(samlDocument);
             PrivateKey signingKey = keypair.getPrivate();
 
             String url;
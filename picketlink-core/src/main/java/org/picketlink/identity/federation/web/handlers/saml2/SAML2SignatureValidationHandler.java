@@ -33,7 +33,7 @@ import org.picketlink.identity.federation.core.exceptions.ProcessingException;
 import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2HandlerErrorCodes;
 import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2HandlerRequest;
 import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2HandlerResponse;
-import org.picketlink.identity.federation.core.saml.v2.util.DocumentUtil;
+import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2ThreadSafeHandler;
 import org.picketlink.identity.federation.web.constants.GeneralConstants;
 import org.picketlink.identity.federation.web.core.HTTPContext;
 import org.picketlink.identity.federation.web.util.RedirectBindingSignatureUtil;
@@ -45,7 +45,7 @@ import org.w3c.dom.Document;
  * @author Anil.Saldhana@redhat.com
  * @since Nov 13, 2009
  */
-public class SAML2SignatureValidationHandler extends AbstractSignatureHandler {
+public class SAML2SignatureValidationHandler extends AbstractSignatureHandler implements SAML2ThreadSafeHandler {
 
     private SAML2Signature saml2Signature = new SAML2Signature();
 
@@ -75,9 +75,7 @@ public class SAML2SignatureValidationHandler extends AbstractSignatureHandler {
 
         Document signedDocument = request.getRequestDocument();
 
-        if (logger.isTraceEnabled()) {
-            logger.trace("Going to validate signature for: " + DocumentUtil.asString(signedDocument));
-        }
+        logger.trace("Going to validate signature for: ", signedDocument);
 
         PublicKey publicKey = (PublicKey) request.getOptions().get(GeneralConstants.SENDER_PUBLIC_KEY);
         try {
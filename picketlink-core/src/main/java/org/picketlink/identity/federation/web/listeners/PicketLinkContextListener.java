@@ -0,0 +1,55 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.identity.federation.web.listeners;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+import org.picketlink.identity.federation.core.audit.AsyncAuditDispatcher;
+import org.picketlink.identity.federation.core.util.XMLProcessingPool;
+
+/**
+ * <p>
+ * An instance of {@link ServletContextListener} that releases the resources PicketLink keeps outside of the application
+ * objects, such as the XML processing objects pooled on container threads and the thread delivering audit events, when
+ * the web application is undeployed.
+ * </p>
+ * <p>
+ * Register it in the web.xml of applications that bundle PicketLink in WEB-INF/lib, otherwise the container threads keep
+ * the application class loader alive after undeployment.
+ * </p>
+ */
+public class PicketLinkContextListener implements ServletContextListener {
+
+    public void contextInitialized(ServletContextEvent sce) {
+    }
+
+    public void contextDestroyed(ServletContextEvent sce) {
+        try {
+            AsyncAuditDispatcher.closeSharedDispatcher(AsyncAuditDispatcher.CLOSE_TIMEOUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            XMLProcessingPool.clear();
+        }
+    }
+}
@@ -33,12 +33,10 @@ import org.picketlink.identity.federation.core.exceptions.ConfigurationException
 import org.picketlink.identity.federation.core.exceptions.ParsingException;
 import org.picketlink.identity.federation.core.exceptions.ProcessingException;
 import org.picketlink.identity.federation.core.saml.v2.common.SAMLDocumentHolder;
-import org.picketlink.identity.federation.core.saml.v2.holders.DestinationInfoHolder;
 import org.picketlink.identity.federation.core.saml.v2.impl.DefaultSAML2HandlerResponse;
 import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2Handler;
 import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2HandlerRequest;
 import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2HandlerResponse;
-import org.picketlink.identity.federation.core.saml.v2.util.DocumentUtil;
 import org.picketlink.identity.federation.saml.v2.SAML2Object;
 import org.picketlink.identity.federation.web.core.HTTPContext;
 import org.picketlink.identity.federation.web.util.HTTPRedirectUtil;
@@ -123,9 +121,7 @@ public class ServiceProviderSAMLRequestProcessor extends ServiceProviderBaseProc
                 // This is the case with signatures disabled
                 if (destinationQuery == null) {
                    boolean areWeSendingRequest = saml2HandlerResponse.getSendRequest();
-                   String samlMsg = DocumentUtil.getDocumentAsString(samlResponseDocument);
-
-                   String base64Request = RedirectBindingUtil.deflateBase64URLEncode(samlMsg.getBytes("UTF-8"));
+                   String base64Request = RedirectBindingUtil.deflateBase64URLEncode(samlResponseDocument);
                    destinationQuery = RedirectBindingUtil.getDestinationQueryString(base64Request, relayState,
                          areWeSendingRequest);
                 }
@@ -157,8 +153,6 @@ public class ServiceProviderSAMLRequestProcessor extends ServiceProviderBaseProc
      */
     protected void sendRequestToIDP(String destination, Document samlDocument, String relayState, HttpServletResponse response,
             boolean willSendRequest) throws ProcessingException, ConfigurationException, IOException {
-        String samlMessage = DocumentUtil.getDocumentAsString(samlDocument);
-        samlMessage = PostBindingUtil.base64Encode(samlMessage);
-        PostBindingUtil.sendPost(new DestinationInfoHolder(destination, samlMessage, relayState), response, willSendRequest);
+        PostBindingUtil.sendPost(destination, samlDocument, relayState, response, willSendRequest);
     }
 }
\ No newline at end of file
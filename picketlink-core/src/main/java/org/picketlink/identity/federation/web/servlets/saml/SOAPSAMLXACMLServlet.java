@@ -23,9 +23,15 @@ package org.picketlink.identity.federation.web.servlets.saml;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
@@ -36,7 +42,6 @@ import javax.xml.soap.SOAPBody;
 import javax.xml.soap.SOAPEnvelope;
 import javax.xml.soap.SOAPException;
 import javax.xml.soap.SOAPMessage;
-import javax.xml.stream.XMLStreamWriter;
 
 import org.apache.log4j.Logger;
 import org.jboss.security.xacml.core.JBossPDP;
@@ -45,13 +50,12 @@ import org.picketlink.identity.federation.core.ErrorCodes;
 import org.picketlink.identity.federation.core.exceptions.ConfigurationException;
 import org.picketlink.identity.federation.core.exceptions.ParsingException;
 import org.picketlink.identity.federation.core.exceptions.ProcessingException;
+import org.picketlink.identity.federation.core.pdp.XACMLDecisionCache;
 import org.picketlink.identity.federation.core.saml.v2.common.IDGenerator;
 import org.picketlink.identity.federation.core.saml.v2.constants.JBossSAMLConstants;
 import org.picketlink.identity.federation.core.saml.v2.util.DocumentUtil;
 import org.picketlink.identity.federation.core.saml.v2.util.SOAPSAMLXACMLUtil;
-import org.picketlink.identity.federation.core.saml.v2.writers.SAMLResponseWriter;
 import org.picketlink.identity.federation.core.util.SOAPUtil;
-import org.picketlink.identity.federation.core.util.StaxUtil;
 import org.picketlink.identity.federation.saml.v2.protocol.XACMLAuthzDecisionQueryType;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -59,7 +63,15 @@ import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
 /**
+ * <p>
  * Servlet that can read SOAP messages that contain an XACML query in saml payload
+ * </p>
+ * <p>
+ * When decisions are cached, the policy configuration and the policies it references by {@code Location} are checked
+ * for modifications every {@code policyCheckInterval} milliseconds; the PDP is then loaded again and the cached
+ * decisions are dropped. Only files in the local file system are watched: policies packaged in an archive, or found by
+ * locators other than through their {@code Location}, are not reloaded.
+ * </p>
  *
  * @author Anil.Saldhana@redhat.com
  * @since Jan 27, 2009
@@ -79,7 +91,14 @@ public class SOAPSAMLXACMLServlet extends HttpServlet {
 
     boolean debug = false;
 
-    private transient PolicyDecisionPoint pdp = null;
+    // the PDP and the cache version it was published with, replaced as a whole when the policies are reloaded
+    private transient volatile Policies policies = null;
+
+    private transient XACMLDecisionCache decisionCache = null;
+
+    private long policyCheckInterval = 5000;
+
+    private final AtomicLong nextPolicyCheck = new AtomicLong();
 
     private String soapVersion = "1.1";
 
@@ -118,8 +137,22 @@ public class SOAPSAMLXACMLServlet extends HttpServlet {
             SecurityActions.setSystemProperty("jaxb.debug", "true");
         }
 
+        // decisions are only cached when asked to, see XACMLDecisionCache for the policies that should not be cached
+        String decisionCacheSize = config.getInitParameter("decisionCacheSize");
+        if (decisionCacheSize != null && Integer.parseInt(decisionCacheSize) > 0) {
+            String decisionCacheTTL = config.getInitParameter("decisionCacheTTL");
+            long timeToLive = decisionCacheTTL != null ? Long.parseLong(decisionCacheTTL)
+                    : XACMLDecisionCache.DEFAULT_TIME_TO_LIVE;
+            decisionCache = new XACMLDecisionCache(Integer.parseInt(decisionCacheSize), timeToLive);
+
+            // the policy configuration is watched so cached decisions never outlive the policies they came from
+            String policyCheck = config.getInitParameter("policyCheckInterval");
+            if (policyCheck != null)
+                policyCheckInterval = Long.parseLong(policyCheck);
+        }
+
         try {
-            pdp = this.getPDP();
+            policies = this.loadPolicies(decisionCache != null ? decisionCache.getVersion() : 0);
         } catch (IOException e) {
             log("Exception loading PDP::", e);
             throw new ServletException(ErrorCodes.PROCESSING_EXCEPTION + "Unable to load PDP");
@@ -198,8 +231,9 @@ public class SOAPSAMLXACMLServlet extends HttpServlet {
             if (xacmlRequest == null)
                 throw new IOException(ErrorCodes.NULL_VALUE + "XACML Request not parsed");
 
+            Policies current = getCurrentPolicies();
             org.picketlink.identity.federation.saml.v2.protocol.ResponseType samlResponseType = SOAPSAMLXACMLUtil
-                    .handleXACMLQuery(pdp, issuer, xacmlRequest);
+                    .handleXACMLQuery(current.pdp, current.version, issuer, xacmlRequest, decisionCache);
 
             /*
              * RequestType requestType = xacmlRequest.getRequest();
@@ -227,12 +261,7 @@ public class SOAPSAMLXACMLServlet extends HttpServlet {
              * org.picketlink.identity.federation.newmodel.saml.v2.protocol.ResponseType samlResponseType =
              * saml2Response.createResponseType(ID, issuerInfo, assertion);
              */
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            XMLStreamWriter xmlStreamWriter = StaxUtil.getXMLStreamWriter(baos);
-
-            SAMLResponseWriter samlResponseWriter = new SAMLResponseWriter(xmlStreamWriter);
-            samlResponseWriter.write(samlResponseType);
-            Document responseDocument = DocumentUtil.getDocument(new ByteArrayInputStream(baos.toByteArray()));
+            Document responseDocument = SOAPSAMLXACMLUtil.getResponseDocument(samlResponseType);
 
             if (soapVersion.equals("1.2")) {
                 returnSOAPMessage = SOAPUtil.createSOAP12();
@@ -267,11 +296,112 @@ public class SOAPSAMLXACMLServlet extends HttpServlet {
         }
     }
 
-    private PolicyDecisionPoint getPDP() throws IOException {
-        InputStream is = SecurityActions.loadResource(getClass(), this.policyConfigFileName).openStream();
-        if (is == null)
+    private Policies loadPolicies(long version) throws IOException {
+        URL url = SecurityActions.loadResource(getClass(), this.policyConfigFileName);
+        if (url == null)
             throw new IllegalStateException(ErrorCodes.RESOURCE_NOT_FOUND + policyConfigFileName + " could not be located");
-        return new JBossPDP(is);
+
+        // stat the files before reading them, so a write racing with the load is picked up by the next check
+        List<File> files = new ArrayList<File>();
+        List<Long> modified = new ArrayList<Long>();
+        addFile(files, modified, url);
+        byte[] config = read(url);
+
+        for (String location : getPolicyLocations(config)) {
+            URL policy = SecurityActions.loadResource(getClass(), location);
+            if (policy != null)
+                addFile(files, modified, policy);
+        }
+
+        PolicyDecisionPoint policyDecisionPoint = new JBossPDP(new ByteArrayInputStream(config));
+        long[] lastModified = new long[modified.size()];
+        for (int i = 0; i < lastModified.length; i++) {
+            lastModified[i] = modified.get(i);
+        }
+        return new Policies(policyDecisionPoint, version, files.toArray(new File[files.size()]), lastModified);
+    }
+
+    /**
+     * Get the PDP, loading it again and dropping the cached decisions when the policies changed
+     */
+    private Policies getCurrentPolicies() {
+        Policies current = policies;
+
+        if (decisionCache != null && policyCheckInterval > 0) {
+            long now = System.currentTimeMillis();
+            long nextCheck = nextPolicyCheck.get();
+
+            // a single thread checks and reloads, the others keep using the current PDP
+            if (now >= nextCheck && nextPolicyCheck.compareAndSet(nextCheck, now + policyCheckInterval)
+                    && current.isModified()) {
+                try {
+                    Policies loaded = loadPolicies(0);
+                    decisionCache.invalidate();
+                    // decisions of the previous PDP carry the previous version, the cache drops them
+                    current = policies = loaded.withVersion(decisionCache.getVersion());
+
+                    if (trace)
+                        log.trace("Policies changed, decision cache invalidated. Hits=" + decisionCache.getHitCount()
+                                + " :: Misses=" + decisionCache.getMissCount() + " :: Evictions="
+                                + decisionCache.getEvictionCount());
+                } catch (Exception e) {
+                    log.error("Exception reloading PDP::", e);
+                }
+            }
+        }
+
+        return current;
+    }
+
+    private static void addFile(List<File> files, List<Long> modified, URL url) {
+        // only the file system can change while we run
+        if (!"file".equals(url.getProtocol()))
+            return;
+
+        File file;
+        try {
+            file = new File(url.toURI());
+        } catch (URISyntaxException e) {
+            file = new File(url.getPath());
+        }
+        files.add(file);
+        modified.add(file.lastModified());
+    }
+
+    private static byte[] read(URL url) throws IOException {
+        InputStream is = url.openStream();
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = is.read(buffer)) > 0) {
+                bytes.write(buffer, 0, read);
+            }
+            return bytes.toByteArray();
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * The {@code Location} of every policy and policy set of the configuration
+     */
+    private static List<String> getPolicyLocations(byte[] config) throws IOException {
+        Document document;
+        try {
+            document = DocumentUtil.getDocument(new ByteArrayInputStream(config));
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+
+        List<String> locations = new ArrayList<String>();
+        NodeList nodes = document.getElementsByTagNameNS("*", "Location");
+        for (int i = 0; i < nodes.getLength(); i++) {
+            String location = nodes.item(i).getTextContent();
+            if (location != null && location.trim().length() > 0)
+                locations.add(location.trim());
+        }
+        return locations;
     }
 
     private Node getFirstElement(Node node) throws Exception {
@@ -284,4 +414,36 @@ public class SOAPSAMLXACMLServlet extends HttpServlet {
         }
         return null;
     }
-}
\ No newline at end of file
+
+    /**
+     * A loaded PDP, the decision cache version it answers for and the files it was loaded from
+     */
+    private static final class Policies {
+        private final PolicyDecisionPoint pdp;
+
+        private final long version;
+
+        private final File[] files;
+
+        private final long[] modified;
+
+        Policies(PolicyDecisionPoint pdp, long version, File[] files, long[] modified) {
+            this.pdp = pdp;
+            this.version = version;
+            this.files = files;
+            this.modified = modified;
+        }
+
+        Policies withVersion(long version) {
+            return new Policies(pdp, version, files, modified);
+        }
+
+        boolean isModified() {
+            for (int i = 0; i < files.length; i++) {
+                if (files[i].lastModified() != modified[i])
+                    return true;
+            }
+            return false;
+        }
+    }
+}
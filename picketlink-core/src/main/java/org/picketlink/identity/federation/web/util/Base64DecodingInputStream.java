@@ -0,0 +1,181 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.identity.federation.web.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decodes Base64, optionally URL encoded, straight from the characters of a request parameter without copying them into
+ * intermediate buffers
+ */
+class Base64DecodingInputStream extends InputStream {
+
+    private static final byte[] DECODABET = new byte[128];
+
+    static {
+        for (int i = 0; i < DECODABET.length; i++)
+            DECODABET[i] = -1;
+        for (int i = 0; i < 26; i++) {
+            DECODABET['A' + i] = (byte) i;
+            DECODABET['a' + i] = (byte) (26 + i);
+        }
+        for (int i = 0; i < 10; i++)
+            DECODABET['0' + i] = (byte) (52 + i);
+        DECODABET['+'] = 62;
+        DECODABET['/'] = 63;
+    }
+
+    private final CharSequence source;
+
+    private final boolean urlDecode;
+
+    private int index;
+
+    private final byte[] decoded = new byte[3];
+
+    private int decodedPosition;
+
+    private int decodedLength;
+
+    private boolean end;
+
+    /**
+     * @param source the Base64 characters
+     * @param urlDecode whether the characters are URL encoded as well
+     */
+    Base64DecodingInputStream(CharSequence source, boolean urlDecode) {
+        this.source = source;
+        this.urlDecode = urlDecode;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (this.decodedPosition == this.decodedLength && !decodeQuantum())
+            return -1;
+
+        return this.decoded[this.decodedPosition++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+
+        int count = 0;
+
+        while (count < len) {
+            if (this.decodedPosition == this.decodedLength && !decodeQuantum())
+                break;
+
+            int available = Math.min(len - count, this.decodedLength - this.decodedPosition);
+            System.arraycopy(this.decoded, this.decodedPosition, b, off + count, available);
+            this.decodedPosition += available;
+            count += available;
+        }
+
+        return count == 0 ? -1 : count;
+    }
+
+    /**
+     * Decode the next four characters, skipping white space, into up to three bytes
+     */
+    private boolean decodeQuantum() throws IOException {
+        if (this.end)
+            return false;
+
+        int bits = 0;
+        int quantum = 0;
+
+        while (quantum < 4) {
+            int c = nextChar();
+
+            if (c < 0 || c == '=') {
+                // padding or the end of the characters, whatever follows the padding is ignored
+                this.end = true;
+                break;
+            }
+
+            if (c <= ' ')
+                continue;
+
+            int value = c < DECODABET.length ? DECODABET[c] : -1;
+
+            if (value < 0)
+                throw new IOException("Invalid Base64 character: " + (char) c);
+
+            bits = (bits << 6) | value;
+            quantum++;
+        }
+
+        switch (quantum) {
+            case 0:
+                return false;
+            case 1:
+                throw new IOException("Truncated Base64 data");
+            case 2:
+                this.decoded[0] = (byte) (bits >> 4);
+                this.decodedLength = 1;
+                break;
+            case 3:
+                this.decoded[0] = (byte) (bits >> 10);
+                this.decoded[1] = (byte) (bits >> 2);
+                this.decodedLength = 2;
+                break;
+            default:
+                this.decoded[0] = (byte) (bits >> 16);
+                this.decoded[1] = (byte) (bits >> 8);
+                this.decoded[2] = (byte) bits;
+                this.decodedLength = 3;
+        }
+
+        this.decodedPosition = 0;
+        return true;
+    }
+
+    private int nextChar() throws IOException {
+        if (this.index >= this.source.length())
+            return -1;
+
+        char c = this.source.charAt(this.index++);
+
+        if (this.urlDecode) {
+            if (c == '+')
+                return ' ';
+
+            if (c == '%') {
+                if (this.index + 2 > this.source.length())
+                    throw new IOException("Truncated URL escape sequence");
+
+                int high = Character.digit(this.source.charAt(this.index++), 16);
+                int low = Character.digit(this.source.charAt(this.index++), 16);
+
+                if (high < 0 || low < 0)
+                    throw new IOException("Invalid URL escape sequence");
+
+                return (high << 4) | low;
+            }
+        }
+
+        return c;
+    }
+}
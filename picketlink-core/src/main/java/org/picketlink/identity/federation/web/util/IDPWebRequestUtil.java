@@ -30,7 +30,6 @@ import java.io.StringWriter;
 import java.net.URL;
 import java.security.GeneralSecurityException;
 import java.security.PrivateKey;
-import java.util.StringTokenizer;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -52,11 +51,9 @@ import org.picketlink.identity.federation.core.saml.v2.common.SAMLDocumentHolder
 import org.picketlink.identity.federation.core.saml.v2.constants.JBossSAMLURIConstants;
 import org.picketlink.identity.federation.core.saml.v2.exceptions.IssuerNotTrustedException;
 import org.picketlink.identity.federation.core.saml.v2.factories.JBossSAMLAuthnResponseFactory;
-import org.picketlink.identity.federation.core.saml.v2.holders.DestinationInfoHolder;
 import org.picketlink.identity.federation.core.saml.v2.holders.IDPInfoHolder;
 import org.picketlink.identity.federation.core.saml.v2.holders.IssuerInfoHolder;
 import org.picketlink.identity.federation.core.saml.v2.holders.SPInfoHolder;
-import org.picketlink.identity.federation.core.saml.v2.util.DocumentUtil;
 import org.picketlink.identity.federation.saml.v2.protocol.RequestAbstractType;
 import org.picketlink.identity.federation.saml.v2.protocol.ResponseType;
 import org.w3c.dom.Document;
@@ -159,19 +156,9 @@ public class IDPWebRequestUtil {
             String issuerDomain = getDomain(issuer);
             TrustType idpTrust = idpConfiguration.getTrust();
             if (idpTrust != null) {
-                String domainsTrusted = idpTrust.getDomains();
-                logger.trace("Domains that IDP trusts = " + domainsTrusted + " and issuer domain = " + issuerDomain);
-                if (domainsTrusted.indexOf(issuerDomain) < 0) {
-                    // Let us do string parts checking
-                    StringTokenizer st = new StringTokenizer(domainsTrusted, ",");
-                    while (st != null && st.hasMoreTokens()) {
-                        String uriBit = st.nextToken();
-                        logger.trace("Matching uri bit = " + uriBit);
-                        if (issuerDomain.indexOf(uriBit) > 0) {
-                            logger.trace("Matched " + uriBit + " trust for " + issuerDomain);
-                            return;
-                        }
-                    }
+                if (logger.isTraceEnabled())
+                    logger.trace("Domains that IDP trusts = " + idpTrust.getDomains() + " and issuer domain = " + issuerDomain);
+                if (!TrustedDomainIndex.getIndex(idpTrust).isTrusted(issuerDomain)) {
                     throw logger.samlIssuerNotTrustedError(issuer);
                 }
             }
@@ -209,9 +196,7 @@ public class IDPWebRequestUtil {
             }
             // This is the case without signature
             else {
-                byte[] responseBytes = DocumentUtil.getDocumentAsString(responseDoc).getBytes("UTF-8");
-
-                String urlEncodedResponse = RedirectBindingUtil.deflateBase64URLEncode(responseBytes);
+                String urlEncodedResponse = RedirectBindingUtil.deflateBase64URLEncode(responseDoc);
 
                 if (isNotNull(relayState))
                     relayState = RedirectBindingUtil.urlEncode(relayState);
@@ -223,15 +208,7 @@ public class IDPWebRequestUtil {
             logger.trace("Destination = " + finalDest);
             HTTPRedirectUtil.sendRedirectForResponder(finalDest, response);
         } else {
-            if (logger.isTraceEnabled()) {
-                logger.trace("SAML Response Document: " + DocumentUtil.asString(responseDoc));
-            }
-
-            byte[] responseBytes = DocumentUtil.getDocumentAsString(responseDoc).getBytes("UTF-8");
-
-            String samlResponse = PostBindingUtil.base64Encode(new String(responseBytes));
-
-            PostBindingUtil.sendPost(new DestinationInfoHolder(destination, samlResponse, relayState), response, sendRequest);
+            PostBindingUtil.sendPost(destination, responseDoc, relayState, response, sendRequest);
         }
     }
 
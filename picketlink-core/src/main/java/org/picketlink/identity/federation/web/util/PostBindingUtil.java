@@ -24,17 +24,28 @@ package org.picketlink.identity.federation.web.util;
 import static org.picketlink.identity.federation.core.util.StringUtil.isNotNull;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletResponse;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
 
 import org.picketlink.identity.federation.PicketLinkLogger;
 import org.picketlink.identity.federation.PicketLinkLoggerFactory;
+import org.picketlink.identity.federation.core.exceptions.ConfigurationException;
+import org.picketlink.identity.federation.core.exceptions.ProcessingException;
 import org.picketlink.identity.federation.core.saml.v2.holders.DestinationInfoHolder;
 import org.picketlink.identity.federation.core.util.Base64;
+import org.picketlink.identity.federation.core.util.XMLProcessingPool;
 import org.picketlink.identity.federation.web.constants.GeneralConstants;
+import org.w3c.dom.Document;
 
 /**
  * Utility for the HTTP/Post binding
@@ -45,7 +56,9 @@ import org.picketlink.identity.federation.web.constants.GeneralConstants;
 public class PostBindingUtil {
     
     private static final PicketLinkLogger logger = PicketLinkLoggerFactory.getLogger();
-    
+
+    private static final int BUFFER_SIZE = 8192;
+
     /**
      * Apply base64 encoding on the message
      *
@@ -103,11 +116,97 @@ public class PostBindingUtil {
         
         response.setContentType("text/html");
         common(holder.getDestination(), response);
-        StringBuilder builder = new StringBuilder();
+
+        String str = getFormStart(destination, key, request) + samlMessage + getFormEnd(relayState);
+
+        logger.trace(str);
+
+        byte[] bytes = str.getBytes("UTF-8");
+
+        ServletOutputStream outputStream = response.getOutputStream();
+
+        // we need to re-configure the content length, because Tomcat may have written some content.
+        response.resetBuffer();
+        response.setContentLength(bytes.length);
+
+        outputStream.write(bytes);
+        outputStream.close();
+    }
+
+    /**
+     * <p>
+     * Send the SAML message to the destination using the HTTP/POST binding. The document is serialized and base64 encoded
+     * straight into the bytes of the auto-submit form, without building the XML, its encoding or the page as strings.
+     * </p>
+     * <p>
+     * The page is rendered before anything is written to the response. A document that cannot be serialized leaves the
+     * response untouched, so that the caller can report the error.
+     * </p>
+     *
+     * @param destination Destination URI where the message needs to be posted
+     * @param samlDocument the SAML request or response
+     * @param relayState
+     * @param response HttpServletResponse
+     * @param request are we sending a request or a response
+     * @throws IOException
+     * @throws ProcessingException
+     * @throws ConfigurationException
+     */
+    public static void sendPost(String destination, Document samlDocument, String relayState, HttpServletResponse response,
+            boolean request) throws IOException, ProcessingException, ConfigurationException {
+        String key = request ? GeneralConstants.SAML_REQUEST_KEY : GeneralConstants.SAML_RESPONSE_KEY;
+
+        if (destination == null) {
+            throw logger.nullValueError("Destination is null");
+        }
+
+        if (samlDocument == null) {
+            throw logger.nullArgumentError("samlDocument");
+        }
+
+        logger.trace("Sending HTTP/POST binding to " + destination);
+        logger.samlMessageDump("SAML Message Document: ", samlDocument);
+
+        ByteArrayOutputStream page = new ByteArrayOutputStream(BUFFER_SIZE);
+
+        page.write(getFormStart(destination, key, request).getBytes("UTF-8"));
+
+        Base64.OutputStream base64Stream = new Base64.OutputStream(page, Base64.ENCODE | Base64.DONT_BREAK_LINES);
+
+        try {
+            Transformer transformer = XMLProcessingPool.getTransformer();
+            transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
+            transformer.transform(new DOMSource(samlDocument), new StreamResult(base64Stream));
+        } catch (TransformerException e) {
+            throw logger.processingError(e);
+        }
+
+        // pad the last quantum without closing, the rest of the form follows
+        base64Stream.flushBase64();
+
+        page.write(getFormEnd(relayState).getBytes("UTF-8"));
+
+        response.setContentType("text/html");
+        common(destination, response);
+
+        // we need to re-configure the content length, because Tomcat may have written some content.
+        response.resetBuffer();
+        response.setContentLength(page.size());
+
+        OutputStream outputStream = response.getOutputStream();
+        page.writeTo(outputStream);
+        outputStream.close();
+    }
+
+    /**
+     * Get the auto-submit page up to the opening quote of the value of the SAML message
+     */
+    private static String getFormStart(String destination, String key, boolean request) {
+        StringBuilder builder = new StringBuilder(512);
 
         builder.append("<HTML>");
         builder.append("<HEAD>");
-        
+
         if (request)
             builder.append("<TITLE>HTTP Post Binding (Request)</TITLE>");
         else
@@ -116,11 +215,22 @@ public class PostBindingUtil {
         builder.append("</HEAD>");
         builder.append("<BODY Onload=\"document.forms[0].submit()\">");
 
-        builder.append("<FORM METHOD=\"POST\" ACTION=\"" + destination + "\">");
-        builder.append("<INPUT TYPE=\"HIDDEN\" NAME=\"" + key + "\"" + " VALUE=\"" + samlMessage + "\"/>");
-        
+        builder.append("<FORM METHOD=\"POST\" ACTION=\"").append(destination).append("\">");
+        builder.append("<INPUT TYPE=\"HIDDEN\" NAME=\"").append(key).append("\" VALUE=\"");
+
+        return builder.toString();
+    }
+
+    /**
+     * Get the auto-submit page from the closing quote of the value of the SAML message
+     */
+    private static String getFormEnd(String relayState) {
+        StringBuilder builder = new StringBuilder(512);
+
+        builder.append("\"/>");
+
         if (isNotNull(relayState)) {
-            builder.append("<INPUT TYPE=\"HIDDEN\" NAME=\"RelayState\" " + "VALUE=\"" + relayState + "\"/>");
+            builder.append("<INPUT TYPE=\"HIDDEN\" NAME=\"RelayState\" VALUE=\"").append(relayState).append("\"/>");
         }
 
         builder.append("<NOSCRIPT>");
@@ -129,19 +239,8 @@ public class PostBindingUtil {
         builder.append("</NOSCRIPT>");
 
         builder.append("</FORM></BODY></HTML>");
-        
-        String str = builder.toString();
-        
-        logger.trace(str);
-
-        ServletOutputStream outputStream = response.getOutputStream();
 
-        // we need to re-configure the content length, because Tomcat may have written some content.
-        response.resetBuffer();
-        response.setContentLength(str.length());
-        
-        outputStream.println(str);
-        outputStream.close();
+        return builder.toString();
     }
 
     private static void common(String destination, HttpServletResponse response) {
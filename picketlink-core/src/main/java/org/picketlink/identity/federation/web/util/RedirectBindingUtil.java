@@ -25,12 +25,25 @@ import static org.picketlink.identity.federation.core.util.StringUtil.isNotNull;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
 
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.picketlink.identity.federation.PicketLinkLogger;
+import org.picketlink.identity.federation.PicketLinkLoggerFactory;
 import org.picketlink.identity.federation.api.util.DeflateUtil;
+import org.picketlink.identity.federation.core.exceptions.ConfigurationException;
+import org.picketlink.identity.federation.core.exceptions.ProcessingException;
 import org.picketlink.identity.federation.core.util.Base64;
+import org.picketlink.identity.federation.core.util.XMLProcessingPool;
+import org.w3c.dom.Document;
 
 /**
  * Utility class for SAML HTTP/Redirect binding
@@ -39,6 +52,9 @@ import org.picketlink.identity.federation.core.util.Base64;
  * @since Jan 14, 2009
  */
 public class RedirectBindingUtil {
+
+    private static final PicketLinkLogger logger = PicketLinkLoggerFactory.getLogger();
+
     /**
      * URL encode the string
      *
@@ -104,8 +120,40 @@ public class RedirectBindingUtil {
      * @throws IOException
      */
     public static String deflateBase64URLEncode(byte[] stringToEncode) throws IOException {
-        byte[] deflatedMsg = DeflateUtil.encode(stringToEncode);
-        return base64URLEncode(deflatedMsg);
+        StringBuilder sb = new StringBuilder(Math.max(64, stringToEncode.length));
+        OutputStream encodingStream = DeflateUtil.getEncodingStream(new URLBase64EncodingOutputStream(sb));
+        encodingStream.write(stringToEncode);
+        encodingStream.close();
+        return sb.toString();
+    }
+
+    /**
+     * Serialize the document as UTF-8 straight into deflate compression, base64 encoding and URL encoding
+     *
+     * @param document
+     * @return
+     * @throws IOException
+     * @throws ProcessingException
+     * @throws ConfigurationException
+     */
+    public static String deflateBase64URLEncode(Document document) throws IOException, ProcessingException,
+            ConfigurationException {
+        logger.samlMessageDump("SAML Message Document: ", document);
+
+        StringBuilder sb = new StringBuilder(1024);
+        OutputStream encodingStream = DeflateUtil.getEncodingStream(new URLBase64EncodingOutputStream(sb));
+
+        try {
+            Transformer transformer = XMLProcessingPool.getTransformer();
+            transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
+            transformer.transform(new DOMSource(document), new StreamResult(encodingStream));
+        } catch (TransformerException e) {
+            throw logger.processingError(e);
+        } finally {
+            encodingStream.close();
+        }
+
+        return sb.toString();
     }
 
     /**
@@ -128,19 +176,18 @@ public class RedirectBindingUtil {
      * @throws IOException
      */
     public static InputStream urlBase64DeflateDecode(String encodedString) throws IOException {
-        byte[] deflatedString = urlBase64Decode(encodedString);
-        return DeflateUtil.decode(deflatedString);
+        return DeflateUtil.decode(new Base64DecodingInputStream(encodedString, true));
     }
 
     /**
-     * Base64 decode followed by Deflate decoding
+     * Base64 decode followed by Deflate decoding. Both are applied as the returned stream is read, so invalid
+     * input is reported by an {@link IOException} from the stream
      *
      * @param encodedString
      * @return
      */
     public static InputStream base64DeflateDecode(String encodedString) {
-        byte[] base64decodedMsg = Base64.decode(encodedString);
-        return DeflateUtil.decode(base64decodedMsg);
+        return DeflateUtil.decode(new Base64DecodingInputStream(encodedString, false));
     }
 
     /**
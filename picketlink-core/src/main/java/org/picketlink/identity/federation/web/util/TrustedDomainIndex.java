@@ -0,0 +1,159 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.identity.federation.web.util;
+
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.picketlink.identity.federation.core.config.TrustType;
+
+/**
+ * <p>
+ * The domains listed by a {@link TrustType}, compiled into hash sets so that checking a host costs one lookup per label
+ * of the host, whatever the number of trusted domains.
+ * </p>
+ * <p>
+ * The domains are separated by commas. Schemes, ports and paths are ignored, and so is case. A domain trusts itself and
+ * its subdomains, {@code *.example.com} only trusts the subdomains of {@code example.com}. The result for each host is
+ * remembered.
+ * </p>
+ */
+public class TrustedDomainIndex {
+
+    private static final int MAX_INDEXES = 16;
+
+    private static final int MAX_RESULTS = 4096;
+
+    // indexes by the domains string they were compiled from, a reloaded configuration gets its own
+    private static final ConcurrentMap<String, TrustedDomainIndex> indexes = new ConcurrentHashMap<String, TrustedDomainIndex>();
+
+    private final Set<String> domains = new HashSet<String>();
+
+    private final Set<String> parentDomains = new HashSet<String>();
+
+    private final ConcurrentMap<String, Boolean> results = new ConcurrentHashMap<String, Boolean>();
+
+    /**
+     * @param domains the comma separated list of trusted domains
+     */
+    public TrustedDomainIndex(String domains) {
+        if (domains == null)
+            return;
+
+        for (String domain : domains.split(",")) {
+            domain = normalize(domain);
+
+            if (domain.startsWith("*.")) {
+                this.parentDomains.add(domain.substring(2));
+            } else if (domain.length() > 0) {
+                this.domains.add(domain);
+                this.parentDomains.add(domain);
+            }
+        }
+    }
+
+    /**
+     * Get the index of the domains trusted by the given {@link TrustType}, compiling it the first time the domains are
+     * seen
+     *
+     * @param trust
+     * @return
+     */
+    public static TrustedDomainIndex getIndex(TrustType trust) {
+        String domains = trust.getDomains();
+
+        if (domains == null)
+            domains = "";
+
+        TrustedDomainIndex index = indexes.get(domains);
+
+        if (index == null) {
+            if (indexes.size() >= MAX_INDEXES)
+                indexes.clear();
+
+            index = new TrustedDomainIndex(domains);
+            TrustedDomainIndex existing = indexes.putIfAbsent(domains, index);
+
+            if (existing != null)
+                index = existing;
+        }
+
+        return index;
+    }
+
+    /**
+     * Check whether a host is trusted
+     *
+     * @param host
+     * @return
+     */
+    public boolean isTrusted(String host) {
+        if (host == null)
+            return false;
+
+        Boolean trusted = this.results.get(host);
+
+        if (trusted == null) {
+            trusted = Boolean.valueOf(match(normalize(host)));
+
+            if (this.results.size() >= MAX_RESULTS)
+                this.results.clear();
+
+            this.results.put(host, trusted);
+        }
+
+        return trusted.booleanValue();
+    }
+
+    private boolean match(String host) {
+        if (this.domains.contains(host))
+            return true;
+
+        for (int dot = host.indexOf('.'); dot >= 0; dot = host.indexOf('.', dot + 1)) {
+            if (this.parentDomains.contains(host.substring(dot + 1)))
+                return true;
+        }
+
+        return false;
+    }
+
+    private static String normalize(String domain) {
+        domain = domain.trim().toLowerCase(Locale.ENGLISH);
+
+        int scheme = domain.indexOf("://");
+        if (scheme >= 0)
+            domain = domain.substring(scheme + 3);
+
+        int path = domain.indexOf('/');
+        if (path >= 0)
+            domain = domain.substring(0, path);
+
+        int port = domain.indexOf(':');
+        if (port >= 0)
+            domain = domain.substring(0, port);
+
+        return domain;
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.identity.federation.web.util;
+
+import java.io.OutputStream;
+
+/**
+ * Encodes the bytes written to it in Base64, without line breaks, and appends the URL encoded characters to a
+ * {@code StringBuilder}. The output is the same as {@code URLEncoder.encode(Base64.encodeBytes(bytes,
+ * Base64.DONT_BREAK_LINES), "UTF-8")}, without the intermediate copies.
+ */
+class URLBase64EncodingOutputStream extends OutputStream {
+
+    private static final char[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+    private final StringBuilder target;
+
+    private int bits;
+
+    private int count;
+
+    private boolean closed;
+
+    URLBase64EncodingOutputStream(StringBuilder target) {
+        this.target = target;
+    }
+
+    @Override
+    public void write(int b) {
+        this.bits = (this.bits << 8) | (b & 0xff);
+
+        if (++this.count == 3) {
+            append(this.bits >> 18);
+            append(this.bits >> 12);
+            append(this.bits >> 6);
+            append(this.bits);
+            this.bits = 0;
+            this.count = 0;
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        for (int i = off; i < off + len; i++)
+            write(b[i]);
+    }
+
+    /**
+     * Write the last, padded, quantum
+     */
+    @Override
+    public void close() {
+        if (this.closed)
+            return;
+
+        this.closed = true;
+
+        if (this.count == 1) {
+            this.bits <<= 16;
+            append(this.bits >> 18);
+            append(this.bits >> 12);
+            this.target.append("%3D%3D");
+        } else if (this.count == 2) {
+            this.bits <<= 8;
+            append(this.bits >> 18);
+            append(this.bits >> 12);
+            append(this.bits >> 6);
+            this.target.append("%3D");
+        }
+    }
+
+    private void append(int sextet) {
+        char c = ALPHABET[sextet & 0x3f];
+
+        if (c == '+')
+            this.target.append("%2B");
+        else if (c == '/')
+            this.target.append("%2F");
+        else
+            this.target.append(c);
+    }
+}
@@ -21,10 +21,13 @@
  */
 package org.picketlink.test.identity.federation.api.saml.v2;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringWriter;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
+import java.util.Arrays;
 
 import junit.framework.TestCase;
 
@@ -33,6 +36,7 @@ import org.picketlink.identity.federation.api.util.DeflateUtil;
 import org.picketlink.identity.federation.core.saml.v2.common.IDGenerator;
 import org.picketlink.identity.federation.core.util.Base64;
 import org.picketlink.identity.federation.saml.v2.protocol.AuthnRequestType;
+import org.picketlink.identity.federation.web.util.RedirectBindingUtil;
 
 /**
  * Unit test the DEFLATE compression encoding/decoding cycles
@@ -62,4 +66,39 @@ public class DeflateEncodingDecodingUnitTestCase extends TestCase {
 
         assertNotNull(decodedRequestType);
     }
-}
\ No newline at end of file
+
+    public void testRedirectBindingStreamingCodecs() throws Exception {
+        for (int length : new int[] { 0, 1, 2, 3, 100, 5000 }) {
+            byte[] message = new byte[length];
+            for (int i = 0; i < length; i++)
+                message[i] = (byte) ("<samlp:AuthnRequest/>".charAt(i % 21) + i / 21);
+
+            String expected = URLEncoder.encode(Base64.encodeBytes(DeflateUtil.encode(message), Base64.DONT_BREAK_LINES),
+                    "UTF-8");
+            String encoded = RedirectBindingUtil.deflateBase64URLEncode(message);
+            assertEquals(expected, encoded);
+
+            assertTrue(Arrays.equals(message, readFully(RedirectBindingUtil.urlBase64DeflateDecode(encoded))));
+            assertTrue(Arrays.equals(message,
+                    readFully(RedirectBindingUtil.base64DeflateDecode(RedirectBindingUtil.deflateBase64Encode(message)))));
+        }
+    }
+
+    public void testRedirectBindingInvalidBase64() throws Exception {
+        try {
+            readFully(RedirectBindingUtil.base64DeflateDecode("not*base64"));
+            fail("invalid Base64 must be reported");
+        } catch (IOException e) {
+        }
+    }
+
+    private byte[] readFully(InputStream is) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        byte[] buffer = new byte[256];
+        int read;
+        while ((read = is.read(buffer)) != -1)
+            baos.write(buffer, 0, read);
+        is.close();
+        return baos.toByteArray();
+    }
+}
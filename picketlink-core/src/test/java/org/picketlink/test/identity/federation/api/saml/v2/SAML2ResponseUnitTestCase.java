@@ -21,6 +21,7 @@
  */
 package org.picketlink.test.identity.federation.api.saml.v2;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 
 import java.io.ByteArrayInputStream;
@@ -90,6 +91,27 @@ public class SAML2ResponseUnitTestCase {
         Logger.getLogger(SAML2ResponseUnitTestCase.class).debug("Signed Response=" + DocumentUtil.asString(signedDoc));
     }
 
+    /**
+     * The object model and the DOM kept for the signature checks are built from the same parse of the stream
+     *
+     * @throws Exception
+     */
+    @Test
+    public void parseKeepsDocument() throws Exception {
+        ClassLoader tcl = Thread.currentThread().getContextClassLoader();
+        InputStream configStream = tcl.getResourceAsStream("saml/v2/response/saml2-response-adfs-claims.xml");
+        SAML2Response samlResponse = new SAML2Response();
+        ResponseType responseType = (ResponseType) samlResponse.getSAML2ObjectFromStream(configStream);
+
+        Document samlDocument = samlResponse.getSamlDocumentHolder().getSamlDocument();
+        assertEquals(samlDocument.getDocumentElement().getAttribute("ID"), responseType.getID());
+
+        AssertionType assertion = responseType.getAssertions().get(0).getAssertion();
+        assertEquals("_334b1e3d-8783-4ea6-b5a9-0dd6317999d2", assertion.getID());
+        assertEquals("urn:adfs:services:trust", assertion.getIssuer().getValue().trim());
+        assertNotNull(assertion.getSignature());
+    }
+
     /**
      * This test constructs the {@link ResponseType}. An {@link AssertionType} is locally constructed and then passed to the
      * construct method
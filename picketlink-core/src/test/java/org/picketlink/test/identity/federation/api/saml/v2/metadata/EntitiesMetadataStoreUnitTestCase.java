@@ -0,0 +1,98 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.test.identity.federation.api.saml.v2.metadata;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.picketlink.identity.federation.core.saml.md.providers.EntitiesMetadataStore;
+import org.picketlink.identity.federation.core.util.CoreConfigUtil;
+import org.picketlink.identity.federation.saml.v2.metadata.EntityDescriptorType;
+import org.picketlink.identity.federation.saml.v2.metadata.SPSSODescriptorType;
+
+/**
+ * Unit test the {@link EntitiesMetadataStore}
+ */
+public class EntitiesMetadataStoreUnitTestCase extends TestCase {
+
+    private static final String SP = "<md:SPSSODescriptor protocolSupportEnumeration=\"urn:oasis:names:tc:SAML:2.0:protocol\">"
+            + "<md:AssertionConsumerService Binding=\"urn:oasis:names:tc:SAML:2.0:bindings:HTTP-POST\" "
+            + "Location=\"https://%s/sp\" index=\"0\"/></md:SPSSODescriptor>";
+
+    private static final String METADATA = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+            + "<md:EntitiesDescriptor xmlns:md=\"urn:oasis:names:tc:SAML:2.0:metadata\" Name=\"federation\">"
+            + "<md:Extensions><md:EntityDescriptor entityID=\"not-an-entity\"/></md:Extensions>"
+            + "<md:EntityDescriptor entityID=\"https://sp1.example.org\">" + String.format(SP, "sp1.example.org")
+            + "</md:EntityDescriptor>"
+            + "<md:EntitiesDescriptor Name=\"nested\">"
+            + "<md:EntityDescriptor entityID=\"https://sp2.example.org/\u00e9t\u00e9\" >" + String.format(SP, "sp2.example.org")
+            + "</md:EntityDescriptor  >"
+            + "<md:EntityDescriptor entityID=\"https://empty.example.org\"/>"
+            + "</md:EntitiesDescriptor>"
+            + "<md:EntityDescriptor entityID=\"https://sp1.example.org\">" + String.format(SP, "duplicate.example.org")
+            + "</md:EntityDescriptor>"
+            + "</md:EntitiesDescriptor>";
+
+    public void testLookup() throws Exception {
+        EntitiesMetadataStore store = new EntitiesMetadataStore(new ByteArrayInputStream(METADATA.getBytes("UTF-8")), 1);
+
+        List<String> entityIDs = store.getEntityIDs();
+        assertEquals(3, entityIDs.size());
+        assertEquals("https://sp1.example.org", entityIDs.get(0));
+        assertEquals("https://sp2.example.org/\u00e9t\u00e9", entityIDs.get(1));
+        assertEquals("https://empty.example.org", entityIDs.get(2));
+
+        assertEquals("sp1.example.org", getHost(store.getEntityDescriptor("https://sp1.example.org")));
+        assertEquals("sp2.example.org", getHost(store.getEntityDescriptor("https://sp2.example.org/\u00e9t\u00e9")));
+        assertEquals("https://empty.example.org", store.getEntityDescriptor("https://empty.example.org").getEntityID());
+        assertNull(store.getEntityDescriptor("not-an-entity"));
+
+        assertEquals("federation", store.getEntitiesDescriptor().getName());
+    }
+
+    public void testRetention() throws Exception {
+        EntitiesMetadataStore store = new EntitiesMetadataStore(new ByteArrayInputStream(METADATA.getBytes("UTF-8")), 1);
+
+        EntityDescriptorType sp1 = store.getEntityDescriptor("https://sp1.example.org");
+        assertSame(sp1, store.getEntityDescriptor("https://sp1.example.org"));
+
+        store.getEntityDescriptor("https://empty.example.org");
+        EntityDescriptorType parsedAgain = store.getEntityDescriptor("https://sp1.example.org");
+        assertNotSame(sp1, parsedAgain);
+        assertEquals("sp1.example.org", getHost(parsedAgain));
+    }
+
+    public void testEncoding() throws Exception {
+        String metadata = METADATA.replace("encoding=\"UTF-8\"", "encoding=\"ISO-8859-1\"");
+        EntitiesMetadataStore store = new EntitiesMetadataStore(new ByteArrayInputStream(metadata.getBytes("ISO-8859-1")),
+                10);
+
+        assertEquals("sp2.example.org", getHost(store.getEntityDescriptor("https://sp2.example.org/\u00e9t\u00e9")));
+    }
+
+    private String getHost(EntityDescriptorType entity) {
+        SPSSODescriptorType sp = CoreConfigUtil.getSPDescriptor(entity);
+        return sp.getAssertionConsumerService().get(0).getLocation().getHost();
+    }
+}
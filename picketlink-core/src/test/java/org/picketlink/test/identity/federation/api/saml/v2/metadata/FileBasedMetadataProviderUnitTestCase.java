@@ -96,6 +96,29 @@ public class FileBasedMetadataProviderUnitTestCase extends TestCase {
         }
     }
 
+    public void testFileBasedEntitiesMetadataProviderLookup() {
+        FileBasedEntitiesMetadataProvider metadataProvider = new FileBasedEntitiesMetadataProvider();
+        EntitiesDescriptorType metadata = getMetadata(metadataProvider, "saml2/metadata/sp-two-salesforce-googleapps.xml");
+
+        assertEquals(2, metadata.getEntityDescriptor().size());
+        assertEquals(2, metadataProvider.getMetaData().getEntityDescriptor().size());
+
+        List<String> entityIDs = metadataProvider.getEntityIDs();
+        assertEquals(2, entityIDs.size());
+        assertEquals("https://saml.salesforce.com", entityIDs.get(0));
+        assertEquals("google.com/a/somedomain.com", entityIDs.get(1));
+
+        EntityDescriptorType salesforce = metadataProvider.getEntityDescriptor("https://saml.salesforce.com");
+        assertEquals("https://saml.salesforce.com", salesforce.getEntityID());
+        assertTrue(CoreConfigUtil.getSPDescriptor(salesforce).isAuthnRequestsSigned());
+        assertSame(salesforce, metadataProvider.getEntityDescriptor("https://saml.salesforce.com"));
+
+        EntityDescriptorType google = metadataProvider.getEntityDescriptor("google.com/a/somedomain.com");
+        assertFalse(CoreConfigUtil.getSPDescriptor(google).isAuthnRequestsSigned());
+
+        assertNull(metadataProvider.getEntityDescriptor("https://unknown.example.org"));
+    }
+
     private <T> T getMetadata(IMetadataProvider<T> metadataProvider, String filePath) {
         Map<String, String> options = new HashMap<String, String>();
         options.put(AbstractFileBasedMetadataProvider.FILENAME_KEY, filePath);
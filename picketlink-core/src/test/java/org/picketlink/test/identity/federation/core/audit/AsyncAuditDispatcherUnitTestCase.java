@@ -0,0 +1,209 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.test.identity.federation.core.audit;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import junit.framework.TestCase;
+
+import org.jboss.security.audit.AuditEvent;
+import org.jboss.security.audit.AuditLevel;
+import org.jboss.security.audit.AuditManager;
+import org.picketlink.identity.federation.core.audit.AsyncAuditDispatcher;
+import org.picketlink.identity.federation.core.audit.AsyncAuditDispatcher.OverflowPolicy;
+import org.picketlink.identity.federation.core.audit.PicketLinkAuditEvent;
+import org.picketlink.identity.federation.core.audit.PicketLinkAuditHelper;
+
+/**
+ * Unit test the {@link AsyncAuditDispatcher}
+ */
+public class AsyncAuditDispatcherUnitTestCase extends TestCase {
+
+    private final List<AuditEvent> audited = new CopyOnWriteArrayList<AuditEvent>();
+
+    private volatile CountDownLatch gate;
+
+    private final CountDownLatch entered = new CountDownLatch(1);
+
+    public void testEventsAreDeliveredInOrder() throws Exception {
+        AsyncAuditDispatcher dispatcher = new AsyncAuditDispatcher(1024, OverflowPolicy.BLOCK);
+        PicketLinkAuditHelper helper = new PicketLinkAuditHelper(createAuditManager(), dispatcher);
+
+        try {
+            for (int i = 0; i < 500; i++)
+                helper.audit(createEvent(i));
+
+            assertTrue(dispatcher.flush(10000));
+            assertEquals(500, this.audited.size());
+
+            for (int i = 0; i < 500; i++)
+                assertEquals(String.valueOf(i), ((PicketLinkAuditEvent) this.audited.get(i)).getAssertionID());
+
+            assertEquals(500, dispatcher.getDeliveredCount());
+            assertEquals(0, dispatcher.getDroppedCount());
+            assertTrue(dispatcher.getBatchCount() <= 500);
+        } finally {
+            dispatcher.close();
+        }
+    }
+
+    public void testDiscardWhenFull() throws Exception {
+        AsyncAuditDispatcher dispatcher = new AsyncAuditDispatcher(2, OverflowPolicy.DISCARD);
+        AuditManager auditManager = createAuditManager();
+        this.gate = new CountDownLatch(1);
+
+        try {
+            // the first event holds the background thread, the next two fill the queue
+            assertTrue(dispatcher.dispatch(auditManager, createEvent(0)));
+            this.entered.await();
+            assertTrue(dispatcher.dispatch(auditManager, createEvent(1)));
+            assertTrue(dispatcher.dispatch(auditManager, createEvent(2)));
+            assertFalse(dispatcher.dispatch(auditManager, createEvent(3)));
+            assertEquals(1, dispatcher.getDroppedCount());
+
+            this.gate.countDown();
+            assertTrue(dispatcher.flush(10000));
+            assertEquals(3, this.audited.size());
+        } finally {
+            this.gate.countDown();
+            dispatcher.close();
+        }
+    }
+
+    public void testCloseDeliversQueuedEvents() throws Exception {
+        AsyncAuditDispatcher dispatcher = new AsyncAuditDispatcher(16, OverflowPolicy.BLOCK);
+        AuditManager auditManager = createAuditManager();
+        this.gate = new CountDownLatch(1);
+
+        try {
+            assertTrue(dispatcher.dispatch(auditManager, createEvent(0)));
+            this.entered.await();
+            assertTrue(dispatcher.dispatch(auditManager, createEvent(1)));
+            assertTrue(dispatcher.dispatch(auditManager, createEvent(2)));
+
+            Thread opener = new Thread() {
+                public void run() {
+                    try {
+                        Thread.sleep(100);
+                    } catch (InterruptedException e) {
+                    }
+                    gate.countDown();
+                }
+            };
+            opener.start();
+
+            assertTrue(dispatcher.close(10000));
+            assertEquals(3, this.audited.size());
+            assertEquals(0, dispatcher.getQueueSize());
+        } finally {
+            this.gate.countDown();
+        }
+    }
+
+    public void testDispatchAfterCloseIsDeliveredOnCallingThread() throws Exception {
+        AsyncAuditDispatcher dispatcher = new AsyncAuditDispatcher(16, OverflowPolicy.DISCARD);
+        assertTrue(dispatcher.close(10000));
+
+        assertTrue(dispatcher.dispatch(createAuditManager(), createEvent(0)));
+        assertEquals(1, this.audited.size());
+        assertEquals(1, dispatcher.getDeliveredCount());
+        assertTrue(dispatcher.flush(0));
+    }
+
+    public void testNoEventIsLostWhileClosing() throws Exception {
+        final AsyncAuditDispatcher dispatcher = new AsyncAuditDispatcher(16, OverflowPolicy.BLOCK);
+        final AuditManager auditManager = createAuditManager();
+        final CountDownLatch started = new CountDownLatch(4);
+        Thread[] threads = new Thread[4];
+
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    started.countDown();
+                    for (int j = 0; j < 1000; j++)
+                        dispatcher.dispatch(auditManager, createEvent(j));
+                }
+            };
+            threads[i].start();
+        }
+
+        started.await();
+        assertTrue(dispatcher.close(10000));
+
+        for (Thread thread : threads)
+            thread.join();
+
+        assertEquals(4000, this.audited.size());
+        assertEquals(4000, dispatcher.getDeliveredCount());
+        assertEquals(0, dispatcher.getDroppedCount());
+    }
+
+    public void testCloseSharedDispatcher() throws Exception {
+        AsyncAuditDispatcher dispatcher = AsyncAuditDispatcher.getSharedDispatcher();
+
+        try {
+            assertSame(dispatcher, AsyncAuditDispatcher.getSharedDispatcher());
+            assertTrue(AsyncAuditDispatcher.closeSharedDispatcher(10000));
+            assertNotSame(dispatcher, AsyncAuditDispatcher.getSharedDispatcher());
+
+            // helpers still holding the closed dispatcher deliver on the calling thread
+            new PicketLinkAuditHelper(createAuditManager(), dispatcher).audit(createEvent(0));
+            assertEquals(1, this.audited.size());
+        } finally {
+            AsyncAuditDispatcher.closeSharedDispatcher(10000);
+        }
+    }
+
+    public void testSynchronousHelper() throws Exception {
+        PicketLinkAuditHelper helper = new PicketLinkAuditHelper(createAuditManager(), null);
+        helper.audit(createEvent(0));
+        assertEquals(1, this.audited.size());
+        assertNull(helper.getDispatcher());
+    }
+
+    private PicketLinkAuditEvent createEvent(int i) {
+        PicketLinkAuditEvent event = new PicketLinkAuditEvent(AuditLevel.INFO);
+        event.setAssertionID(String.valueOf(i));
+        return event;
+    }
+
+    private AuditManager createAuditManager() {
+        return (AuditManager) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { AuditManager.class },
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if ("audit".equals(method.getName())) {
+                            CountDownLatch gate = AsyncAuditDispatcherUnitTestCase.this.gate;
+                            entered.countDown();
+                            if (gate != null)
+                                gate.await();
+                            audited.add((AuditEvent) args[0]);
+                        }
+                        return null;
+                    }
+                });
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.test.identity.federation.core.factories;
+
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.picketlink.identity.federation.core.factories.PrincipalExpiryScheduler;
+
+/**
+ * Unit test the {@link PrincipalExpiryScheduler}
+ */
+public class PrincipalExpirySchedulerUnitTestCase extends TestCase {
+
+    private final List<String> flushes = new ArrayList<String>();
+
+    private CountDownLatch flushed;
+
+    public void testFlushesAreCoalescedPerTick() throws Exception {
+        PrincipalExpiryScheduler scheduler = createScheduler(2);
+        Date expiry = new Date(System.currentTimeMillis() + 200);
+
+        scheduler.register("domain1", expiry, new TestPrincipal("alice"));
+        scheduler.register("domain1", expiry, new TestPrincipal("bob"));
+        scheduler.register("domain2", expiry, new TestPrincipal("alice"));
+
+        assertEquals(3, scheduler.getQueueDepth());
+        assertEquals(1, scheduler.getScheduledTickCount());
+
+        assertTrue(this.flushed.await(5, TimeUnit.SECONDS));
+
+        synchronized (this.flushes) {
+            assertEquals(2, this.flushes.size());
+            assertTrue(this.flushes.contains("domain1:alice,bob"));
+            assertTrue(this.flushes.contains("domain2:alice"));
+        }
+
+        assertEquals(0, scheduler.getQueueDepth());
+    }
+
+    public void testLatestRegistrationWins() throws Exception {
+        PrincipalExpiryScheduler scheduler = createScheduler(1);
+
+        scheduler.register("domain1", new Date(System.currentTimeMillis() + 100), new TestPrincipal("alice"));
+        scheduler.register("domain1", new Date(System.currentTimeMillis() + 600), new TestPrincipal("alice"));
+
+        assertEquals(1, scheduler.getQueueDepth());
+        assertEquals(2, scheduler.getScheduledTickCount());
+
+        Thread.sleep(400);
+        synchronized (this.flushes) {
+            assertTrue(this.flushes.isEmpty());
+        }
+
+        assertTrue(this.flushed.await(5, TimeUnit.SECONDS));
+
+        synchronized (this.flushes) {
+            assertEquals(1, this.flushes.size());
+            assertEquals("domain1:alice", this.flushes.get(0));
+        }
+    }
+
+    private PrincipalExpiryScheduler createScheduler(int expectedFlushes) {
+        this.flushed = new CountDownLatch(expectedFlushes);
+
+        return new PrincipalExpiryScheduler(new PrincipalExpiryScheduler.Flusher() {
+            public void flush(String securityDomain, List<Principal> principals) {
+                StringBuilder builder = new StringBuilder(securityDomain).append(':');
+
+                for (int i = 0; i < principals.size(); i++) {
+                    if (i > 0)
+                        builder.append(',');
+                    builder.append(principals.get(i).getName());
+                }
+
+                synchronized (flushes) {
+                    flushes.add(builder.toString());
+                }
+
+                flushed.countDown();
+            }
+        }, 100);
+    }
+
+    private static class TestPrincipal implements Principal {
+        private final String name;
+
+        TestPrincipal(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return this.name;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof TestPrincipal && this.name.equals(((TestPrincipal) obj).name);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.name.hashCode();
+        }
+    }
+}
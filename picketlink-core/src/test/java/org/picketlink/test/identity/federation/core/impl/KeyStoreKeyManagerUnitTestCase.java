@@ -0,0 +1,151 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.test.identity.federation.core.impl;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.picketlink.identity.federation.core.config.AuthPropertyType;
+import org.picketlink.identity.federation.core.config.KeyValueType;
+import org.picketlink.identity.federation.core.impl.KeyStoreKeyManager;
+
+/**
+ * Unit test the {@link KeyStoreKeyManager}
+ */
+public class KeyStoreKeyManagerUnitTestCase extends TestCase {
+
+    private File keyStoreFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        this.keyStoreFile = File.createTempFile("keystore", ".jks");
+
+        InputStream in = Thread.currentThread().getContextClassLoader().getResourceAsStream("keystore/sts_keystore.jks");
+        OutputStream out = new FileOutputStream(this.keyStoreFile);
+        try {
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) > 0)
+                out.write(buffer, 0, read);
+        } finally {
+            in.close();
+            out.close();
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        this.keyStoreFile.delete();
+    }
+
+    public void testKeysAreCached() throws Exception {
+        KeyStoreKeyManager keyManager = createKeyManager("0");
+
+        PrivateKey signingKey = keyManager.getSigningKey();
+        assertNotNull(signingKey);
+        assertSame(signingKey, keyManager.getSigningKey());
+        assertSame(keyManager.getSigningKeyPair(), keyManager.getSigningKeyPair());
+        assertSame(signingKey, keyManager.getSigningKeyPair().getPrivate());
+        assertNotNull(keyManager.getValidatingKey("http://services.testcorp.org/provider1"));
+        assertSame(keyManager.getValidatingKey("http://services.testcorp.org/provider1"),
+                keyManager.getValidatingKey("http://services.testcorp.org/provider1"));
+        assertNotNull(keyManager.getCertificate("service2"));
+
+        try {
+            keyManager.getValidatingKey("http://services.testcorp.org/unknown");
+            fail("Unknown domains must be rejected");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    public void testModifiedKeyStoreIsReloaded() throws Exception {
+        KeyStoreKeyManager keyManager = createKeyManager("1");
+
+        PrivateKey signingKey = keyManager.getSigningKey();
+        assertNotNull(keyManager.getValidatingKey("http://services.testcorp.org/provider2"));
+
+        KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+        InputStream in = new FileInputStream(this.keyStoreFile);
+        try {
+            keyStore.load(in, "testpass".toCharArray());
+        } finally {
+            in.close();
+        }
+        keyStore.deleteEntry("service2");
+
+        // make sure the modification time moves even on file systems with a coarse granularity
+        Thread.sleep(1100);
+        OutputStream out = new FileOutputStream(this.keyStoreFile);
+        try {
+            keyStore.store(out, "testpass".toCharArray());
+        } finally {
+            out.close();
+        }
+        Thread.sleep(10);
+
+        assertNotSame(signingKey, keyManager.getSigningKey());
+        assertNull(keyManager.getCertificate("service2"));
+        assertNull(keyManager.getValidatingKey("http://services.testcorp.org/provider2"));
+        assertNotNull(keyManager.getValidatingKey("http://services.testcorp.org/provider1"));
+    }
+
+    private KeyStoreKeyManager createKeyManager(String reloadCheckInterval) throws Exception {
+        List<AuthPropertyType> authProperties = new ArrayList<AuthPropertyType>();
+        authProperties.add(authProperty(KeyStoreKeyManager.KEYSTORE_URL, this.keyStoreFile.getAbsolutePath()));
+        authProperties.add(authProperty(KeyStoreKeyManager.KEYSTORE_PASS, "testpass"));
+        authProperties.add(authProperty(KeyStoreKeyManager.SIGNING_KEY_ALIAS, "sts"));
+        authProperties.add(authProperty(KeyStoreKeyManager.SIGNING_KEY_PASS, "keypass"));
+        authProperties.add(authProperty(KeyStoreKeyManager.KEYSTORE_RELOAD_CHECK_INTERVAL, reloadCheckInterval));
+
+        List<KeyValueType> aliases = new ArrayList<KeyValueType>();
+        aliases.add(validatingAlias("http://services.testcorp.org/provider1", "service1"));
+        aliases.add(validatingAlias("http://services.testcorp.org/provider2", "service2"));
+
+        KeyStoreKeyManager keyManager = new KeyStoreKeyManager();
+        keyManager.setAuthProperties(authProperties);
+        keyManager.setValidatingAlias(aliases);
+        return keyManager;
+    }
+
+    private AuthPropertyType authProperty(String key, String value) {
+        AuthPropertyType authProperty = new AuthPropertyType();
+        authProperty.setKey(key);
+        authProperty.setValue(value);
+        return authProperty;
+    }
+
+    private KeyValueType validatingAlias(String key, String value) {
+        KeyValueType alias = new KeyValueType();
+        alias.setKey(key);
+        alias.setValue(value);
+        return alias;
+    }
+}
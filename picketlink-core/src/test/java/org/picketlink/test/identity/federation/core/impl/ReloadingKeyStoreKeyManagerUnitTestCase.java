@@ -0,0 +1,197 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.test.identity.federation.core.impl;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.picketlink.identity.federation.core.config.AuthPropertyType;
+import org.picketlink.identity.federation.core.config.KeyValueType;
+import org.picketlink.identity.federation.core.impl.KeyStoreKeyManager;
+import org.picketlink.identity.federation.core.impl.ReloadingKeyStoreKeyManager;
+import org.picketlink.identity.federation.core.interfaces.TrustKeyConfigurationException;
+import org.picketlink.identity.federation.core.interfaces.TrustKeyProcessingException;
+
+/**
+ * Unit test the {@link ReloadingKeyStoreKeyManager}
+ */
+public class ReloadingKeyStoreKeyManagerUnitTestCase extends TestCase {
+
+    private File keyStoreFile;
+
+    private File mappingFile;
+
+    private ReloadingKeyStoreKeyManager keyManager;
+
+    @Override
+    protected void setUp() throws Exception {
+        this.keyStoreFile = File.createTempFile("keystore", ".jks");
+        this.mappingFile = File.createTempFile("domain-aliases", ".properties");
+
+        InputStream in = Thread.currentThread().getContextClassLoader().getResourceAsStream("keystore/sts_keystore.jks");
+        OutputStream out = new FileOutputStream(this.keyStoreFile);
+        try {
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) > 0)
+                out.write(buffer, 0, read);
+        } finally {
+            in.close();
+            out.close();
+        }
+
+        writeMapping("# rolled over by the operations team\nhttp://services.testcorp.org/provider3=service1\n");
+
+        this.keyManager = newKeyManager(this.mappingFile.getAbsolutePath());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        this.keyManager.stopWatching();
+        this.keyStoreFile.delete();
+        this.mappingFile.delete();
+    }
+
+    public void testDomainAliasMappingIsReloaded() throws Exception {
+        PublicKey service1 = this.keyManager.getValidatingKey("http://services.testcorp.org/provider1");
+        assertNotNull(service1);
+        assertEquals(service1, this.keyManager.getValidatingKey("http://services.testcorp.org/provider3"));
+
+        // nothing changed, the keys in use are kept
+        this.keyManager.checkForModifications();
+        assertSame(service1, this.keyManager.getValidatingKey("http://services.testcorp.org/provider1"));
+
+        writeMapping("http://services.testcorp.org/provider3=service2\n");
+        this.keyManager.checkForModifications();
+
+        PublicKey service2 = this.keyManager.getValidatingKey("http://services.testcorp.org/provider3");
+        assertNotNull(service2);
+        assertFalse(service1.equals(service2));
+        assertEquals(service1, this.keyManager.getValidatingKey("http://services.testcorp.org/provider1"));
+    }
+
+    public void testRemovedMappingIsRejected() throws Exception {
+        assertNotNull(this.keyManager.getValidatingKey("http://services.testcorp.org/provider3"));
+
+        writeMapping("");
+        this.keyManager.checkForModifications();
+
+        try {
+            this.keyManager.getValidatingKey("http://services.testcorp.org/provider3");
+            fail("Domains removed from the mapping must be rejected");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    public void testMappingLocatedByURL() throws Exception {
+        this.keyManager.stopWatching();
+        this.keyManager = newKeyManager(this.mappingFile.toURI().toURL().toString());
+        PublicKey service1 = this.keyManager.getValidatingKey("http://services.testcorp.org/provider3");
+        assertNotNull(service1);
+
+        // a file URL is watched like a file
+        writeMapping("http://services.testcorp.org/provider3=service2\n");
+        this.keyManager.checkForModifications();
+        assertFalse(service1.equals(this.keyManager.getValidatingKey("http://services.testcorp.org/provider3")));
+    }
+
+    public void testMappingLocatedOnTheClassPath() throws Exception {
+        this.keyManager.stopWatching();
+        this.keyManager = newKeyManager("keystore/domain-aliases.properties");
+
+        assertNotNull(this.keyManager.getValidatingKey("http://services.testcorp.org/provider4"));
+    }
+
+    public void testMissingMappingIsRejected() throws Exception {
+        try {
+            newKeyManager("keystore/does-not-exist.properties");
+            fail("A missing domain alias mapping must be reported");
+        } catch (TrustKeyConfigurationException expected) {
+        }
+    }
+
+    public void testDeletedMappingIsReported() throws Exception {
+        PublicKey service1 = this.keyManager.getValidatingKey("http://services.testcorp.org/provider3");
+
+        assertTrue(this.mappingFile.delete());
+        try {
+            this.keyManager.checkForModifications();
+            fail("A deleted domain alias mapping must be reported");
+        } catch (TrustKeyProcessingException expected) {
+        }
+
+        // the keys in use are kept
+        assertEquals(service1, this.keyManager.getValidatingKey("http://services.testcorp.org/provider3"));
+    }
+
+    private ReloadingKeyStoreKeyManager newKeyManager(String mappingLocation) throws Exception {
+        List<AuthPropertyType> authProperties = new ArrayList<AuthPropertyType>();
+        authProperties.add(authProperty(KeyStoreKeyManager.KEYSTORE_URL, this.keyStoreFile.getAbsolutePath()));
+        authProperties.add(authProperty(KeyStoreKeyManager.KEYSTORE_PASS, "testpass"));
+        authProperties.add(authProperty(KeyStoreKeyManager.SIGNING_KEY_ALIAS, "sts"));
+        authProperties.add(authProperty(KeyStoreKeyManager.SIGNING_KEY_PASS, "keypass"));
+        authProperties.add(authProperty(ReloadingKeyStoreKeyManager.DOMAIN_ALIAS_MAPPING_URL, mappingLocation));
+        // modifications are checked explicitly by the tests
+        authProperties.add(authProperty(ReloadingKeyStoreKeyManager.KEYSTORE_WATCH_INTERVAL, "0"));
+
+        List<KeyValueType> aliases = new ArrayList<KeyValueType>();
+        KeyValueType alias = new KeyValueType();
+        alias.setKey("http://services.testcorp.org/provider1");
+        alias.setValue("service1");
+        aliases.add(alias);
+
+        ReloadingKeyStoreKeyManager keyManager = new ReloadingKeyStoreKeyManager();
+        keyManager.setAuthProperties(authProperties);
+        keyManager.setValidatingAlias(aliases);
+        return keyManager;
+    }
+
+    private void writeMapping(String mapping) throws Exception {
+        long lastModified = this.mappingFile.lastModified();
+
+        Writer writer = new OutputStreamWriter(new FileOutputStream(this.mappingFile), "UTF-8");
+        try {
+            writer.write(mapping);
+        } finally {
+            writer.close();
+        }
+
+        // make sure the modification time moves even on file systems with a coarse granularity
+        this.mappingFile.setLastModified(lastModified + 2000);
+    }
+
+    private AuthPropertyType authProperty(String key, String value) {
+        AuthPropertyType authProperty = new AuthPropertyType();
+        authProperty.setKey(key);
+        authProperty.setValue(value);
+        return authProperty;
+    }
+}
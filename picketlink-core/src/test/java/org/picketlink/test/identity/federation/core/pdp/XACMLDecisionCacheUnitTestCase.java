@@ -0,0 +1,103 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.test.identity.federation.core.pdp;
+
+import java.io.InputStream;
+
+import junit.framework.TestCase;
+
+import org.jboss.security.xacml.core.model.context.RequestType;
+import org.jboss.security.xacml.core.model.context.ResultType;
+import org.picketlink.identity.federation.core.parsers.saml.SAMLParser;
+import org.picketlink.identity.federation.core.pdp.XACMLDecisionCache;
+import org.picketlink.identity.federation.saml.v2.protocol.XACMLAuthzDecisionQueryType;
+
+/**
+ * Unit test the {@link XACMLDecisionCache}
+ */
+public class XACMLDecisionCacheUnitTestCase extends TestCase {
+
+    public void testKeyIsCanonical() throws Exception {
+        XACMLDecisionCache cache = new XACMLDecisionCache();
+
+        // both queries carry the same XACML request in differently shaped SAML envelopes
+        String key = cache.getKey(getRequest("saml-xacml/saml-xacml-request.xml"));
+        assertEquals(key, cache.getKey(getRequest("saml-xacml/saml-xacml-request-2.xml")));
+
+        RequestType otherRequest = getRequest("saml-xacml/saml-xacml-request.xml");
+        otherRequest.getSubject().get(0).getAttribute().remove(0);
+        assertFalse(key.equals(cache.getKey(otherRequest)));
+    }
+
+    public void testHitsAndMisses() throws Exception {
+        XACMLDecisionCache cache = new XACMLDecisionCache();
+        ResultType result = new ResultType();
+
+        assertNull(cache.get("key"));
+        cache.put("key", cache.getVersion(), result);
+        assertSame(result, cache.get("key"));
+
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    public void testInvalidationDropsDecisions() throws Exception {
+        XACMLDecisionCache cache = new XACMLDecisionCache();
+
+        long version = cache.getVersion();
+        cache.put("key", version, new ResultType());
+        cache.invalidate();
+        assertNull(cache.get("key"));
+
+        // a decision evaluated against the previous policies is not cached
+        cache.put("key", version, new ResultType());
+        assertNull(cache.get("key"));
+        assertEquals(0, cache.size());
+    }
+
+    public void testOldestDecisionsAreEvicted() throws Exception {
+        XACMLDecisionCache cache = new XACMLDecisionCache(2, XACMLDecisionCache.DEFAULT_TIME_TO_LIVE);
+
+        cache.put("first", cache.getVersion(), new ResultType());
+        cache.put("second", cache.getVersion(), new ResultType());
+        cache.put("third", cache.getVersion(), new ResultType());
+
+        assertEquals(2, cache.size());
+        assertNull(cache.get("first"));
+        assertNotNull(cache.get("third"));
+        assertEquals(1, cache.getEvictionCount());
+    }
+
+    public void testDecisionsExpire() throws Exception {
+        XACMLDecisionCache cache = new XACMLDecisionCache(10, 1);
+
+        cache.put("key", cache.getVersion(), new ResultType());
+        Thread.sleep(10);
+        assertNull(cache.get("key"));
+    }
+
+    private RequestType getRequest(String resourceName) throws Exception {
+        InputStream is = Thread.currentThread().getContextClassLoader().getResourceAsStream(resourceName);
+        XACMLAuthzDecisionQueryType query = (XACMLAuthzDecisionQueryType) new SAMLParser().parse(is);
+        return query.getRequest();
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.test.identity.federation.core.saml.v2;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.picketlink.identity.federation.core.exceptions.ProcessingException;
+import org.picketlink.identity.federation.core.saml.v2.impl.DefaultSAML2HandlerChain;
+import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2Handler;
+import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2HandlerChain;
+import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2HandlerRequest;
+import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2HandlerResponse;
+import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2ThreadSafeHandler;
+import org.picketlink.identity.federation.core.saml.v2.util.HandlerUtil;
+import org.picketlink.identity.federation.web.handlers.saml2.BaseSAML2Handler;
+import org.picketlink.identity.federation.web.handlers.saml2.SAML2AuthenticationHandler;
+import org.picketlink.identity.federation.web.handlers.saml2.SAML2EncryptionHandler;
+import org.picketlink.identity.federation.web.handlers.saml2.SAML2IssuerTrustHandler;
+
+/**
+ * Unit test the {@link DefaultSAML2HandlerChain}
+ */
+public class DefaultSAML2HandlerChainUnitTestCase extends TestCase {
+
+    public void testAuditedHandlersAreThreadSafe() throws Exception {
+        assertTrue(HandlerUtil.isThreadSafe(new SAML2AuthenticationHandler()));
+        assertTrue(HandlerUtil.isThreadSafe(new SAML2EncryptionHandler()));
+        assertTrue(HandlerUtil.isThreadSafe(new SAML2IssuerTrustHandler()));
+        assertFalse(HandlerUtil.isThreadSafe(new StatefulHandler()));
+    }
+
+    public void testSubclassesDoNotInheritTheMarker() throws Exception {
+        assertFalse(HandlerUtil.isThreadSafe(new SAML2AuthenticationHandler() {
+            private String lastIssuer;
+        }));
+        assertTrue(HandlerUtil.isThreadSafe(new AuditedAuthenticationHandler()));
+    }
+
+    public void testRemove() throws Exception {
+        SAML2HandlerChain chain = new DefaultSAML2HandlerChain();
+
+        SAML2Handler first = new StatefulHandler();
+        SAML2Handler second = new StatefulHandler();
+
+        chain.add(first);
+        chain.add(second);
+        assertFalse(chain.add(first));
+
+        assertTrue(chain.remove(first));
+        assertFalse(chain.remove(first));
+        assertEquals(1, chain.size());
+    }
+
+    public void testOrderIsPreserved() throws Exception {
+        SAML2HandlerChain chain = new DefaultSAML2HandlerChain();
+
+        List<SAML2Handler> handlers = new ArrayList<SAML2Handler>();
+        handlers.add(new SAML2IssuerTrustHandler());
+        handlers.add(new StatefulHandler());
+        handlers.add(new SAML2AuthenticationHandler());
+
+        assertTrue(chain.addAll(handlers));
+
+        Iterator<SAML2Handler> iterator = chain.handlers().iterator();
+
+        for (SAML2Handler handler : handlers) {
+            assertSame(handler, iterator.next());
+        }
+
+        assertTrue(chain.removeAll(handlers));
+        assertEquals(0, chain.size());
+    }
+
+    private static class AuditedAuthenticationHandler extends SAML2AuthenticationHandler implements
+            SAML2ThreadSafeHandler {
+    }
+
+    private static class StatefulHandler extends BaseSAML2Handler {
+        public void handleRequestType(SAML2HandlerRequest request, SAML2HandlerResponse response)
+                throws ProcessingException {
+        }
+    }
+}
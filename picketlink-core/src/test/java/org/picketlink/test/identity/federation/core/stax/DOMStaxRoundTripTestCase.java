@@ -0,0 +1,87 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.test.identity.federation.core.stax;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.events.StartElement;
+
+import org.junit.Test;
+import org.picketlink.identity.federation.core.parsers.util.StaxParserUtil;
+import org.picketlink.identity.federation.core.saml.v2.util.DocumentUtil;
+import org.picketlink.identity.federation.core.util.DOMXMLStreamWriter;
+import org.picketlink.identity.federation.core.util.StaxUtil;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * Test writing StAX directly into a DOM and reading a DOM as StAX events
+ */
+public class DOMStaxRoundTripTestCase {
+    @Test
+    public void testStaxToDOM() throws Exception {
+        Document doc = DocumentUtil.createDocument();
+
+        DOMXMLStreamWriter writer = new DOMXMLStreamWriter(doc);
+        StaxUtil.writeStartElement(writer, "a", "root", "urn:a");
+        StaxUtil.writeNameSpace(writer, "a", "urn:a");
+        StaxUtil.writeAttribute(writer, "ID", "id1");
+        StaxUtil.writeStartElement(writer, "a", "child", "urn:a");
+        StaxUtil.writeCharacters(writer, "text");
+        StaxUtil.writeEndElement(writer);
+        StaxUtil.writeEndElement(writer);
+
+        Element root = doc.getDocumentElement();
+        assertEquals("urn:a", root.getNamespaceURI());
+        assertEquals("root", root.getLocalName());
+        assertEquals("id1", root.getAttributeNS(null, "ID"));
+
+        Element child = (Element) root.getFirstChild();
+        assertEquals("urn:a", child.getNamespaceURI());
+        assertEquals("text", child.getTextContent());
+    }
+
+    @Test
+    public void testDOMToStax() throws Exception {
+        String xml = "<a xmlns=\'urn:hello\' xmlns:t=\'urn:t\'><b><t:d test=\'tt\'>value</t:d></b></a>";
+
+        Document doc = DocumentUtil.getDocument(xml);
+        Element b = (Element) doc.getDocumentElement().getFirstChild();
+
+        XMLEventReader reader = StaxParserUtil.getXMLEventReader(b);
+
+        StartElement startElement = StaxParserUtil.getNextStartElement(reader);
+        assertEquals("b", StaxParserUtil.getStartElementName(startElement));
+        assertEquals("urn:hello", startElement.getName().getNamespaceURI());
+
+        // the namespaces of the ancestors are in scope
+        assertNotNull(startElement.getNamespaces().next());
+
+        startElement = StaxParserUtil.getNextStartElement(reader);
+        assertEquals("urn:t", startElement.getName().getNamespaceURI());
+        assertEquals("tt", StaxParserUtil.getAttributeValue(startElement, "test"));
+        assertEquals("value", StaxParserUtil.getElementText(reader));
+        assertEquals("b", StaxParserUtil.getEndElementName(StaxParserUtil.getNextEndElement(reader)));
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.test.identity.federation.core.sts.registry;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.picketlink.identity.federation.core.sts.registry.BloomFilterRevocationRegistry;
+import org.picketlink.identity.federation.core.sts.registry.IncrementalRevocationRegistry;
+
+/**
+ * Unit test the {@link BloomFilterRevocationRegistry}
+ */
+public class BloomFilterRevocationRegistryUnitTestCase extends TestCase {
+
+    private static final String TYPE = "urn:oasis:names:tc:SAML:2.0:assertion";
+
+    public void testOnlyProbableHitsReachTheBackingRegistry() throws Exception {
+        InMemoryRegistry backing = new InMemoryRegistry();
+        backing.revokeToken(TYPE, "revoked-before-start");
+
+        BloomFilterRevocationRegistry registry = new BloomFilterRevocationRegistry(backing, 60000);
+        assertTrue(registry.isRevoked(TYPE, "revoked-before-start"));
+
+        registry.revokeToken(TYPE, "revoked-locally");
+        assertTrue(registry.isRevoked(TYPE, "revoked-locally"));
+
+        backing.checks = 0;
+        int revoked = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (registry.isRevoked(TYPE, "valid-" + i))
+                revoked++;
+        }
+        assertEquals(0, revoked);
+        // a few false positives are expected, but most checks must not reach the backing registry
+        assertTrue(backing.checks < 50);
+    }
+
+    public void testRevocationsByOtherNodesAreSeenAfterRefresh() throws Exception {
+        InMemoryRegistry backing = new InMemoryRegistry();
+        BloomFilterRevocationRegistry registry = new BloomFilterRevocationRegistry(backing, 60000);
+
+        // another node revokes through the shared store
+        backing.clock += 1000;
+        backing.revokeToken(TYPE, "revoked-elsewhere");
+
+        registry.refresh();
+        assertTrue(registry.isRevoked(TYPE, "revoked-elsewhere"));
+    }
+
+    public void testOverlappingRefreshesDoNotSaturateTheFilter() throws Exception {
+        InMemoryRegistry backing = new InMemoryRegistry();
+        backing.clock = 1000000;
+        for (int i = 0; i < 10; i++) {
+            backing.revokeToken(TYPE, "revoked-" + i);
+        }
+        BloomFilterRevocationRegistry registry = new BloomFilterRevocationRegistry(backing, 60000);
+
+        // every refresh reads the same ids again, within the watermark overlap
+        for (int i = 0; i < 20000; i++) {
+            registry.refresh();
+        }
+        assertEquals(1, backing.fullReads);
+        registry.close();
+    }
+
+    public void testChecksDoNotWaitForRefresh() throws Exception {
+        InMemoryRegistry backing = new InMemoryRegistry();
+        backing.revokeToken(TYPE, "revoked");
+        BloomFilterRevocationRegistry registry = new BloomFilterRevocationRegistry(backing, 0);
+
+        backing.blocker = new CountDownLatch(1);
+        try {
+            long start = System.currentTimeMillis();
+            assertFalse(registry.isRevoked(TYPE, "valid"));
+            assertTrue(registry.isRevoked(TYPE, "revoked"));
+            assertTrue(System.currentTimeMillis() - start < 5000);
+        } finally {
+            backing.blocker.countDown();
+            registry.close();
+        }
+    }
+
+    private static class InMemoryRegistry implements IncrementalRevocationRegistry {
+
+        private final Map<String, Long> revoked = new HashMap<String, Long>();
+
+        private long clock = 1;
+
+        private int checks;
+
+        private int fullReads;
+
+        private volatile CountDownLatch blocker;
+
+        public synchronized boolean isRevoked(String tokenType, String id) {
+            checks++;
+            return revoked.containsKey(id);
+        }
+
+        public synchronized void revokeToken(String tokenType, String id) {
+            revoked.put(id, clock);
+        }
+
+        public long getRevokedIds(long since, Collection<String> ids) {
+            CountDownLatch latch = blocker;
+            if (latch != null) {
+                try {
+                    latch.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return read(since, ids);
+        }
+
+        private synchronized long read(long since, Collection<String> ids) {
+            if (since == 0)
+                fullReads++;
+            long latest = since;
+            for (Map.Entry<String, Long> entry : revoked.entrySet()) {
+                if (entry.getValue() >= since) {
+                    ids.add(entry.getKey());
+                    latest = Math.max(latest, entry.getValue());
+                }
+            }
+            return latest;
+        }
+    }
+}
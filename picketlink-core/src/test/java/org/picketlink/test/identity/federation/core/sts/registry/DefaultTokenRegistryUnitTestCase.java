@@ -0,0 +1,90 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.test.identity.federation.core.sts.registry;
+
+import javax.xml.datatype.XMLGregorianCalendar;
+
+import junit.framework.TestCase;
+
+import org.picketlink.identity.federation.core.saml.v2.util.XMLTimeUtil;
+import org.picketlink.identity.federation.core.sts.registry.DefaultTokenRegistry;
+import org.picketlink.identity.federation.saml.v2.assertion.AssertionType;
+import org.picketlink.identity.federation.saml.v2.assertion.ConditionsType;
+
+/**
+ * Unit test the {@link DefaultTokenRegistry}
+ */
+public class DefaultTokenRegistryUnitTestCase extends TestCase {
+
+    public void testReapExpiredTokens() throws Exception {
+        DefaultTokenRegistry registry = new DefaultTokenRegistry(0, 0);
+        registry.addToken("expired", assertion("expired", -1000));
+        registry.addToken("valid", assertion("valid", 60000));
+        registry.addToken("everlasting", "token");
+
+        assertEquals(1, registry.reapExpiredTokens());
+        assertNull(registry.getToken("expired"));
+        assertNotNull(registry.getToken("valid"));
+        assertNotNull(registry.getToken("everlasting"));
+        assertEquals(2, registry.size());
+        assertEquals(1, registry.getExpiredCount());
+    }
+
+    public void testMaxEntriesEvictsFirstToExpire() throws Exception {
+        DefaultTokenRegistry registry = new DefaultTokenRegistry(2, 0);
+        registry.addToken("everlasting", "token");
+        registry.addToken("late", assertion("late", 120000));
+        registry.addToken("soon", assertion("soon", 60000));
+
+        assertEquals(2, registry.size());
+        assertNull(registry.getToken("soon"));
+        assertNotNull(registry.getToken("late"));
+        assertNotNull(registry.getToken("everlasting"));
+        assertEquals(1, registry.getEvictedCount());
+    }
+
+    public void testRemoveAndReplace() throws Exception {
+        DefaultTokenRegistry registry = new DefaultTokenRegistry(0, 0);
+        registry.addToken("id", assertion("id", -1000));
+        // renewing the token pushes its expiration out
+        AssertionType renewed = assertion("id", 60000);
+        registry.addToken("id", renewed);
+
+        assertEquals(0, registry.reapExpiredTokens());
+        assertSame(renewed, registry.getToken("id"));
+
+        registry.removeToken("id");
+        assertNull(registry.getToken("id"));
+        assertEquals(0, registry.size());
+    }
+
+    private AssertionType assertion(String id, long validity) throws Exception {
+        XMLGregorianCalendar now = XMLTimeUtil.getIssueInstant();
+        ConditionsType conditions = new ConditionsType();
+        conditions.setNotBefore(now);
+        conditions.setNotOnOrAfter(XMLTimeUtil.add(now, validity));
+
+        AssertionType assertion = new AssertionType(id, now);
+        assertion.setConditions(conditions);
+        return assertion;
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.test.identity.federation.core.sts.registry;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+import org.picketlink.identity.federation.core.sts.registry.FileBasedTokenRegistry;
+
+/**
+ * Unit test the {@link FileBasedTokenRegistry}
+ */
+public class FileBasedTokenRegistryUnitTestCase extends TestCase {
+
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        file = File.createTempFile("token", ".registry");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        file.delete();
+    }
+
+    public void testReplay() throws Exception {
+        FileBasedTokenRegistry registry = new FileBasedTokenRegistry(file.getPath());
+        registry.addToken("1", "token1");
+        registry.addToken("2", "token2");
+        registry.addToken("2", "token2-renewed");
+        registry.removeToken("1");
+        registry.close();
+
+        registry = new FileBasedTokenRegistry(file.getPath());
+        assertNull(registry.getToken("1"));
+        assertEquals("token2-renewed", registry.getToken("2"));
+        registry.close();
+    }
+
+    public void testIncompleteRecordIsTruncated() throws Exception {
+        FileBasedTokenRegistry registry = new FileBasedTokenRegistry(file.getPath());
+        registry.addToken("1", "token1");
+        registry.close();
+        long length = file.length();
+
+        // simulate a crash in the middle of an append
+        FileOutputStream fos = new FileOutputStream(file, true);
+        fos.write(new byte[] { 1, 0, 0 });
+        fos.close();
+
+        registry = new FileBasedTokenRegistry(file.getPath());
+        assertEquals(length, file.length());
+        assertEquals("token1", registry.getToken("1"));
+        registry.addToken("2", "token2");
+        registry.close();
+
+        registry = new FileBasedTokenRegistry(file.getPath());
+        assertEquals("token2", registry.getToken("2"));
+        registry.close();
+    }
+
+    public void testCompaction() throws Exception {
+        FileBasedTokenRegistry registry = new FileBasedTokenRegistry(file.getPath());
+        for (int i = 0; i < 100; i++) {
+            registry.addToken("id" + i, "token" + i);
+        }
+        for (int i = 0; i < 90; i++) {
+            registry.removeToken("id" + i);
+        }
+        long length = file.length();
+
+        registry.compact();
+        assertTrue(file.length() < length);
+        registry.close();
+
+        registry = new FileBasedTokenRegistry(file.getPath());
+        assertNull(registry.getToken("id0"));
+        assertEquals("token99", registry.getToken("id99"));
+        registry.close();
+    }
+
+    public void testDamagedRecordIsSkipped() throws Exception {
+        FileBasedTokenRegistry registry = new FileBasedTokenRegistry(file.getPath());
+        registry.addToken("1", "token1");
+        long start = file.length();
+        registry.addToken("2", "token2");
+        long end = file.length();
+        registry.addToken("3", "token3");
+        registry.close();
+
+        // flip a byte in the middle of the second record
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        long position = (start + end) / 2;
+        raf.seek(position);
+        int b = raf.read();
+        raf.seek(position);
+        raf.write(b ^ 0xFF);
+        raf.close();
+
+        registry = new FileBasedTokenRegistry(file.getPath());
+        assertEquals("token1", registry.getToken("1"));
+        assertNull(registry.getToken("2"));
+        assertEquals("token3", registry.getToken("3"));
+        registry.close();
+
+        registry = new FileBasedTokenRegistry(file.getPath());
+        assertEquals("token3", registry.getToken("3"));
+        registry.close();
+    }
+
+    public void testCompactionDoesNotLoseConcurrentAdds() throws Exception {
+        final FileBasedTokenRegistry registry = new FileBasedTokenRegistry(file.getPath());
+        for (int i = 0; i < 200; i++) {
+            registry.addToken("old" + i, "token" + i);
+        }
+
+        final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+        Thread writer = new Thread() {
+            public void run() {
+                try {
+                    for (int i = 0; i < 200; i++) {
+                        registry.addToken("new" + i, "token" + i);
+                        registry.removeToken("old" + i);
+                    }
+                } catch (Exception e) {
+                    failure.set(e);
+                }
+            }
+        };
+        writer.start();
+        for (int i = 0; i < 5; i++) {
+            registry.compact();
+        }
+        writer.join();
+        assertNull(failure.get());
+        registry.close();
+
+        FileBasedTokenRegistry reopened = new FileBasedTokenRegistry(file.getPath());
+        for (int i = 0; i < 200; i++) {
+            assertNull(reopened.getToken("old" + i));
+            assertEquals("token" + i, reopened.getToken("new" + i));
+        }
+        reopened.close();
+        assertFalse(new File(file.getPath() + ".compact").exists());
+    }
+}
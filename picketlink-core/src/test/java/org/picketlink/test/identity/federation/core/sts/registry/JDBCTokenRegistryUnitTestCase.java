@@ -0,0 +1,368 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.test.identity.federation.core.sts.registry;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.naming.Context;
+import javax.naming.spi.InitialContextFactory;
+import javax.sql.DataSource;
+
+import junit.framework.TestCase;
+
+import org.picketlink.identity.federation.core.sts.registry.JDBCTokenRegistry;
+
+/**
+ * Unit test the {@link JDBCTokenRegistry} against an in-memory table
+ */
+public class JDBCTokenRegistryUnitTestCase extends TestCase {
+
+    private static final String JNDI_NAME = "jdbc/picketlink-sts-test";
+
+    private static final long NEVER = 3600000;
+
+    private static volatile Database database;
+
+    private String previousFactory;
+
+    @Override
+    protected void setUp() throws Exception {
+        database = new Database();
+        previousFactory = System.getProperty(Context.INITIAL_CONTEXT_FACTORY);
+        System.setProperty(Context.INITIAL_CONTEXT_FACTORY, TestContextFactory.class.getName());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (previousFactory != null)
+            System.setProperty(Context.INITIAL_CONTEXT_FACTORY, previousFactory);
+        else
+            System.clearProperty(Context.INITIAL_CONTEXT_FACTORY);
+    }
+
+    public void testBinaryTokenIsReadBack() throws Exception {
+        byte[] token = new byte[256];
+        for (int i = 0; i < token.length; i++) {
+            token[i] = (byte) i;
+        }
+
+        JDBCTokenRegistry registry = new JDBCTokenRegistry(JNDI_NAME);
+        registry.addToken("1", token);
+        assertEquals(1, database.rows.size());
+        assertTrue(Arrays.equals(token, (byte[]) registry.getToken("1")));
+        assertNull(registry.getToken("unknown"));
+
+        registry.removeToken("1");
+        assertNull(registry.getToken("1"));
+        registry.close();
+    }
+
+    public void testBatchedWritesAreReadBackAfterFlush() throws Exception {
+        JDBCTokenRegistry registry = new JDBCTokenRegistry(JNDI_NAME, true, 100, NEVER);
+        for (int i = 0; i < 10; i++) {
+            registry.addToken("id" + i, "token" + i);
+        }
+
+        // queued writes are served from memory
+        assertTrue(database.rows.isEmpty());
+        assertEquals("token3", registry.getToken("id3"));
+
+        registry.flush();
+        assertEquals(10, database.rows.size());
+        // one batch of deletes and one batch of inserts
+        assertEquals(2, database.batches);
+
+        JDBCTokenRegistry other = new JDBCTokenRegistry(JNDI_NAME);
+        for (int i = 0; i < 10; i++) {
+            assertEquals("token" + i, other.getToken("id" + i));
+        }
+        registry.close();
+        other.close();
+    }
+
+    public void testLatestQueuedWriteWins() throws Exception {
+        JDBCTokenRegistry writeThrough = new JDBCTokenRegistry(JNDI_NAME);
+        writeThrough.addToken("renewed", "old");
+        writeThrough.addToken("removed", "token");
+
+        JDBCTokenRegistry registry = new JDBCTokenRegistry(JNDI_NAME, true, 100, NEVER);
+        registry.addToken("renewed", "new");
+        registry.removeToken("removed");
+        registry.addToken("readded", "first");
+        registry.removeToken("readded");
+        registry.addToken("readded", "second");
+        registry.addToken("dropped", "token");
+        registry.removeToken("dropped");
+
+        assertNull(registry.getToken("removed"));
+        assertNull(registry.getToken("dropped"));
+        registry.flush();
+
+        assertEquals(2, database.rows.size());
+        assertEquals("new", writeThrough.getToken("renewed"));
+        assertEquals("second", writeThrough.getToken("readded"));
+        assertNull(writeThrough.getToken("removed"));
+        assertNull(writeThrough.getToken("dropped"));
+        registry.close();
+        writeThrough.close();
+    }
+
+    public void testFailedFlushIsRetried() throws Exception {
+        JDBCTokenRegistry registry = new JDBCTokenRegistry(JNDI_NAME, true, 100, NEVER);
+        registry.addToken("1", "token1");
+        registry.addToken("2", "token2");
+
+        database.failures = 1;
+        try {
+            registry.flush();
+            fail("The flush should have failed");
+        } catch (IOException expected) {
+        }
+        // the transaction was rolled back and the writes stay queued
+        assertTrue(database.rows.isEmpty());
+        assertEquals("token1", registry.getToken("1"));
+
+        registry.flush();
+        assertEquals(2, database.rows.size());
+        assertEquals("token2", new JDBCTokenRegistry(JNDI_NAME).getToken("2"));
+        registry.close();
+    }
+
+    public void testFullBatchIsFlushedInTheBackground() throws Exception {
+        JDBCTokenRegistry registry = new JDBCTokenRegistry(JNDI_NAME, true, 5, NEVER);
+        for (int i = 0; i < 5; i++) {
+            registry.addToken("id" + i, "token" + i);
+        }
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (database.rows.size() < 5 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(5, database.rows.size());
+        registry.close();
+    }
+
+    public void testCloseFlushesQueuedWrites() throws Exception {
+        JDBCTokenRegistry registry = new JDBCTokenRegistry(JNDI_NAME, true, 100, NEVER);
+        registry.addToken("1", "token1");
+        registry.close();
+
+        assertEquals("token1", new JDBCTokenRegistry(JNDI_NAME).getToken("1"));
+    }
+
+    public void testRowsWrittenAsTextAreIgnored() throws Exception {
+        // what earlier versions stored: the serialized token decoded as UTF-8
+        database.rows.put("converted", new String(new byte[] { (byte) 0xAC, (byte) 0xED, 0, 5 }, "UTF-8")
+                .getBytes("UTF-8"));
+
+        JDBCTokenRegistry registry = new JDBCTokenRegistry(JNDI_NAME);
+        assertNull(registry.getToken("converted"));
+
+        database.rows.put("text", "token".getBytes("UTF-8"));
+        database.textColumn = true;
+        assertNull(registry.getToken("text"));
+        registry.close();
+    }
+
+    /**
+     * The TOKEN_REGISTRY table, keyed by token id
+     */
+    private static class Database {
+
+        private final Map<String, byte[]> rows = new LinkedHashMap<String, byte[]>();
+
+        // number of batches to fail
+        private volatile int failures;
+
+        private volatile int batches;
+
+        private volatile boolean textColumn;
+
+        synchronized void apply(List<Object[]> changes) {
+            for (Object[] change : changes) {
+                if (change[1] == null)
+                    rows.remove(change[0]);
+                else if (rows.containsKey(change[0]))
+                    throw new IllegalStateException("Duplicate key " + change[0]);
+                else
+                    rows.put((String) change[0], (byte[]) change[1]);
+            }
+        }
+
+        synchronized byte[] select(String tokenID) {
+            return rows.get(tokenID);
+        }
+
+        DataSource dataSource() {
+            return proxy(DataSource.class, new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    if (method.getName().equals("getConnection"))
+                        return connection();
+                    throw new UnsupportedOperationException(method.getName());
+                }
+            });
+        }
+
+        private Connection connection() {
+            final List<Object[]> transaction = new ArrayList<Object[]>();
+            final boolean[] autoCommit = { true };
+
+            return proxy(Connection.class, new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    String name = method.getName();
+                    if (name.equals("getAutoCommit"))
+                        return autoCommit[0];
+                    if (name.equals("setAutoCommit")) {
+                        autoCommit[0] = (Boolean) args[0];
+                        return null;
+                    }
+                    if (name.equals("commit")) {
+                        apply(transaction);
+                        transaction.clear();
+                        return null;
+                    }
+                    if (name.equals("rollback")) {
+                        transaction.clear();
+                        return null;
+                    }
+                    if (name.equals("prepareStatement"))
+                        return statement((String) args[0], transaction, autoCommit);
+                    if (name.equals("close"))
+                        return null;
+                    throw new UnsupportedOperationException(name);
+                }
+            });
+        }
+
+        private PreparedStatement statement(final String sql, final List<Object[]> transaction, final boolean[] autoCommit) {
+            final Object[] parameters = new Object[3];
+            final List<Object[]> batch = new ArrayList<Object[]>();
+
+            return proxy(PreparedStatement.class, new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    String name = method.getName();
+                    if (name.equals("setString") || name.equals("setBytes") || name.equals("setTimestamp")) {
+                        parameters[(Integer) args[0] - 1] = args[1];
+                        return null;
+                    }
+                    if (name.equals("addBatch")) {
+                        batch.add(parameters.clone());
+                        return null;
+                    }
+                    if (name.equals("executeBatch")) {
+                        batches++;
+                        if (failures > 0) {
+                            failures--;
+                            throw new SQLException("Simulated failure");
+                        }
+                        for (Object[] row : batch) {
+                            transaction.add(sql.startsWith("DELETE") ? new Object[] { row[0], null } : new Object[] {
+                                    row[0], row[1] });
+                        }
+                        if (autoCommit[0]) {
+                            apply(transaction);
+                            transaction.clear();
+                        }
+                        return new int[batch.size()];
+                    }
+                    if (name.equals("executeQuery"))
+                        return resultSet(select((String) parameters[0]));
+                    if (name.equals("close"))
+                        return null;
+                    throw new UnsupportedOperationException(name);
+                }
+            });
+        }
+
+        private ResultSet resultSet(final byte[] token) {
+            final boolean[] before = { true };
+
+            return proxy(ResultSet.class, new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    String name = method.getName();
+                    if (name.equals("next")) {
+                        boolean next = before[0] && token != null;
+                        before[0] = false;
+                        return next;
+                    }
+                    if (name.equals("getBytes"))
+                        return token;
+                    if (name.equals("getMetaData"))
+                        return metaData();
+                    if (name.equals("close"))
+                        return null;
+                    throw new UnsupportedOperationException(name);
+                }
+            });
+        }
+
+        private ResultSetMetaData metaData() {
+            return proxy(ResultSetMetaData.class, new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    if (method.getName().equals("getColumnType"))
+                        return textColumn ? Types.CLOB : Types.BLOB;
+                    throw new UnsupportedOperationException(method.getName());
+                }
+            });
+        }
+
+        private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+            return type.cast(Proxy.newProxyInstance(JDBCTokenRegistryUnitTestCase.class.getClassLoader(),
+                    new Class<?>[] { type }, handler));
+        }
+    }
+
+    /**
+     * Binds the in-memory data source under {@code java:comp/env}
+     */
+    public static class TestContextFactory implements InitialContextFactory {
+        public Context getInitialContext(Hashtable<?, ?> environment) {
+            return Database.proxy(Context.class, new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    String name = method.getName();
+                    if (name.equals("lookup") && "java:comp/env".equals(args[0]))
+                        return proxy;
+                    if (name.equals("lookup") && JNDI_NAME.equals(args[0]))
+                        return database.dataSource();
+                    if (name.equals("close"))
+                        return null;
+                    throw new UnsupportedOperationException(name);
+                }
+            });
+        }
+    }
+}
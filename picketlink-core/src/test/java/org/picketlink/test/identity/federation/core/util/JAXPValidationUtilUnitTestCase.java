@@ -0,0 +1,79 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.test.identity.federation.core.util;
+
+import junit.framework.TestCase;
+
+import org.picketlink.identity.federation.core.exceptions.ProcessingException;
+import org.picketlink.identity.federation.core.saml.v2.util.DocumentUtil;
+import org.picketlink.identity.federation.core.util.JAXPValidationUtil;
+import org.w3c.dom.Document;
+
+/**
+ * Unit test the validation modes of the {@link JAXPValidationUtil}
+ */
+public class JAXPValidationUtilUnitTestCase extends TestCase {
+
+    // The assertion misses the required ID, Version and IssueInstant attributes
+    private static final String INVALID_ASSERTION = "<saml:Assertion xmlns:saml=\"urn:oasis:names:tc:SAML:2.0:assertion\">"
+            + "<saml:Issuer>urn:issuer</saml:Issuer></saml:Assertion>";
+
+    @Override
+    protected void tearDown() throws Exception {
+        System.clearProperty(JAXPValidationUtil.SCHEMA_VALIDATION_MODE);
+    }
+
+    public void testNeverValidate() throws Exception {
+        System.setProperty(JAXPValidationUtil.SCHEMA_VALIDATION_MODE, "never");
+
+        JAXPValidationUtil.checkSchemaValidation(DocumentUtil.getDocument(INVALID_ASSERTION));
+    }
+
+    public void testAlwaysValidate() throws Exception {
+        System.setProperty(JAXPValidationUtil.SCHEMA_VALIDATION_MODE, "true");
+
+        Document document = DocumentUtil.getDocument(INVALID_ASSERTION);
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                JAXPValidationUtil.checkSchemaValidation(document);
+                fail("Invalid assertion was not validated");
+            } catch (ProcessingException expected) {
+            }
+        }
+    }
+
+    public void testValidateFirstPerIssuer() throws Exception {
+        System.setProperty(JAXPValidationUtil.SCHEMA_VALIDATION_MODE, "first:1");
+
+        Document document = DocumentUtil.getDocument(INVALID_ASSERTION);
+
+        try {
+            JAXPValidationUtil.checkSchemaValidation(document);
+            fail("Invalid assertion was not validated");
+        } catch (ProcessingException expected) {
+        }
+
+        // only the first document of the issuer is validated
+        JAXPValidationUtil.checkSchemaValidation(document);
+    }
+}
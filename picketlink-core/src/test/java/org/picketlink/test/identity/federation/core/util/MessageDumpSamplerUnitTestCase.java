@@ -0,0 +1,57 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.test.identity.federation.core.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import org.junit.Test;
+import org.picketlink.identity.federation.core.util.MessageDumpSampler;
+
+/**
+ * Unit test the {@link MessageDumpSampler}
+ */
+public class MessageDumpSamplerUnitTestCase {
+
+    @Test
+    public void sampleEveryNth() throws Exception {
+        MessageDumpSampler sampler = new MessageDumpSampler(3);
+        StringBuilder picked = new StringBuilder();
+
+        for (int i = 0; i < 9; i++) {
+            picked.append(sampler.sample() ? 'x' : '-');
+        }
+
+        assertEquals("--x--x--x", picked.toString());
+    }
+
+    @Test
+    public void disabled() throws Exception {
+        MessageDumpSampler sampler = new MessageDumpSampler(0);
+
+        for (int i = 0; i < 10; i++) {
+            assertFalse(sampler.sample());
+        }
+
+        assertFalse(MessageDumpSampler.getSharedSampler().sample());
+    }
+}
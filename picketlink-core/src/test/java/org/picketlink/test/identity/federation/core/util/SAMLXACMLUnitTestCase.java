@@ -21,7 +21,9 @@
  */
 package org.picketlink.test.identity.federation.core.util;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.io.InputStream;
@@ -29,8 +31,10 @@ import java.io.InputStream;
 import org.jboss.security.xacml.core.model.context.RequestType;
 import org.junit.Test;
 import org.picketlink.identity.federation.core.parsers.saml.SAMLParser;
+import org.picketlink.identity.federation.core.saml.v2.util.SAMLXACMLUtil;
 import org.picketlink.identity.federation.saml.v2.protocol.RequestAbstractType;
 import org.picketlink.identity.federation.saml.v2.protocol.XACMLAuthzDecisionQueryType;
+import org.w3c.dom.Document;
 
 /**
  * Read a SAML-XACML request
@@ -79,4 +83,25 @@ public class SAMLXACMLUnitTestCase {
         RequestType requestType = xadqt.getRequest();
         assertNotNull(requestType);
     }
-}
\ No newline at end of file
+
+    /**
+     * The XACML request is marshalled into a DOM tree and read back with the shared JAXB context
+     */
+    @Test
+    public void testSAML_XACML_Marshall() throws Exception {
+        assertSame(SAMLXACMLUtil.getJAXBContext(), SAMLXACMLUtil.getJAXBContext());
+
+        ClassLoader tcl = Thread.currentThread().getContextClassLoader();
+        InputStream is = tcl.getResourceAsStream("saml-xacml/saml-xacml-request.xml");
+
+        XACMLAuthzDecisionQueryType xadqt = (XACMLAuthzDecisionQueryType) new SAMLParser().parse(is);
+        RequestType requestType = xadqt.getRequest();
+
+        Document document = SAMLXACMLUtil.getXACMLRequest(requestType);
+        assertEquals("Request", document.getDocumentElement().getLocalName());
+
+        RequestType unmarshalled = (RequestType) SAMLXACMLUtil.unmarshall(document.getDocumentElement());
+        assertEquals(requestType.getSubject().size(), unmarshalled.getSubject().size());
+        assertEquals(requestType.getResource().size(), unmarshalled.getResource().size());
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.test.identity.federation.core.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.picketlink.identity.federation.core.saml.v2.util.DocumentUtil;
+import org.picketlink.identity.federation.core.util.SignatureValidationCache;
+import org.w3c.dom.Element;
+
+/**
+ * Unit test the {@link SignatureValidationCache}
+ */
+public class SignatureValidationCacheUnitTestCase {
+
+    private static final String ASSERTION = "<saml:Assertion xmlns:saml=\"urn:oasis:names:tc:SAML:2.0:assertion\" ID=\"ID_1\">"
+            + "<saml:Issuer>http://idp</saml:Issuer><saml:Conditions NotOnOrAfter=\"%s\"/>"
+            + "<dsig:Signature xmlns:dsig=\"http://www.w3.org/2000/09/xmldsig#\"><dsig:SignatureValue>c2lnbmF0dXJl"
+            + "</dsig:SignatureValue></dsig:Signature></saml:Assertion>";
+
+    private PublicKey publicKey;
+
+    private PublicKey otherPublicKey;
+
+    @Before
+    public void setUp() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(512);
+        this.publicKey = generator.generateKeyPair().getPublic();
+        this.otherPublicKey = generator.generateKeyPair().getPublic();
+    }
+
+    @Test
+    public void testKey() throws Exception {
+        SignatureValidationCache cache = new SignatureValidationCache();
+        Element assertion = getAssertion("2100-01-01T00:00:00Z");
+        String key = cache.getKey(assertion, this.publicKey);
+
+        assertEquals(key, cache.getKey(getAssertion("2100-01-01T00:00:00Z"), this.publicKey));
+        assertFalse(key.equals(cache.getKey(assertion, this.otherPublicKey)));
+
+        assertion.getFirstChild().getFirstChild().setNodeValue("http://attacker");
+        assertFalse(key.equals(cache.getKey(assertion, this.publicKey)));
+    }
+
+    @Test
+    public void testKeyDependsOnTheTreeShape() throws Exception {
+        SignatureValidationCache cache = new SignatureValidationCache();
+        Element siblings = DocumentUtil.getDocument("<A><B/><C/></A>").getDocumentElement();
+        Element nested = DocumentUtil.getDocument("<A><B><C/></B></A>").getDocumentElement();
+
+        assertFalse(cache.getKey(siblings, this.publicKey).equals(cache.getKey(nested, this.publicKey)));
+    }
+
+    @Test
+    public void testMovedConditionsChangeTheKey() throws Exception {
+        SignatureValidationCache cache = new SignatureValidationCache();
+        Element assertion = DocumentUtil.getDocument(
+                "<saml:Assertion xmlns:saml=\"urn:oasis:names:tc:SAML:2.0:assertion\" ID=\"ID_1\"><saml:Subject>"
+                        + "<saml:SubjectConfirmation><saml:SubjectConfirmationData/></saml:SubjectConfirmation></saml:Subject>"
+                        + "<saml:Conditions NotOnOrAfter=\"2100-01-01T00:00:00Z\"><saml:AudienceRestriction>"
+                        + "<saml:Audience>http://sp1</saml:Audience></saml:AudienceRestriction></saml:Conditions>"
+                        + "</saml:Assertion>").getDocumentElement();
+        String key = cache.getKey(assertion, this.publicKey);
+
+        // move the conditions inside the empty confirmation data, the nodes keep their document order
+        Element conditions = (Element) assertion.getLastChild();
+        assertion.getFirstChild().getFirstChild().getFirstChild().appendChild(conditions);
+
+        assertFalse(key.equals(cache.getKey(assertion, this.publicKey)));
+    }
+
+    @Test
+    public void testVerified() throws Exception {
+        SignatureValidationCache cache = new SignatureValidationCache();
+        Element assertion = getAssertion("2100-01-01T00:00:00Z");
+        String key = cache.getKey(assertion, this.publicKey);
+
+        assertFalse(cache.isVerified(key));
+        cache.verified(key, assertion);
+        assertTrue(cache.isVerified(key));
+        assertFalse(cache.isVerified(cache.getKey(assertion, this.otherPublicKey)));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+
+        cache.revoke("ID_1");
+        assertFalse(cache.isVerified(key));
+    }
+
+    @Test
+    public void testExpiredAssertionIsNotCached() throws Exception {
+        SignatureValidationCache cache = new SignatureValidationCache();
+        Element assertion = getAssertion("2000-01-01T00:00:00Z");
+        String key = cache.getKey(assertion, this.publicKey);
+
+        cache.verified(key, assertion);
+        assertFalse(cache.isVerified(key));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testTimeToLiveAndEviction() throws Exception {
+        SignatureValidationCache cache = new SignatureValidationCache(2, 50);
+
+        for (int i = 0; i < 3; i++) {
+            Element assertion = getAssertion("2100-01-01T00:00:00Z");
+            assertion.setAttribute("ID", "ID_" + i);
+            cache.verified(cache.getKey(assertion, this.publicKey), assertion);
+        }
+
+        assertEquals(2, cache.size());
+
+        Element assertion = getAssertion("2100-01-01T00:00:00Z");
+        String key = cache.getKey(assertion, this.publicKey);
+        cache.verified(key, assertion);
+        Thread.sleep(100);
+        assertFalse(cache.isVerified(key));
+    }
+
+    private Element getAssertion(String notOnOrAfter) throws Exception {
+        return DocumentUtil.getDocument(String.format(ASSERTION, notOnOrAfter)).getDocumentElement();
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.test.identity.federation.core.util;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+
+import junit.framework.TestCase;
+
+import org.picketlink.identity.federation.core.util.XMLProcessingPool;
+
+/**
+ * Unit test the {@link XMLProcessingPool}
+ */
+public class XMLProcessingPoolUnitTestCase extends TestCase {
+
+    public void testDocumentBuilderIsReusedPerThread() throws Exception {
+        final DocumentBuilder builder = XMLProcessingPool.getDocumentBuilder();
+        assertTrue(builder.isNamespaceAware());
+        assertSame(builder, XMLProcessingPool.getDocumentBuilder());
+
+        final DocumentBuilder[] otherThreadBuilder = new DocumentBuilder[1];
+        Thread thread = new Thread() {
+            public void run() {
+                try {
+                    otherThreadBuilder[0] = XMLProcessingPool.getDocumentBuilder();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        thread.start();
+        thread.join();
+
+        assertNotNull(otherThreadBuilder[0]);
+        assertNotSame(builder, otherThreadBuilder[0]);
+    }
+
+    public void testTransformerIsReset() throws Exception {
+        Transformer transformer = XMLProcessingPool.getTransformer();
+        transformer.setOutputProperty(OutputKeys.INDENT, "yes");
+
+        transformer = XMLProcessingPool.getTransformer();
+        assertEquals("no", transformer.getOutputProperty(OutputKeys.INDENT));
+        assertEquals("yes", transformer.getOutputProperty(OutputKeys.OMIT_XML_DECLARATION));
+
+        assertNotSame(transformer, XMLProcessingPool.newTransformer());
+    }
+
+    public void testFactoriesAreShared() throws Exception {
+        assertSame(XMLProcessingPool.getXMLInputFactory(), XMLProcessingPool.getXMLInputFactory());
+        assertSame(XMLProcessingPool.getXMLOutputFactory(), XMLProcessingPool.getXMLOutputFactory());
+        assertSame(XMLProcessingPool.getDatatypeFactory(), XMLProcessingPool.getDatatypeFactory());
+        assertSame(XMLProcessingPool.getXMLEventFactory(), XMLProcessingPool.getXMLEventFactory());
+    }
+
+    public void testClearReleasesInstancesOfAllThreads() throws Exception {
+        final DocumentBuilder builder = XMLProcessingPool.getDocumentBuilder();
+        final Transformer transformer = XMLProcessingPool.getTransformer();
+
+        Thread thread = new Thread() {
+            public void run() {
+                XMLProcessingPool.clear();
+            }
+        };
+        thread.start();
+        thread.join();
+
+        assertNotSame(builder, XMLProcessingPool.getDocumentBuilder());
+        assertNotSame(transformer, XMLProcessingPool.getTransformer());
+        assertSame(XMLProcessingPool.getDocumentBuilder(), XMLProcessingPool.getDocumentBuilder());
+    }
+}
@@ -81,6 +81,7 @@ import org.picketlink.identity.federation.core.wstrust.plugins.saml.SAMLUtil;
 import org.picketlink.identity.federation.core.wstrust.wrappers.BaseRequestSecurityTokenResponse;
 import org.picketlink.identity.federation.core.wstrust.wrappers.Lifetime;
 import org.picketlink.identity.federation.core.wstrust.wrappers.RequestSecurityToken;
+import org.picketlink.identity.federation.core.wstrust.wrappers.RequestSecurityTokenCollection;
 import org.picketlink.identity.federation.core.wstrust.wrappers.RequestSecurityTokenResponse;
 import org.picketlink.identity.federation.core.wstrust.wrappers.RequestSecurityTokenResponseCollection;
 import org.picketlink.identity.federation.core.wstrust.writers.WSTrustRequestWriter;
@@ -369,6 +370,56 @@ public class PicketLinkSTSUnitTestCase {
         this.validateSAMLAssertionResponse(baseResponse, "testcontext", "jduke", SAMLUtil.SAML2_BEARER_URI);
     }
 
+    /**
+     * <p>
+     * This test sends a collection of token requests to the STS, which must answer with one response per request, in the
+     * order of the requests.
+     * </p>
+     *
+     * @throws Exception if an error occurs while running the test.
+     */
+    @Test
+    public void testInvokeRequestCollection() throws Exception {
+        this.invokeRequestCollection();
+    }
+
+    /**
+     * <p>
+     * Once the endpoint was destroyed, the requests of a collection are handled by the calling thread.
+     * </p>
+     *
+     * @throws Exception if an error occurs while running the test.
+     */
+    @Test
+    public void testInvokeRequestCollectionAfterDestroy() throws Exception {
+        this.invokeRequestCollection();
+        this.tokenService.destroy();
+        this.invokeRequestCollection();
+    }
+
+    private void invokeRequestCollection() throws Exception {
+        RequestSecurityTokenCollection requestCollection = new RequestSecurityTokenCollection();
+        for (int i = 0; i < 5; i++) {
+            requestCollection.addRequestSecurityToken(this.createRequest("testcontext" + i,
+                    WSTrustConstants.BATCH_ISSUE_REQUEST, SAMLUtil.SAML2_TOKEN_TYPE, null));
+        }
+        DOMResult result = new DOMResult(DocumentUtil.createDocument());
+        new WSTrustRequestWriter(result).write(requestCollection);
+
+        Source responseMessage = this.tokenService.invoke(new DOMSource(result.getNode()));
+        BaseRequestSecurityTokenResponse baseResponse = (BaseRequestSecurityTokenResponse) new WSTrustParser()
+                .parse(DocumentUtil.getSourceAsStream(responseMessage));
+
+        assertTrue("Unexpected response type", baseResponse instanceof RequestSecurityTokenResponseCollection);
+        List<RequestSecurityTokenResponse> responses = ((RequestSecurityTokenResponseCollection) baseResponse)
+                .getRequestSecurityTokenResponses();
+        assertEquals("Unexpected number of responses", 5, responses.size());
+        for (int i = 0; i < 5; i++) {
+            assertEquals("Unexpected response context", "testcontext" + i, responses.get(i).getContext());
+            assertNotNull("Unexpected null token", responses.get(i).getRequestedSecurityToken());
+        }
+    }
+
     /**
      * Use SOAP12
      *
@@ -0,0 +1,317 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.test.identity.federation.core.wstrust;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.ws.AsyncHandler;
+import javax.xml.ws.Dispatch;
+import javax.xml.ws.Response;
+
+import junit.framework.TestCase;
+
+import org.picketlink.identity.federation.core.saml.v2.constants.JBossSAMLURIConstants;
+import org.picketlink.identity.federation.core.saml.v2.util.DocumentUtil;
+import org.picketlink.identity.federation.core.wstrust.STSClient;
+import org.picketlink.identity.federation.core.wstrust.STSClientCallback;
+import org.picketlink.identity.federation.core.wstrust.WSTrustConstants;
+import org.picketlink.identity.federation.core.wstrust.WSTrustException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * Unit test the asynchronous requests of the {@link STSClient} and the bound on the requests in flight
+ */
+public class STSClientAsyncUnitTestCase extends TestCase {
+
+    private static final long TIMEOUT = 5000;
+
+    private AsyncDispatch dispatch;
+
+    private STSClient client;
+
+    @Override
+    protected void setUp() throws Exception {
+        dispatch = new AsyncDispatch();
+        client = new STSClient();
+        client.setDispatch(dispatch.proxy());
+    }
+
+    public void testIssueTokenAsync() throws Exception {
+        RecordingCallback<Element> callback = new RecordingCallback<Element>();
+        Future<Element> future = client.issueTokenAsync(JBossSAMLURIConstants.ASSERTION_NSURI.get(), callback);
+        assertFalse(future.isDone());
+        assertEquals(1, dispatch.calls.size());
+
+        dispatch.calls.get(0).respond(issueResponse());
+
+        Element token = future.get(TIMEOUT, TimeUnit.MILLISECONDS);
+        assertEquals("Assertion", token.getLocalName());
+        assertTrue(future.isDone());
+        assertSame(token, callback.result.get());
+        assertEquals(1, callback.completed.get());
+    }
+
+    public void testFailedRequestIsReported() throws Exception {
+        RecordingCallback<Element> callback = new RecordingCallback<Element>();
+        Future<Element> future = client.issueTokenAsync(JBossSAMLURIConstants.ASSERTION_NSURI.get(), callback);
+
+        dispatch.calls.get(0).fail(new RuntimeException("Connection refused"));
+
+        try {
+            future.get(TIMEOUT, TimeUnit.MILLISECONDS);
+            fail("The request should have failed");
+        } catch (ExecutionException expected) {
+            assertTrue(expected.getCause() instanceof WSTrustException);
+        }
+        assertTrue(callback.failure.get() instanceof WSTrustException);
+        assertEquals(0, callback.completed.get());
+    }
+
+    public void testPermitIsReleasedOnSuccessFailureAndCancel() throws Exception {
+        client.setMaxInFlight(1);
+        RecordingCallback<Element> callback = new RecordingCallback<Element>();
+
+        issueAsync(callback);
+        dispatch.calls.get(0).respond(issueResponse());
+
+        issueAsync(callback);
+        dispatch.calls.get(1).fail(new RuntimeException("Connection refused"));
+
+        Future<Element> cancelled = issueAsync(callback);
+        assertTrue(cancelled.cancel(true));
+        assertTrue(cancelled.isCancelled());
+        assertTrue(dispatch.calls.get(2).cancelled);
+        // a response arriving after the cancellation must not release the permit a second time
+        dispatch.calls.get(2).respond(issueResponse());
+        assertEquals(1, callback.completed.get());
+        assertEquals(1, callback.failed.get());
+
+        issueAsync(callback);
+        Sender blocked = new Sender();
+        blocked.start();
+        assertFalse(blocked.sent(200));
+
+        dispatch.calls.get(3).respond(issueResponse());
+        assertTrue(blocked.sent(TIMEOUT));
+    }
+
+    public void testFailureToSendReleasesPermit() throws Exception {
+        client.setMaxInFlight(1);
+        dispatch.refuse = true;
+
+        Future<Element> future = issueAsync(null);
+        assertTrue(future.isDone());
+        try {
+            future.get();
+            fail("The request should have failed");
+        } catch (ExecutionException expected) {
+        }
+
+        dispatch.refuse = false;
+        issueAsync(null);
+    }
+
+    public void testCallerBlocksWhenWindowIsFull() throws Exception {
+        client.setMaxInFlight(2);
+        issueAsync(null);
+        issueAsync(null);
+
+        Sender blocked = new Sender();
+        blocked.start();
+        assertFalse(blocked.sent(200));
+
+        dispatch.calls.get(1).respond(issueResponse());
+        assertTrue(blocked.sent(TIMEOUT));
+    }
+
+    public void testSetMaxInFlightWhileCallsAreOutstanding() throws Exception {
+        client.setMaxInFlight(2);
+        issueAsync(null);
+        issueAsync(null);
+
+        // the new window starts empty, the outstanding calls count against the old one
+        client.setMaxInFlight(1);
+        Sender first = new Sender();
+        first.start();
+        assertTrue(first.sent(TIMEOUT));
+
+        Sender second = new Sender();
+        second.start();
+        assertFalse(second.sent(200));
+
+        // the old calls return their permits to the old window
+        dispatch.calls.get(0).respond(issueResponse());
+        dispatch.calls.get(1).respond(issueResponse());
+        assertFalse(second.sent(200));
+
+        dispatch.calls.get(2).respond(issueResponse());
+        assertTrue(second.sent(TIMEOUT));
+    }
+
+    private Future<Element> issueAsync(STSClientCallback<Element> callback) throws WSTrustException {
+        return client.issueTokenAsync(JBossSAMLURIConstants.ASSERTION_NSURI.get(), callback);
+    }
+
+    private static Source issueResponse() throws Exception {
+        Document document = DocumentUtil.createDocument();
+        Element collection = document.createElementNS(WSTrustConstants.BASE_NAMESPACE,
+                "wst:RequestSecurityTokenResponseCollection");
+        Element response = document.createElementNS(WSTrustConstants.BASE_NAMESPACE, "wst:RequestSecurityTokenResponse");
+        Element requested = document.createElementNS(WSTrustConstants.BASE_NAMESPACE, "wst:RequestedSecurityToken");
+        requested.appendChild(document.createElementNS(JBossSAMLURIConstants.ASSERTION_NSURI.get(), "saml:Assertion"));
+        response.appendChild(requested);
+        collection.appendChild(response);
+        document.appendChild(collection);
+        return new DOMSource(document);
+    }
+
+    /**
+     * Sends an issue request from another thread, to observe whether the caller blocks
+     */
+    private class Sender extends Thread {
+
+        private volatile boolean sent;
+
+        public void run() {
+            try {
+                issueAsync(null);
+                sent = true;
+            } catch (WSTrustException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        boolean sent(long millis) throws InterruptedException {
+            join(millis);
+            return sent;
+        }
+    }
+
+    private static class RecordingCallback<T> implements STSClientCallback<T> {
+
+        private final AtomicInteger completed = new AtomicInteger();
+
+        private final AtomicInteger failed = new AtomicInteger();
+
+        private final AtomicReference<T> result = new AtomicReference<T>();
+
+        private final AtomicReference<WSTrustException> failure = new AtomicReference<WSTrustException>();
+
+        public void completed(T result) {
+            this.result.set(result);
+            completed.incrementAndGet();
+        }
+
+        public void failed(WSTrustException e) {
+            failure.set(e);
+            failed.incrementAndGet();
+        }
+    }
+
+    /**
+     * A {@link Dispatch} whose asynchronous calls are answered by the test
+     */
+    private static class AsyncDispatch {
+
+        private final List<Call> calls = new CopyOnWriteArrayList<Call>();
+
+        private volatile boolean refuse;
+
+        @SuppressWarnings("unchecked")
+        Dispatch<Source> proxy() {
+            return (Dispatch<Source>) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Dispatch.class },
+                    new InvocationHandler() {
+                        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                            if (method.getName().equals("invokeAsync") && args.length == 2) {
+                                if (refuse)
+                                    throw new IllegalStateException("Unable to send");
+                                Call call = new Call((AsyncHandler<Source>) args[1]);
+                                calls.add(call);
+                                return call.future();
+                            }
+                            throw new UnsupportedOperationException(method.getName());
+                        }
+                    });
+        }
+    }
+
+    private static class Call {
+
+        private final AsyncHandler<Source> handler;
+
+        private volatile boolean cancelled;
+
+        Call(AsyncHandler<Source> handler) {
+            this.handler = handler;
+        }
+
+        void respond(Source source) {
+            handler.handleResponse(response(source, null));
+        }
+
+        void fail(Exception cause) {
+            handler.handleResponse(response(null, cause));
+        }
+
+        Future<?> future() {
+            return (Future<?>) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Future.class },
+                    new InvocationHandler() {
+                        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                            if (method.getName().equals("cancel")) {
+                                cancelled = true;
+                                return true;
+                            }
+                            throw new UnsupportedOperationException(method.getName());
+                        }
+                    });
+        }
+
+        @SuppressWarnings("unchecked")
+        private Response<Source> response(final Source source, final Exception cause) {
+            return (Response<Source>) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Response.class },
+                    new InvocationHandler() {
+                        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                            if (method.getName().equals("get")) {
+                                if (cause != null)
+                                    throw new ExecutionException(cause);
+                                return source;
+                            }
+                            if (method.getName().equals("isDone"))
+                                return true;
+                            throw new UnsupportedOperationException(method.getName());
+                        }
+                    });
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.test.identity.federation.core.wstrust;
+
+import junit.framework.TestCase;
+
+import org.picketlink.identity.federation.core.wstrust.STSClient;
+import org.picketlink.identity.federation.core.wstrust.STSClientConfig;
+import org.picketlink.identity.federation.core.wstrust.STSClientCreationCallBack;
+import org.picketlink.identity.federation.core.wstrust.STSClientPool;
+
+/**
+ * Unit test the {@link STSClientPool}
+ */
+public class STSClientPoolUnitTestCase extends TestCase {
+
+    private static final String KEY = "PicketLinkSTS|PicketLinkSTSPort|http://localhost:8080/picketlink-sts/PicketLinkSTS";
+
+    private final STSClientCreationCallBack callBack = new STSClientCreationCallBack() {
+        @Override
+        public STSClient createClient() {
+            return new STSClient();
+        }
+
+        @Override
+        public String getKey() {
+            return KEY;
+        }
+    };
+
+    public void testPrewarmAndReuse() throws Exception {
+        STSClientPool pool = new STSClientPool(10) {
+        };
+        pool.initialize(2, callBack);
+        try {
+            pool.initialize(2, callBack);
+            fail("A key can only be initialized once");
+        } catch (RuntimeException expected) {
+        }
+
+        assertEquals(2, pool.getIdleCount(KEY));
+        assertEquals(2, pool.getCreatedCount(KEY));
+
+        STSClient client = pool.takeOut(KEY);
+        assertEquals(1, pool.getBorrowedCount(KEY));
+        assertEquals(1, pool.getIdleCount(KEY));
+
+        pool.putIn(KEY, client);
+        assertSame(client, pool.takeOut(KEY));
+        assertTrue(pool.putIn(client));
+        assertFalse(pool.putIn(client));
+        assertEquals(2, pool.getCreatedCount(KEY));
+    }
+
+    public void testExhaustedPoolWaitsForReturnedClient() throws Exception {
+        final STSClientPool pool = new STSClientPool(10) {
+        };
+        pool.setBorrowTimeout(5000);
+        pool.initialize(0, 1, callBack);
+
+        final STSClient client = pool.takeOut(KEY);
+        Thread returner = new Thread() {
+            public void run() {
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                }
+                pool.putIn(KEY, client);
+            }
+        };
+        returner.start();
+
+        assertSame(client, pool.takeOut(KEY));
+        returner.join();
+        assertEquals(1, pool.getCreatedCount(KEY));
+    }
+
+    public void testExhaustedPoolFailsAfterTimeout() throws Exception {
+        STSClientPool pool = new STSClientPool(10) {
+        };
+        pool.setBorrowTimeout(50);
+        pool.initialize(0, 1, callBack);
+
+        pool.takeOut(KEY);
+        try {
+            pool.takeOut(KEY);
+            fail("Pool should be exhausted");
+        } catch (RuntimeException expected) {
+        }
+        assertEquals(0, pool.getWaitingCount(KEY));
+    }
+
+    public void testIdleEviction() throws Exception {
+        STSClientPool pool = new STSClientPool(10) {
+        };
+        pool.setMaxIdleTime(1);
+        pool.initialize(1, callBack);
+
+        STSClient first = pool.takeOut(KEY);
+        STSClient second = pool.takeOut(KEY);
+        pool.putIn(KEY, first);
+        pool.putIn(KEY, second);
+        Thread.sleep(20);
+
+        pool.evictIdleClients();
+        assertEquals(1, pool.getIdleCount(KEY));
+        assertEquals(1, pool.getEvictedCount(KEY));
+    }
+
+    public void testClientsAreNotSharedBetweenCredentials() throws Exception {
+        STSClientPool pool = new STSClientPool(10) {
+        };
+
+        STSClientConfig alice = config("alice", "alicePassword");
+        STSClientConfig bob = config("bob", "bobPassword");
+
+        STSClient aliceClient = pool.takeOut(alice);
+        pool.putIn(alice, aliceClient);
+
+        assertTrue(pool.isInitialized(alice));
+        assertFalse(pool.isInitialized(bob));
+        assertNotSame(aliceClient, pool.takeOut(bob));
+        assertFalse(pool.isInitialized(config("alice", "otherPassword")));
+        assertSame(aliceClient, pool.takeOut(alice));
+    }
+
+    private STSClientConfig config(String username, String password) {
+        STSClientConfig.Builder builder = new STSClientConfig.Builder();
+        builder.serviceName("PicketLinkSTS").portName("PicketLinkSTSPort")
+                .endpointAddress("http://localhost:8080/picketlink-sts/PicketLinkSTS");
+        builder.username(username).password(password);
+        return builder.build();
+    }
+}
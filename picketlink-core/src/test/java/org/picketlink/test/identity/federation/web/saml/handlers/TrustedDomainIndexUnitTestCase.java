@@ -0,0 +1,69 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.test.identity.federation.web.saml.handlers;
+
+import junit.framework.TestCase;
+
+import org.picketlink.identity.federation.core.config.TrustType;
+import org.picketlink.identity.federation.web.util.TrustedDomainIndex;
+
+/**
+ * Unit test the {@link TrustedDomainIndex}
+ */
+public class TrustedDomainIndexUnitTestCase extends TestCase {
+
+    public void testDomains() throws Exception {
+        TrustedDomainIndex index = new TrustedDomainIndex("localhost, jboss.org,*.redhat.com");
+
+        assertTrue(index.isTrusted("localhost"));
+        assertTrue(index.isTrusted("jboss.org"));
+        assertTrue(index.isTrusted("www.jboss.org"));
+        assertTrue(index.isTrusted("WWW.JBoss.org"));
+        assertTrue(index.isTrusted("sso.redhat.com"));
+
+        assertFalse(index.isTrusted("redhat.com"));
+        assertFalse(index.isTrusted("evil-jboss.org"));
+        assertFalse(index.isTrusted("jboss.org.evil.com"));
+        assertFalse(index.isTrusted(null));
+    }
+
+    public void testSchemesAndPorts() throws Exception {
+        TrustedDomainIndex index = new TrustedDomainIndex("http://jboss.org:8080/");
+
+        assertTrue(index.isTrusted("jboss.org"));
+        assertTrue(index.isTrusted("https://www.jboss.org:8443/sales/"));
+        assertFalse(index.isTrusted("http://www.evil.com:8080/jboss.org"));
+    }
+
+    public void testDomainsChange() throws Exception {
+        TrustType trust = new TrustType();
+        trust.setDomains("jboss.org");
+
+        assertTrue(TrustedDomainIndex.getIndex(trust).isTrusted("jboss.org"));
+        assertSame(TrustedDomainIndex.getIndex(trust), TrustedDomainIndex.getIndex(trust));
+
+        trust.setDomains("redhat.com");
+
+        assertFalse(TrustedDomainIndex.getIndex(trust).isTrusted("jboss.org"));
+        assertTrue(TrustedDomainIndex.getIndex(trust).isTrusted("redhat.com"));
+    }
+}
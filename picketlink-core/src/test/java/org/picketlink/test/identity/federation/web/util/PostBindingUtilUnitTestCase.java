@@ -0,0 +1,146 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.test.identity.federation.web.util;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import junit.framework.TestCase;
+
+import org.picketlink.identity.federation.core.exceptions.ProcessingException;
+import org.picketlink.identity.federation.core.saml.v2.util.DocumentUtil;
+import org.picketlink.identity.federation.web.constants.GeneralConstants;
+import org.picketlink.identity.federation.web.util.PostBindingUtil;
+import org.picketlink.test.identity.federation.web.mock.MockHttpServletResponse;
+import org.w3c.dom.DOMException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * Unit test the HTTP/POST binding form written by {@link PostBindingUtil}
+ */
+public class PostBindingUtilUnitTestCase extends TestCase {
+
+    private static final String DESTINATION = "http://localhost:8080/sales/";
+
+    private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+
+    private int contentLength = -1;
+
+    private final MockHttpServletResponse response = new MockHttpServletResponse() {
+        public void setContentLength(int length) {
+            contentLength = length;
+        }
+    };
+
+    @Override
+    protected void setUp() throws Exception {
+        this.response.setOutputStream(this.written);
+    }
+
+    public void testSendPostDocument() throws Exception {
+        Document document = createDocument(20000);
+
+        PostBindingUtil.sendPost(DESTINATION, document, "someState", this.response, false);
+
+        String page = this.written.toString("UTF-8");
+        assertTrue(page.startsWith("<HTML>"));
+        assertTrue(page.endsWith("</FORM></BODY></HTML>"));
+        assertTrue(page.indexOf("ACTION=\"" + DESTINATION + "\"") > 0);
+        assertTrue(page.indexOf("NAME=\"RelayState\" VALUE=\"someState\"") > 0);
+        assertEquals(this.written.size(), this.contentLength);
+
+        Document posted = DocumentUtil.getDocument(new String(PostBindingUtil.base64Decode(getValue(page,
+                GeneralConstants.SAML_RESPONSE_KEY)), "UTF-8"));
+        assertEquals("Response", posted.getDocumentElement().getLocalName());
+        assertEquals(document.getDocumentElement().getTextContent(), posted.getDocumentElement().getTextContent());
+    }
+
+    public void testSendPostRequestWithoutRelayState() throws Exception {
+        PostBindingUtil.sendPost(DESTINATION, createDocument(10), null, this.response, true);
+
+        String page = this.written.toString("UTF-8");
+        assertNotNull(getValue(page, GeneralConstants.SAML_REQUEST_KEY));
+        assertTrue(page.indexOf("RelayState") < 0);
+    }
+
+    public void testFailureLeavesResponseUntouched() throws Exception {
+        // the document fails once more than a buffer of it was serialized
+        final Document document = createDocument(20000);
+        final Element root = (Element) proxy(Element.class, document.getDocumentElement(), "getNextSibling");
+        Document failing = (Document) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Document.class },
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if ("getFirstChild".equals(method.getName()) || "getDocumentElement".equals(method.getName()))
+                            return root;
+                        return invokeOn(document, method, args);
+                    }
+                });
+
+        try {
+            PostBindingUtil.sendPost(DESTINATION, failing, null, this.response, false);
+            fail("The document cannot be serialized");
+        } catch (ProcessingException expected) {
+        }
+
+        assertEquals(0, this.written.size());
+        assertEquals(-1, this.contentLength);
+    }
+
+    private Object proxy(Class<?> type, final Object target, final String failingMethod) {
+        return Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { type }, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (failingMethod.equals(method.getName()))
+                    throw new DOMException(DOMException.INVALID_STATE_ERR, "Document changed while it was serialized");
+                return invokeOn(target, method, args);
+            }
+        });
+    }
+
+    private Object invokeOn(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private Document createDocument(int length) throws Exception {
+        StringBuilder builder = new StringBuilder("<samlp:Response xmlns:samlp=\"urn:oasis:names:tc:SAML:2.0:protocol\">");
+
+        for (int i = 0; i < length; i++)
+            builder.append((char) ('a' + i % 26));
+
+        return DocumentUtil.getDocument(builder.append("</samlp:Response>").toString());
+    }
+
+    private String getValue(String page, String name) {
+        String start = "NAME=\"" + name + "\" VALUE=\"";
+        int index = page.indexOf(start);
+        assertTrue(index > 0);
+        index += start.length();
+        return page.substring(index, page.indexOf('"', index));
+    }
+}